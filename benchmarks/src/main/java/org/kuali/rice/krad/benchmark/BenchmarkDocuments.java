@@ -0,0 +1,48 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.io.IOException;
+
+/**
+ * ====
+ * CU Customization:
+ * Builds the maintainable XML and maintenance document contents used by
+ * the benchmarks, with LegacyMaintainableXMLGenerator and a fixed seed so
+ * that every run measures the same documents. The legacy share controls
+ * how much of the XML the conversion rules have to rewrite.
+ * ====
+ */
+final class BenchmarkDocuments {
+
+	static final long SEED = 20140101L;
+
+	private static LegacyMaintainableXMLGenerator generator;
+
+	private BenchmarkDocuments() {
+	}
+
+	/**
+	 * @param size the approximate size of the maintainable XML, in characters
+	 * @param legacyShare the share (0 to 1) of convertible elements written in the legacy form
+	 * @return maintainable XML, including its maintenance action
+	 */
+	static String createMaintainableXml(int size, double legacyShare) throws IOException {
+		return getGenerator().createMaintainableXml(SEED, size, legacyShare);
+	}
+
+	/**
+	 * @param size the approximate size of the document contents, in characters
+	 * @param legacyShare the share (0 to 1) of convertible elements written in the legacy form
+	 * @return maintenance document contents with old and new maintainables
+	 */
+	static String createDocumentContents(int size, double legacyShare) throws IOException {
+		return getGenerator().createDocumentContents(SEED, size, legacyShare);
+	}
+
+	private static synchronized LegacyMaintainableXMLGenerator getGenerator() throws IOException {
+		if (generator == null) {
+			generator = LegacyMaintainableXMLGenerator.forDefaultRules();
+		}
+		return generator;
+	}
+
+}
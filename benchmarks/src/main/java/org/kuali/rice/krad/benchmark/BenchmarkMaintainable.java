@@ -0,0 +1,21 @@
+package org.kuali.rice.krad.benchmark;
+
+import org.kuali.rice.krad.maintenance.MaintainableImpl;
+
+/**
+ * ====
+ * CU Customization:
+ * Maintainable for the benchmark documents, with notes always enabled
+ * (instead of asking the data object metadata service).
+ * ====
+ */
+public class BenchmarkMaintainable extends MaintainableImpl {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public boolean isNotesEnabled() {
+		return true;
+	}
+
+}
@@ -0,0 +1,29 @@
+package org.kuali.rice.krad.benchmark;
+
+import org.kuali.rice.krad.maintenance.Maintainable;
+import org.kuali.rice.krad.maintenance.MaintenanceDocumentBase;
+
+/**
+ * ====
+ * CU Customization:
+ * Maintenance document for the benchmarks, which resolves its maintainable
+ * class without workflow or the data dictionary.
+ * ====
+ */
+public class BenchmarkMaintenanceDocument extends MaintenanceDocumentBase {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String DOCUMENT_TYPE_NAME = "BenchmarkMaintenanceDocument";
+
+	@Override
+	protected String getDocumentTypeNameForMaintainable() {
+		return DOCUMENT_TYPE_NAME;
+	}
+
+	@Override
+	protected Class<? extends Maintainable> getMaintainableClassForDocumentType(String documentTypeName) {
+		return BenchmarkMaintainable.class;
+	}
+
+}
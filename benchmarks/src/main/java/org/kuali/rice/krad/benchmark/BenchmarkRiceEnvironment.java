@@ -0,0 +1,146 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import javax.xml.namespace.QName;
+
+import org.kuali.rice.core.api.CoreConstants;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.api.resourceloader.GlobalResourceLoader;
+import org.kuali.rice.core.framework.resourceloader.BaseResourceLoader;
+import org.kuali.rice.core.framework.resourceloader.SimpleServiceLocator;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+import org.kuali.rice.krad.bo.DocumentHeader;
+import org.kuali.rice.krad.service.DocumentHeaderService;
+import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.KRADServiceLocator;
+import org.kuali.rice.krad.service.KRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.XmlObjectSerializerService;
+import org.kuali.rice.krad.service.impl.MaintainableXMLConversionServiceImpl;
+
+/**
+ * ====
+ * CU Customization:
+ * Minimal Rice environment for the benchmarks: a configuration with the
+ * default conversion rules, and a resource loader holding the real
+ * conversion service along with stubs of the services that the document
+ * load path needs. The stubbed XML object serializer does not run
+ * XStream, so the document load benchmarks measure the envelope parsing,
+ * conversion and notes extraction around it rather than XStream itself.
+ * ====
+ */
+final class BenchmarkRiceEnvironment {
+
+	static final String APPLICATION_ID = "rice-xml-converter-benchmarks";
+	static final String CONVERSION_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+
+	private static boolean initialized = false;
+
+	private BenchmarkRiceEnvironment() {
+	}
+
+	/**
+	 * Sets up the configuration and services, if that has not been done yet.
+	 */
+	static synchronized void initialize() throws Exception {
+		if (initialized) {
+			return;
+		}
+		JAXBConfigImpl config = new JAXBConfigImpl();
+		config.putProperty(CoreConstants.Config.APPLICATION_ID, APPLICATION_ID);
+		config.putProperty("maintainable.conversion.rule.file", CONVERSION_RULE_FILE);
+		// Benchmark the conversions themselves, not the cache of converted XML.
+		config.putProperty("maintainable.conversion.cache.max.bytes", "0");
+		ConfigContext.init(config);
+
+		SimpleServiceLocator serviceLocator = new SimpleServiceLocator();
+		serviceLocator.addService(new QName(ExtraKRADServiceLocatorWeb.MAINTAINABLE_XML_CONVERSION_SERVICE),
+				createConversionService());
+		serviceLocator.addService(new QName(KRADServiceLocator.XML_OBJECT_SERIALIZER_SERVICE),
+				new StubXmlObjectSerializerService());
+		serviceLocator.addService(new QName(KRADServiceLocatorWeb.DOCUMENT_HEADER_SERVICE),
+				createStubDocumentHeaderService());
+		GlobalResourceLoader.addResourceLoader(new BaseResourceLoader(new QName(APPLICATION_ID), serviceLocator));
+		GlobalResourceLoader.start();
+		initialized = true;
+	}
+
+	/**
+	 * @return a new conversion service using the default rules, with the cache of converted XML turned off
+	 */
+	static MaintainableXMLConversionServiceImpl createConversionService() throws Exception {
+		return createConversionService(true);
+	}
+
+	/**
+	 * @param useRuleSnapshot whether to load the rules from their precompiled snapshot (if present) or always parse them
+	 * @return a new conversion service using the default rules, with the cache of converted XML turned off
+	 */
+	static MaintainableXMLConversionServiceImpl createConversionService(boolean useRuleSnapshot) throws Exception {
+		MaintainableXMLConversionServiceImpl conversionService = new MaintainableXMLConversionServiceImpl();
+		conversionService.setConversionRuleFile(CONVERSION_RULE_FILE);
+		conversionService.setRuleSnapshotEnabled(useRuleSnapshot);
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.afterPropertiesSet();
+		return conversionService;
+	}
+
+	/*
+	 * Only the document header class is needed, when constructing documents; a proxy keeps the stub independent
+	 * of the rest of the interface.
+	 */
+	private static DocumentHeaderService createStubDocumentHeaderService() {
+		return (DocumentHeaderService) Proxy.newProxyInstance(BenchmarkRiceEnvironment.class.getClassLoader(),
+				new Class<?>[] {DocumentHeaderService.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getDocumentHeaderBaseClass".equals(method.getName())) {
+							return DocumentHeader.class;
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Stands in for XStream: lists (notes) come back empty, so that the legacy notes fallback is exercised where
+	 * legacy notes exist, and anything else comes back as a small data object.
+	 */
+	static final class StubXmlObjectSerializerService implements XmlObjectSerializerService {
+		@Override
+		public String toXml(Object object) {
+			return "";
+		}
+
+		@Override
+		public Object fromXml(String xml) {
+			int start = 0;
+			while (start < xml.length() && Character.isWhitespace(xml.charAt(start))) {
+				start++;
+			}
+			if (xml.startsWith("<list", start) || xml.startsWith("<org.apache.ojb.broker.core.proxy.ListProxyDefaultImpl", start)) {
+				return new ArrayList<Object>();
+			}
+			return new StubDataObject(xml.length());
+		}
+	}
+
+	/**
+	 * The data object returned by the stub serializer.
+	 */
+	static final class StubDataObject {
+		private final int xmlLength;
+
+		StubDataObject(int xmlLength) {
+			this.xmlLength = xmlLength;
+		}
+
+		int getXmlLength() {
+			return xmlLength;
+		}
+	}
+
+}
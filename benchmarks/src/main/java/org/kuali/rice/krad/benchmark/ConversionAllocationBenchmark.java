@@ -0,0 +1,174 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.kuali.rice.krad.service.impl.MaintainableXMLConversionServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ====
+ * CU Customization:
+ * Allocation benchmarks of the streaming conversion. Each benchmark
+ * streams one maintainable into a Writer that discards its output, so
+ * that the GC profiler's gc.alloc.rate.norm (bytes per operation) counts
+ * only the conversion and not the growth of an output buffer.
+ *
+ * copyWithStax reads and writes the same XML with the same StAX factory
+ * settings and no conversion at all, as the baseline of what StAX itself
+ * allocates. The difference between the two, divided by the document's
+ * element count (logged at setup), is what the conversion allocates per
+ * element; comparing the sizes shows whether that grows with the
+ * document. The output is not indented, since indenting is not part of
+ * the conversion.
+ * ====
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConversionAllocationBenchmark {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(ConversionAllocationBenchmark.class);
+
+	private static final String ROOT_ELEMENT_NAME = "maintainableDocumentContents";
+
+	@Param({"4096", "65536", "1048576"})
+	public int size;
+
+	@Param({"0.0", "1.0"})
+	public double legacyShare;
+
+	private MaintainableXMLConversionServiceImpl conversionService;
+	private XMLInputFactory xmlInputFactory;
+	private XMLOutputFactory xmlOutputFactory;
+	private final DiscardingWriter discardingWriter = new DiscardingWriter();
+	private String maintainableXml;
+	// The maintainable XML within a root element, since StAX on its own cannot read a fragment.
+	private String documentXml;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkRiceEnvironment.initialize();
+		conversionService = BenchmarkRiceEnvironment.createConversionService();
+		conversionService.setFormatOutput(false);
+		xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		xmlOutputFactory = XMLOutputFactory.newInstance();
+		maintainableXml = BenchmarkDocuments.createMaintainableXml(size, legacyShare);
+		documentXml = "<" + ROOT_ELEMENT_NAME + ">" + maintainableXml + "</" + ROOT_ELEMENT_NAME + ">";
+		LOG.info("Benchmark document of size " + size + " and legacy share " + legacyShare + " has " + countElements()
+				+ " elements");
+	}
+
+	@Benchmark
+	public long transformMaintainableXML() throws XMLStreamException {
+		discardingWriter.count = 0L;
+		conversionService.transformMaintainableXML(new StringReader(maintainableXml), discardingWriter);
+		return discardingWriter.count;
+	}
+
+	@Benchmark
+	public long copyWithStax() throws XMLStreamException {
+		discardingWriter.count = 0L;
+		XMLStreamReader xmlReader = xmlInputFactory.createXMLStreamReader(new StringReader(documentXml));
+		XMLStreamWriter xmlWriter = xmlOutputFactory.createXMLStreamWriter(discardingWriter);
+		try {
+			copy(xmlReader, xmlWriter);
+			xmlWriter.flush();
+		} finally {
+			xmlReader.close();
+			xmlWriter.close();
+		}
+		return discardingWriter.count;
+	}
+
+	private static void copy(XMLStreamReader xmlReader, XMLStreamWriter xmlWriter) throws XMLStreamException {
+		while (xmlReader.hasNext()) {
+			switch (xmlReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				xmlWriter.writeStartElement(xmlReader.getLocalName());
+				for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+					xmlWriter.writeAttribute(xmlReader.getAttributeLocalName(i), xmlReader.getAttributeValue(i));
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				xmlWriter.writeEndElement();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				xmlWriter.writeCharacters(xmlReader.getTextCharacters(), xmlReader.getTextStart(), xmlReader.getTextLength());
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private long countElements() throws XMLStreamException {
+		XMLStreamReader xmlReader = xmlInputFactory.createXMLStreamReader(new StringReader(documentXml));
+		long elementCount = 0L;
+		try {
+			while (xmlReader.hasNext()) {
+				if (xmlReader.next() == XMLStreamConstants.START_ELEMENT) {
+					elementCount++;
+				}
+			}
+		} finally {
+			xmlReader.close();
+		}
+		// Leave out the root element, which the conversion does not see.
+		return elementCount - 1L;
+	}
+
+	/**
+	 * Counts what is written to it, and otherwise throws it away.
+	 */
+	private static final class DiscardingWriter extends Writer {
+		long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(int c) {
+			count++;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kuali.rice.krad.service.impl.MaintainableXMLConversionServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ====
+ * CU Customization:
+ * Benchmarks of transformMaintainableXML and of the conversion pre-scan,
+ * across maintainable sizes (in characters) and shares of legacy content.
+ * ====
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+	@Param({"4096", "65536", "1048576"})
+	public int size;
+
+	@Param({"0.0", "0.1", "1.0"})
+	public double legacyShare;
+
+	private MaintainableXMLConversionServiceImpl conversionService;
+	private String maintainableXml;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkRiceEnvironment.initialize();
+		conversionService = BenchmarkRiceEnvironment.createConversionService();
+		maintainableXml = BenchmarkDocuments.createMaintainableXml(size, legacyShare);
+	}
+
+	@Benchmark
+	public String transformMaintainableXML() {
+		return conversionService.transformMaintainableXML(maintainableXml);
+	}
+
+	@Benchmark
+	public boolean isConversionNeeded() {
+		return conversionService.isConversionNeeded(maintainableXml);
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kuali.rice.krad.bo.Note;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ====
+ * CU Customization:
+ * Benchmarks of MaintenanceDocumentBase's document population: splitting
+ * the document contents, converting legacy maintainables, and (for the
+ * second benchmark) extracting the notes, including the legacy notes
+ * fallback. XStream itself is stubbed out; see BenchmarkRiceEnvironment.
+ * ====
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentLoadBenchmark {
+
+	@Param({"4096", "65536", "1048576"})
+	public int size;
+
+	@Param({"0.0", "0.1", "1.0"})
+	public double legacyShare;
+
+	private BenchmarkMaintenanceDocument document;
+	private String documentContents;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkRiceEnvironment.initialize();
+		documentContents = BenchmarkDocuments.createDocumentContents(size, legacyShare);
+		document = new BenchmarkMaintenanceDocument();
+	}
+
+	@Benchmark
+	public Object populateMaintainables() {
+		loadDocumentContents();
+		return document.getNewMaintainableObject().getDataObject();
+	}
+
+	@Benchmark
+	public List<Note> populateMaintainablesAndNotes() {
+		loadDocumentContents();
+		return document.getNotes();
+	}
+
+	/*
+	 * The document reuses the split of its contents for the same String instance, so each invocation gets a new
+	 * instance (sharing the same characters) to make it split the contents again, as a freshly loaded document would.
+	 */
+	private void loadDocumentContents() {
+		document.setXmlDocumentContents(new String(documentContents));
+		document.populateMaintainablesFromXmlDocumentContents();
+	}
+
+}
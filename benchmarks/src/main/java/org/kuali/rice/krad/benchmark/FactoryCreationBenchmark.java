@@ -0,0 +1,98 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ====
+ * CU Customization:
+ * Benchmarks of the StAX setup done for each conversion, with the
+ * factories looked up and configured on every call (as before they were
+ * cached) and with factories set up once, as the conversion service now
+ * keeps them. Each benchmark creates the reader and writer that a
+ * conversion uses and reads the maintainable through them. Small
+ * documents show the setup cost best, since it does not depend on the
+ * document.
+ * ====
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FactoryCreationBenchmark {
+
+	private static final String ROOT_ELEMENT_NAME = "maintainableDocumentContents";
+
+	@Param({"1024", "16384"})
+	public int size;
+
+	private XMLInputFactory xmlInputFactory;
+	private XMLOutputFactory xmlOutputFactory;
+	// The maintainable XML within a root element, since StAX on its own cannot read a fragment.
+	private String maintainableXml;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkRiceEnvironment.initialize();
+		xmlInputFactory = createXMLInputFactory();
+		xmlOutputFactory = XMLOutputFactory.newInstance();
+		maintainableXml = "<" + ROOT_ELEMENT_NAME + ">" + BenchmarkDocuments.createMaintainableXml(size, 1.0)
+				+ "</" + ROOT_ELEMENT_NAME + ">";
+	}
+
+	@Benchmark
+	public int readWithNewStaxFactories() throws Exception {
+		return read(createXMLInputFactory(), XMLOutputFactory.newInstance());
+	}
+
+	@Benchmark
+	public int readWithCachedStaxFactories() throws Exception {
+		return read(xmlInputFactory, xmlOutputFactory);
+	}
+
+	private static XMLInputFactory createXMLInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/*
+	 * Reads the maintainable to the end, with a writer open like in a conversion, and returns the number of events.
+	 */
+	private int read(XMLInputFactory inputFactory, XMLOutputFactory outputFactory) throws Exception {
+		XMLStreamReader xmlReader = inputFactory.createXMLStreamReader(new StringReader(maintainableXml));
+		XMLStreamWriter xmlWriter = outputFactory.createXMLStreamWriter(new StringWriter());
+		int eventCount = 0;
+		try {
+			while (xmlReader.hasNext()) {
+				xmlReader.next();
+				eventCount++;
+			}
+		} finally {
+			xmlReader.close();
+			xmlWriter.close();
+		}
+		return eventCount;
+	}
+
+}
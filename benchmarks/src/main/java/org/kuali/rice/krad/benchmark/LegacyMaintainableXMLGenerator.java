@@ -0,0 +1,590 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * ====
+ * CU Customization:
+ * Seeded generator of synthetic Rice 1.x-style maintainable XML, for
+ * benchmarks and stress tests that should not depend on production data.
+ *
+ * The business object classes, their renamed and removed properties, the
+ * legacy class names and the date properties all come from a conversion
+ * rules file (by default, MaintainableXMLUpgradeRules.xml). Documents are
+ * built from nested business objects with TypedArrayList/ListProxyDefaultImpl
+ * lists, serialization="custom" maps, boNotes, autoIncrementSet and date-only
+ * values, each of which is written in its legacy form with the given
+ * probability and in its current form otherwise. A legacy share of 0 thus
+ * produces XML that needs no conversion at all, and a share of 1 produces
+ * XML in which every such element has to be rewritten.
+ *
+ * Output is streamed to a Writer until it reaches the requested size, so
+ * documents of any size (such as 100 MB) can be generated with a small
+ * heap. The same rules, seed, size and share always give the same output.
+ *
+ * It can also be run from the command line to write a corpus of document
+ * files; see main(String[]).
+ * ====
+ */
+public class LegacyMaintainableXMLGenerator {
+
+	public static final String DEFAULT_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+
+	private static final String CLASS_PROPERTIES_RULE_NAME = "maint_doc_changed_class_properties";
+	private static final String DATE_CHANGES_RULE_NAME = "maint_doc_date_changes";
+	private static final String GLOBAL_CLASS = "*";
+	private static final String ATTRIBUTE_KEY_SUFFIX = "(ATTR)";
+
+	private static final String TYPED_ARRAY_LIST_CLASS = "org.kuali.rice.kns.util.TypedArrayList";
+	private static final String LIST_PROXY_CLASS = "org.apache.ojb.broker.core.proxy.ListProxyDefaultImpl";
+	private static final String LEGACY_NOTE_CLASS = "org.kuali.rice.kns.bo.Note";
+	private static final String CURRENT_NOTE_CLASS = "org.kuali.rice.krad.bo.Note";
+	private static final String MAINTAINABLE_IMPL_CLASS = "org.kuali.rice.kns.maintenance.KualiMaintainableImpl";
+	private static final String MAINTENANCE_ACTION = "Edit";
+	private static final String DATE_VALUE = "2010-05-09";
+
+	private static final String[] COLLECTION_PROPERTY_NAMES = {"rules", "responsibilities", "children", "details", "members"};
+	private static final String[] REFERENCE_PROPERTY_NAMES = {"parent", "owner", "delegate", "template", "campus"};
+	private static final String[] MAP_PROPERTY_NAMES = {"attributes", "qualifiers", "details"};
+
+	private static final char[] CODE_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+	// Estimated length of what is still to be written when the root object's collection is closed.
+	private static final int CLOSING_RESERVE = 512;
+
+	private final List<BusinessObjectClass> businessObjectClasses;
+	private final Map<String, String> dateSuffixes;
+	private int maxDepth = 4;
+
+	/**
+	 * Creates a generator for the rules file with the given contents.
+	 *
+	 * @param rulesXml the conversion rules XML
+	 * @throws IOException if the rules cannot be read or parsed
+	 */
+	public LegacyMaintainableXMLGenerator(InputStream rulesXml) throws IOException {
+		Document rules;
+		try {
+			rules = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(rulesXml);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Could not parse the conversion rules", e);
+		}
+		Map<String, Map<String, String>> classPropertyRules = new LinkedHashMap<String, Map<String, String>>();
+		dateSuffixes = new LinkedHashMap<String, String>();
+		for (Element rule : getChildElements(rules.getDocumentElement(), "rule")) {
+			if (CLASS_PROPERTIES_RULE_NAME.equals(rule.getAttribute("name"))) {
+				for (Element classPattern : getChildElements(rule, "pattern")) {
+					Map<String, String> propertyRules = new LinkedHashMap<String, String>();
+					for (Element propertyPattern : getChildElements(classPattern, "pattern")) {
+						propertyRules.put(getChildText(propertyPattern, "match"), getChildText(propertyPattern, "replacement"));
+					}
+					classPropertyRules.put(getChildText(classPattern, "class"), propertyRules);
+				}
+			} else if (DATE_CHANGES_RULE_NAME.equals(rule.getAttribute("name"))) {
+				for (Element datePattern : getChildElements(rule, "pattern")) {
+					dateSuffixes.put(getChildText(datePattern, "match"), getChildText(datePattern, "replacement"));
+				}
+			}
+		}
+		businessObjectClasses = createBusinessObjectClasses(classPropertyRules);
+		if (businessObjectClasses.isEmpty()) {
+			throw new IOException("The conversion rules do not name any business object classes");
+		}
+	}
+
+	/**
+	 * @return a generator for the default conversion rules
+	 * @throws IOException if the default rules cannot be read
+	 */
+	public static LegacyMaintainableXMLGenerator forDefaultRules() throws IOException {
+		InputStream rulesXml = LegacyMaintainableXMLGenerator.class.getResourceAsStream(DEFAULT_RULE_FILE);
+		if (rulesXml == null) {
+			throw new IOException("Could not find " + DEFAULT_RULE_FILE);
+		}
+		try {
+			return new LegacyMaintainableXMLGenerator(rulesXml);
+		} finally {
+			rulesXml.close();
+		}
+	}
+
+	/*
+	 * Business object classes are the class entries naming actual classes, other than the collection
+	 * classes that the rules unwrap; their legacy names come from the global class rename entries.
+	 */
+	private static List<BusinessObjectClass> createBusinessObjectClasses(Map<String, Map<String, String>> classPropertyRules) {
+		Map<String, String> legacyClassNames = new LinkedHashMap<String, String>();
+		Map<String, String> globalRules = classPropertyRules.get(GLOBAL_CLASS);
+		if (globalRules != null) {
+			for (Map.Entry<String, String> globalRule : globalRules.entrySet()) {
+				if (classPropertyRules.containsKey(globalRule.getValue())) {
+					legacyClassNames.put(globalRule.getValue(), globalRule.getKey());
+				}
+			}
+		}
+		List<BusinessObjectClass> classes = new ArrayList<BusinessObjectClass>();
+		for (Map.Entry<String, Map<String, String>> classRules : classPropertyRules.entrySet()) {
+			String className = classRules.getKey();
+			if (className.indexOf('.') == -1 || className.startsWith("org.apache.ojb.") || TYPED_ARRAY_LIST_CLASS.equals(className)) {
+				continue;
+			}
+			List<String[]> propertyRenames = new ArrayList<String[]>();
+			for (Map.Entry<String, String> propertyRule : classRules.getValue().entrySet()) {
+				String match = propertyRule.getKey();
+				String replacement = propertyRule.getValue();
+				if (!match.endsWith(ATTRIBUTE_KEY_SUFFIX) && !replacement.startsWith("(")) {
+					propertyRenames.add(new String[] {match, replacement});
+				}
+			}
+			classes.add(new BusinessObjectClass(className, legacyClassNames.get(className), propertyRenames));
+		}
+		return classes;
+	}
+
+	/**
+	 * Generates maintainable XML (a business object followed by its maintenance action), as found inside
+	 * the old and new maintainable elements of a maintenance document.
+	 *
+	 * @param seed the random seed
+	 * @param targetChars the approximate number of characters to generate
+	 * @param legacyShare the probability (0 to 1) of each convertible element being written in its legacy form
+	 * @return the maintainable XML
+	 */
+	public String createMaintainableXml(long seed, int targetChars, double legacyShare) {
+		StringWriter out = new StringWriter(targetChars + CLOSING_RESERVE);
+		try {
+			writeMaintainableXml(out, seed, targetChars, legacyShare);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error writing to a StringWriter", e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Generates complete maintenance document contents, with identical old and new maintainables and, unless
+	 * the notes are in the legacy form, a notes element.
+	 *
+	 * @param seed the random seed
+	 * @param targetChars the approximate number of characters to generate
+	 * @param legacyShare the probability (0 to 1) of each convertible element being written in its legacy form
+	 * @return the document contents
+	 */
+	public String createDocumentContents(long seed, int targetChars, double legacyShare) {
+		StringWriter out = new StringWriter(targetChars + 2 * CLOSING_RESERVE);
+		try {
+			writeDocumentContents(out, seed, targetChars, legacyShare);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error writing to a StringWriter", e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Streams maintainable XML to the given writer; see {@link #createMaintainableXml(long, int, double)}.
+	 *
+	 * @return the number of characters written
+	 */
+	public long writeMaintainableXml(Writer out, long seed, long targetChars, double legacyShare) throws IOException {
+		Output output = new Output(out);
+		writeMaintainable(output, new Random(seed), targetChars, checkLegacyShare(legacyShare));
+		return output.count;
+	}
+
+	/**
+	 * Streams maintenance document contents to the given writer; see {@link #createDocumentContents(long, int, double)}.
+	 *
+	 * @return the number of characters written
+	 */
+	public long writeDocumentContents(Writer out, long seed, long targetChars, double legacyShare) throws IOException {
+		checkLegacyShare(legacyShare);
+		Output output = new Output(out);
+		Random random = new Random(seed);
+		boolean legacyNotes = random.nextDouble() < legacyShare;
+		output.append("<maintainableDocumentContents maintainableImplClass=\"").append(MAINTAINABLE_IMPL_CLASS).append("\">");
+		if (!legacyNotes) {
+			output.append("<notes><list>");
+			appendNote(output, random, false);
+			output.append("</list></notes>");
+		}
+		long maintainableSeed = random.nextLong();
+		long maintainableTarget = Math.max(0L, (targetChars - output.count) / 2);
+		output.append("<oldMaintainableObject>");
+		writeMaintainable(output, new Random(maintainableSeed), maintainableTarget, legacyShare);
+		output.append("</oldMaintainableObject>");
+		output.append("<newMaintainableObject>");
+		writeMaintainable(output, new Random(maintainableSeed), maintainableTarget, legacyShare);
+		output.append("</newMaintainableObject>");
+		output.append("</maintainableDocumentContents>");
+		return output.count;
+	}
+
+	/*
+	 * Writes a root business object whose main collection is filled with nested business objects (at least
+	 * one) until the target size is reached, followed by the maintenance action.
+	 */
+	private void writeMaintainable(Output output, Random random, long targetChars, double legacyShare) throws IOException {
+		long endCount = output.count + targetChars;
+		BusinessObjectClass rootClass = pick(random, businessObjectClasses);
+		String rootElementName = rootClass.getElementName(random.nextDouble() < legacyShare);
+		output.append("<").append(rootElementName).append(">\n");
+		appendProperties(output, random, rootClass, legacyShare, 1);
+
+		String collectionName = pick(random, COLLECTION_PROPERTY_NAMES);
+		boolean legacyCollection = random.nextDouble() < legacyShare;
+		appendCollectionStart(output, collectionName, legacyCollection, -1, 1);
+		do {
+			appendBusinessObject(output, random, null, pick(random, businessObjectClasses), legacyShare, 2);
+		} while (output.count + CLOSING_RESERVE < endCount);
+		appendCollectionEnd(output, collectionName, legacyCollection, 1);
+
+		output.append("</").append(rootElementName).append(">\n");
+		output.append("<maintenanceAction>").append(MAINTENANCE_ACTION).append("</maintenanceAction>\n");
+	}
+
+	/*
+	 * Writes a business object, either as a collection element (named after its class) or as a reference
+	 * property (named after the property, with the class in a "class" attribute).
+	 */
+	private void appendBusinessObject(Output output, Random random, String propertyName, BusinessObjectClass businessObjectClass,
+			double legacyShare, int depth) throws IOException {
+		String className = businessObjectClass.getElementName(random.nextDouble() < legacyShare);
+		indent(output, depth);
+		if (propertyName == null) {
+			output.append("<").append(className).append(">\n");
+		} else {
+			output.append("<").append(propertyName).append(" class=\"").append(className).append("\">\n");
+		}
+		appendProperties(output, random, businessObjectClass, legacyShare, depth + 1);
+		indent(output, depth);
+		output.append("</").append(propertyName == null ? className : propertyName).append(">\n");
+	}
+
+	private void appendProperties(Output output, Random random, BusinessObjectClass businessObjectClass, double legacyShare,
+			int depth) throws IOException {
+		for (String[] propertyRename : businessObjectClass.propertyRenames) {
+			boolean legacy = random.nextDouble() < legacyShare;
+			String propertyName = legacy ? propertyRename[0] : propertyRename[1];
+			if (propertyName.length() == 0) {
+				continue;
+			}
+			if (dateSuffixes.containsKey(propertyRename[0]) || dateSuffixes.containsKey(propertyRename[1])) {
+				appendDateProperty(output, propertyName, legacy ? null : dateSuffixes.get(propertyName), depth);
+			} else {
+				appendSimpleProperty(output, random, propertyName, depth);
+			}
+		}
+		indent(output, depth);
+		output.append("<versionNumber>").append(1 + random.nextInt(20)).append("</versionNumber>\n");
+		indent(output, depth);
+		output.append("<objectId>").append(randomCode(random, 36)).append("</objectId>\n");
+
+		for (Map.Entry<String, String> dateSuffix : dateSuffixes.entrySet()) {
+			if (!businessObjectClass.propertyNames.contains(dateSuffix.getKey()) && random.nextInt(3) == 0) {
+				appendDateProperty(output, dateSuffix.getKey(), (random.nextDouble() < legacyShare) ? null : dateSuffix.getValue(),
+						depth);
+			}
+		}
+
+		if (random.nextDouble() < legacyShare) {
+			indent(output, depth);
+			output.append("<boNotes class=\"").append(TYPED_ARRAY_LIST_CLASS).append("\" serialization=\"custom\">");
+			appendNote(output, random, true);
+			output.append("</boNotes>\n");
+		}
+		if (random.nextDouble() < legacyShare) {
+			indent(output, depth);
+			output.append("<autoIncrementSet>false</autoIncrementSet>\n");
+		}
+		if (random.nextInt(4) == 0) {
+			appendMap(output, random, pick(random, MAP_PROPERTY_NAMES), random.nextDouble() < legacyShare, depth);
+		}
+
+		if (depth < maxDepth) {
+			if (random.nextInt(2) == 0) {
+				appendBusinessObject(output, random, pick(random, REFERENCE_PROPERTY_NAMES), pick(random, businessObjectClasses),
+						legacyShare, depth);
+			}
+			if (depth + 1 < maxDepth && random.nextInt(3) == 0) {
+				String collectionName = pick(random, COLLECTION_PROPERTY_NAMES);
+				boolean legacyCollection = random.nextDouble() < legacyShare;
+				int size = 1 + random.nextInt(3);
+				appendCollectionStart(output, collectionName, legacyCollection, size, depth);
+				for (int i = 0; i < size; i++) {
+					appendBusinessObject(output, random, null, pick(random, businessObjectClasses), legacyShare, depth + 1);
+				}
+				appendCollectionEnd(output, collectionName, legacyCollection, depth);
+			}
+		}
+	}
+
+	private void appendSimpleProperty(Output output, Random random, String propertyName, int depth) throws IOException {
+		indent(output, depth);
+		output.append("<").append(propertyName).append(">");
+		if (random.nextInt(8) == 0) {
+			output.append(randomCode(random, 4)).append(" &amp; ").append(randomCode(random, 4));
+		} else {
+			output.append(randomCode(random, 4 + random.nextInt(9)));
+		}
+		output.append("</").append(propertyName).append(">\n");
+	}
+
+	/*
+	 * Legacy dates have no time part; a null suffix writes the date in its legacy form.
+	 */
+	private void appendDateProperty(Output output, String propertyName, String suffix, int depth) throws IOException {
+		indent(output, depth);
+		output.append("<").append(propertyName).append(">").append(DATE_VALUE);
+		if (suffix != null) {
+			output.append(" ").append(suffix);
+		}
+		output.append("</").append(propertyName).append(">\n");
+	}
+
+	/*
+	 * Legacy collections are TypedArrayLists wrapping an OJB list proxy; a negative size means that the
+	 * size is not known up front, as with the root object's main collection.
+	 */
+	private void appendCollectionStart(Output output, String collectionName, boolean legacy, int size, int depth) throws IOException {
+		indent(output, depth);
+		if (!legacy) {
+			output.append("<").append(collectionName).append(">\n");
+			return;
+		}
+		output.append("<").append(collectionName).append(" class=\"").append(TYPED_ARRAY_LIST_CLASS).append("\" serialization=\"custom\">\n");
+		indent(output, depth + 1);
+		output.append("<unserializable-parents/>\n");
+		indent(output, depth + 1);
+		output.append("<").append(TYPED_ARRAY_LIST_CLASS).append("><default><listObjectType>")
+				.append(businessObjectClasses.get(0).className).append("</listObjectType></default></")
+				.append(TYPED_ARRAY_LIST_CLASS).append(">\n");
+		indent(output, depth + 1);
+		output.append("<").append(LIST_PROXY_CLASS).append(">\n");
+		if (size >= 0) {
+			indent(output, depth + 2);
+			output.append("<default><size>").append(size).append("</size></default>\n");
+			indent(output, depth + 2);
+			output.append("<int>").append(size).append("</int>\n");
+		}
+	}
+
+	private void appendCollectionEnd(Output output, String collectionName, boolean legacy, int depth) throws IOException {
+		if (legacy) {
+			indent(output, depth + 1);
+			output.append("</").append(LIST_PROXY_CLASS).append(">\n");
+		}
+		indent(output, depth);
+		output.append("</").append(collectionName).append(">\n");
+	}
+
+	/*
+	 * Legacy maps use custom serialization, with alternating key and value elements; current maps use entries.
+	 */
+	private void appendMap(Output output, Random random, String mapName, boolean legacy, int depth) throws IOException {
+		indent(output, depth);
+		output.append("<").append(mapName);
+		if (legacy) {
+			output.append(" serialization=\"custom\"");
+		}
+		output.append(" class=\"map\"><map>");
+		int size = 1 + random.nextInt(3);
+		for (int i = 0; i < size; i++) {
+			if (!legacy) {
+				output.append("<entry>");
+			}
+			output.append("<string>").append(randomCode(random, 6)).append("</string>");
+			output.append("<string>").append(randomCode(random, 10)).append("</string>");
+			if (!legacy) {
+				output.append("</entry>");
+			}
+		}
+		output.append("</map></").append(mapName).append(">\n");
+	}
+
+	private void appendNote(Output output, Random random, boolean legacy) throws IOException {
+		String noteClass = legacy ? LEGACY_NOTE_CLASS : CURRENT_NOTE_CLASS;
+		output.append("<").append(noteClass).append(">");
+		output.append("<noteIdentifier>").append(1 + random.nextInt(1000000)).append("</noteIdentifier>");
+		output.append("<noteText>").append(randomCode(random, 24)).append("</noteText>");
+		output.append("<noteTypeCode>BO</noteTypeCode>");
+		output.append("</").append(noteClass).append(">");
+	}
+
+	private static void indent(Output output, int depth) throws IOException {
+		for (int i = 0; i < depth; i++) {
+			output.append("  ");
+		}
+	}
+
+	private static String randomCode(Random random, int length) {
+		char[] code = new char[length];
+		for (int i = 0; i < length; i++) {
+			code[i] = CODE_CHARACTERS[random.nextInt(CODE_CHARACTERS.length)];
+		}
+		return new String(code);
+	}
+
+	private static <T> T pick(Random random, List<T> values) {
+		return values.get(random.nextInt(values.size()));
+	}
+
+	private static <T> T pick(Random random, T[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private static double checkLegacyShare(double legacyShare) {
+		if (legacyShare < 0.0 || legacyShare > 1.0) {
+			throw new IllegalArgumentException("The legacy share must be between 0 and 1: " + legacyShare);
+		}
+		return legacyShare;
+	}
+
+	private static List<Element> getChildElements(Element parent, String name) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+				children.add((Element) child);
+			}
+		}
+		return children;
+	}
+
+	private static String getChildText(Element parent, String name) {
+		List<Element> children = getChildElements(parent, name);
+		return children.isEmpty() ? "" : children.get(0).getTextContent().trim();
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param maxDepth the maximum element depth of nested business objects (at least 2)
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = Math.max(2, maxDepth);
+	}
+
+	/**
+	 * Writes a corpus of maintenance document files. Arguments: the output directory, the number of documents,
+	 * the minimum and maximum document sizes (with an optional K or M suffix), and optionally the legacy share
+	 * (default 0.5) and the seed (default 1). Document sizes are spread evenly on a logarithmic scale between
+	 * the minimum and maximum.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: LegacyMaintainableXMLGenerator <outputDirectory> <documentCount> <minSize> <maxSize> [legacyShare] [seed]");
+			System.err.println("Sizes are in characters, with an optional K or M suffix; for example: corpus 1000 1K 100M 0.5 1");
+			System.exit(1);
+		}
+		File outputDirectory = new File(args[0]);
+		int documentCount = Integer.parseInt(args[1]);
+		long minSize = parseSize(args[2]);
+		long maxSize = parseSize(args[3]);
+		double legacyShare = (args.length > 4) ? Double.parseDouble(args[4]) : 0.5;
+		long seed = (args.length > 5) ? Long.parseLong(args[5]) : 1L;
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Could not create " + outputDirectory);
+		}
+
+		LegacyMaintainableXMLGenerator generator = forDefaultRules();
+		Random sizes = new Random(seed);
+		double logMin = Math.log(minSize);
+		double logMax = Math.log(Math.max(minSize, maxSize));
+		for (int i = 0; i < documentCount; i++) {
+			long size = Math.round(Math.exp(logMin + (logMax - logMin) * sizes.nextDouble()));
+			File file = new File(outputDirectory, String.format(Locale.US, "document-%06d.xml", i + 1));
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 65536);
+			try {
+				generator.writeDocumentContents(out, seed + i, size, legacyShare);
+			} finally {
+				out.close();
+			}
+		}
+		System.out.println("Wrote " + documentCount + " documents to " + outputDirectory.getAbsolutePath());
+	}
+
+	private static long parseSize(String size) {
+		String value = size.trim().toUpperCase(Locale.US);
+		long multiplier = 1L;
+		if (value.endsWith("K")) {
+			multiplier = 1024L;
+			value = value.substring(0, value.length() - 1);
+		} else if (value.endsWith("M")) {
+			multiplier = 1024L * 1024L;
+			value = value.substring(0, value.length() - 1);
+		}
+		return Long.parseLong(value) * multiplier;
+	}
+
+	/*
+	 * A business object class, with its legacy name (if renamed) and its property renames (legacy name,
+	 * current name), where an empty current name means that the property was removed.
+	 */
+	private static final class BusinessObjectClass {
+		private final String className;
+		private final String legacyClassName;
+		private final List<String[]> propertyRenames;
+		private final Set<String> propertyNames;
+
+		BusinessObjectClass(String className, String legacyClassName, List<String[]> propertyRenames) {
+			this.className = className;
+			this.legacyClassName = legacyClassName;
+			this.propertyRenames = propertyRenames;
+			this.propertyNames = new HashSet<String>();
+			for (String[] propertyRename : propertyRenames) {
+				propertyNames.add(propertyRename[0]);
+				propertyNames.add(propertyRename[1]);
+			}
+		}
+
+		String getElementName(boolean legacy) {
+			return (legacy && legacyClassName != null) ? legacyClassName : className;
+		}
+	}
+
+	/*
+	 * Writer wrapper that counts the characters written.
+	 */
+	private static final class Output {
+		private final Writer out;
+		private long count = 0L;
+
+		Output(Writer out) {
+			this.out = out;
+		}
+
+		Output append(String text) throws IOException {
+			out.write(text);
+			count += text.length();
+			return this;
+		}
+
+		Output append(long number) throws IOException {
+			return append(Long.toString(number));
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package org.kuali.rice.krad.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kuali.rice.krad.service.impl.MaintainableXMLConversionServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ====
+ * CU Customization:
+ * Benchmark of conversion service startup, which reads the rules (from
+ * the precompiled snapshot when "snapshot" is true, which needs the
+ * snapshot from the main project's build, or else by parsing the rules
+ * file) and compiles the rule index (setRuleMaps, by way of
+ * afterPropertiesSet).
+ * ====
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleLoadingBenchmark {
+
+	@Param({"true", "false"})
+	public boolean snapshot;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkRiceEnvironment.initialize();
+	}
+
+	@Benchmark
+	public MaintainableXMLConversionServiceImpl loadRules() throws Exception {
+		return BenchmarkRiceEnvironment.createConversionService(snapshot);
+	}
+
+}
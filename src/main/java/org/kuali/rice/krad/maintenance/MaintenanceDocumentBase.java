@@ -15,11 +15,17 @@
  */
 package org.kuali.rice.krad.maintenance;
 
-import java.io.IOException;
+import java.io.Serializable;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -30,13 +36,12 @@ import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.Transient;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.ojb.broker.core.proxy.ProxyHelper;
+import org.kuali.rice.core.api.config.property.ConfigContext;
 import org.kuali.rice.core.api.util.RiceKeyConstants;
 import org.kuali.rice.kew.api.KewApiServiceLocator;
 import org.kuali.rice.kew.api.WorkflowDocument;
@@ -73,12 +78,16 @@ import org.kuali.rice.krad.util.documentserializer.PropertySerializabilityEvalua
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import com.thoughtworks.xstream.core.BaseException;
 
 import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.MaintainableXMLConversionLimitException;
+import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService.DataObjectLoadPath;
+import org.kuali.rice.krad.service.MaintainableXMLParallelLoadService;
+import org.kuali.rice.krad.service.MaintainableXMLWriteBackService;
 
 /**
  * ====
@@ -119,6 +128,13 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
     // ==== CU Customization: Added new constant referencing legacy BO notes tag. ====
     public static final String LEGACY_NOTES_TAG_NAME = "boNotes";
 
+    // ==== CU Customization: Added constants for the root element and its conversion rule-set version stamp. ====
+    public static final String MAINTAINABLE_DOCUMENT_CONTENTS_TAG_NAME = "maintainableDocumentContents";
+    public static final String CONVERSION_RULE_SET_VERSION = "conversionRuleSetVersion";
+
+    // ==== CU Customization: Added parameter for deferring the loading of the old maintainable until it is first used. ====
+    public static final String LAZY_OLD_MAINTAINABLE_PARAMETER = "maintainable.conversion.lazy.old.maintainable";
+
     @Transient
     private static transient DocumentDictionaryService documentDictionaryService;
     @Transient
@@ -128,6 +144,11 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
     @Transient
     private static transient DocumentService documentService;
 
+    // ==== CU Customization: Documented that the field is not yet set while the old maintainable's loading is deferred. ====
+    /**
+     * The old maintainable. While its loading is deferred (see {@link #isOldMaintainableLoadedLazily()}), this is
+     * null until {@link #getOldMaintainableObject()} is first called, so subclasses should use the getter instead.
+     */
     @Transient
     protected Maintainable oldMaintainableObject;
     @Transient
@@ -135,6 +156,21 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
 
     @Column(name = "DOC_CNTNT", length = 4096)
     protected String xmlDocumentContents;
+    // ==== CU Customization: Converted maintainable XML from the latest load, keyed by maintainable tag name. ====
+    @Transient
+    protected transient Map<String, String> convertedMaintainableXml;
+    // ==== CU Customization: Whether the loaded XML is stamped with the active conversion rule-set version. ====
+    @Transient
+    protected transient boolean xmlInCurrentFormat;
+    // ==== CU Customization: Offsets of the regions within xmlDocumentContents, from a single pass over it. ====
+    @Transient
+    private transient MaintenanceDocumentContentsRegions contentsRegions;
+    // ==== CU Customization: What is needed to load the old maintainable later, when its loading has been deferred. ====
+    @Transient
+    private PendingOldMaintainable pendingOldMaintainable;
+    // ==== CU Customization: The document contents to load the notes from when they are first requested, if still pending. ====
+    @Transient
+    private String pendingNotesDocumentContents;
     @Transient
     protected boolean fieldsClearedOnCopy;
     @Transient
@@ -239,6 +275,8 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
     @Override
     public boolean isOldDataObjectInDocument() {
         boolean isOldBusinessObjectInExistence = false;
+        // ==== CU Customization: Use the getter, so that a deferred old maintainable gets loaded. ====
+        Maintainable oldMaintainableObject = getOldMaintainableObject();
         if (oldMaintainableObject == null || oldMaintainableObject.getDataObject() == null) {
             isOldBusinessObjectInExistence = false;
         } else {
@@ -289,7 +327,8 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
         // then instantiate one to two instances depending on content
         // then populate those instances
         if (!StringUtils.isEmpty(xmlDocumentContents)) {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // ==== CU Customization: Split the XML in a single pass instead of parsing it into a DOM. ====
+            //DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             /*
              * Begin IU Customization
              *
@@ -299,18 +338,56 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
              * class which is persisted in the document content XML may be out
              * of date if it changes across version updates.
              */
+            // ==== CU Customization: Time the population for the per-document-type metrics, if enabled. ====
+            MaintainableXMLMetricsService metricsService = getEnabledMaintainableXMLMetricsService();
+            long startTime = (metricsService != null) ? System.nanoTime() : 0L;
             try {
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                Document xmlDocument = builder.parse(new InputSource(new StringReader(xmlDocumentContents)));
+                // ==== CU Customization: Forget any conversions (and any deferred old maintainable) from an earlier load. ====
+                convertedMaintainableXml = null;
+                pendingOldMaintainable = null;
+                pendingNotesDocumentContents = null;
+                MaintenanceDocumentContentsRegions regions = getContentsRegions();
+                // ==== CU Customization: XML stamped with the active rule-set version can skip the legacy XML handling. ====
+                String ruleSetVersion = getConversionRuleSetVersion();
+                xmlInCurrentFormat = ruleSetVersion != null
+                        && ruleSetVersion.equals(regions.getRootAttribute(CONVERSION_RULE_SET_VERSION));
                 //String clazz = xmlDocument.getDocumentElement().getAttribute(MAINTAINABLE_IMPL_CLASS);
-                String documentTypeName = KewApiServiceLocator.getWorkflowDocumentService().getDocument(this.getDocumentNumber()).getDocumentTypeName();
-                Class<? extends Maintainable> maintainableClass = getDocumentDictionaryService().getMaintainableClass(documentTypeName);
-                if (isOldMaintainableInDocument(xmlDocument)) {
+                // ==== CU Customization: Resolve the maintainable class without a workflow service call, where possible. ====
+                //String documentTypeName = KewApiServiceLocator.getWorkflowDocumentService().getDocument(this.getDocumentNumber()).getDocumentTypeName();
+                //Class<? extends Maintainable> maintainableClass = getDocumentDictionaryService().getMaintainableClass(documentTypeName);
+                String documentTypeName = getDocumentTypeNameForMaintainable();
+                Class<? extends Maintainable> maintainableClass = getMaintainableClassForDocumentType(documentTypeName);
+                // ==== CU Customization: Load the old and new data objects concurrently, if enabled, before wiring up the maintainables. ====
+                // ==== CU Customization: If enabled, defer the loading of the old maintainable until it is first used. ====
+                boolean loadOldMaintainable = regions.hasOldMaintainable();
+                if (loadOldMaintainable && isOldMaintainableLoadedLazily()) {
+                    pendingOldMaintainable = new PendingOldMaintainable(maintainableClass, xmlDocumentContents,
+                            regions.getMaintainableXmlStart(OLD_MAINTAINABLE_TAG_NAME),
+                            regions.getMaintainableXmlEnd(OLD_MAINTAINABLE_TAG_NAME),
+                            regions.getMaintenanceAction(OLD_MAINTAINABLE_TAG_NAME));
+                    oldMaintainableObject = null;
+                    loadOldMaintainable = false;
+                }
+                Object dataObject = null;
+                Object bo;
+                MaintainableXMLParallelLoadService parallelLoadService = ExtraKRADServiceLocatorWeb.getMaintainableXMLParallelLoadService();
+                if (loadOldMaintainable && parallelLoadService != null
+                        && parallelLoadService.isParallelLoadEnabled(xmlDocumentContents.length())) {
+                    Object[] dataObjects = getDataObjectsFromXMLInParallel(parallelLoadService);
+                    dataObject = dataObjects[0];
+                    bo = dataObjects[1];
+                } else {
+                    if (loadOldMaintainable) {
+                        dataObject = getDataObjectFromXML(OLD_MAINTAINABLE_TAG_NAME);
+                    }
+                    bo = getDataObjectFromXML(NEW_MAINTAINABLE_TAG_NAME);
+                }
+                if (loadOldMaintainable) {
                     //oldMaintainableObject = (Maintainable) Class.forName(clazz).newInstance();
                     oldMaintainableObject = (Maintainable) maintainableClass.newInstance();
-                    Object dataObject = getDataObjectFromXML(OLD_MAINTAINABLE_TAG_NAME);
+                    //Object dataObject = getDataObjectFromXML(OLD_MAINTAINABLE_TAG_NAME);
 
-                    String oldMaintenanceAction = getMaintenanceAction(xmlDocument, OLD_MAINTAINABLE_TAG_NAME);
+                    String oldMaintenanceAction = regions.getMaintenanceAction(OLD_MAINTAINABLE_TAG_NAME);
                     oldMaintainableObject.setMaintenanceAction(oldMaintenanceAction);
 
                     oldMaintainableObject.setDataObject(dataObject);
@@ -318,30 +395,41 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
                 }
                 //newMaintainableObject = (Maintainable) Class.forName(clazz).newInstance();
                 newMaintainableObject = (Maintainable) maintainableClass.newInstance();
-                Object bo = getDataObjectFromXML(NEW_MAINTAINABLE_TAG_NAME);
+                //Object bo = getDataObjectFromXML(NEW_MAINTAINABLE_TAG_NAME);
                 newMaintainableObject.setDataObject(bo);
                 newMaintainableObject.setDataObjectClass(bo.getClass());
 
-                String newMaintenanceAction = getMaintenanceAction(xmlDocument, NEW_MAINTAINABLE_TAG_NAME);
+                String newMaintenanceAction = regions.getMaintenanceAction(NEW_MAINTAINABLE_TAG_NAME);
                 newMaintainableObject.setMaintenanceAction(newMaintenanceAction);
 
                 if (newMaintainableObject.isNotesEnabled()) {
-                    List<Note> notes = getNotesFromXml(NOTES_TAG_NAME);
+                    // ==== CU Customization: Defer deserializing the notes until they are first requested. ====
+                    //List<Note> notes = getNotesFromXml(NOTES_TAG_NAME);
                     // ==== CU Customization: Retrieve notes from legacy XML if necessary. ====
-                    if (notes.isEmpty() && StringUtils.lastIndexOf(xmlDocumentContents, "<" + LEGACY_NOTES_TAG_NAME + ">",
-                    		StringUtils.lastIndexOf(xmlDocumentContents, "<" + NEW_MAINTAINABLE_TAG_NAME + ">")) != -1) {
-                    	notes = getNotesFromLegacyXml(LEGACY_NOTES_TAG_NAME);
+                    if (!xmlInCurrentFormat && regions.hasLegacyNotesBeforeNewMaintainable()) {
+                    	// The conversion drops the legacy notes, which the deferred notes loading may still need,
+                    	// so the converted XML must not replace the stored XML.
+                    	convertedMaintainableXml = null;
+                    	if (pendingOldMaintainable != null) {
+                    		pendingOldMaintainable.writeBackAllowed = false;
+                    	}
                     }
                     // ==== End CU Customization ====
-                    setNotes(notes);
+                    //setNotes(notes);
+                    pendingNotesDocumentContents = xmlDocumentContents;
                 }
-            } catch (ParserConfigurationException e) {
-                LOG.error("Error while parsing document contents", e);
-                throw new RuntimeException("Could not load document contents from xml", e);
-            } catch (SAXException e) {
-                LOG.error("Error while parsing document contents", e);
-                throw new RuntimeException("Could not load document contents from xml", e);
-            } catch (IOException e) {
+
+                // ==== CU Customization: Persist the converted XML, if enabled, so that the conversion is only done once. ====
+                // (If the old maintainable was deferred, this waits until it has been loaded too.)
+                if (pendingOldMaintainable == null) {
+                    queueConvertedXmlWriteBack();
+                }
+
+                if (metricsService != null) {
+                    metricsService.recordDocumentLoad(documentTypeName, System.nanoTime() - startTime);
+                }
+            // ==== CU Customization: Malformed XML is now reported by the splitter instead of the DOM parser. ====
+            } catch (IllegalArgumentException e) {
                 LOG.error("Error while parsing document contents", e);
                 throw new RuntimeException("Could not load document contents from xml", e);
             } catch (InstantiationException e) {
@@ -360,6 +448,378 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
         }
     }
 
+    // ==== CU Customization: Added helpers for resolving the maintainable class, loading the maintainables, splitting the XML and writing back converted XML. ====
+
+    /**
+     * Gets the name of this document's type, preferably from the workflow document already loaded into the
+     * document header. The workflow document service (potentially a remote call) is only used if the header
+     * does not have a workflow document.
+     *
+     * @return the document type name
+     */
+    protected String getDocumentTypeNameForMaintainable() {
+        DocumentHeader documentHeader = getDocumentHeader();
+        if (documentHeader != null && documentHeader.hasWorkflowDocument()) {
+            String documentTypeName = documentHeader.getWorkflowDocument().getDocumentTypeName();
+            if (StringUtils.isNotBlank(documentTypeName)) {
+                return documentTypeName;
+            }
+        }
+        return KewApiServiceLocator.getWorkflowDocumentService().getDocument(this.getDocumentNumber()).getDocumentTypeName();
+    }
+
+    /**
+     * Gets the maintainable class for the given document type from the data dictionary. It is looked up on each
+     * call, so that it always matches the current data dictionary, including one reloaded in place.
+     *
+     * @param documentTypeName the document type name
+     * @return the maintainable class
+     */
+    protected Class<? extends Maintainable> getMaintainableClassForDocumentType(String documentTypeName) {
+        return getDocumentDictionaryService().getMaintainableClass(documentTypeName);
+    }
+
+    /**
+     * Determines whether the loading of the old maintainable is deferred until {@link #getOldMaintainableObject()}
+     * is first called. Until then, the {@link #oldMaintainableObject} field is null, even within subclass hooks such
+     * as processAfterRetrieve(). Subclasses that read the field directly must either use the getter instead, or
+     * override this method to return false.
+     *
+     * @return true if the old maintainable should only be loaded when it is first used, false otherwise
+     */
+    protected boolean isOldMaintainableLoadedLazily() {
+        return Boolean.parseBoolean(ConfigContext.getCurrentContextConfig().getProperty(LAZY_OLD_MAINTAINABLE_PARAMETER));
+    }
+
+    /**
+     * @return true if the loading of the old maintainable has been deferred and has not happened yet, false otherwise
+     */
+    protected boolean isOldMaintainablePending() {
+        return pendingOldMaintainable != null;
+    }
+
+    /**
+     * Loads the deferred old maintainable, converting its XML if needed. If the document contents have not changed
+     * since they were loaded, any converted XML from that load is then queued for writing back.
+     */
+    protected void loadPendingOldMaintainable() {
+        PendingOldMaintainable pending = pendingOldMaintainable;
+        try {
+            Maintainable maintainable = pending.maintainableClass.newInstance();
+            Object dataObject = getDataObjectFromXML(OLD_MAINTAINABLE_TAG_NAME, pending.getMaintainableXml());
+            maintainable.setMaintenanceAction(pending.maintenanceAction);
+            maintainable.setDataObject(dataObject);
+            maintainable.setDataObjectClass(dataObject.getClass());
+            maintainable.setDocumentNumber(getDocumentNumber());
+            oldMaintainableObject = maintainable;
+        } catch (InstantiationException e) {
+            LOG.error("Error while parsing document contents", e);
+            throw new RuntimeException("Could not load document contents from xml", e);
+        } catch (IllegalAccessException e) {
+            LOG.error("Error while parsing document contents", e);
+            throw new RuntimeException("Could not load document contents from xml", e);
+        }
+        pendingOldMaintainable = null;
+        if (pending.writeBackAllowed && pending.documentContents == xmlDocumentContents) {
+            queueConvertedXmlWriteBack();
+        } else {
+            convertedMaintainableXml = null;
+        }
+    }
+
+    /*
+     * The old maintainable's class, region of the document contents and maintenance action, for loading it later.
+     * Serializable so that it survives session serialization; the document contents are shared with the document
+     * itself, so only the offsets add to its size. Write-back is only done in the same document instance that
+     * recorded the converted XML, which is not serialized.
+     */
+    private static final class PendingOldMaintainable implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<? extends Maintainable> maintainableClass;
+        private final String documentContents;
+        private final int maintainableXmlStart;
+        private final int maintainableXmlEnd;
+        private final String maintenanceAction;
+        private transient boolean writeBackAllowed = true;
+
+        PendingOldMaintainable(Class<? extends Maintainable> maintainableClass, String documentContents,
+                int maintainableXmlStart, int maintainableXmlEnd, String maintenanceAction) {
+            this.maintainableClass = maintainableClass;
+            this.documentContents = documentContents;
+            this.maintainableXmlStart = maintainableXmlStart;
+            this.maintainableXmlEnd = maintainableXmlEnd;
+            this.maintenanceAction = maintenanceAction;
+        }
+
+        String getMaintainableXml() {
+            return documentContents.substring(maintainableXmlStart, maintainableXmlEnd);
+        }
+    }
+
+    /**
+     * Gets the old and new data objects from the XML concurrently. The old data object is loaded by the given service's
+     * executor while the current thread loads the new one, and this method always waits for both to finish, so that
+     * neither outlives the document population. A failure from either one is rethrown as-is (a failure of the new
+     * data object taking precedence), with any failure of the other attached to it as a suppressed exception.
+     *
+     * @param parallelLoadService the service for loading the old data object
+     * @return an array containing the old data object followed by the new data object
+     */
+    protected Object[] getDataObjectsFromXMLInParallel(MaintainableXMLParallelLoadService parallelLoadService) {
+        Future<Object> oldDataObjectFuture = parallelLoadService.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return getDataObjectFromXML(OLD_MAINTAINABLE_TAG_NAME);
+            }
+        });
+
+        Object newDataObject = null;
+        Throwable newFailure = null;
+        try {
+            newDataObject = getDataObjectFromXML(NEW_MAINTAINABLE_TAG_NAME);
+        } catch (RuntimeException e) {
+            newFailure = e;
+        } catch (Error e) {
+            newFailure = e;
+        }
+
+        // Wait without giving up on interruption, since the old data object's task still works with this document.
+        Object oldDataObject = null;
+        Throwable oldFailure = null;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                oldDataObject = oldDataObjectFuture.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                oldFailure = (e.getCause() != null) ? e.getCause() : e;
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (newFailure != null) {
+            if (oldFailure != null) {
+                newFailure.addSuppressed(oldFailure);
+            }
+            throw rethrowDataObjectFailure(newFailure);
+        } else if (oldFailure != null) {
+            throw rethrowDataObjectFailure(oldFailure);
+        }
+        return new Object[] {oldDataObject, newDataObject};
+    }
+
+    /*
+     * Rethrows unchecked failures as-is, and wraps any others; the return type just lets callers use a throw statement.
+     */
+    private RuntimeException rethrowDataObjectFailure(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new RuntimeException("Could not load data object from xml", failure);
+    }
+
+    /*
+     * Gets the regions of the current document contents, splitting them only if they have changed since the last call.
+     */
+    private MaintenanceDocumentContentsRegions getContentsRegions() {
+        if (contentsRegions == null || !contentsRegions.isFor(xmlDocumentContents)) {
+            contentsRegions = new MaintenanceDocumentContentsRegions(xmlDocumentContents);
+        }
+        return contentsRegions;
+    }
+
+    /**
+     * Remembers the converted XML of a successfully deserialized maintainable, for writing back to the database.
+     * Synchronized since the old and new maintainables may be deserialized concurrently.
+     *
+     * @param maintainableTagName the xml tag name of the maintainable
+     * @param maintXml the original maintainable XML
+     * @param convertedXml the converted maintainable XML
+     */
+    protected synchronized void recordConvertedMaintainableXml(String maintainableTagName, String maintXml, String convertedXml) {
+        if (StringUtils.equals(maintXml, convertedXml)) {
+            return;
+        }
+        if (convertedMaintainableXml == null) {
+            convertedMaintainableXml = new LinkedHashMap<String, String>();
+        }
+        convertedMaintainableXml.put(maintainableTagName, convertedXml);
+    }
+
+    /**
+     * Queues the document contents, with the legacy maintainable XML replaced by its converted form, for writing back
+     * to the database. Does nothing if no conversion took place or if write-back is not enabled.
+     */
+    protected void queueConvertedXmlWriteBack() {
+        if (convertedMaintainableXml == null || convertedMaintainableXml.isEmpty() || pendingOldMaintainable != null) {
+            return;
+        }
+        Map<String, String> convertedXmlToWrite = convertedMaintainableXml;
+        convertedMaintainableXml = null;
+        if (StringUtils.isBlank(getDocumentNumber()) || getVersionNumber() == null) {
+            return;
+        }
+        MaintainableXMLWriteBackService writeBackService = ExtraKRADServiceLocatorWeb.getMaintainableXMLWriteBackService();
+        if (writeBackService == null || !writeBackService.isEnabled()) {
+            return;
+        }
+
+        String newXmlDocumentContents = spliceConvertedMaintainableXml(xmlDocumentContents, getContentsRegions(), convertedXmlToWrite);
+        if (newXmlDocumentContents == null) {
+            return;
+        }
+        String ruleSetVersion = getConversionRuleSetVersion();
+        if (ruleSetVersion != null) {
+            newXmlDocumentContents = stampConversionRuleSetVersion(newXmlDocumentContents, ruleSetVersion);
+        }
+        writeBackService.queueWriteBack(getDocumentNumber(), getVersionNumber(), newXmlDocumentContents);
+    }
+
+    /*
+     * Splices the converted XML into the maintainables' regions, which are in document order. Returns null if the
+     * regions overlap, which the splitter should never report.
+     */
+    private static String spliceConvertedMaintainableXml(String xmlDocumentContents, MaintenanceDocumentContentsRegions regions,
+            Map<String, String> convertedXml) {
+        StringBuilder newContentsBuffer = new StringBuilder(xmlDocumentContents.length() + 1024);
+        int copiedUpTo = 0;
+        for (String maintainableTagName : new String[] {OLD_MAINTAINABLE_TAG_NAME, NEW_MAINTAINABLE_TAG_NAME}) {
+            String maintainableXml = convertedXml.get(maintainableTagName);
+            if (maintainableXml == null) {
+                continue;
+            }
+            int start = regions.getMaintainableXmlStart(maintainableTagName);
+            if (start < copiedUpTo) {
+                return null;
+            }
+            newContentsBuffer.append(xmlDocumentContents, copiedUpTo, start).append(maintainableXml);
+            copiedUpTo = regions.getMaintainableXmlEnd(maintainableTagName);
+        }
+        newContentsBuffer.append(xmlDocumentContents, copiedUpTo, xmlDocumentContents.length());
+        return newContentsBuffer.toString();
+    }
+
+    /**
+     * ====
+     * CU Customization:
+     * Converts the maintainable XML in the given maintenance document contents outside of any document load, for the
+     * bulk conversion job, and stamps the result with the active rule-set version. Both maintainables are converted
+     * unconditionally, since there is no XStream attempt to fall back from, and any conversion failure is thrown
+     * instead of being swallowed.
+     * ====
+     *
+     * @param xmlDocumentContents the (decrypted) maintenance document contents
+     * @param conversionService the conversion service to use
+     * @return the converted and stamped contents; the given contents themselves if they are already stamped with the
+     * active rule-set version (or if conversion is not configured); or null if the contents cannot safely be converted
+     * outside of a document load, because they contain legacy notes that the conversion would drop
+     * @throws XMLStreamException if a maintainable could not be converted
+     * @throws MaintainableXMLConversionLimitException if converting a maintainable exceeded one of the conversion limits
+     * @throws IllegalArgumentException if the contents are not well-formed
+     */
+    public static String convertDocumentContents(String xmlDocumentContents, MaintainableXMLConversionService conversionService)
+            throws XMLStreamException {
+        String ruleSetVersion = conversionService.getRuleSetVersion();
+        MaintenanceDocumentContentsRegions regions = new MaintenanceDocumentContentsRegions(xmlDocumentContents);
+        if (ruleSetVersion == null || ruleSetVersion.equals(regions.getRootAttribute(CONVERSION_RULE_SET_VERSION))) {
+            return xmlDocumentContents;
+        }
+        if (regions.hasLegacyNotesBeforeNewMaintainable()) {
+            return null;
+        }
+        Map<String, String> convertedXml = new LinkedHashMap<String, String>();
+        for (String maintainableTagName : new String[] {OLD_MAINTAINABLE_TAG_NAME, NEW_MAINTAINABLE_TAG_NAME}) {
+            String maintXml = regions.getMaintainableXml(maintainableTagName);
+            if (maintXml == null) {
+                continue;
+            }
+            StringWriter convertedOut = new StringWriter(maintXml.length() + 1024);
+            conversionService.transformMaintainableXML(new StringReader(maintXml), convertedOut);
+            convertedXml.put(maintainableTagName, convertedOut.toString());
+        }
+        String newXmlDocumentContents = spliceConvertedMaintainableXml(xmlDocumentContents, regions, convertedXml);
+        return (newXmlDocumentContents != null) ? stampConversionRuleSetVersion(newXmlDocumentContents, ruleSetVersion) : null;
+    }
+
+    /**
+     * ====
+     * CU Customization:
+     * Splits maintenance document contents into their maintainables, for tools (such as the readiness scanner) that
+     * convert and deserialize stored documents outside of a document load.
+     * ====
+     *
+     * @param xmlDocumentContents the maintenance document contents
+     * @return the XML of the old and new maintainables, in that order, keyed by tag name (absent ones are left out)
+     * @throws IllegalArgumentException if the contents are not well-formed
+     */
+    public static Map<String, String> getMaintainableXmls(String xmlDocumentContents) {
+        MaintenanceDocumentContentsRegions regions = new MaintenanceDocumentContentsRegions(xmlDocumentContents);
+        Map<String, String> maintainableXmls = new LinkedHashMap<String, String>();
+        for (String maintainableTagName : new String[] {OLD_MAINTAINABLE_TAG_NAME, NEW_MAINTAINABLE_TAG_NAME}) {
+            String maintXml = regions.getMaintainableXml(maintainableTagName);
+            if (maintXml != null) {
+                maintainableXmls.put(maintainableTagName, maintXml);
+            }
+        }
+        return maintainableXmls;
+    }
+
+    /**
+     * @return the active conversion rule-set version, or null if conversion is not configured
+     */
+    protected String getConversionRuleSetVersion() {
+        MaintainableXMLConversionService conversionService = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+        return (conversionService != null) ? conversionService.getRuleSetVersion() : null;
+    }
+
+    /**
+     * @return the metrics service, or null if it is not configured or not enabled
+     */
+    protected MaintainableXMLMetricsService getEnabledMaintainableXMLMetricsService() {
+        MaintainableXMLMetricsService metricsService = ExtraKRADServiceLocatorWeb.getMaintainableXMLMetricsService();
+        return (metricsService != null && metricsService.isEnabled()) ? metricsService : null;
+    }
+
+    private static void recordDataObjectLoad(MaintainableXMLMetricsService metricsService, DataObjectLoadPath path, long startTime) {
+        if (metricsService != null) {
+            metricsService.recordDataObjectLoad(path, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Sets (or replaces) the conversion rule-set version stamp on the root element of the given document contents.
+     *
+     * @param documentContents the maintenance document contents
+     * @param ruleSetVersion the rule-set version to stamp
+     * @return the stamped document contents
+     */
+    protected static String stampConversionRuleSetVersion(String documentContents, String ruleSetVersion) {
+        int start = documentContents.indexOf("<" + MAINTAINABLE_DOCUMENT_CONTENTS_TAG_NAME);
+        int end = (start != -1) ? documentContents.indexOf('>', start) : -1;
+        if (end == -1) {
+            return documentContents;
+        }
+        String rootStartTag = documentContents.substring(start, end);
+        String stampPrefix = " " + CONVERSION_RULE_SET_VERSION + "=\"";
+        int stampStart = rootStartTag.indexOf(stampPrefix);
+        if (stampStart != -1) {
+            int stampEnd = rootStartTag.indexOf('"', stampStart + stampPrefix.length());
+            rootStartTag = rootStartTag.substring(0, stampStart) + rootStartTag.substring(stampEnd + 1);
+        }
+        return documentContents.substring(0, start) + rootStartTag + stampPrefix + ruleSetVersion + "\""
+                + documentContents.substring(end);
+    }
+
+    // ==== End CU Customization ====
+
     /**
      * This method is a lame containment of ugly DOM walking code. This is ONLY necessary because of the version
      * conflicts between Xalan.jar in 2.6.x and 2.7. As soon as we can upgrade to 2.7, this will be switched to using
@@ -395,11 +855,13 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
      * Get notes from XML
      *
      * @param notesTagName the xml tag name of the notes
+     * @param regions the regions of the document contents to get the notes from
      * @return list of <code>Note</code>s
      */
-    private List<Note> getNotesFromXml(String notesTagName) {
-        String notesXml = StringUtils.substringBetween(xmlDocumentContents, "<" + notesTagName + ">",
-                "</" + notesTagName + ">");
+    private List<Note> getNotesFromXml(String notesTagName, MaintenanceDocumentContentsRegions regions) {
+        // ==== CU Customization: Use the pre-split region for the notes, rather than searching the whole document again. ====
+        String notesXml = NOTES_TAG_NAME.equals(notesTagName) ? regions.getNotesXml()
+                : StringUtils.substringBetween(xmlDocumentContents, "<" + notesTagName + ">", "</" + notesTagName + ">");
         if (StringUtils.isBlank(notesXml)) {
             return Collections.emptyList();
         }
@@ -412,13 +874,12 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
 
     // ==== CU Customization: Added new method based on UCD code for converting legacy note XML. ====
 
-    private List<Note> getNotesFromLegacyXml(String notesTagName) {
-    	String[] notesXmls = StringUtils.substringsBetween(xmlDocumentContents, "<" + notesTagName + ">", "</" + notesTagName + ">");
-    	if (notesXmls == null || notesXmls.length == 0 || StringUtils.isBlank(notesXmls[notesXmls.length - 1])) {
+    private List<Note> getNotesFromLegacyXml(MaintenanceDocumentContentsRegions regions) {
+    	// Process the last legacy notes element, which should be the one on the new maintainable object.
+    	String notesXml = regions.getLastLegacyNotesXml();
+    	if (StringUtils.isBlank(notesXml)) {
     		return Collections.emptyList();
     	}
-        // Process the last substring, which should be the one on the new maintainable object.
-        String notesXml = notesXmls[notesXmls.length - 1];
         notesXml = notesXml.replace("org.kuali.rice.kns.bo.Note", "org.kuali.rice.krad.bo.Note");
         notesXml = "<org.apache.ojb.broker.core.proxy.ListProxyDefaultImpl>\n"
         		+ notesXml
@@ -431,6 +892,67 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
         return notes;
     }
 
+    // ==== CU Customization: Added deferred loading of the notes, along with the overrides that trigger it. ====
+
+    /**
+     * Loads the notes from the document contents they were pending for, falling back to legacy notes XML if necessary.
+     * Does nothing if no notes are pending.
+     */
+    protected void loadPendingNotes() {
+        String notesDocumentContents = pendingNotesDocumentContents;
+        if (notesDocumentContents == null) {
+            return;
+        }
+        pendingNotesDocumentContents = null;
+        MaintenanceDocumentContentsRegions regions = (notesDocumentContents == xmlDocumentContents)
+                ? getContentsRegions() : new MaintenanceDocumentContentsRegions(notesDocumentContents);
+        List<Note> notes = getNotesFromXml(NOTES_TAG_NAME, regions);
+        if (!xmlInCurrentFormat && notes.isEmpty() && regions.hasLegacyNotesBeforeNewMaintainable()) {
+            notes = getNotesFromLegacyXml(regions);
+        }
+        super.setNotes(notes);
+    }
+
+    /**
+     * @return true if the notes have not been loaded from the document contents yet, false otherwise
+     */
+    protected boolean isNotesPending() {
+        return pendingNotesDocumentContents != null;
+    }
+
+    @Override
+    public List<Note> getNotes() {
+        loadPendingNotes();
+        return super.getNotes();
+    }
+
+    /**
+     * Overridden so that explicitly set notes replace any that are still pending.
+     */
+    @Override
+    public void setNotes(List<Note> notes) {
+        pendingNotesDocumentContents = null;
+        super.setNotes(notes);
+    }
+
+    @Override
+    public void addNote(Note note) {
+        loadPendingNotes();
+        super.addNote(note);
+    }
+
+    @Override
+    public boolean removeNote(Note note) {
+        loadPendingNotes();
+        return super.removeNote(note);
+    }
+
+    @Override
+    public Note getNote(int index) {
+        loadPendingNotes();
+        return super.getNote(index);
+    }
+
     // ==== End CU Customization ====
 
     /**
@@ -445,20 +967,83 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
      * @return data object
      */
     protected Object getDataObjectFromXML(String maintainableTagName) {
-        String maintXml = StringUtils.substringBetween(xmlDocumentContents, "<" + maintainableTagName + ">",
-                "</" + maintainableTagName + ">");
+        // ==== CU Customization: Use the pre-split region for the maintainable, rather than searching the whole document again. ====
+        String maintXml = (OLD_MAINTAINABLE_TAG_NAME.equals(maintainableTagName) || NEW_MAINTAINABLE_TAG_NAME.equals(maintainableTagName))
+                ? getContentsRegions().getMaintainableXml(maintainableTagName)
+                : StringUtils.substringBetween(xmlDocumentContents, "<" + maintainableTagName + ">", "</" + maintainableTagName + ">");
+        return getDataObjectFromXML(maintainableTagName, maintXml);
+    }
+
+    /**
+     * ====
+     * CU Customization:
+     * Converts a maintainable's XML, failing fast with the document number and maintainable named if the conversion
+     * exceeds one of its configured limits, rather than going on to deserialize the unconverted XML.
+     * ====
+     *
+     * @param conversionService the conversion service to use
+     * @param maintainableTagName the xml tag name of the maintainable
+     * @param maintXml the maintainable's XML
+     * @return the converted XML
+     */
+    private String convertMaintainableXml(MaintainableXMLConversionService conversionService, String maintainableTagName,
+            String maintXml) {
+        try {
+            return conversionService.transformMaintainableXML(maintXml);
+        } catch (MaintainableXMLConversionLimitException e) {
+            String message = "Could not load the " + maintainableTagName + " of maintenance document " + getDocumentNumber()
+                    + " (" + maintXml.length() + " characters): " + e.getMessage();
+            LOG.error(message);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    /**
+     * ====
+     * CU Customization:
+     * Split out of getDataObjectFromXML(String), so that a deferred old maintainable can be loaded from its saved region.
+     * ====
+     *
+     * @param maintainableTagName the xml tag name of the maintainable
+     * @param maintXml the maintainable's XML
+     * @return data object
+     */
+    protected Object getDataObjectFromXML(String maintainableTagName, String maintXml) {
 
         // TODO: Do we need to tweak IU's change so that it can still use the ignoreMissingFields functionality from the original code?
         /*
          * Start IU Customization
          */
+        // ==== CU Customization: Record which path each data object takes, and how long it takes, if metrics are enabled. ====
+        MaintainableXMLMetricsService metricsService = getEnabledMaintainableXMLMetricsService();
+        long startTime = (metricsService != null) ? System.nanoTime() : 0L;
+        // ==== CU Customization: Skip the conversion checks entirely for XML that is known to be in the current format. ====
+        if (xmlInCurrentFormat) {
+            Object businessObject = KRADServiceLocator.getXmlObjectSerializerService().fromXml(maintXml);
+            recordDataObjectLoad(metricsService, DataObjectLoadPath.CURRENT_FORMAT, startTime);
+            return businessObject;
+        }
+        // ==== CU Customization: Tweaked code from IU to use a different service locator class. ====
+        MaintainableXMLConversionService conversionService = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+        // ==== CU Customization: Convert up front when the pre-scan finds legacy content, rather than waiting for XStream to fail. ====
+        if (conversionService.isConversionNeeded(maintXml)) {
+            String convertedXml = convertMaintainableXml(conversionService, maintainableTagName, maintXml);
+            Object businessObject = KRADServiceLocator.getXmlObjectSerializerService().fromXml(convertedXml);
+            recordConvertedMaintainableXml(maintainableTagName, maintXml, convertedXml);
+            recordDataObjectLoad(metricsService, DataObjectLoadPath.PRE_CONVERTED, startTime);
+            return businessObject;
+        }
         try {
         	Object businessObject = KRADServiceLocator.getXmlObjectSerializerService().fromXml(maintXml);
+        	recordDataObjectLoad(metricsService, DataObjectLoadPath.FAST_PATH, startTime);
         	return businessObject;
         } catch (BaseException e) {
-        	// ==== CU Customization: Tweaked code from IU to use a different service locator class. ====
-        	String convertedXml = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService().transformMaintainableXML(maintXml);
-        	return KRADServiceLocator.getXmlObjectSerializerService().fromXml(convertedXml);
+        	// ==== CU Customization: Still convert on failure, for legacy content the pre-scan cannot see (such as within CDATA sections). ====
+        	String convertedXml = convertMaintainableXml(conversionService, maintainableTagName, maintXml);
+        	Object businessObject = KRADServiceLocator.getXmlObjectSerializerService().fromXml(convertedXml);
+        	recordConvertedMaintainableXml(maintainableTagName, maintXml, convertedXml);
+        	recordDataObjectLoad(metricsService, DataObjectLoadPath.FALLBACK, startTime);
+        	return businessObject;
         }
         
         //boolean ignoreMissingFields = false;
@@ -536,7 +1121,13 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
     public void populateXmlDocumentContentsFromMaintainables() {
         StringBuilder docContentBuffer = new StringBuilder();
         docContentBuffer.append("<maintainableDocumentContents maintainableImplClass=\"").append(
-                newMaintainableObject.getClass().getName()).append("\">");
+                newMaintainableObject.getClass().getName()).append("\"");
+        // ==== CU Customization: Stamp the XML with the conversion rule-set version, since it is now in the current format. ====
+        String ruleSetVersion = getConversionRuleSetVersion();
+        if (ruleSetVersion != null) {
+            docContentBuffer.append(" ").append(CONVERSION_RULE_SET_VERSION).append("=\"").append(ruleSetVersion).append("\"");
+        }
+        docContentBuffer.append(">");
 
         // if business objects notes are enabled then we need to persist notes to the XML
         if (getNewMaintainableObject().isNotesEnabled()) {
@@ -552,6 +1143,8 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
             docContentBuffer.append(KRADServiceLocator.getXmlObjectSerializerService().toXml(noteList));
             docContentBuffer.append("</" + NOTES_TAG_NAME + ">");
         }
+        // ==== CU Customization: Use the getter, so that a deferred old maintainable gets loaded. ====
+        Maintainable oldMaintainableObject = getOldMaintainableObject();
         if (oldMaintainableObject != null && oldMaintainableObject.getDataObject() != null) {
             // TODO: refactor this out into a method
             docContentBuffer.append("<" + OLD_MAINTAINABLE_TAG_NAME + ">");
@@ -719,6 +1312,10 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
      */
     @Override
     public Maintainable getOldMaintainableObject() {
+        // ==== CU Customization: Load the old maintainable on first use, if its loading was deferred. ====
+        if (pendingOldMaintainable != null) {
+            loadPendingOldMaintainable();
+        }
         return oldMaintainableObject;
     }
 
@@ -727,6 +1324,8 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
      */
     @Override
     public void setOldMaintainableObject(Maintainable oldMaintainableObject) {
+        // ==== CU Customization: An explicitly set old maintainable replaces any deferred one. ====
+        pendingOldMaintainable = null;
         this.oldMaintainableObject = oldMaintainableObject;
     }
 
@@ -738,7 +1337,10 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
         super.setDocumentNumber(documentNumber);
 
         // set the finDocNumber on the Maintainable
-        oldMaintainableObject.setDocumentNumber(documentNumber);
+        // ==== CU Customization: A deferred old maintainable gets the document number when it is loaded. ====
+        if (pendingOldMaintainable == null) {
+            oldMaintainableObject.setDocumentNumber(documentNumber);
+        }
         newMaintainableObject.setDocumentNumber(documentNumber);
     }
 
@@ -819,15 +1421,17 @@ public class MaintenanceDocumentBase extends DocumentBase implements Maintenance
             populateDocumentAttachment();
             populateAttachmentForBO();
             //clear out attachment file for old data object so it isn't serialized in doc content
-            if (oldMaintainableObject.getDataObject() instanceof PersistableAttachment) {
-                ((PersistableAttachment) oldMaintainableObject.getDataObject()).setAttachmentContent(null);
+            // ==== CU Customization: Use the getter, so that a deferred old maintainable gets loaded. ====
+            if (getOldMaintainableObject().getDataObject() instanceof PersistableAttachment) {
+                ((PersistableAttachment) getOldMaintainableObject().getDataObject()).setAttachmentContent(null);
             }
         }
         if (newMaintainableObject.getDataObject() instanceof PersistableAttachmentList) {
             populateDocumentAttachmentList();
             populateAttachmentListForBO();
-            if (oldMaintainableObject.getDataObject() instanceof PersistableAttachmentList) {
-                for (PersistableAttachment pa : ((PersistableAttachmentList<PersistableAttachment>) oldMaintainableObject
+            // ==== CU Customization: Use the getter, so that a deferred old maintainable gets loaded. ====
+            if (getOldMaintainableObject().getDataObject() instanceof PersistableAttachmentList) {
+                for (PersistableAttachment pa : ((PersistableAttachmentList<PersistableAttachment>) getOldMaintainableObject()
                         .getDataObject()).getAttachments()) {
                     pa.setAttachmentContent(null);
                 }
@@ -0,0 +1,354 @@
+package org.kuali.rice.krad.maintenance;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * ====
+ * CU Customization:
+ * Single-pass splitter for maintenance document XML, which records the
+ * offsets of the regions that MaintenanceDocumentBase needs when loading
+ * a document: the root start tag, the old and new maintainables, their
+ * maintenanceAction elements, the notes, and any legacy boNotes.
+ *
+ * This replaces parsing the whole document into a DOM (just to check for
+ * the old maintainable and to read the maintenance actions) followed by
+ * separate substring searches over the whole document for each region.
+ * Only tags are examined; the text and attributes in between are skipped
+ * over, and no substrings are created until a region's contents are
+ * actually requested.
+ *
+ * The splitter expects well-formed XML, and throws an
+ * IllegalArgumentException if the tags are not properly nested.
+ * ====
+ */
+final class MaintenanceDocumentContentsRegions {
+
+	private static final String OLD_MAINTAINABLE_TAG_NAME = MaintenanceDocumentBase.OLD_MAINTAINABLE_TAG_NAME;
+	private static final String NEW_MAINTAINABLE_TAG_NAME = MaintenanceDocumentBase.NEW_MAINTAINABLE_TAG_NAME;
+	private static final String MAINTENANCE_ACTION_TAG_NAME = MaintenanceDocumentBase.MAINTENANCE_ACTION_TAG_NAME;
+	private static final String NOTES_TAG_NAME = MaintenanceDocumentBase.NOTES_TAG_NAME;
+	private static final String LEGACY_NOTES_TAG_NAME = MaintenanceDocumentBase.LEGACY_NOTES_TAG_NAME;
+
+	/*
+	 * The kinds of elements that have their regions recorded.
+	 */
+	private static final int OTHER = 0;
+	private static final int OLD_MAINTAINABLE = 1;
+	private static final int NEW_MAINTAINABLE = 2;
+	private static final int NOTES = 3;
+	private static final int OLD_MAINTENANCE_ACTION = 4;
+	private static final int NEW_MAINTENANCE_ACTION = 5;
+	private static final int LEGACY_NOTES = 6;
+	private static final int KIND_COUNT = 7;
+
+	private static final int INITIAL_DEPTH_CAPACITY = 32;
+
+	private final String xml;
+
+	private int rootStartTagStart = -1;
+	private int rootStartTagEnd = -1;
+
+	// The content offsets of each kind of region, indexed by kind. The first occurrence is kept for
+	// the maintainables and notes, and the last one for the maintenance actions and legacy notes.
+	private final int[] contentStarts = new int[KIND_COUNT];
+	private final int[] contentEnds = new int[KIND_COUNT];
+	// The offsets of the start tags of the first new maintainable and the first legacy notes.
+	private int newMaintainableTagStart = -1;
+	private int firstLegacyNotesTagStart = -1;
+
+	/**
+	 * Splits the given maintenance document XML.
+	 *
+	 * @param xml the maintenance document contents
+	 * @throws IllegalArgumentException if the XML is not well-formed
+	 */
+	MaintenanceDocumentContentsRegions(String xml) {
+		this.xml = xml;
+		for (int i = 0; i < KIND_COUNT; i++) {
+			contentStarts[i] = -1;
+			contentEnds[i] = -1;
+		}
+		split();
+	}
+
+	private void split() {
+		int[] kindStack = new int[INITIAL_DEPTH_CAPACITY];
+		int[] contentStartStack = new int[INITIAL_DEPTH_CAPACITY];
+		int depth = 0;
+		int len = xml.length();
+		int i = xml.indexOf('<');
+		while (i != -1) {
+			int next;
+			if (xml.startsWith("<?", i)) {
+				next = indexAfter("?>", i + 2);
+			} else if (xml.startsWith("<!--", i)) {
+				next = indexAfter("-->", i + 4);
+			} else if (xml.startsWith("<![CDATA[", i)) {
+				next = indexAfter("]]>", i + 9);
+			} else if (xml.startsWith("<!", i)) {
+				next = indexAfter(">", i + 2);
+			} else if (xml.startsWith("</", i)) {
+				// End tag: record the content region of the element being closed, if it is of interest.
+				if (depth == 0) {
+					throw malformed(i);
+				}
+				depth--;
+				recordContentEnd(kindStack[depth], contentStartStack[depth], i);
+				next = indexAfter(">", i + 2);
+			} else {
+				// Start tag: find its end, skipping over any quoted attribute values.
+				int nameStart = i + 1;
+				int nameEnd = nameStart;
+				while (nameEnd < len && isNameChar(xml.charAt(nameEnd))) {
+					nameEnd++;
+				}
+				int tagEnd = findStartTagEnd(nameEnd);
+				boolean selfClosing = xml.charAt(tagEnd - 1) == '/';
+				boolean hasAttributes = hasNonWhitespace(nameEnd, selfClosing ? tagEnd - 1 : tagEnd);
+				int kind = classify(nameStart, nameEnd, depth, (depth > 1) ? kindStack[1] : OTHER, hasAttributes);
+				if (depth == 0) {
+					rootStartTagStart = i;
+					rootStartTagEnd = tagEnd;
+				}
+				recordStartTag(kind, i);
+				next = tagEnd + 1;
+				if (selfClosing) {
+					recordContentEnd(kind, next, next);
+				} else {
+					if (depth == kindStack.length) {
+						int[] newKindStack = new int[depth * 2];
+						int[] newContentStartStack = new int[depth * 2];
+						System.arraycopy(kindStack, 0, newKindStack, 0, depth);
+						System.arraycopy(contentStartStack, 0, newContentStartStack, 0, depth);
+						kindStack = newKindStack;
+						contentStartStack = newContentStartStack;
+					}
+					kindStack[depth] = kind;
+					contentStartStack[depth] = next;
+					depth++;
+				}
+			}
+			i = (next < len) ? xml.indexOf('<', next) : -1;
+		}
+		if (depth != 0 || rootStartTagStart == -1) {
+			throw malformed(len);
+		}
+	}
+
+	/*
+	 * Determines what kind of region an element denotes, based on its name and position.
+	 * Like the substring searches used before, legacy notes are only recognized without attributes.
+	 */
+	private int classify(int nameStart, int nameEnd, int depth, int depthOneKind, boolean hasAttributes) {
+		if (depth == 1) {
+			if (isName(nameStart, nameEnd, OLD_MAINTAINABLE_TAG_NAME)) {
+				return OLD_MAINTAINABLE;
+			} else if (isName(nameStart, nameEnd, NEW_MAINTAINABLE_TAG_NAME)) {
+				return NEW_MAINTAINABLE;
+			} else if (isName(nameStart, nameEnd, NOTES_TAG_NAME)) {
+				return NOTES;
+			}
+		} else if (depth == 2 && isName(nameStart, nameEnd, MAINTENANCE_ACTION_TAG_NAME)) {
+			if (depthOneKind == OLD_MAINTAINABLE) {
+				return OLD_MAINTENANCE_ACTION;
+			} else if (depthOneKind == NEW_MAINTAINABLE) {
+				return NEW_MAINTENANCE_ACTION;
+			}
+		}
+		if (!hasAttributes && depth > 1 && isName(nameStart, nameEnd, LEGACY_NOTES_TAG_NAME)) {
+			return LEGACY_NOTES;
+		}
+		return OTHER;
+	}
+
+	private void recordStartTag(int kind, int tagStart) {
+		if (kind == NEW_MAINTAINABLE && newMaintainableTagStart == -1) {
+			newMaintainableTagStart = tagStart;
+		} else if (kind == LEGACY_NOTES && firstLegacyNotesTagStart == -1) {
+			firstLegacyNotesTagStart = tagStart;
+		}
+	}
+
+	private void recordContentEnd(int kind, int contentStart, int contentEnd) {
+		if (kind == OTHER) {
+			return;
+		}
+		boolean keepFirst = kind == OLD_MAINTAINABLE || kind == NEW_MAINTAINABLE || kind == NOTES;
+		if (!keepFirst || contentStarts[kind] == -1) {
+			contentStarts[kind] = contentStart;
+			contentEnds[kind] = contentEnd;
+		}
+	}
+
+	private int findStartTagEnd(int from) {
+		int len = xml.length();
+		for (int i = from; i < len; i++) {
+			char c = xml.charAt(i);
+			if (c == '>') {
+				return i;
+			} else if (c == '"' || c == '\'') {
+				int quoteEnd = xml.indexOf(c, i + 1);
+				if (quoteEnd == -1) {
+					break;
+				}
+				i = quoteEnd;
+			}
+		}
+		throw malformed(from);
+	}
+
+	private int indexAfter(String terminator, int from) {
+		int index = xml.indexOf(terminator, from);
+		if (index == -1) {
+			throw malformed(from);
+		}
+		return index + terminator.length();
+	}
+
+	private boolean isName(int nameStart, int nameEnd, String name) {
+		return nameEnd - nameStart == name.length() && xml.startsWith(name, nameStart);
+	}
+
+	private boolean hasNonWhitespace(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(xml.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isNameChar(char c) {
+		return !Character.isWhitespace(c) && c != '>' && c != '/' && c != '=';
+	}
+
+	private IllegalArgumentException malformed(int offset) {
+		return new IllegalArgumentException("Maintenance document contents are not well-formed near offset " + offset);
+	}
+
+	private String getContents(int kind) {
+		return (contentStarts[kind] != -1) ? xml.substring(contentStarts[kind], contentEnds[kind]) : null;
+	}
+
+	private static int getMaintainableKind(String maintainableTagName) {
+		if (OLD_MAINTAINABLE_TAG_NAME.equals(maintainableTagName)) {
+			return OLD_MAINTAINABLE;
+		} else if (NEW_MAINTAINABLE_TAG_NAME.equals(maintainableTagName)) {
+			return NEW_MAINTAINABLE;
+		}
+		throw new IllegalArgumentException("Not a maintainable tag name: " + maintainableTagName);
+	}
+
+	/**
+	 * @param xml some maintenance document contents
+	 * @return true if these regions were split from that very String instance
+	 */
+	boolean isFor(String xml) {
+		return this.xml == xml;
+	}
+
+	/**
+	 * @return true if the document has an old maintainable
+	 */
+	boolean hasOldMaintainable() {
+		return contentStarts[OLD_MAINTAINABLE] != -1;
+	}
+
+	/**
+	 * @param maintainableTagName the old or new maintainable tag name
+	 * @return the contents of that maintainable element, or null if it is absent
+	 */
+	String getMaintainableXml(String maintainableTagName) {
+		return getContents(getMaintainableKind(maintainableTagName));
+	}
+
+	/**
+	 * @param maintainableTagName the old or new maintainable tag name
+	 * @return the offset at which the contents of that maintainable start, or -1 if it is absent
+	 */
+	int getMaintainableXmlStart(String maintainableTagName) {
+		return contentStarts[getMaintainableKind(maintainableTagName)];
+	}
+
+	/**
+	 * @param maintainableTagName the old or new maintainable tag name
+	 * @return the offset at which the contents of that maintainable end, or -1 if it is absent
+	 */
+	int getMaintainableXmlEnd(String maintainableTagName) {
+		return contentEnds[getMaintainableKind(maintainableTagName)];
+	}
+
+	/**
+	 * @param maintainableTagName the old or new maintainable tag name
+	 * @return the (unescaped) maintenance action of that maintainable, or null if there is none
+	 */
+	String getMaintenanceAction(String maintainableTagName) {
+		String maintenanceAction = getContents(getMaintainableKind(maintainableTagName) == OLD_MAINTAINABLE
+				? OLD_MAINTENANCE_ACTION : NEW_MAINTENANCE_ACTION);
+		return (maintenanceAction == null || maintenanceAction.length() == 0)
+				? null : StringEscapeUtils.unescapeXml(maintenanceAction);
+	}
+
+	/**
+	 * @return the contents of the document's notes element, or null if it is absent
+	 */
+	String getNotesXml() {
+		return getContents(NOTES);
+	}
+
+	/**
+	 * @return true if a legacy notes element occurs before the new maintainable
+	 */
+	boolean hasLegacyNotesBeforeNewMaintainable() {
+		return firstLegacyNotesTagStart != -1 && newMaintainableTagStart != -1 && firstLegacyNotesTagStart < newMaintainableTagStart;
+	}
+
+	/**
+	 * @return the contents of the last legacy notes element in the document, or null if there is none
+	 */
+	String getLastLegacyNotesXml() {
+		return getContents(LEGACY_NOTES);
+	}
+
+	/**
+	 * @param attributeName an attribute name
+	 * @return the (unescaped) value of that attribute on the root element, or null if it is absent
+	 */
+	String getRootAttribute(String attributeName) {
+		int i = rootStartTagStart + 1;
+		while (i < rootStartTagEnd && isNameChar(xml.charAt(i))) {
+			i++;
+		}
+		while (i < rootStartTagEnd) {
+			while (i < rootStartTagEnd && Character.isWhitespace(xml.charAt(i))) {
+				i++;
+			}
+			int nameStart = i;
+			while (i < rootStartTagEnd && isNameChar(xml.charAt(i))) {
+				i++;
+			}
+			int nameEnd = i;
+			int equalsIndex = xml.indexOf('=', nameEnd);
+			if (nameStart == nameEnd || equalsIndex == -1 || equalsIndex >= rootStartTagEnd) {
+				return null;
+			}
+			int quoteStart = equalsIndex + 1;
+			while (quoteStart < rootStartTagEnd && Character.isWhitespace(xml.charAt(quoteStart))) {
+				quoteStart++;
+			}
+			if (quoteStart >= rootStartTagEnd) {
+				return null;
+			}
+			int quoteEnd = xml.indexOf(xml.charAt(quoteStart), quoteStart + 1);
+			if (quoteEnd == -1 || quoteEnd >= rootStartTagEnd) {
+				return null;
+			}
+			if (isName(nameStart, nameEnd, attributeName)) {
+				return StringEscapeUtils.unescapeXml(xml.substring(quoteStart + 1, quoteEnd));
+			}
+			i = quoteEnd + 1;
+		}
+		return null;
+	}
+
+}
@@ -2,6 +2,9 @@ package org.kuali.rice.krad.service;
 
 import org.kuali.rice.core.api.resourceloader.GlobalResourceLoader;
 import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService;
+import org.kuali.rice.krad.service.MaintainableXMLParallelLoadService;
+import org.kuali.rice.krad.service.MaintainableXMLWriteBackService;
 
 /**
  * ====
@@ -45,4 +48,25 @@ public class ExtraKRADServiceLocatorWeb {
      * End IU Customizaton
      */
 
+    // ==== CU Customization: Added locator for the optional service that persists converted maintainable XML. ====
+    public static final String MAINTAINABLE_XML_WRITE_BACK_SERVICE = "kradMaintainableXMLWriteBackService";
+
+    public static final MaintainableXMLWriteBackService getMaintainableXMLWriteBackService() {
+        return getService(MAINTAINABLE_XML_WRITE_BACK_SERVICE);
+    }
+
+    // ==== CU Customization: Added locator for the optional service that loads old and new maintainables concurrently. ====
+    public static final String MAINTAINABLE_XML_PARALLEL_LOAD_SERVICE = "kradMaintainableXMLParallelLoadService";
+
+    public static final MaintainableXMLParallelLoadService getMaintainableXMLParallelLoadService() {
+        return getService(MAINTAINABLE_XML_PARALLEL_LOAD_SERVICE);
+    }
+
+    // ==== CU Customization: Added locator for the optional service that records conversion and document load metrics. ====
+    public static final String MAINTAINABLE_XML_METRICS_SERVICE = "kradMaintainableXMLMetricsService";
+
+    public static final MaintainableXMLMetricsService getMaintainableXMLMetricsService() {
+        return getService(MAINTAINABLE_XML_METRICS_SERVICE);
+    }
+
 }
@@ -0,0 +1,69 @@
+package org.kuali.rice.krad.service;
+
+/**
+ * ====
+ * CU Customization:
+ * Thrown when a maintainable XML conversion exceeds one of its configured
+ * limits on input size, output size, element depth, element count or
+ * time. The conversion is abandoned as soon as the limit is noticed, so
+ * that a pathological document fails quickly instead of tying up its
+ * thread and the heap. This is unchecked so that it also escapes the
+ * String variant of the conversion, which otherwise logs conversion
+ * errors and returns the XML unchanged.
+ * ====
+ */
+public class MaintainableXMLConversionLimitException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The limits that a conversion can exceed.
+	 */
+	public enum Limit {
+		INPUT_SIZE("input size", "characters"),
+		OUTPUT_SIZE("output size", "characters"),
+		DEPTH("element depth", "levels"),
+		ELEMENT_COUNT("element count", "elements"),
+		TIME("time", "milliseconds");
+
+		private final String description;
+		private final String unit;
+
+		private Limit(String description, String unit) {
+			this.description = description;
+			this.unit = unit;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public String getUnit() {
+			return unit;
+		}
+	}
+
+	private final Limit limit;
+	private final long maximum;
+
+	public MaintainableXMLConversionLimitException(Limit limit, long maximum) {
+		super("Maintainable XML conversion exceeded its " + limit.getDescription() + " limit of " + maximum + " " + limit.getUnit());
+		this.limit = limit;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * @return the limit that was exceeded
+	 */
+	public Limit getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the configured maximum, in the limit's unit
+	 */
+	public long getMaximum() {
+		return maximum;
+	}
+
+}
@@ -1,13 +1,94 @@
 package org.kuali.rice.krad.service;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+import javax.xml.stream.XMLStreamException;
+
 /**
  * ====
  * CU Customization:
  * Added IU's just-in-time maintainable XML conversion feature,
  * available at https://github.com/ewestfal/rice-xml-converter
+ * 
+ * Also added streaming variants of the conversion method, so that
+ * large maintainable XML does not have to be held in memory as
+ * several full Strings at once, and a pre-scan method for deciding
+ * whether conversion is needed without waiting for XStream to fail.
+ * 
+ * Also added a report of how often each conversion rule has fired.
  * ====
  */
 public interface MaintainableXMLConversionService {
 	
 	public String transformMaintainableXML(String xml);
+
+	/**
+	 * Converts the maintainable XML from the given Reader and writes the result to the given Writer.
+	 * The input has the same form as for {@link #transformMaintainableXML(String)}: the data object
+	 * XML, optionally followed by its "maintenanceAction" element. A leading byte order mark and XML
+	 * declaration are skipped. Neither the Reader nor the Writer is closed by this method.
+	 * 
+	 * @param xmlIn the maintainable XML to convert
+	 * @param xmlOut the destination for the converted XML
+	 * @throws XMLStreamException if the XML could not be read or written
+	 * @throws MaintainableXMLConversionLimitException if the conversion exceeded one of its configured limits (which
+	 * the String variant also throws, rather than returning the XML unchanged)
+	 */
+	public void transformMaintainableXML(Reader xmlIn, Writer xmlOut) throws XMLStreamException;
+
+	/**
+	 * Byte-stream variant of {@link #transformMaintainableXML(Reader, Writer)}, which reads
+	 * and writes the XML using the given character encoding.
+	 * 
+	 * @param xmlIn the maintainable XML to convert
+	 * @param xmlOut the destination for the converted XML
+	 * @param encoding the character encoding of both streams
+	 * @throws XMLStreamException if the XML could not be read or written
+	 * @throws UnsupportedEncodingException if the encoding is not supported
+	 */
+	public void transformMaintainableXML(InputStream xmlIn, OutputStream xmlOut, String encoding)
+			throws XMLStreamException, UnsupportedEncodingException;
+
+	/**
+	 * Performs a quick single-pass scan of the given maintainable XML to determine whether
+	 * any of the conversion rules apply to it. This may report false positives, but should
+	 * not report false negatives, other than for content that it does not read as XML (such as
+	 * CDATA sections).
+	 * 
+	 * @param xml the maintainable XML to check
+	 * @return true if the XML should be converted before deserializing it, false otherwise
+	 */
+	public boolean isConversionNeeded(String xml);
+
+	/**
+	 * Returns the version of the active conversion rule set. The version is derived from the rules
+	 * themselves, so it stays the same across restarts and only changes when the rules change.
+	 * Document XML stamped with this version is known to already be in the current format.
+	 * 
+	 * @return the active rule-set version, or null if no conversion rules are configured
+	 */
+	public String getRuleSetVersion();
+
+	/**
+	 * Returns a plain-text report of how often each conversion rule has been applied since the rules
+	 * were loaded: the most often applied ("hot") rules, and the rules that have never been applied.
+	 * Rules that never fire are candidates for removal from the rules file.
+	 * 
+	 * @param maxHotRules the maximum number of hot rules to list
+	 * @return the report
+	 */
+	public String getRuleHitReport(int maxHotRules);
+
+	/**
+	 * Re-reads the conversion rules file and replaces the active rules with the new ones. Conversions
+	 * that are already in progress finish with the rules they started with. If the file cannot be
+	 * read, the active rules are kept.
+	 * 
+	 * @return true if the rules were reloaded, false otherwise
+	 */
+	public boolean reloadRules();
 }
@@ -0,0 +1,71 @@
+package org.kuali.rice.krad.service;
+
+/**
+ * ====
+ * CU Customization:
+ * Service for recording metrics about maintainable XML conversion and
+ * maintenance document loading, such as how often the conversion
+ * fallback fires and how long conversions and loads take. Recording
+ * is lock-free and does not allocate, so it can be called on every
+ * document load.
+ * ====
+ */
+public interface MaintainableXMLMetricsService {
+
+	/**
+	 * The outcome of a call to transformMaintainableXML.
+	 */
+	public enum ConversionOutcome {
+		/** The XML was converted. */
+		CONVERTED,
+		/** The result of an earlier conversion of the same XML was reused. */
+		CACHED,
+		/** The conversion failed, and the XML was returned unchanged. */
+		FAILED
+	}
+
+	/**
+	 * How a maintainable's data object was deserialized.
+	 */
+	public enum DataObjectLoadPath {
+		/** The document was stamped as already being in the current format, so no conversion checks were made. */
+		CURRENT_FORMAT,
+		/** XStream deserialized the unconverted XML. */
+		FAST_PATH,
+		/** The conversion pre-scan found legacy content, so the XML was converted before deserializing it. */
+		PRE_CONVERTED,
+		/** XStream failed on the unconverted XML, so it was converted and deserialized again. */
+		FALLBACK
+	}
+
+	/**
+	 * @return true if metrics should be recorded, false otherwise
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Records a call to transformMaintainableXML.
+	 *
+	 * @param outcome the outcome of the call
+	 * @param inputLength the length of the input XML, in characters
+	 * @param outputLength the length of the output XML, in characters
+	 * @param elapsedNanos the duration of the call, in nanoseconds
+	 */
+	public void recordConversion(ConversionOutcome outcome, int inputLength, int outputLength, long elapsedNanos);
+
+	/**
+	 * Records the deserialization of a maintainable's data object.
+	 *
+	 * @param path how the data object was deserialized
+	 * @param elapsedNanos the duration of the conversion (if any) and deserialization, in nanoseconds
+	 */
+	public void recordDataObjectLoad(DataObjectLoadPath path, long elapsedNanos);
+
+	/**
+	 * Records the population of a maintenance document's maintainables from its XML contents.
+	 *
+	 * @param documentTypeName the document type name
+	 * @param elapsedNanos the duration of the population, in nanoseconds
+	 */
+	public void recordDocumentLoad(String documentTypeName, long elapsedNanos);
+}
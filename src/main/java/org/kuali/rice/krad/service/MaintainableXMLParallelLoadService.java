@@ -0,0 +1,31 @@
+package org.kuali.rice.krad.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * ====
+ * CU Customization:
+ * Service for loading the old and new maintainables of a maintenance
+ * document concurrently. The old maintainable's conversion and
+ * deserialization is handed off to a bounded executor, while the
+ * loading thread works on the new maintainable.
+ * ====
+ */
+public interface MaintainableXMLParallelLoadService {
+
+	/**
+	 * @param documentContentsLength the length of the maintenance document XML
+	 * @return true if the maintainables of a document of this size should be loaded in parallel, false otherwise
+	 */
+	public boolean isParallelLoadEnabled(int documentContentsLength);
+
+	/**
+	 * Submits a maintainable loading task. The task runs with the submitting thread's context class loader
+	 * and user session. If the executor is saturated, the task is run on the submitting thread instead.
+	 *
+	 * @param task the task to run
+	 * @return the Future for the task's result
+	 */
+	public <T> Future<T> submit(Callable<T> task);
+}
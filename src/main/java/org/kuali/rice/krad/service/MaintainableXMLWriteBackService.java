@@ -0,0 +1,31 @@
+package org.kuali.rice.krad.service;
+
+/**
+ * ====
+ * CU Customization:
+ * Service for persisting the converted form of legacy maintenance
+ * document XML, so that each legacy document only has to go through
+ * the just-in-time conversion once. Implementations are expected to
+ * perform the updates asynchronously and in batches, off of the
+ * request thread that loaded the document.
+ * ====
+ */
+public interface MaintainableXMLWriteBackService {
+
+	/**
+	 * @return true if converted XML should be written back, false otherwise
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Queues the converted document contents of a maintenance document for writing back to the database.
+	 * The update only takes effect if the stored document still has the given version number, so that
+	 * a write-back never overwrites a newer save of the same document.
+	 *
+	 * @param documentNumber the maintenance document's number
+	 * @param versionNumber the version number of the document as it was loaded
+	 * @param xmlDocumentContents the document contents, with the converted maintainable XML in place of the legacy XML
+	 * @return true if the write-back was queued, false if it was not (for example, if the queue is full)
+	 */
+	public boolean queueWriteBack(String documentNumber, Long versionNumber, String xmlDocumentContents);
+}
@@ -0,0 +1,181 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * ====
+ * CU Customization:
+ * Minimal Aho-Corasick automaton for finding occurrences of many
+ * fixed strings in a single pass over some text. Callers drive it one
+ * character at a time via {@link #step(int, char)}, and check
+ * {@link #getMatches(int)} after each step for the ids of the patterns
+ * that end at that character.
+ *
+ * Transitions are stored as small sorted per-state arrays rather than a
+ * full state-by-alphabet table, which keeps the automaton compact for
+ * the long class names found in the conversion rules. Instances are
+ * immutable once constructed, and are therefore thread-safe.
+ * ====
+ */
+final class AhoCorasickAutomaton {
+
+	private static final int[] NO_MATCHES = new int[0];
+	private static final int ROOT_STATE = 0;
+
+	private final char[][] transitionChars;
+	private final int[][] transitionTargets;
+	private final int[] failureLinks;
+	private final int[][] matches;
+	private final int[] patternLengths;
+
+	/**
+	 * Builds an automaton for the given patterns; the position of each pattern in the list is its id.
+	 *
+	 * @param patterns the non-empty strings to search for
+	 */
+	AhoCorasickAutomaton(List<String> patterns) {
+		// Build the trie.
+		List<StringBuilder> stateChars = new ArrayList<StringBuilder>();
+		List<List<Integer>> stateTargets = new ArrayList<List<Integer>>();
+		List<List<Integer>> stateMatches = new ArrayList<List<Integer>>();
+		addState(stateChars, stateTargets, stateMatches);
+		patternLengths = new int[patterns.size()];
+		for (int patternId = 0; patternId < patterns.size(); patternId++) {
+			String pattern = patterns.get(patternId);
+			if (pattern == null || pattern.length() == 0) {
+				throw new IllegalArgumentException("Patterns cannot be null or empty");
+			}
+			patternLengths[patternId] = pattern.length();
+			int state = ROOT_STATE;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				int charIndex = stateChars.get(state).indexOf(String.valueOf(c));
+				if (charIndex == -1) {
+					int newState = addState(stateChars, stateTargets, stateMatches);
+					stateChars.get(state).append(c);
+					stateTargets.get(state).add(Integer.valueOf(newState));
+					state = newState;
+				} else {
+					state = stateTargets.get(state).get(charIndex).intValue();
+				}
+			}
+			stateMatches.get(state).add(Integer.valueOf(patternId));
+		}
+
+		// Convert the trie into sorted transition arrays.
+		int stateCount = stateChars.size();
+		transitionChars = new char[stateCount][];
+		transitionTargets = new int[stateCount][];
+		for (int state = 0; state < stateCount; state++) {
+			char[] chars = stateChars.get(state).toString().toCharArray();
+			int[] targets = new int[chars.length];
+			char[] sortedChars = chars.clone();
+			Arrays.sort(sortedChars);
+			for (int i = 0; i < sortedChars.length; i++) {
+				int originalIndex = stateChars.get(state).indexOf(String.valueOf(sortedChars[i]));
+				targets[i] = stateTargets.get(state).get(originalIndex).intValue();
+			}
+			transitionChars[state] = sortedChars;
+			transitionTargets[state] = targets;
+		}
+
+		// Compute the failure links breadth-first, merging in the matches reachable through them.
+		failureLinks = new int[stateCount];
+		matches = new int[stateCount][];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		matches[ROOT_STATE] = NO_MATCHES;
+		for (int target : transitionTargets[ROOT_STATE]) {
+			failureLinks[target] = ROOT_STATE;
+			matches[target] = toArray(stateMatches.get(target), NO_MATCHES);
+			queue.add(Integer.valueOf(target));
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst().intValue();
+			for (int i = 0; i < transitionChars[state].length; i++) {
+				char c = transitionChars[state][i];
+				int target = transitionTargets[state][i];
+				int fallback = failureLinks[state];
+				while (fallback != ROOT_STATE && findTransition(fallback, c) == -1) {
+					fallback = failureLinks[fallback];
+				}
+				int fallbackTarget = findTransition(fallback, c);
+				failureLinks[target] = (fallbackTarget == -1) ? ROOT_STATE : fallbackTarget;
+				matches[target] = toArray(stateMatches.get(target), matches[failureLinks[target]]);
+				queue.add(Integer.valueOf(target));
+			}
+		}
+	}
+
+	private static int addState(List<StringBuilder> stateChars, List<List<Integer>> stateTargets, List<List<Integer>> stateMatches) {
+		stateChars.add(new StringBuilder());
+		stateTargets.add(new ArrayList<Integer>());
+		stateMatches.add(new ArrayList<Integer>());
+		return stateChars.size() - 1;
+	}
+
+	private static int[] toArray(List<Integer> ownMatches, int[] inheritedMatches) {
+		if (ownMatches.isEmpty()) {
+			return inheritedMatches;
+		}
+		int[] result = new int[ownMatches.size() + inheritedMatches.length];
+		for (int i = 0; i < ownMatches.size(); i++) {
+			result[i] = ownMatches.get(i).intValue();
+		}
+		System.arraycopy(inheritedMatches, 0, result, ownMatches.size(), inheritedMatches.length);
+		return result;
+	}
+
+	private int findTransition(int state, char c) {
+		char[] chars = transitionChars[state];
+		// The per-state arrays are short, so a linear scan is cheaper than a binary search.
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] == c) {
+				return transitionTargets[state][i];
+			} else if (chars[i] > c) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the state to start scanning from
+	 */
+	int getStartState() {
+		return ROOT_STATE;
+	}
+
+	/**
+	 * @param state the current state
+	 * @param c the next character of the text
+	 * @return the state after consuming the character
+	 */
+	int step(int state, char c) {
+		int target = findTransition(state, c);
+		while (target == -1 && state != ROOT_STATE) {
+			state = failureLinks[state];
+			target = findTransition(state, c);
+		}
+		return target == -1 ? ROOT_STATE : target;
+	}
+
+	/**
+	 * @param state the current state
+	 * @return the ids of the patterns ending at the last consumed character; the caller must not modify the array
+	 */
+	int[] getMatches(int state) {
+		return matches[state];
+	}
+
+	/**
+	 * @param patternId a pattern id
+	 * @return the length of that pattern
+	 */
+	int getPatternLength(int patternId) {
+		return patternLengths[patternId];
+	}
+
+}
@@ -0,0 +1,312 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * ====
+ * CU Customization:
+ * Lease table through which several nodes share the bulk conversion of
+ * the maintenance document table. The documents are split into shards
+ * by document number range, and each node claims a shard at a time by
+ * taking out a lease on it, renews the lease as it makes progress, and
+ * marks the shard complete when done. A shard whose lease has expired
+ * (because its node died or lost contact with the database) can be
+ * claimed by another node, which resumes from the shard's checkpoint.
+ *
+ * Every change is a single conditional UPDATE (or, for the plan, a
+ * single transaction of INSERTs), so the database arbitrates between
+ * nodes and no other locking is needed. Lease expiry times come from
+ * the nodes' clocks, so the lease duration should be well above any
+ * clock skew between them. Converting a document twice is harmless,
+ * so a node that has lost its lease only has to stop soon, not at once.
+ *
+ * Shard bounds and checkpoints are null rather than empty when absent,
+ * since Oracle treats empty strings as nulls.
+ * ====
+ */
+final class BulkConversionShardTable {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(BulkConversionShardTable.class);
+
+	static final String PENDING = "PENDING";
+	static final String CLAIMED = "CLAIMED";
+	static final String COMPLETE = "COMPLETE";
+
+	private final DataSource dataSource;
+	private final String tableName;
+
+	BulkConversionShardTable(DataSource dataSource, String tableName) {
+		this.dataSource = dataSource;
+		this.tableName = tableName;
+	}
+
+	/**
+	 * Splits the maintenance documents into the given number of shards of about the same size, unless the shards
+	 * have already been planned (by this node or another one). The last shard has no upper bound, so it also covers
+	 * any documents created later.
+	 *
+	 * @return true if this call planned the shards, false if they had already been planned
+	 */
+	boolean planShards(int shardCount, int fetchSize) throws SQLException {
+		if (countShards() > 0) {
+			return false;
+		}
+		List<String> lastDocumentNumbers = findShardBoundaries(shardCount, fetchSize);
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			PreparedStatement statement = connection.prepareStatement("INSERT INTO " + tableName
+					+ " (SHARD_ID, START_AFTER_DOC_HDR_ID, LAST_DOC_HDR_ID, CHECKPOINT_DOC_HDR_ID, STATUS, OWNER_ID, LEASE_EXPIRES_MS)"
+					+ " VALUES (?, ?, ?, NULL, '" + PENDING + "', NULL, 0)");
+			try {
+				String startAfter = null;
+				for (int shardId = 0; shardId <= lastDocumentNumbers.size(); shardId++) {
+					String last = (shardId < lastDocumentNumbers.size()) ? lastDocumentNumbers.get(shardId) : null;
+					statement.setInt(1, shardId);
+					setNullableString(statement, 2, startAfter);
+					setNullableString(statement, 3, last);
+					statement.addBatch();
+					startAfter = last;
+				}
+				statement.executeBatch();
+				connection.commit();
+			} finally {
+				statement.close();
+			}
+			LOG.info("Planned " + (lastDocumentNumbers.size() + 1) + " bulk conversion shards");
+			return true;
+		} catch (SQLException e) {
+			// Most likely another node planned the shards at the same time; if so, use its plan.
+			try {
+				connection.rollback();
+				if (countShards() > 0) {
+					LOG.info("The bulk conversion shards were planned by another node");
+					return false;
+				}
+			} catch (SQLException checkFailure) {
+				e.addSuppressed(checkFailure);
+			}
+			throw e;
+		} finally {
+			connection.close();
+		}
+	}
+
+	/*
+	 * Streams the document numbers in order, keeping every (count / shardCount)th one as the upper bound of a shard.
+	 */
+	private List<String> findShardBoundaries(int shardCount, int fetchSize) throws SQLException {
+		List<String> lastDocumentNumbers = new ArrayList<String>(shardCount);
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			Statement countStatement = connection.createStatement();
+			long documentCount;
+			try {
+				ResultSet resultSet = countStatement.executeQuery("SELECT COUNT(*) FROM KRNS_MAINT_DOC_T");
+				resultSet.next();
+				documentCount = resultSet.getLong(1);
+			} finally {
+				countStatement.close();
+			}
+			long shardSize = Math.max(1L, (documentCount + shardCount - 1) / shardCount);
+			Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				statement.setFetchSize(fetchSize);
+				ResultSet resultSet = statement.executeQuery("SELECT DOC_HDR_ID FROM KRNS_MAINT_DOC_T ORDER BY DOC_HDR_ID");
+				long position = 0L;
+				while (resultSet.next() && lastDocumentNumbers.size() < shardCount - 1) {
+					if (++position % shardSize == 0L) {
+						lastDocumentNumbers.add(resultSet.getString(1));
+					}
+				}
+			} finally {
+				statement.close();
+			}
+			connection.rollback();
+		} finally {
+			connection.close();
+		}
+		return lastDocumentNumbers;
+	}
+
+	int countShards() throws SQLException {
+		return countShards(null);
+	}
+
+	/**
+	 * @param status the status to count, or null for all shards
+	 */
+	int countShards(String status) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName
+					+ ((status != null) ? " WHERE STATUS = ?" : ""));
+			try {
+				if (status != null) {
+					statement.setString(1, status);
+				}
+				ResultSet resultSet = statement.executeQuery();
+				resultSet.next();
+				return resultSet.getInt(1);
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Claims the first shard that is pending or whose lease has expired.
+	 *
+	 * @return the claimed shard, or null if no shard can be claimed right now
+	 */
+	Shard claimShard(String ownerId, long leaseDurationMillis) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			long now = System.currentTimeMillis();
+			List<Shard> candidates = new ArrayList<Shard>();
+			PreparedStatement query = connection.prepareStatement("SELECT SHARD_ID, START_AFTER_DOC_HDR_ID, LAST_DOC_HDR_ID,"
+					+ " CHECKPOINT_DOC_HDR_ID FROM " + tableName + " WHERE STATUS = '" + PENDING + "' OR (STATUS = '" + CLAIMED
+					+ "' AND LEASE_EXPIRES_MS < ?) ORDER BY SHARD_ID");
+			try {
+				query.setLong(1, now);
+				ResultSet resultSet = query.executeQuery();
+				while (resultSet.next()) {
+					candidates.add(new Shard(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)));
+				}
+			} finally {
+				query.close();
+			}
+			// Other nodes may claim some of the candidates first; the conditional update only succeeds for one node.
+			PreparedStatement claim = connection.prepareStatement("UPDATE " + tableName + " SET STATUS = '" + CLAIMED
+					+ "', OWNER_ID = ?, LEASE_EXPIRES_MS = ? WHERE SHARD_ID = ? AND (STATUS = '" + PENDING + "' OR (STATUS = '"
+					+ CLAIMED + "' AND LEASE_EXPIRES_MS < ?))");
+			try {
+				for (Shard candidate : candidates) {
+					claim.setString(1, ownerId);
+					claim.setLong(2, now + leaseDurationMillis);
+					claim.setInt(3, candidate.getShardId());
+					claim.setLong(4, now);
+					if (claim.executeUpdate() == 1) {
+						return candidate;
+					}
+				}
+			} finally {
+				claim.close();
+			}
+			return null;
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Extends the lease on a shard, and records its checkpoint if there is one.
+	 *
+	 * @return true if the lease was renewed, false if the shard is no longer held by the given owner
+	 */
+	boolean renewLease(Shard shard, String ownerId, String checkpoint, long leaseDurationMillis) throws SQLException {
+		return updateOwnedShard(shard, ownerId, CLAIMED, checkpoint, System.currentTimeMillis() + leaseDurationMillis);
+	}
+
+	/**
+	 * @return true if the shard was marked complete, false if it is no longer held by the given owner
+	 */
+	boolean completeShard(Shard shard, String ownerId, String checkpoint) throws SQLException {
+		return updateOwnedShard(shard, ownerId, COMPLETE, checkpoint, 0L);
+	}
+
+	/**
+	 * Gives up a shard before it is complete, so that any node can claim it (and resume it from the checkpoint) at once.
+	 *
+	 * @return true if the shard was released, false if it is no longer held by the given owner
+	 */
+	boolean releaseShard(Shard shard, String ownerId, String checkpoint) throws SQLException {
+		return updateOwnedShard(shard, ownerId, PENDING, checkpoint, 0L);
+	}
+
+	private boolean updateOwnedShard(Shard shard, String ownerId, String status, String checkpoint, long leaseExpiresMillis)
+			throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("UPDATE " + tableName + " SET STATUS = ?, LEASE_EXPIRES_MS = ?"
+					+ ((checkpoint != null) ? ", CHECKPOINT_DOC_HDR_ID = ?" : "")
+					+ " WHERE SHARD_ID = ? AND OWNER_ID = ? AND STATUS = '" + CLAIMED + "'");
+			try {
+				int index = 1;
+				statement.setString(index++, status);
+				statement.setLong(index++, leaseExpiresMillis);
+				if (checkpoint != null) {
+					statement.setString(index++, checkpoint);
+				}
+				statement.setInt(index++, shard.getShardId());
+				statement.setString(index, ownerId);
+				return statement.executeUpdate() == 1;
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static void setNullableString(PreparedStatement statement, int index, String value) throws SQLException {
+		if (value != null) {
+			statement.setString(index, value);
+		} else {
+			statement.setNull(index, Types.VARCHAR);
+		}
+	}
+
+	/**
+	 * A shard of the maintenance documents: those after startAfterDocumentNumber (or from the first one, if null) up to
+	 * and including lastDocumentNumber (or to the last one, if null).
+	 */
+	static final class Shard {
+		private final int shardId;
+		private final String startAfterDocumentNumber;
+		private final String lastDocumentNumber;
+		private final String checkpointDocumentNumber;
+
+		Shard(int shardId, String startAfterDocumentNumber, String lastDocumentNumber, String checkpointDocumentNumber) {
+			this.shardId = shardId;
+			this.startAfterDocumentNumber = startAfterDocumentNumber;
+			this.lastDocumentNumber = lastDocumentNumber;
+			this.checkpointDocumentNumber = checkpointDocumentNumber;
+		}
+
+		int getShardId() {
+			return shardId;
+		}
+
+		/**
+		 * @return the document number after which the remaining documents of the shard start: the checkpoint if there
+		 * is one, otherwise the shard's lower bound (which is null for the first shard)
+		 */
+		String getResumeAfterDocumentNumber() {
+			return (checkpointDocumentNumber != null) ? checkpointDocumentNumber : startAfterDocumentNumber;
+		}
+
+		String getLastDocumentNumber() {
+			return lastDocumentNumber;
+		}
+
+		@Override
+		public String toString() {
+			return "shard " + shardId + " (after " + startAfterDocumentNumber + ", up to " + lastDocumentNumber
+					+ ((checkpointDocumentNumber != null) ? ", resuming after " + checkpointDocumentNumber : "") + ")";
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.kuali.rice.krad.service.MaintainableXMLConversionLimitException;
+import org.kuali.rice.krad.service.MaintainableXMLConversionLimitException.Limit;
+
+/**
+ * ====
+ * CU Customization:
+ * Enforces the size, depth, element count and time limits of a single
+ * streaming conversion. The input and output are counted by wrapping
+ * the conversion's Reader and Writer, which fail as soon as too much
+ * has been read or written, so that neither side of a pathological
+ * document is ever buffered in full. The depth and element count are
+ * checked on each start tag, and the clock only every few hundred
+ * elements (and on each read), so the checks cost a few comparisons.
+ *
+ * Since a StAX implementation may wrap an exception thrown by the
+ * Reader or Writer, the first limit exceeded is also remembered, for
+ * the caller to rethrow in place of the resulting XMLStreamException.
+ *
+ * Instances are not thread-safe; each conversion state holds one, which
+ * is reset at the start of each conversion. A limit of 0 means none.
+ * ====
+ */
+final class ConversionLimiter {
+
+	// How many elements to convert between checks of the clock.
+	private static final int TIME_CHECK_INTERVAL = 256;
+
+	private long maxInputSize;
+	private long maxOutputSize;
+	private int maxDepth;
+	private long maxElementCount;
+	private long maxMillis;
+	private long deadline;
+
+	private long inputSize;
+	private long outputSize;
+	private long elementCount;
+	private MaintainableXMLConversionLimitException exceeded;
+
+	/**
+	 * Resets the counters for a new conversion, which starts the clock.
+	 */
+	void start(long maxInputSize, long maxOutputSize, int maxDepth, long maxElementCount, long maxMillis) {
+		this.maxInputSize = maxInputSize;
+		this.maxOutputSize = maxOutputSize;
+		this.maxDepth = maxDepth;
+		this.maxElementCount = maxElementCount;
+		this.maxMillis = maxMillis;
+		this.deadline = (maxMillis > 0L) ? System.nanoTime() + maxMillis * 1000000L : 0L;
+		inputSize = 0L;
+		outputSize = 0L;
+		elementCount = 0L;
+		exceeded = null;
+	}
+
+	/**
+	 * @return a Reader that counts the characters read from the given one, or the given one if the input is not limited
+	 */
+	Reader limitInput(Reader xmlIn) {
+		return (maxInputSize > 0L || maxMillis > 0L) ? new LimitedReader(xmlIn) : xmlIn;
+	}
+
+	/**
+	 * @return a Writer that counts the characters written to the given one, or the given one if the output is not limited
+	 */
+	Writer limitOutput(Writer xmlOut) {
+		return (maxOutputSize > 0L) ? new LimitedWriter(xmlOut) : xmlOut;
+	}
+
+	/**
+	 * Counts a start tag, and checks the depth, the element count and, at intervals, the time.
+	 *
+	 * @param depth the element's depth, 1 being the data object's
+	 */
+	void checkElement(int depth) {
+		if (maxDepth > 0 && depth > maxDepth) {
+			throw exceed(Limit.DEPTH, maxDepth);
+		}
+		if (++elementCount > maxElementCount && maxElementCount > 0L) {
+			throw exceed(Limit.ELEMENT_COUNT, maxElementCount);
+		}
+		if (deadline != 0L && elementCount % TIME_CHECK_INTERVAL == 0L) {
+			checkTime();
+		}
+	}
+
+	/**
+	 * @return the first limit exceeded by the current conversion, or null if none has been
+	 */
+	MaintainableXMLConversionLimitException getExceeded() {
+		return exceeded;
+	}
+
+	private void checkTime() {
+		if (System.nanoTime() - deadline > 0L) {
+			throw exceed(Limit.TIME, maxMillis);
+		}
+	}
+
+	private MaintainableXMLConversionLimitException exceed(Limit limit, long maximum) {
+		if (exceeded == null) {
+			exceeded = new MaintainableXMLConversionLimitException(limit, maximum);
+		}
+		return exceeded;
+	}
+
+	private final class LimitedReader extends Reader {
+		private final Reader reader;
+
+		LimitedReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (exceeded != null) {
+				throw exceeded;
+			}
+			if (deadline != 0L) {
+				checkTime();
+			}
+			int count = reader.read(cbuf, off, len);
+			if (count > 0) {
+				inputSize += count;
+				if (inputSize > maxInputSize && maxInputSize > 0L) {
+					throw exceed(Limit.INPUT_SIZE, maxInputSize);
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private final class LimitedWriter extends Writer {
+		private final Writer writer;
+
+		LimitedWriter(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			count(len);
+			writer.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			count(len);
+			writer.write(str, off, len);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			count(1);
+			writer.write(c);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Do not close the wrapped Writer, which belongs to the caller.
+			writer.flush();
+		}
+
+		private void count(int len) {
+			if (exceeded != null) {
+				throw exceeded;
+			}
+			outputSize += len;
+			if (outputSize > maxOutputSize) {
+				throw exceed(Limit.OUTPUT_SIZE, maxOutputSize);
+			}
+		}
+	}
+
+}
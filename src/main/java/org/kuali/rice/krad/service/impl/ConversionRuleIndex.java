@@ -0,0 +1,709 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * ====
+ * CU Customization:
+ * Immutable, pre-compiled form of the maintainable XML conversion rules.
+ *
+ * Each class entry's rules are merged with the global ("*") rules up front,
+ * with the class-specific rules taking precedence, and are split into
+ * separate element and attribute tables. The "(ATTR)" suffix is stripped
+ * from attribute keys, and each replacement value is resolved into a
+ * ConversionRule with a pre-determined action. This way the streaming
+ * converter only needs a single map lookup per element name, "class"
+ * attribute value or attribute name.
+ *
+ * The index also holds an Aho-Corasick automaton over the rule keys, which
+ * allows for a quick pre-scan of maintainable XML to determine whether any
+ * rule could apply to it at all. Keys are only matched in the places where
+ * the converter would use them (element names, "class" attribute values
+ * and attribute names), and a class-specific key only counts where the
+ * converter would apply it, i.e. directly within an element of that class.
+ * Since date element names also occur in already-converted XML, a date
+ * element only counts if its text is date-only, as the converter checks.
+ *
+ * The only mutable part of the index is its rule hit counters. Each rule
+ * from the rules file is compiled into exactly one ConversionRule (global
+ * rules are shared by all of the class tables), and each ConversionRule
+ * has its own striped counter of how often the converter applied it, so
+ * that rules which no longer fire can be found and retired.
+ * ====
+ */
+final class ConversionRuleIndex {
+
+	static final String GLOBAL_CLASS_KEY = "*";
+	static final String ATTR_INDICATOR = "(ATTR)";
+	static final String MOVE_NODES_TO_PARENT_INDICATOR = "(MOVE_NODES_TO_PARENT)";
+	static final String CONVERT_TO_MAP_ENTRIES_INDICATOR = "(CONVERT_TO_MAP_ENTRIES)";
+
+	/**
+	 * The pre-resolved actions that a conversion rule can perform.
+	 */
+	enum ConversionAction {
+		RENAME,
+		DROP,
+		MOVE_TO_PARENT,
+		WRAP_MAP_ENTRY,
+		DATE_SUFFIX
+	}
+
+	/**
+	 * A single compiled rule. For RENAME rules the replacement is the new name,
+	 * and for DATE_SUFFIX rules it is the text (including its leading space)
+	 * to append to date-only values; otherwise it is null. Each rule also
+	 * records where it came from in the rules file, and its hit counter id.
+	 */
+	static final class ConversionRule {
+		private final int id;
+		private final String ruleClass;
+		private final String match;
+		private final ConversionAction action;
+		private final String replacement;
+
+		ConversionRule(int id, String ruleClass, String match, ConversionAction action, String replacement) {
+			this.id = id;
+			this.ruleClass = ruleClass;
+			this.match = match;
+			this.action = action;
+			this.replacement = replacement;
+		}
+
+		ConversionAction getAction() {
+			return action;
+		}
+
+		String getReplacement() {
+			return replacement;
+		}
+
+		/**
+		 * @return the class entry that this rule came from ("*" for global rules, or null for date rules)
+		 */
+		String getRuleClass() {
+			return ruleClass;
+		}
+
+		/**
+		 * @return the rule's match text, as in the rules file
+		 */
+		String getMatch() {
+			return match;
+		}
+	}
+
+	/**
+	 * Point-in-time hit count of a rule.
+	 */
+	static final class RuleHitCount {
+		private final ConversionRule rule;
+		private final long hitCount;
+
+		RuleHitCount(ConversionRule rule, long hitCount) {
+			this.rule = rule;
+			this.hitCount = hitCount;
+		}
+
+		ConversionRule getRule() {
+			return rule;
+		}
+
+		long getHitCount() {
+			return hitCount;
+		}
+	}
+
+	/**
+	 * The compiled element and attribute rules that apply within a given class,
+	 * already merged with the global rules.
+	 */
+	static final class ClassRules {
+		private final Map<String, ConversionRule> elementRules;
+		private final Map<String, ConversionRule> attributeRules;
+
+		ClassRules(Map<String, ConversionRule> elementRules, Map<String, ConversionRule> attributeRules) {
+			this.elementRules = elementRules;
+			this.attributeRules = attributeRules;
+		}
+
+		ConversionRule getElementRule(String name) {
+			return elementRules.get(name);
+		}
+
+		ConversionRule getAttributeRule(String name) {
+			return attributeRules.get(name);
+		}
+	}
+
+	/*
+	 * The places in the XML where a pre-scan pattern has to occur in order to count.
+	 */
+	private static final int PATTERN_ELEMENT_NAME = 0;
+	private static final int PATTERN_CLASS_VALUE = 1;
+	private static final int PATTERN_ATTRIBUTE_NAME = 2;
+
+	private static final String CLASS_ATTRIBUTE_PREFIX = "class=";
+
+	/*
+	 * The states of the minimal tag tracking done during a pre-scan.
+	 */
+	private static final int LEX_TEXT = 0;
+	private static final int LEX_TAG_OPENED = 1;
+	private static final int LEX_START_TAG = 2;
+	private static final int LEX_QUOTED = 3;
+	private static final int LEX_OTHER_MARKUP = 4;
+
+	private static final int INITIAL_SCAN_DEPTH_CAPACITY = 16;
+
+	private static final int[] NO_CLASS_IDS = new int[0];
+
+	// The length of the date-only values that the date suffix rules apply to, as in "2010-05-09".
+	private static final int DATE_ONLY_LENGTH = 10;
+
+	private static final String VERSION_DIGEST_ALGORITHM = "SHA-256";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	// Rule-set version, derived from the rules' contents so that it stays the same across restarts.
+	private final long version;
+	private final String versionString;
+	private final Map<String, ClassRules> classRules;
+	private final ClassRules globalRules;
+	private final Map<String, ConversionRule> dateRules;
+
+	// All of the compiled rules, indexed by id, and their hit counters. The two counters after the rules' own
+	// count the conversions that did and did not apply any rule.
+	private final List<ConversionRule> rules;
+	private final StripedCounters hitCounters;
+	private final int convertedCounterId;
+	private final int unchangedCounterId;
+
+	// Pre-scan automaton, and the meaning of each of its pattern ids.
+	private final AhoCorasickAutomaton keyScanner;
+	private final int[] patternTypes;
+	private final boolean[] patternIsGlobalKey;
+	private final boolean[] patternIsDateElement;
+	private final int[] patternClassIds;
+	private final int[][] patternKeyOfClassIds;
+
+	/**
+	 * Compiles the given rule maps, as read from the rules file.
+	 *
+	 * @param classPropertyRuleMap the "maint_doc_changed_class_properties" rules, keyed by class
+	 * @param dateRuleMap the "maint_doc_date_changes" rules
+	 */
+	ConversionRuleIndex(Map<String, Map<String, String>> classPropertyRuleMap, Map<String, String> dateRuleMap) {
+		Map<String, String> globalPropertyRules = classPropertyRuleMap.get(GLOBAL_CLASS_KEY);
+		if (globalPropertyRules == null) {
+			globalPropertyRules = Collections.emptyMap();
+		}
+		List<ConversionRule> compiledRules = new ArrayList<ConversionRule>();
+		Map<String, ConversionRule> globalElementRules = new HashMap<String, ConversionRule>();
+		Map<String, ConversionRule> globalAttributeRules = new HashMap<String, ConversionRule>();
+		compilePropertyRules(GLOBAL_CLASS_KEY, globalPropertyRules, globalElementRules, globalAttributeRules, compiledRules);
+		this.globalRules = new ClassRules(Collections.unmodifiableMap(globalElementRules),
+				Collections.unmodifiableMap(globalAttributeRules));
+
+		Map<String, ClassRules> compiledClassRules = new HashMap<String, ClassRules>();
+		for (Map.Entry<String, Map<String, String>> classEntry : classPropertyRuleMap.entrySet()) {
+			if (GLOBAL_CLASS_KEY.equals(classEntry.getKey())) {
+				compiledClassRules.put(GLOBAL_CLASS_KEY, globalRules);
+				continue;
+			}
+			Map<String, ConversionRule> elementRules = new HashMap<String, ConversionRule>(globalElementRules);
+			Map<String, ConversionRule> attributeRules = new HashMap<String, ConversionRule>(globalAttributeRules);
+			if (classEntry.getValue() != null) {
+				compilePropertyRules(classEntry.getKey(), classEntry.getValue(), elementRules, attributeRules, compiledRules);
+			}
+			compiledClassRules.put(classEntry.getKey(), new ClassRules(Collections.unmodifiableMap(elementRules),
+					Collections.unmodifiableMap(attributeRules)));
+		}
+		this.classRules = Collections.unmodifiableMap(compiledClassRules);
+
+		Map<String, ConversionRule> compiledDateRules = new HashMap<String, ConversionRule>();
+		for (Map.Entry<String, String> dateEntry : dateRuleMap.entrySet()) {
+			if (StringUtils.isNotBlank(dateEntry.getValue())) {
+				// Date rules do not belong to any class entry.
+				ConversionRule dateRule = new ConversionRule(compiledRules.size(), null, dateEntry.getKey(),
+						ConversionAction.DATE_SUFFIX, " " + dateEntry.getValue());
+				compiledRules.add(dateRule);
+				compiledDateRules.put(dateEntry.getKey(), dateRule);
+			}
+		}
+		this.dateRules = Collections.unmodifiableMap(compiledDateRules);
+
+		this.rules = Collections.unmodifiableList(compiledRules);
+		this.convertedCounterId = compiledRules.size();
+		this.unchangedCounterId = compiledRules.size() + 1;
+		this.hitCounters = new StripedCounters(compiledRules.size() + 2);
+
+		this.version = computeVersion(classPropertyRuleMap, dateRuleMap);
+		this.versionString = toHexString(version);
+
+		// Set up the pre-scan patterns.
+		ScanPatternBuilder scanPatterns = new ScanPatternBuilder();
+		for (String key : globalPropertyRules.keySet()) {
+			scanPatterns.addKey(key, -1);
+		}
+		int classId = 0;
+		for (Map.Entry<String, Map<String, String>> classEntry : classPropertyRuleMap.entrySet()) {
+			if (GLOBAL_CLASS_KEY.equals(classEntry.getKey()) || classEntry.getValue() == null
+					|| classEntry.getValue().isEmpty()) {
+				continue;
+			}
+			scanPatterns.addClass(classEntry.getKey(), classId);
+			for (String key : classEntry.getValue().keySet()) {
+				scanPatterns.addKey(key, classId);
+			}
+			classId++;
+		}
+		for (String dateElementName : compiledDateRules.keySet()) {
+			scanPatterns.addDateElement(dateElementName);
+		}
+		this.keyScanner = new AhoCorasickAutomaton(scanPatterns.patterns);
+		int patternCount = scanPatterns.patterns.size();
+		this.patternTypes = new int[patternCount];
+		this.patternIsGlobalKey = new boolean[patternCount];
+		this.patternIsDateElement = new boolean[patternCount];
+		this.patternClassIds = new int[patternCount];
+		this.patternKeyOfClassIds = new int[patternCount][];
+		for (int i = 0; i < patternCount; i++) {
+			patternTypes[i] = scanPatterns.types.get(i).intValue();
+			patternIsGlobalKey[i] = scanPatterns.globalKeys.get(i).booleanValue();
+			patternIsDateElement[i] = scanPatterns.dateElements.get(i).booleanValue();
+			patternClassIds[i] = scanPatterns.classIds.get(i).intValue();
+			List<Integer> keyOfClassIds = scanPatterns.keyOfClassIds.get(i);
+			patternKeyOfClassIds[i] = keyOfClassIds.isEmpty() ? NO_CLASS_IDS : new int[keyOfClassIds.size()];
+			for (int j = 0; j < keyOfClassIds.size(); j++) {
+				patternKeyOfClassIds[i][j] = keyOfClassIds.get(j).intValue();
+			}
+		}
+	}
+
+	/*
+	 * Derives a version number from a digest of the rules, in a canonical (sorted) order.
+	 */
+	private static long computeVersion(Map<String, Map<String, String>> classPropertyRuleMap, Map<String, String> dateRuleMap) {
+		SortedMap<String, SortedMap<String, String>> sortedRules = new TreeMap<String, SortedMap<String, String>>();
+		for (Map.Entry<String, Map<String, String>> classEntry : classPropertyRuleMap.entrySet()) {
+			sortedRules.put(classEntry.getKey(), (classEntry.getValue() != null)
+					? new TreeMap<String, String>(classEntry.getValue()) : new TreeMap<String, String>());
+		}
+		StringBuilder canonicalRules = new StringBuilder();
+		for (Map.Entry<String, SortedMap<String, String>> classEntry : sortedRules.entrySet()) {
+			canonicalRules.append("class\t").append(classEntry.getKey()).append('\n');
+			appendCanonicalRules(canonicalRules, classEntry.getValue());
+		}
+		canonicalRules.append("dates\n");
+		appendCanonicalRules(canonicalRules, new TreeMap<String, String>(dateRuleMap));
+
+		try {
+			byte[] digest = MessageDigest.getInstance(VERSION_DIGEST_ALGORITHM).digest(canonicalRules.toString().getBytes("UTF-8"));
+			long version = 0L;
+			for (int i = 0; i < 8; i++) {
+				version = (version << 8) | (digest[i] & 0xFF);
+			}
+			return version;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(VERSION_DIGEST_ALGORITHM + " is not available", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not available", e);
+		}
+	}
+
+	private static void appendCanonicalRules(StringBuilder canonicalRules, SortedMap<String, String> rules) {
+		for (Map.Entry<String, String> rule : rules.entrySet()) {
+			canonicalRules.append(rule.getKey()).append('\t').append(StringUtils.defaultString(rule.getValue())).append('\n');
+		}
+	}
+
+	private static String toHexString(long value) {
+		char[] hex = new char[16];
+		for (int i = 15; i >= 0; i--) {
+			hex[i] = HEX_DIGITS[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+		return new String(hex);
+	}
+
+	/*
+	 * Collects the distinct pre-scan patterns, and what each of them means.
+	 */
+	private static final class ScanPatternBuilder {
+		final List<String> patterns = new ArrayList<String>();
+		final List<Integer> types = new ArrayList<Integer>();
+		final List<Boolean> globalKeys = new ArrayList<Boolean>();
+		final List<Boolean> dateElements = new ArrayList<Boolean>();
+		final List<Integer> classIds = new ArrayList<Integer>();
+		final List<List<Integer>> keyOfClassIds = new ArrayList<List<Integer>>();
+		final Map<String, Integer> patternIds = new HashMap<String, Integer>();
+
+		void addClass(String className, int classId) {
+			for (int patternId : getPatternIds(className, false)) {
+				classIds.set(patternId, Integer.valueOf(classId));
+			}
+		}
+
+		/*
+		 * Adds a rule key; a classId of -1 indicates a global key.
+		 */
+		void addKey(String key, int classId) {
+			for (int patternId : getPatternIds(key, StringUtils.endsWith(key, ATTR_INDICATOR))) {
+				if (classId == -1) {
+					globalKeys.set(patternId, Boolean.TRUE);
+				} else if (!keyOfClassIds.get(patternId).contains(Integer.valueOf(classId))) {
+					keyOfClassIds.get(patternId).add(Integer.valueOf(classId));
+				}
+			}
+		}
+
+		void addDateElement(String elementName) {
+			dateElements.set(getPatternId("<" + elementName, PATTERN_ELEMENT_NAME), Boolean.TRUE);
+		}
+
+		private int[] getPatternIds(String key, boolean isAttributeKey) {
+			if (isAttributeKey) {
+				String attributeName = key.substring(0, key.length() - ATTR_INDICATOR.length());
+				return new int[] {getPatternId(attributeName + "=", PATTERN_ATTRIBUTE_NAME)};
+			}
+			// Element names and "class" attribute values are both matched against the same keys.
+			return new int[] {
+					getPatternId("<" + key, PATTERN_ELEMENT_NAME),
+					getPatternId(CLASS_ATTRIBUTE_PREFIX + "\"" + key + "\"", PATTERN_CLASS_VALUE),
+					getPatternId(CLASS_ATTRIBUTE_PREFIX + "'" + key + "'", PATTERN_CLASS_VALUE)};
+		}
+
+		private int getPatternId(String pattern, int type) {
+			Integer patternId = patternIds.get(pattern);
+			if (patternId == null) {
+				patternId = Integer.valueOf(patterns.size());
+				patternIds.put(pattern, patternId);
+				patterns.add(pattern);
+				types.add(Integer.valueOf(type));
+				globalKeys.add(Boolean.FALSE);
+				dateElements.add(Boolean.FALSE);
+				classIds.add(Integer.valueOf(-1));
+				keyOfClassIds.add(new ArrayList<Integer>());
+			}
+			return patternId.intValue();
+		}
+	}
+
+	private static void compilePropertyRules(String ruleClass, Map<String, String> propertyRules,
+			Map<String, ConversionRule> elementRules, Map<String, ConversionRule> attributeRules,
+			List<ConversionRule> compiledRules) {
+		for (Map.Entry<String, String> propertyEntry : propertyRules.entrySet()) {
+			String match = propertyEntry.getKey();
+			String replacement = propertyEntry.getValue();
+			int id = compiledRules.size();
+			ConversionRule rule;
+			if (StringUtils.endsWith(match, ATTR_INDICATOR)) {
+				// Attribute names can only be renamed or dropped.
+				String attributeName = match.substring(0, match.length() - ATTR_INDICATOR.length());
+				if (StringUtils.isBlank(replacement)) {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.DROP, null);
+				} else {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.RENAME, replacement);
+				}
+				attributeRules.put(attributeName, rule);
+			} else {
+				if (StringUtils.isBlank(replacement)) {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.DROP, null);
+				} else if (MOVE_NODES_TO_PARENT_INDICATOR.equals(replacement)) {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.MOVE_TO_PARENT, null);
+				} else if (CONVERT_TO_MAP_ENTRIES_INDICATOR.equals(replacement)) {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.WRAP_MAP_ENTRY, null);
+				} else {
+					rule = new ConversionRule(id, ruleClass, match, ConversionAction.RENAME, replacement);
+				}
+				elementRules.put(match, rule);
+			}
+			compiledRules.add(rule);
+		}
+	}
+
+	/**
+	 * Performs a single-pass scan of the given maintainable XML to determine whether any of
+	 * the conversion rules could apply to it. Alongside the automaton, the scan keeps track of
+	 * the element depth and of which elements denote a class with its own rules, so that a
+	 * class-specific key only counts in the same place where the converter would apply it.
+	 * Like in the converter, a date element counts if the text from its start tag up to the
+	 * next end tag is date-only; text with an entity or carriage return in it always counts,
+	 * since its length after parsing is not known. The tag tracking is approximate (CDATA
+	 * sections, for instance, are not handled), and the scan can report false positives, in
+	 * which case the conversion leaves the XML as it is.
+	 *
+	 * @param xml the maintainable XML
+	 * @return true if the XML contains content matching the conversion rules, false otherwise
+	 */
+	boolean isConversionNeeded(CharSequence xml) {
+		// The class id of the element at each depth, or -1 if it has no class-specific rules.
+		int[] classIds = new int[INITIAL_SCAN_DEPTH_CAPACITY];
+		// The attribute-key patterns found in the current start tag, to check once its class is known.
+		int[] attributePatternIds = new int[INITIAL_SCAN_DEPTH_CAPACITY];
+		int attributePatternCount = 0;
+		// Whether the current start tag is a date element's, and the length of the text after a date element's start tag.
+		boolean dateElementTag = false;
+		int dateTextLength = -1;
+		boolean dateTextLengthUnknown = false;
+		int depth = 0;
+		int lexState = LEX_TEXT;
+		char quoteChar = 0;
+		char prev = 0;
+		int state = keyScanner.getStartState();
+		int len = xml.length();
+		for (int i = 0; i < len; i++) {
+			char c = xml.charAt(i);
+			// Track whether we are inside a start tag, and how deep.
+			switch (lexState) {
+				case LEX_TEXT :
+					if (c == '<') {
+						lexState = LEX_TAG_OPENED;
+					} else if (dateTextLength != -1) {
+						dateTextLength++;
+						if (c == '&' || c == '\r') {
+							dateTextLengthUnknown = true;
+						}
+					}
+					break;
+				case LEX_TAG_OPENED :
+					if (c == '/') {
+						// The converter checks the date text's length at the first end tag after it.
+						if (dateTextLength != -1) {
+							if (dateTextLength == DATE_ONLY_LENGTH || dateTextLengthUnknown) {
+								return true;
+							}
+							dateTextLength = -1;
+						}
+						depth--;
+						lexState = LEX_OTHER_MARKUP;
+					} else if (c == '!' || c == '?') {
+						// CDATA sections count as text in the converter.
+						if (c == '!' && dateTextLength != -1) {
+							dateTextLengthUnknown = true;
+						}
+						lexState = LEX_OTHER_MARKUP;
+					} else {
+						depth++;
+						if (depth == classIds.length) {
+							int[] newClassIds = new int[depth * 2];
+							System.arraycopy(classIds, 0, newClassIds, 0, depth);
+							classIds = newClassIds;
+						}
+						classIds[depth] = -1;
+						attributePatternCount = 0;
+						dateElementTag = false;
+						lexState = LEX_START_TAG;
+					}
+					break;
+				case LEX_START_TAG :
+					if (c == '"' || c == '\'') {
+						quoteChar = c;
+						lexState = LEX_QUOTED;
+					} else if (c == '>') {
+						// The element's class is known now, so check any attribute keys against it.
+						for (int p = 0; p < attributePatternCount; p++) {
+							if (depth > 0 && contains(patternKeyOfClassIds[attributePatternIds[p]], classIds[depth])) {
+								return true;
+							}
+						}
+						if (prev == '/') {
+							depth--;
+						} else if (dateElementTag) {
+							dateTextLength = 0;
+							dateTextLengthUnknown = false;
+						}
+						lexState = LEX_TEXT;
+					}
+					break;
+				case LEX_QUOTED :
+					if (c == quoteChar) {
+						lexState = LEX_START_TAG;
+					}
+					break;
+				default :
+					if (c == '>') {
+						lexState = LEX_TEXT;
+					}
+					break;
+			}
+			prev = c;
+
+			state = keyScanner.step(state, c);
+			int[] matches = keyScanner.getMatches(state);
+			if (matches.length == 0 || lexState != LEX_START_TAG || depth <= 0) {
+				continue;
+			}
+			for (int m = 0; m < matches.length; m++) {
+				int patternId = matches[m];
+				if (!isInMatchingPosition(xml, patternId, i)) {
+					continue;
+				}
+				if (patternIsDateElement[patternId]) {
+					dateElementTag = true;
+				}
+				if (patternIsGlobalKey[patternId]) {
+					return true;
+				}
+				if (patternTypes[patternId] == PATTERN_ATTRIBUTE_NAME) {
+					if (patternKeyOfClassIds[patternId].length > 0) {
+						if (attributePatternCount == attributePatternIds.length) {
+							int[] newPatternIds = new int[attributePatternCount * 2];
+							System.arraycopy(attributePatternIds, 0, newPatternIds, 0, attributePatternCount);
+							attributePatternIds = newPatternIds;
+						}
+						attributePatternIds[attributePatternCount++] = patternId;
+					}
+					continue;
+				}
+				// Element names and "class" values are subject to the direct parent's class rules.
+				if (contains(patternKeyOfClassIds[patternId], classIds[depth - 1])) {
+					return true;
+				}
+				// A "class" value comes after the element name, and therefore takes precedence like in the converter.
+				if (patternClassIds[patternId] != -1) {
+					classIds[depth] = patternClassIds[patternId];
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		if (value == -1) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Checks the characters around a pattern match to make sure it is a whole element name,
+	 * "class" attribute or attribute name.
+	 */
+	private boolean isInMatchingPosition(CharSequence xml, int patternId, int matchEnd) {
+		if (patternTypes[patternId] == PATTERN_ELEMENT_NAME) {
+			if (matchEnd + 1 >= xml.length()) {
+				return false;
+			}
+			char next = xml.charAt(matchEnd + 1);
+			return next == '>' || next == '/' || Character.isWhitespace(next);
+		}
+		int matchStart = matchEnd - keyScanner.getPatternLength(patternId) + 1;
+		return matchStart > 0 && Character.isWhitespace(xml.charAt(matchStart - 1));
+	}
+
+	/**
+	 * @return the global rules, which also serve as the rules for content outside of any known class
+	 */
+	ClassRules getGlobalRules() {
+		return globalRules;
+	}
+
+	/**
+	 * @return the rule-set version of this index, which only changes when the rules themselves change
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the rule-set version as a fixed-length hex string, for storing in document XML
+	 */
+	String getVersionString() {
+		return versionString;
+	}
+
+	/**
+	 * @param className an element name or "class" attribute value
+	 * @return the merged rules for the given class, or null if the class has no rules entry
+	 */
+	ClassRules getClassRules(String className) {
+		return classRules.get(className);
+	}
+
+	/**
+	 * @param elementName the (converted) element name
+	 * @return the DATE_SUFFIX rule for the given element, or null if it is not a date field
+	 */
+	ConversionRule getDateRule(String elementName) {
+		return dateRules.get(elementName);
+	}
+
+	/**
+	 * Records that the converter applied the given rule.
+	 *
+	 * @param rule a rule from this index
+	 */
+	void recordHit(ConversionRule rule) {
+		hitCounters.increment(rule.id);
+	}
+
+	/**
+	 * Records the end of a conversion.
+	 *
+	 * @param ruleApplied whether the conversion applied any rule
+	 */
+	void recordConversion(boolean ruleApplied) {
+		hitCounters.increment(ruleApplied ? convertedCounterId : unchangedCounterId);
+	}
+
+	/**
+	 * @return the number of conversions that applied at least one rule
+	 */
+	long getConvertedCount() {
+		return hitCounters.get(convertedCounterId);
+	}
+
+	/**
+	 * @return the number of conversions that did not apply any rule
+	 */
+	long getUnchangedCount() {
+		return hitCounters.get(unchangedCounterId);
+	}
+
+	/**
+	 * @return the hit counts of all of the rules, from the most to the least often applied
+	 * (with ties in a fixed order)
+	 */
+	List<RuleHitCount> getRuleHitCounts() {
+		List<RuleHitCount> hitCounts = new ArrayList<RuleHitCount>(rules.size());
+		for (ConversionRule rule : rules) {
+			hitCounts.add(new RuleHitCount(rule, hitCounters.get(rule.id)));
+		}
+		Collections.sort(hitCounts, new Comparator<RuleHitCount>() {
+			@Override
+			public int compare(RuleHitCount hitCount1, RuleHitCount hitCount2) {
+				if (hitCount1.hitCount != hitCount2.hitCount) {
+					return (hitCount1.hitCount > hitCount2.hitCount) ? -1 : 1;
+				}
+				return hitCount1.rule.id - hitCount2.rule.id;
+			}
+		});
+		return hitCounts;
+	}
+
+	/**
+	 * Resets the rule hit and conversion counters.
+	 */
+	void resetHitCounts() {
+		hitCounters.reset();
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * ====
+ * CU Customization:
+ * The rules read from a conversion rules file, along with a checksum of
+ * the file, in a form that can be saved to and loaded from a compact
+ * binary snapshot.
+ *
+ * The build runs main() on the default rules file, and the conversion
+ * service loads the resulting "[rules file].snapshot" at startup instead
+ * of parsing the rules XML, as long as the checksum still matches the
+ * rules file. Otherwise, it falls back to parsing the XML.
+ * ====
+ */
+public final class ConversionRuleSnapshot {
+
+	static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	// "MXRS"; the format version is bumped whenever the layout changes, which makes older snapshots unreadable.
+	private static final int MAGIC = 0x4D585253;
+	private static final int FORMAT_VERSION = 1;
+	private static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+	private final byte[] sourceChecksum;
+	private final Map<String, String> classNameRuleMap;
+	private final Map<String, Map<String, String>> classPropertyRuleMap;
+	private final Map<String, String> dateRuleMap;
+
+	ConversionRuleSnapshot(byte[] sourceChecksum, Map<String, String> classNameRuleMap,
+			Map<String, Map<String, String>> classPropertyRuleMap, Map<String, String> dateRuleMap) {
+		this.sourceChecksum = sourceChecksum.clone();
+		this.classNameRuleMap = Collections.unmodifiableMap(new HashMap<String, String>(classNameRuleMap));
+		Map<String, Map<String, String>> propertyRules = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, Map<String, String>> classRules : classPropertyRuleMap.entrySet()) {
+			propertyRules.put(classRules.getKey(), Collections.unmodifiableMap(new HashMap<String, String>(classRules.getValue())));
+		}
+		this.classPropertyRuleMap = Collections.unmodifiableMap(propertyRules);
+		this.dateRuleMap = Collections.unmodifiableMap(new HashMap<String, String>(dateRuleMap));
+	}
+
+	/**
+	 * Compiles a rules file into a snapshot. The arguments are the rules file and, optionally, the snapshot
+	 * file to write (which defaults to the rules file's path plus ".snapshot").
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ConversionRuleSnapshot rulesFile [snapshotFile]");
+			System.exit(1);
+		}
+		File ruleFile = new File(args[0]);
+		File snapshotFile = new File((args.length > 1) ? args[1] : args[0] + SNAPSHOT_SUFFIX);
+		ConversionRuleSnapshot snapshot = MaintainableXMLConversionServiceImpl.parseRuleFile(FileUtils.readFileToByteArray(ruleFile));
+		OutputStream snapshotOut = new BufferedOutputStream(new FileOutputStream(snapshotFile));
+		try {
+			snapshot.write(snapshotOut);
+		} finally {
+			snapshotOut.close();
+		}
+		System.out.println("Wrote the conversion rule snapshot " + snapshotFile + " for " + ruleFile);
+	}
+
+	static byte[] computeChecksum(byte[] ruleFileContents) {
+		try {
+			return MessageDigest.getInstance(CHECKSUM_ALGORITHM).digest(ruleFileContents);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(CHECKSUM_ALGORITHM + " is not available", e);
+		}
+	}
+
+	/**
+	 * @param ruleFileContents the current contents of the rules file
+	 * @return true if this snapshot was made from the given rules file contents, false if it is stale
+	 */
+	boolean isSnapshotOf(byte[] ruleFileContents) {
+		return Arrays.equals(sourceChecksum, computeChecksum(ruleFileContents));
+	}
+
+	Map<String, String> getClassNameRuleMap() {
+		return classNameRuleMap;
+	}
+
+	Map<String, Map<String, String>> getClassPropertyRuleMap() {
+		return classPropertyRuleMap;
+	}
+
+	Map<String, String> getDateRuleMap() {
+		return dateRuleMap;
+	}
+
+	void write(OutputStream out) throws IOException {
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(MAGIC);
+		dataOut.writeInt(FORMAT_VERSION);
+		dataOut.writeShort(sourceChecksum.length);
+		dataOut.write(sourceChecksum);
+		writeRules(dataOut, classNameRuleMap);
+		dataOut.writeInt(classPropertyRuleMap.size());
+		for (Map.Entry<String, Map<String, String>> classRules : classPropertyRuleMap.entrySet()) {
+			dataOut.writeUTF(classRules.getKey());
+			writeRules(dataOut, classRules.getValue());
+		}
+		writeRules(dataOut, dateRuleMap);
+		dataOut.flush();
+	}
+
+	/**
+	 * @throws IOException if the stream is not a complete snapshot in the current format
+	 */
+	static ConversionRuleSnapshot read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+		if (dataIn.readInt() != MAGIC) {
+			throw new IOException("Not a conversion rule snapshot");
+		}
+		int formatVersion = dataIn.readInt();
+		if (formatVersion != FORMAT_VERSION) {
+			throw new IOException("Unsupported conversion rule snapshot format " + formatVersion);
+		}
+		byte[] sourceChecksum = new byte[dataIn.readUnsignedShort()];
+		dataIn.readFully(sourceChecksum);
+		Map<String, String> classNameRuleMap = readRules(dataIn);
+		int classCount = readCount(dataIn);
+		Map<String, Map<String, String>> classPropertyRuleMap = new HashMap<String, Map<String, String>>();
+		for (int i = 0; i < classCount; i++) {
+			String ruleClass = dataIn.readUTF();
+			classPropertyRuleMap.put(ruleClass, readRules(dataIn));
+		}
+		Map<String, String> dateRuleMap = readRules(dataIn);
+		if (dataIn.read() != -1) {
+			throw new IOException("Unexpected data at the end of the conversion rule snapshot");
+		}
+		return new ConversionRuleSnapshot(sourceChecksum, classNameRuleMap, classPropertyRuleMap, dateRuleMap);
+	}
+
+	private static void writeRules(DataOutputStream dataOut, Map<String, String> rules) throws IOException {
+		dataOut.writeInt(rules.size());
+		for (Map.Entry<String, String> rule : rules.entrySet()) {
+			dataOut.writeUTF(rule.getKey());
+			dataOut.writeUTF(rule.getValue());
+		}
+	}
+
+	private static Map<String, String> readRules(DataInputStream dataIn) throws IOException {
+		int ruleCount = readCount(dataIn);
+		Map<String, String> rules = new HashMap<String, String>();
+		for (int i = 0; i < ruleCount; i++) {
+			String match = dataIn.readUTF();
+			rules.put(match, dataIn.readUTF());
+		}
+		return rules;
+	}
+
+	private static int readCount(DataInputStream dataIn) throws IOException {
+		int count = dataIn.readInt();
+		if (count < 0) {
+			throw new IOException("Corrupt conversion rule snapshot");
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,228 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ====
+ * CU Customization:
+ * Size-bounded LRU cache of converted maintainable XML, so that
+ * re-opening the same legacy document (inquiries, route logs,
+ * back-button reloads) does not repeat the whole conversion.
+ *
+ * Entries are keyed by a SHA-256 digest of the original XML along
+ * with the version of the rule set and the output formatting flag,
+ * so the original XML itself is never retained. The cache is bounded
+ * by the approximate number of bytes held rather than by the number
+ * of entries, since maintainable XML sizes vary widely. All access
+ * to the entries is synchronized; the counters are atomic so that
+ * they can be read without locking.
+ * ====
+ */
+final class ConvertedXMLCache {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int DIGEST_BUFFER_SIZE = 1024;
+
+	// Rough per-entry overhead of the key, digest, map entry and String objects, in bytes.
+	private static final long ENTRY_OVERHEAD_BYTES = 160L;
+
+	private static final ThreadLocal<DigestState> DIGEST_STATE = new ThreadLocal<DigestState>() {
+		@Override
+		protected DigestState initialValue() {
+			return new DigestState();
+		}
+	};
+
+	private final long maxBytes;
+	private final LinkedHashMap<CacheKey, String> entries = new LinkedHashMap<CacheKey, String>(16, 0.75f, true);
+	private long currentBytes = 0L;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxBytes the approximate maximum number of bytes that the cached XML may occupy
+	 */
+	ConvertedXMLCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Creates the cache key for the given original XML.
+	 *
+	 * @param xml the original maintainable XML
+	 * @param ruleSetVersion the version of the rules used to convert it
+	 * @param formatOutput whether the converted XML is pretty-printed
+	 * @return the key to use for the converted XML
+	 */
+	static CacheKey createKey(String xml, long ruleSetVersion, boolean formatOutput) {
+		return new CacheKey(DIGEST_STATE.get().digest(xml), ruleSetVersion, formatOutput);
+	}
+
+	/**
+	 * @param key the cache key
+	 * @return the cached converted XML, or null if there is none
+	 */
+	String get(CacheKey key) {
+		String convertedXml;
+		synchronized (entries) {
+			convertedXml = entries.get(key);
+		}
+		if (convertedXml != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return convertedXml;
+	}
+
+	/**
+	 * Caches the given converted XML, evicting the least recently used entries as needed to stay within the size limit.
+	 * XML that is too large to fit in the cache on its own is not cached at all.
+	 *
+	 * @param key the cache key
+	 * @param convertedXml the converted XML
+	 */
+	void put(CacheKey key, String convertedXml) {
+		long entryBytes = getEntryBytes(convertedXml);
+		if (entryBytes > maxBytes) {
+			return;
+		}
+		int evicted = 0;
+		synchronized (entries) {
+			String previousXml = entries.put(key, convertedXml);
+			if (previousXml != null) {
+				currentBytes -= getEntryBytes(previousXml);
+			}
+			currentBytes += entryBytes;
+			Iterator<Map.Entry<CacheKey, String>> eldestEntries = entries.entrySet().iterator();
+			while (currentBytes > maxBytes && eldestEntries.hasNext()) {
+				Map.Entry<CacheKey, String> eldestEntry = eldestEntries.next();
+				currentBytes -= getEntryBytes(eldestEntry.getValue());
+				eldestEntries.remove();
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			evictionCount.addAndGet(evicted);
+		}
+	}
+
+	/**
+	 * Removes all entries; the counters are left as they are.
+	 */
+	void clear() {
+		synchronized (entries) {
+			entries.clear();
+			currentBytes = 0L;
+		}
+	}
+
+	private static long getEntryBytes(String convertedXml) {
+		return ENTRY_OVERHEAD_BYTES + 2L * convertedXml.length();
+	}
+
+	long getMaxBytes() {
+		return maxBytes;
+	}
+
+	long getCurrentBytes() {
+		synchronized (entries) {
+			return currentBytes;
+		}
+	}
+
+	int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
+	long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Immutable key for a cached conversion result.
+	 */
+	static final class CacheKey {
+		private final byte[] digest;
+		private final long ruleSetVersion;
+		private final boolean formatOutput;
+		private final int hashCode;
+
+		CacheKey(byte[] digest, long ruleSetVersion, boolean formatOutput) {
+			this.digest = digest;
+			this.ruleSetVersion = ruleSetVersion;
+			this.formatOutput = formatOutput;
+			// The digest is already well-distributed, so its leading bytes make a good hash code.
+			int digestHash = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+			this.hashCode = 31 * (31 * digestHash + (int) (ruleSetVersion ^ (ruleSetVersion >>> 32))) + (formatOutput ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return ruleSetVersion == other.ruleSetVersion && formatOutput == other.formatOutput
+					&& Arrays.equals(digest, other.digest);
+		}
+	}
+
+	/*
+	 * Per-thread digest and scratch buffer, for hashing the XML's characters without encoding a full copy of it.
+	 */
+	private static final class DigestState {
+		private final MessageDigest messageDigest;
+		private final byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+
+		DigestState() {
+			try {
+				messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+			}
+		}
+
+		byte[] digest(String xml) {
+			int len = xml.length();
+			int bufferLen = 0;
+			for (int i = 0; i < len; i++) {
+				char c = xml.charAt(i);
+				buffer[bufferLen++] = (byte) (c >>> 8);
+				buffer[bufferLen++] = (byte) c;
+				if (bufferLen == DIGEST_BUFFER_SIZE) {
+					messageDigest.update(buffer, 0, bufferLen);
+					bufferLen = 0;
+				}
+			}
+			messageDigest.update(buffer, 0, bufferLen);
+			return messageDigest.digest();
+		}
+	}
+
+}
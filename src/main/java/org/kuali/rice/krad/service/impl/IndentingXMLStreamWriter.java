@@ -0,0 +1,368 @@
+package org.kuali.rice.krad.service.impl;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * ====
+ * CU Customization:
+ * XMLStreamWriter wrapper that pretty-prints the converted
+ * maintainable XML while it is being streamed out, so that
+ * the conversion no longer needs a second Transformer pass
+ * (and the blank-line cleanup regex) just to indent it.
+ *
+ * Whitespace-only character data is held back until the writer
+ * knows whether it sits between elements (where it is replaced
+ * by the writer's own indentation) or is part of a value (where
+ * it is written as-is). Whitespace inside a leaf element, or next
+ * to text, is always part of a value; and once an element has had
+ * text written to it, its content is no longer indented at all,
+ * since the indentation would then change its value.
+ * ====
+ */
+class IndentingXMLStreamWriter implements XMLStreamWriter {
+
+	private static final int INITIAL_DEPTH_CAPACITY = 32;
+
+	private final XMLStreamWriter delegate;
+	private final int indentAmount;
+
+	// Newline followed by enough spaces for the deepest indentation written so far.
+	private char[] indentChars;
+
+	// Whether the element at each depth has had a child element (or PI) written to it.
+	private boolean[] hasChildMarkup = new boolean[INITIAL_DEPTH_CAPACITY];
+	// Whether the element at each depth has had anything other than whitespace written to it as text.
+	private boolean[] hasText = new boolean[INITIAL_DEPTH_CAPACITY];
+	private int depth = 0;
+
+	// Whitespace-only character data that has not been written yet.
+	private char[] pendingSpace = new char[64];
+	private int pendingSpaceLen = 0;
+
+	IndentingXMLStreamWriter(XMLStreamWriter delegate, int indentAmount) {
+		this.delegate = delegate;
+		this.indentAmount = indentAmount;
+		this.indentChars = new char[1 + indentAmount * INITIAL_DEPTH_CAPACITY];
+		fillIndentChars();
+	}
+
+	private void fillIndentChars() {
+		indentChars[0] = '\n';
+		for (int i = 1; i < indentChars.length; i++) {
+			indentChars[i] = ' ';
+		}
+	}
+
+	/*
+	 * Writes a newline plus the indentation for the current depth (in
+	 * place of any whitespace held back), and records on the parent
+	 * element that it has child markup. Top-level markup is not indented,
+	 * but is followed by a newline instead. Within an element that has
+	 * text, the held-back whitespace is written instead of an indent.
+	 */
+	private void beforeMarkup() throws XMLStreamException {
+		if (isInText()) {
+			flushPendingSpace();
+			hasChildMarkup[depth - 1] = true;
+			return;
+		}
+		pendingSpaceLen = 0;
+		if (depth > 0) {
+			writeIndent(depth);
+			hasChildMarkup[depth - 1] = true;
+		}
+	}
+
+	private boolean isInText() {
+		return depth > 0 && hasText[depth - 1];
+	}
+
+	private void afterMarkup() throws XMLStreamException {
+		if (depth == 0) {
+			delegate.writeCharacters(indentChars, 0, 1);
+		}
+	}
+
+	private void writeIndent(int level) throws XMLStreamException {
+		int len = 1 + level * indentAmount;
+		if (len > indentChars.length) {
+			indentChars = new char[Math.max(len, indentChars.length * 2)];
+			fillIndentChars();
+		}
+		delegate.writeCharacters(indentChars, 0, len);
+	}
+
+	private void pushElement() {
+		if (depth == hasChildMarkup.length) {
+			boolean[] newStack = new boolean[depth * 2];
+			System.arraycopy(hasChildMarkup, 0, newStack, 0, depth);
+			hasChildMarkup = newStack;
+			newStack = new boolean[depth * 2];
+			System.arraycopy(hasText, 0, newStack, 0, depth);
+			hasText = newStack;
+		}
+		hasChildMarkup[depth] = false;
+		hasText[depth] = false;
+		depth++;
+	}
+
+	private void flushPendingSpace() throws XMLStreamException {
+		if (pendingSpaceLen > 0) {
+			delegate.writeCharacters(pendingSpace, 0, pendingSpaceLen);
+		}
+		pendingSpaceLen = 0;
+	}
+
+	/*
+	 * Records that the current element has text, which any whitespace held back belongs to.
+	 */
+	private void beforeText() throws XMLStreamException {
+		flushPendingSpace();
+		if (depth > 0) {
+			hasText[depth - 1] = true;
+		}
+	}
+
+	/*
+	 * Holds back whitespace-only character data, unless it is already known to be part of a value.
+	 */
+	private boolean bufferIfWhitespace(char[] text, int start, int len) {
+		if (isInText()) {
+			return false;
+		}
+		for (int i = start; i < start + len; i++) {
+			if (!Character.isWhitespace(text[i])) {
+				return false;
+			}
+		}
+		ensurePendingSpaceCapacity(len);
+		System.arraycopy(text, start, pendingSpace, pendingSpaceLen, len);
+		pendingSpaceLen += len;
+		return true;
+	}
+
+	private boolean bufferIfWhitespace(String text) {
+		if (isInText()) {
+			return false;
+		}
+		int len = text.length();
+		for (int i = 0; i < len; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				return false;
+			}
+		}
+		ensurePendingSpaceCapacity(len);
+		text.getChars(0, len, pendingSpace, pendingSpaceLen);
+		pendingSpaceLen += len;
+		return true;
+	}
+
+	private void ensurePendingSpaceCapacity(int extraLen) {
+		if (pendingSpaceLen + extraLen > pendingSpace.length) {
+			char[] newBuffer = new char[Math.max(pendingSpaceLen + extraLen, pendingSpace.length * 2)];
+			System.arraycopy(pendingSpace, 0, newBuffer, 0, pendingSpaceLen);
+			pendingSpace = newBuffer;
+		}
+	}
+
+	@Override
+	public void writeStartElement(String localName) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeStartElement(localName);
+		pushElement();
+	}
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeStartElement(namespaceURI, localName);
+		pushElement();
+	}
+
+	@Override
+	public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeStartElement(prefix, localName, namespaceURI);
+		pushElement();
+	}
+
+	@Override
+	public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeEmptyElement(namespaceURI, localName);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeEmptyElement(prefix, localName, namespaceURI);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeEmptyElement(String localName) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeEmptyElement(localName);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		depth--;
+		if (hasChildMarkup[depth] && !hasText[depth]) {
+			pendingSpaceLen = 0;
+			writeIndent(depth);
+		} else {
+			// A leaf's whitespace is its value, and an element with text is not indented.
+			flushPendingSpace();
+		}
+		delegate.writeEndElement();
+		afterMarkup();
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		while (depth > 0) {
+			writeEndElement();
+		}
+		delegate.writeEndDocument();
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		delegate.close();
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		delegate.flush();
+	}
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+		delegate.writeAttribute(localName, value);
+	}
+
+	@Override
+	public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+		delegate.writeAttribute(prefix, namespaceURI, localName, value);
+	}
+
+	@Override
+	public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+		delegate.writeAttribute(namespaceURI, localName, value);
+	}
+
+	@Override
+	public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+		delegate.writeNamespace(prefix, namespaceURI);
+	}
+
+	@Override
+	public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+		delegate.writeDefaultNamespace(namespaceURI);
+	}
+
+	@Override
+	public void writeComment(String data) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeComment(data);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeProcessingInstruction(target);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+		beforeMarkup();
+		delegate.writeProcessingInstruction(target, data);
+		afterMarkup();
+	}
+
+	@Override
+	public void writeCData(String data) throws XMLStreamException {
+		beforeText();
+		delegate.writeCData(data);
+	}
+
+	@Override
+	public void writeDTD(String dtd) throws XMLStreamException {
+		delegate.writeDTD(dtd);
+	}
+
+	@Override
+	public void writeEntityRef(String name) throws XMLStreamException {
+		beforeText();
+		delegate.writeEntityRef(name);
+	}
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		delegate.writeStartDocument();
+	}
+
+	@Override
+	public void writeStartDocument(String version) throws XMLStreamException {
+		delegate.writeStartDocument(version);
+	}
+
+	@Override
+	public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+		delegate.writeStartDocument(encoding, version);
+	}
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		if (!bufferIfWhitespace(text)) {
+			beforeText();
+			delegate.writeCharacters(text);
+		}
+	}
+
+	@Override
+	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+		if (!bufferIfWhitespace(text, start, len)) {
+			beforeText();
+			delegate.writeCharacters(text, start, len);
+		}
+	}
+
+	@Override
+	public String getPrefix(String uri) throws XMLStreamException {
+		return delegate.getPrefix(uri);
+	}
+
+	@Override
+	public void setPrefix(String prefix, String uri) throws XMLStreamException {
+		delegate.setPrefix(prefix, uri);
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException {
+		delegate.setDefaultNamespace(uri);
+	}
+
+	@Override
+	public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+		delegate.setNamespaceContext(context);
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return delegate.getNamespaceContext();
+	}
+
+	@Override
+	public Object getProperty(String name) throws IllegalArgumentException {
+		return delegate.getProperty(name);
+	}
+
+}
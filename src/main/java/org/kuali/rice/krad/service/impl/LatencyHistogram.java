@@ -0,0 +1,121 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ====
+ * CU Customization:
+ * Lock-free, allocation-free histogram of durations in nanoseconds,
+ * for the maintainable XML conversion metrics.
+ *
+ * Durations are counted in log-linear buckets: each power of two is
+ * split into four equal sub-buckets, so percentiles are reported to
+ * within 25% of the actual value while the whole range of a long fits
+ * in a fixed array of counters. Recording is a few atomic increments;
+ * reads are not atomic across counters, which is fine for monitoring.
+ * ====
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = 64 * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos the duration to record, in nanoseconds (negative values are recorded as 0)
+	 */
+	void record(long nanos) {
+		if (nanos < 0L) {
+			nanos = 0L;
+		}
+		buckets.incrementAndGet(getBucketIndex(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long currentMax = maxNanos.get();
+		while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)) {
+			currentMax = maxNanos.get();
+		}
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	double getMeanNanos() {
+		long currentCount = count.get();
+		return (currentCount > 0L) ? (double) totalNanos.get() / currentCount : 0.0;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the upper bound of the bucket containing the given percentile (capped at the maximum), or 0 if
+	 * nothing has been recorded
+	 */
+	long getPercentileNanos(double percentile) {
+		long total = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0L) {
+			return 0L;
+		}
+		long threshold = Math.max(1L, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+		long cumulative = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulative += buckets.get(i);
+			if (cumulative >= threshold) {
+				return Math.min(getBucketUpperBound(i), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0L);
+		}
+		count.set(0L);
+		totalNanos.set(0L);
+		maxNanos.set(0L);
+	}
+
+	/*
+	 * Values below SUB_BUCKET_COUNT get a bucket each; above that, the bucket is chosen by the position of the
+	 * highest set bit and the SUB_BUCKET_BITS bits just below it.
+	 */
+	static int getBucketIndex(long nanos) {
+		if (nanos < SUB_BUCKET_COUNT) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKET_COUNT;
+		long lowerBound = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+		long upperBound = lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+		// The last bucket's upper bound overflows.
+		return (upperBound < 0L) ? Long.MAX_VALUE : upperBound;
+	}
+
+}
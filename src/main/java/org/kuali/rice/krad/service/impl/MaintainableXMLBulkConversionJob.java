@@ -0,0 +1,1106 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.CoreApiServiceLocator;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.api.encryption.EncryptionService;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+import org.kuali.rice.krad.maintenance.MaintenanceDocumentBase;
+import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+
+/**
+ * ====
+ * CU Customization:
+ * Offline job that converts the legacy maintainable XML of every document
+ * in the maintenance document table, so that old documents stop paying
+ * for the just-in-time conversion each time they are loaded.
+ *
+ * The calling thread streams the documents in document number order
+ * (with the JDBC fetch size set) onto a bounded queue, a pool of workers
+ * converts them, and a single writer applies the changes in JDBC batches.
+ * The bounded queues keep a slow database or slow conversions from
+ * letting the reader run ahead and fill the heap. Converted contents are
+ * stamped with the active rule-set version, so that later loads (and later
+ * runs) skip them; documents that are already stamped are left alone.
+ *
+ * As with the write-back service, each update is conditional on the
+ * version number that was read, so documents saved during the run are
+ * never overwritten. Progress is checkpointed by document number after
+ * each batch, and a run with a checkpoint file resumes after the last
+ * document that was fully processed. In dry-run mode, nothing (not even
+ * the checkpoint) is written, but the counts report what would have been.
+ *
+ * To share the work between several nodes, use runShards() instead of
+ * run(). The documents are then split into document number ranges in a
+ * lease table (see BulkConversionShardTable), and each node claims one
+ * shard at a time, checkpoints its progress in the table along with each
+ * lease renewal, and resumes any shard whose lease has expired.
+ *
+ * The job can be configured as a bean and run from within the application,
+ * or run standalone with main() and a properties file; the standalone job
+ * cannot decrypt document contents, so it needs encryption to be off.
+ * ====
+ */
+public class MaintainableXMLBulkConversionJob {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLBulkConversionJob.class);
+
+	private static final String FETCH_SIZE_PARAMETER = "maintainable.conversion.bulk.fetch.size";
+	private static final String BATCH_SIZE_PARAMETER = "maintainable.conversion.bulk.batch.size";
+	private static final String WORKERS_PARAMETER = "maintainable.conversion.bulk.workers";
+	private static final String QUEUE_CAPACITY_PARAMETER = "maintainable.conversion.bulk.queue.capacity";
+	private static final String DRY_RUN_PARAMETER = "maintainable.conversion.bulk.dry.run";
+	private static final String CHECKPOINT_FILE_PARAMETER = "maintainable.conversion.bulk.checkpoint.file";
+	private static final String SHARDED_PARAMETER = "maintainable.conversion.bulk.sharded";
+	private static final String SHARD_COUNT_PARAMETER = "maintainable.conversion.bulk.shard.count";
+	private static final String SHARD_TABLE_PARAMETER = "maintainable.conversion.bulk.shard.table";
+	private static final String LEASE_DURATION_PARAMETER = "maintainable.conversion.bulk.lease.duration";
+	// Only used by main().
+	private static final String JDBC_DRIVER_PARAMETER = "maintainable.conversion.bulk.jdbc.driver";
+	private static final String JDBC_URL_PARAMETER = "maintainable.conversion.bulk.jdbc.url";
+	private static final String JDBC_USERNAME_PARAMETER = "maintainable.conversion.bulk.jdbc.username";
+	private static final String JDBC_PASSWORD_PARAMETER = "maintainable.conversion.bulk.jdbc.password";
+	private static final String CONVERSION_RULE_FILE_PARAMETER = "maintainable.conversion.rule.file";
+	private static final String DEFAULT_CONVERSION_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+
+	private static final String SELECT_SQL = "SELECT DOC_HDR_ID, VER_NBR, DOC_CNTNT FROM KRNS_MAINT_DOC_T";
+	private static final String UPDATE_SQL = "UPDATE KRNS_MAINT_DOC_T SET DOC_CNTNT = ? WHERE DOC_HDR_ID = ? AND VER_NBR = ?";
+	private static final String CHECKPOINT_DOCUMENT_NUMBER_PROPERTY = "lastDocumentNumber";
+	private static final String WORKER_THREAD_NAME_PREFIX = "maintainable-xml-bulk-conversion-";
+	private static final int PROGRESS_LOG_INTERVAL = 10000;
+	// How long the writer waits for a document before flushing what it has and recording progress anyway.
+	private static final long WRITER_IDLE_MILLIS = 1000L;
+
+	private DataSource dataSource;
+	private MaintainableXMLConversionService conversionService;
+	private boolean encryptContents = true;
+	private int fetchSize = 500;
+	private int batchSize = 100;
+	private int workerCount = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = 1000;
+	private boolean dryRun = false;
+	private String checkpointFile;
+	private int shardCount = 64;
+	private String shardTable = "CU_MAINT_DOC_CONV_SHARD_T";
+	private long leaseDurationSeconds = 300L;
+	private String ownerId;
+
+	private volatile boolean stopRequested = false;
+
+	public MaintainableXMLBulkConversionJob() {
+		String fetchSize = ConfigContext.getCurrentContextConfig().getProperty(FETCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(fetchSize)) {
+			this.setFetchSize(Integer.parseInt(fetchSize.trim()));
+		}
+		String batchSize = ConfigContext.getCurrentContextConfig().getProperty(BATCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(batchSize)) {
+			this.setBatchSize(Integer.parseInt(batchSize.trim()));
+		}
+		String workers = ConfigContext.getCurrentContextConfig().getProperty(WORKERS_PARAMETER);
+		if (StringUtils.isNotBlank(workers)) {
+			this.setWorkerCount(Integer.parseInt(workers.trim()));
+		}
+		String queueCapacity = ConfigContext.getCurrentContextConfig().getProperty(QUEUE_CAPACITY_PARAMETER);
+		if (StringUtils.isNotBlank(queueCapacity)) {
+			this.setQueueCapacity(Integer.parseInt(queueCapacity.trim()));
+		}
+		String dryRun = ConfigContext.getCurrentContextConfig().getProperty(DRY_RUN_PARAMETER);
+		if (StringUtils.isNotBlank(dryRun)) {
+			this.setDryRun(Boolean.parseBoolean(dryRun.trim()));
+		}
+		this.setCheckpointFile(ConfigContext.getCurrentContextConfig().getProperty(CHECKPOINT_FILE_PARAMETER));
+		String shardCount = ConfigContext.getCurrentContextConfig().getProperty(SHARD_COUNT_PARAMETER);
+		if (StringUtils.isNotBlank(shardCount)) {
+			this.setShardCount(Integer.parseInt(shardCount.trim()));
+		}
+		String shardTable = ConfigContext.getCurrentContextConfig().getProperty(SHARD_TABLE_PARAMETER);
+		if (StringUtils.isNotBlank(shardTable)) {
+			this.setShardTable(shardTable.trim());
+		}
+		String leaseDuration = ConfigContext.getCurrentContextConfig().getProperty(LEASE_DURATION_PARAMETER);
+		if (StringUtils.isNotBlank(leaseDuration)) {
+			this.setLeaseDurationSeconds(Long.parseLong(leaseDuration.trim()));
+		}
+		// Unique per job instance, so that several instances in one JVM are still told apart.
+		this.setOwnerId(ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8));
+	}
+
+	/**
+	 * Runs the job standalone. The only argument is a properties file holding the JDBC connection settings
+	 * (maintainable.conversion.bulk.jdbc.driver, .url, .username and .password) along with any of the usual
+	 * conversion and bulk conversion parameters. If maintainable.conversion.bulk.sharded is true, the job works
+	 * on shards (as with runShards()); otherwise it converts the whole table (as with run()).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: MaintainableXMLBulkConversionJob propertiesFile");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream propertiesIn = new FileInputStream(args[0]);
+		try {
+			properties.load(propertiesIn);
+		} finally {
+			propertiesIn.close();
+		}
+		if (StringUtils.isBlank(properties.getProperty(CONVERSION_RULE_FILE_PARAMETER))) {
+			properties.setProperty(CONVERSION_RULE_FILE_PARAMETER, DEFAULT_CONVERSION_RULE_FILE);
+		}
+		JAXBConfigImpl config = new JAXBConfigImpl();
+		for (String name : properties.stringPropertyNames()) {
+			config.putProperty(name, properties.getProperty(name));
+		}
+		ConfigContext.init(config);
+
+		if (StringUtils.isNotBlank(properties.getProperty(JDBC_DRIVER_PARAMETER))) {
+			Class.forName(properties.getProperty(JDBC_DRIVER_PARAMETER).trim());
+		}
+		MaintainableXMLConversionServiceImpl conversionService = new MaintainableXMLConversionServiceImpl();
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.afterPropertiesSet();
+		MaintainableXMLBulkConversionJob job = new MaintainableXMLBulkConversionJob();
+		job.setDataSource(new DriverManagerDataSource(properties.getProperty(JDBC_URL_PARAMETER),
+				properties.getProperty(JDBC_USERNAME_PARAMETER), properties.getProperty(JDBC_PASSWORD_PARAMETER)));
+		job.setConversionService(conversionService);
+		job.setEncryptContents(false);
+		Result result = Boolean.parseBoolean(StringUtils.trim(properties.getProperty(SHARDED_PARAMETER))) ? job.runShards() : job.run();
+		System.out.println(result);
+		conversionService.destroy();
+		System.exit(result.getFailedCount() > 0L ? 2 : 0);
+	}
+
+	/**
+	 * Converts the documents after the checkpoint (or all of them, if there is no checkpoint file or it does not
+	 * exist yet), and returns once they have all been processed or a stop has been requested.
+	 *
+	 * @return the counts of what was done
+	 * @throws Exception if reading the documents or writing the checkpoint failed, or a worker failed unexpectedly;
+	 * failures to convert or update individual documents are only counted and logged
+	 */
+	public Result run() throws Exception {
+		MaintainableXMLConversionService conversionService = getRequiredConversionService();
+		stopRequested = false;
+		String startAfter = readCheckpoint();
+		LOG.info("Starting the bulk conversion" + (dryRun ? " (dry run)" : "") + " after document number '"
+				+ StringUtils.defaultString(startAfter) + "' with " + workerCount + " workers, rule set version "
+				+ conversionService.getRuleSetVersion());
+		Result result = new Result(startAfter);
+		convertDocuments(startAfter, null, conversionService, result, new ProgressRecorder() {
+			private String recordedDocumentNumber;
+
+			@Override
+			public boolean recordProgress(String documentNumber) throws IOException {
+				if (documentNumber != null && !documentNumber.equals(recordedDocumentNumber)) {
+					writeCheckpoint(documentNumber);
+					recordedDocumentNumber = documentNumber;
+				}
+				return true;
+			}
+		});
+		LOG.info("Finished the bulk conversion: " + result);
+		return result;
+	}
+
+	/**
+	 * Works through shards of the documents, alongside any other nodes doing the same, until no shard is left to
+	 * claim or a stop has been requested. The shards are planned first if the shard table is empty. When this returns,
+	 * the shards still held by other nodes may not be complete yet; run this again later (on any node) to pick up
+	 * any that were abandoned, once their leases have expired.
+	 *
+	 * @return the counts of what this node did, across all of the shards it worked on
+	 * @throws Exception if reading the documents or updating the shard table failed, or a worker failed unexpectedly
+	 */
+	public Result runShards() throws Exception {
+		MaintainableXMLConversionService conversionService = getRequiredConversionService();
+		if (dryRun) {
+			throw new IllegalStateException("Dry runs cannot be sharded, since they would leave their shards unconverted");
+		}
+		stopRequested = false;
+		final BulkConversionShardTable shards = new BulkConversionShardTable(dataSource, shardTable);
+		shards.planShards(shardCount, fetchSize);
+		final long leaseDurationMillis = leaseDurationSeconds * 1000L;
+		LOG.info("Starting the sharded bulk conversion as " + ownerId + " with " + workerCount + " workers, rule set version "
+				+ conversionService.getRuleSetVersion());
+		Result result = new Result(null);
+		BulkConversionShardTable.Shard shard;
+		while (!stopRequested && (shard = shards.claimShard(ownerId, leaseDurationMillis)) != null) {
+			LOG.info("Claimed bulk conversion " + shard);
+			final BulkConversionShardTable.Shard claimedShard = shard;
+			final String[] recorded = new String[1];
+			final boolean[] leaseLost = new boolean[1];
+			ProgressRecorder leaseRenewer = new ProgressRecorder() {
+				private long lastRenewal = System.currentTimeMillis();
+
+				@Override
+				public boolean recordProgress(String documentNumber) throws SQLException {
+					long now = System.currentTimeMillis();
+					boolean progressed = documentNumber != null && !documentNumber.equals(recorded[0]);
+					if (leaseLost[0] || (!progressed && now - lastRenewal < leaseDurationMillis / 3L)) {
+						return !leaseLost[0];
+					}
+					if (!shards.renewLease(claimedShard, ownerId, documentNumber, leaseDurationMillis)) {
+						LOG.warn("Lost the lease on bulk conversion " + claimedShard + "; leaving it to its new owner");
+						leaseLost[0] = true;
+						return false;
+					}
+					recorded[0] = documentNumber;
+					lastRenewal = now;
+					return true;
+				}
+			};
+			Result shardResult = new Result(shard.getResumeAfterDocumentNumber());
+			try {
+				convertDocuments(shard.getResumeAfterDocumentNumber(), shard.getLastDocumentNumber(), conversionService,
+						shardResult, leaseRenewer);
+			} catch (Exception e) {
+				// Hand the shard straight back, rather than making other nodes wait for the lease to expire.
+				try {
+					shards.releaseShard(shard, ownerId, shardResult.lastDocumentNumber);
+				} catch (SQLException releaseFailure) {
+					LOG.error("Could not release bulk conversion " + shard + "; it can be claimed again once its lease expires",
+							releaseFailure);
+				}
+				throw e;
+			} finally {
+				result.add(shardResult);
+			}
+			if (leaseLost[0]) {
+				continue;
+			} else if (stopRequested) {
+				shards.releaseShard(shard, ownerId, shardResult.lastDocumentNumber);
+				LOG.info("Released bulk conversion " + shard + " after document number " + shardResult.lastDocumentNumber);
+			} else if (shards.completeShard(shard, ownerId, shardResult.lastDocumentNumber)) {
+				result.completedShardCount.incrementAndGet();
+				LOG.info("Completed bulk conversion " + shard + ": " + shardResult);
+			}
+		}
+		LOG.info("Finished the sharded bulk conversion as " + ownerId + " (" + shards.countShards(BulkConversionShardTable.COMPLETE)
+				+ " of " + shards.countShards() + " shards complete overall): " + result);
+		return result;
+	}
+
+	private MaintainableXMLConversionService getRequiredConversionService() {
+		if (dataSource == null) {
+			throw new IllegalStateException("A dataSource is required for the bulk conversion");
+		}
+		MaintainableXMLConversionService conversionService = getConversionService();
+		if (conversionService == null || conversionService.getRuleSetVersion() == null) {
+			throw new IllegalStateException("The bulk conversion requires a conversion service with conversion rules");
+		}
+		return conversionService;
+	}
+
+	/**
+	 * Asks a running job to stop reading documents. The documents already read are still converted and written,
+	 * and the checkpoint reflects them, so that the next run picks up where this one stopped. A sharded job
+	 * releases its current shard, so that any node can resume it.
+	 */
+	public void requestStop() {
+		stopRequested = true;
+	}
+
+	/*
+	 * The pipeline: this thread reads, the workers convert, and the writer writes and records progress. Every document
+	 * read reaches the writer (even if it needs no update) in the form of a ProcessedDocument, so that the writer knows
+	 * when all documents up to a given one have been dealt with. The documents are those after startAfter (or from the
+	 * first one, if null) up to and including lastDocumentNumber (or to the last one, if null).
+	 */
+	private void convertDocuments(String startAfter, String lastDocumentNumber, final MaintainableXMLConversionService conversionService,
+			final Result result, final ProgressRecorder progressRecorder) throws Exception {
+		final AtomicBoolean pipelineStopped = new AtomicBoolean();
+		final BlockingQueue<DocumentRow> conversionQueue = new ArrayBlockingQueue<DocumentRow>(queueCapacity);
+		final BlockingQueue<ProcessedDocument> writeQueue = new ArrayBlockingQueue<ProcessedDocument>(queueCapacity);
+		ExecutorService executor = Executors.newFixedThreadPool(workerCount + 1, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, WORKER_THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<?>> workers = new ArrayList<Future<?>>(workerCount);
+		try {
+			final Future<Void> writer = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					writeProcessedDocuments(writeQueue, result, progressRecorder, pipelineStopped);
+					return null;
+				}
+			});
+			final List<Future<?>> writerOnly = Collections.<Future<?>>singletonList(writer);
+			for (int i = 0; i < workerCount; i++) {
+				workers.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						convertQueuedDocuments(conversionQueue, writeQueue, conversionService, writerOnly);
+						return null;
+					}
+				}));
+			}
+
+			List<Future<?>> pipeline = new ArrayList<Future<?>>(workers);
+			pipeline.add(writer);
+			Exception readFailure = null;
+			try {
+				readDocuments(startAfter, lastDocumentNumber, conversionQueue, pipeline, pipelineStopped, result);
+			} catch (Exception e) {
+				readFailure = e;
+			}
+			// Let each worker finish what is queued, and then the writer once all of the workers are done.
+			for (int i = 0; i < workerCount; i++) {
+				if (!putUnlessFailed(conversionQueue, DocumentRow.END, pipeline)) {
+					// Part of the pipeline failed, so the workers may never get to the end markers; cancel them instead.
+					cancel(workers);
+					break;
+				}
+			}
+			ExecutionException workerFailure = null;
+			for (Future<?> worker : workers) {
+				try {
+					awaitWorker(worker, writer, workers);
+				} catch (ExecutionException e) {
+					workerFailure = e;
+				} catch (CancellationException e) {
+					// Cancelled because another part of the pipeline failed, which is reported instead.
+				}
+			}
+			putUnlessFailed(writeQueue, ProcessedDocument.END, writerOnly);
+			// The writer's failure comes first, since it is the likely reason for any worker failure.
+			try {
+				writer.get();
+			} catch (ExecutionException e) {
+				throw unwrap(e);
+			}
+			if (readFailure != null) {
+				throw readFailure;
+			}
+			if (workerFailure != null) {
+				throw unwrap(workerFailure);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Waits for a worker to finish. If the writer ends first (which means that it failed), the workers are cancelled,
+	 * since they could otherwise wait forever for documents that will never come or for space that will never free up.
+	 */
+	private static void awaitWorker(Future<?> worker, Future<?> writer, List<Future<?>> workers)
+			throws ExecutionException, InterruptedException {
+		while (true) {
+			if (writer.isDone()) {
+				cancel(workers);
+			}
+			try {
+				worker.get(1L, TimeUnit.SECONDS);
+				return;
+			} catch (TimeoutException e) {
+				// Check on the writer again.
+			}
+		}
+	}
+
+	private void readDocuments(String startAfter, String lastDocumentNumber, BlockingQueue<DocumentRow> conversionQueue,
+			List<Future<?>> pipeline, AtomicBoolean pipelineStopped, Result result) throws SQLException, InterruptedException {
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			connection = dataSource.getConnection();
+			// Some drivers (such as PostgreSQL's) only honor the fetch size outside of auto-commit mode.
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			// The bounds are left out when absent, rather than compared to empty strings, since Oracle treats those as nulls.
+			String sql = SELECT_SQL + ((startAfter != null) ? " WHERE DOC_HDR_ID > ?" : "")
+					+ ((lastDocumentNumber != null) ? ((startAfter != null) ? " AND" : " WHERE") + " DOC_HDR_ID <= ?" : "")
+					+ " ORDER BY DOC_HDR_ID";
+			statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			int index = 1;
+			if (startAfter != null) {
+				statement.setString(index++, startAfter);
+			}
+			if (lastDocumentNumber != null) {
+				statement.setString(index, lastDocumentNumber);
+			}
+			resultSet = statement.executeQuery();
+			long sequence = 0L;
+			while (!stopRequested && !pipelineStopped.get() && resultSet.next()) {
+				String documentNumber = resultSet.getString(1);
+				long versionNumber = resultSet.getLong(2);
+				String contents = resultSet.getString(3);
+				result.readCount.incrementAndGet();
+				if (!putUnlessFailed(conversionQueue, new DocumentRow(sequence++, documentNumber, versionNumber, contents), pipeline)) {
+					return;
+				}
+			}
+		} finally {
+			close(resultSet, statement, connection, true);
+		}
+	}
+
+	/*
+	 * Waits for space on the queue, unless one of the given pipeline tasks has ended early (which means that it
+	 * failed, and that the queues may never drain).
+	 */
+	private static <T> boolean putUnlessFailed(BlockingQueue<T> queue, T element, List<Future<?>> pipeline) throws InterruptedException {
+		while (!queue.offer(element, 1L, TimeUnit.SECONDS)) {
+			for (Future<?> task : pipeline) {
+				if (task.isDone()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void cancel(List<Future<?>> tasks) {
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return (cause instanceof Exception) ? (Exception) cause : e;
+	}
+
+	private void convertQueuedDocuments(BlockingQueue<DocumentRow> conversionQueue, BlockingQueue<ProcessedDocument> writeQueue,
+			MaintainableXMLConversionService conversionService, List<Future<?>> writer) throws InterruptedException {
+		while (true) {
+			DocumentRow row = conversionQueue.take();
+			if (row == DocumentRow.END) {
+				return;
+			}
+			if (!putUnlessFailed(writeQueue, convertDocument(row, conversionService), writer)) {
+				return;
+			}
+		}
+	}
+
+	private ProcessedDocument convertDocument(DocumentRow row, MaintainableXMLConversionService conversionService) {
+		try {
+			if (row.contents == null) {
+				return new ProcessedDocument(row, Outcome.ALREADY_CURRENT, null);
+			}
+			String contents = decryptContents(row.contents);
+			String newContents = MaintenanceDocumentBase.convertDocumentContents(contents, conversionService);
+			if (newContents == null) {
+				return new ProcessedDocument(row, Outcome.SKIPPED, null);
+			} else if (newContents == contents) {
+				return new ProcessedDocument(row, Outcome.ALREADY_CURRENT, null);
+			}
+			return new ProcessedDocument(row, Outcome.CONVERTED, encryptContents(newContents));
+		} catch (Exception e) {
+			LOG.warn("Could not convert maintenance document " + row.documentNumber, e);
+			return new ProcessedDocument(row, Outcome.FAILED, null);
+		}
+	}
+
+	/*
+	 * Writer loop: batches the updates, and after each batch (or every batchSize documents needing no update, or when
+	 * no documents arrive for a while) records the last document number up to which every document has been processed.
+	 * Documents are read in order but finish out of order, so those that finish early wait in "finished" until the gap
+	 * before them closes. If the progress recorder says to stop, the reader is stopped, but whatever has already been
+	 * read is still written.
+	 */
+	private void writeProcessedDocuments(BlockingQueue<ProcessedDocument> writeQueue, Result result,
+			ProgressRecorder progressRecorder, AtomicBoolean pipelineStopped) throws Exception {
+		List<ProcessedDocument> batch = new ArrayList<ProcessedDocument>(batchSize);
+		Map<Long, String> finished = new HashMap<Long, String>();
+		long nextSequence = 0L;
+		String checkpoint = null;
+		int sinceCheckpoint = 0;
+		long processedCount = 0L;
+		while (true) {
+			ProcessedDocument document = writeQueue.poll(WRITER_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+			boolean end = document == ProcessedDocument.END;
+			boolean idle = document == null;
+			if (!end && !idle) {
+				result.count(document.outcome);
+				if (document.outcome == Outcome.CONVERTED) {
+					batch.add(document);
+				} else {
+					finished.put(document.row.sequence, document.row.documentNumber);
+				}
+				sinceCheckpoint++;
+			}
+			if (batch.size() >= batchSize || ((end || idle) && !batch.isEmpty())) {
+				writeBatch(batch, result);
+				for (ProcessedDocument written : batch) {
+					finished.put(written.row.sequence, written.row.documentNumber);
+				}
+				batch.clear();
+			}
+			if (end || idle || sinceCheckpoint >= batchSize) {
+				while (finished.containsKey(nextSequence)) {
+					checkpoint = finished.remove(nextSequence);
+					nextSequence++;
+				}
+				if (checkpoint != null) {
+					result.lastDocumentNumber = checkpoint;
+				}
+				if (!progressRecorder.recordProgress(checkpoint)) {
+					pipelineStopped.set(true);
+				}
+				sinceCheckpoint = 0;
+			}
+			if (end) {
+				return;
+			}
+			if (!idle && ++processedCount % PROGRESS_LOG_INTERVAL == 0L) {
+				LOG.info("Bulk conversion progress: " + result);
+			}
+		}
+	}
+
+	/*
+	 * Writes a batch in one transaction. If the batch fails, its documents are retried one at a time, so that a single
+	 * bad document does not hold back the others.
+	 */
+	private void writeBatch(List<ProcessedDocument> batch, Result result) throws SQLException {
+		if (dryRun) {
+			result.writtenCount.addAndGet(batch.size());
+			return;
+		}
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			try {
+				int[] updateCounts = executeUpdates(connection, batch);
+				connection.commit();
+				for (int updateCount : updateCounts) {
+					countUpdate(updateCount, result);
+				}
+				return;
+			} catch (SQLException e) {
+				LOG.warn("Error writing a batch of " + batch.size() + " converted maintenance documents; retrying them one at a time", e);
+				rollback(connection);
+			}
+			for (ProcessedDocument document : batch) {
+				try {
+					int[] updateCounts = executeUpdates(connection, Collections.singletonList(document));
+					connection.commit();
+					countUpdate(updateCounts[0], result);
+				} catch (SQLException e) {
+					LOG.error("Could not write converted maintenance document " + document.row.documentNumber, e);
+					rollback(connection);
+					result.failedCount.incrementAndGet();
+				}
+			}
+		} finally {
+			close(null, null, connection, false);
+		}
+	}
+
+	private static int[] executeUpdates(Connection connection, List<ProcessedDocument> documents) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(UPDATE_SQL);
+		try {
+			for (ProcessedDocument document : documents) {
+				statement.setCharacterStream(1, new StringReader(document.newContents), document.newContents.length());
+				statement.setString(2, document.row.documentNumber);
+				statement.setLong(3, document.row.versionNumber);
+				statement.addBatch();
+			}
+			return statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void countUpdate(int updateCount, Result result) {
+		if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO) {
+			result.writtenCount.incrementAndGet();
+		} else {
+			// The document was saved again (or deleted) since it was read; it will be converted when next loaded.
+			result.staleCount.incrementAndGet();
+		}
+	}
+
+	private String readCheckpoint() throws IOException {
+		if (StringUtils.isBlank(checkpointFile) || !new File(checkpointFile).isFile()) {
+			return null;
+		}
+		Properties checkpoint = new Properties();
+		InputStream checkpointIn = new FileInputStream(checkpointFile);
+		try {
+			checkpoint.load(checkpointIn);
+		} finally {
+			checkpointIn.close();
+		}
+		return StringUtils.trimToNull(checkpoint.getProperty(CHECKPOINT_DOCUMENT_NUMBER_PROPERTY));
+	}
+
+	/*
+	 * Writes the checkpoint to a temporary file and then moves it into place, so that a crash never leaves a partial
+	 * checkpoint behind.
+	 */
+	private void writeCheckpoint(String documentNumber) throws IOException {
+		if (dryRun || StringUtils.isBlank(checkpointFile)) {
+			return;
+		}
+		File file = new File(checkpointFile).getAbsoluteFile();
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty(CHECKPOINT_DOCUMENT_NUMBER_PROPERTY, documentNumber);
+		OutputStream checkpointOut = new FileOutputStream(temporaryFile);
+		try {
+			checkpoint.store(checkpointOut, "Maintainable XML bulk conversion checkpoint");
+		} finally {
+			checkpointOut.close();
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private String decryptContents(String contents) throws GeneralSecurityException {
+		EncryptionService encryptionService = getEncryptionService();
+		return (encryptionService != null) ? encryptionService.decrypt(contents) : contents;
+	}
+
+	private String encryptContents(String contents) throws GeneralSecurityException {
+		EncryptionService encryptionService = getEncryptionService();
+		return (encryptionService != null) ? encryptionService.encrypt(contents) : contents;
+	}
+
+	private EncryptionService getEncryptionService() {
+		if (!encryptContents) {
+			return null;
+		}
+		EncryptionService encryptionService = CoreApiServiceLocator.getEncryptionService();
+		return (encryptionService != null && encryptionService.isEnabled()) ? encryptionService : null;
+	}
+
+	private void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			LOG.warn("Error rolling back bulk conversion batch", e);
+		}
+	}
+
+	private void close(ResultSet resultSet, Statement statement, Connection connection, boolean rollback) {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			LOG.warn("Error closing bulk conversion statement", e);
+		}
+		if (connection != null) {
+			try {
+				if (rollback) {
+					// End the read-only transaction before handing the connection back.
+					connection.rollback();
+				}
+				connection.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing bulk conversion connection", e);
+			}
+		}
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @return the conversion service, which defaults to the one from the service locator
+	 */
+	public MaintainableXMLConversionService getConversionService() {
+		return (conversionService != null) ? conversionService : ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+	}
+
+	public void setConversionService(MaintainableXMLConversionService conversionService) {
+		this.conversionService = conversionService;
+	}
+
+	public boolean isEncryptContents() {
+		return encryptContents;
+	}
+
+	/**
+	 * @param encryptContents whether the document contents are encrypted (when encryption is enabled), as by OJB
+	 */
+	public void setEncryptContents(boolean encryptContents) {
+		this.encryptContents = encryptContents;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = Math.max(1, fetchSize);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = Math.max(1, workerCount);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * @param checkpointFile the file in which to record progress, or null to always start from the first document
+	 */
+	public void setCheckpointFile(String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * @param shardCount the number of shards to split the documents into, if the shard table has not been planned yet
+	 */
+	public void setShardCount(int shardCount) {
+		this.shardCount = Math.max(1, shardCount);
+	}
+
+	public String getShardTable() {
+		return shardTable;
+	}
+
+	public void setShardTable(String shardTable) {
+		this.shardTable = shardTable;
+	}
+
+	public long getLeaseDurationSeconds() {
+		return leaseDurationSeconds;
+	}
+
+	/**
+	 * @param leaseDurationSeconds how long a shard stays claimed without its lease being renewed; the lease is
+	 * renewed at least every third of this while the shard is being worked on
+	 */
+	public void setLeaseDurationSeconds(long leaseDurationSeconds) {
+		this.leaseDurationSeconds = Math.max(3L, leaseDurationSeconds);
+	}
+
+	public String getOwnerId() {
+		return ownerId;
+	}
+
+	/**
+	 * @param ownerId the identifier recorded against the shards that this job claims, which must be unique among
+	 * the nodes (by default, the JVM's name, which contains the host name and process id, plus a random suffix)
+	 */
+	public void setOwnerId(String ownerId) {
+		this.ownerId = ownerId;
+	}
+
+	/*
+	 * Where the writer records the progress of a run: the checkpoint file, or a shard's row in the lease table.
+	 * Called after each batch, and periodically while idle, with the document number up to which every document has
+	 * been processed (or null if that has not moved past the start yet).
+	 */
+	private interface ProgressRecorder {
+		/**
+		 * @return false if the run should stop reading documents, true otherwise
+		 */
+		boolean recordProgress(String documentNumber) throws Exception;
+	}
+
+	private enum Outcome {
+		CONVERTED, ALREADY_CURRENT, SKIPPED, FAILED
+	}
+
+	/**
+	 * The counts of what a bulk conversion run did. In a dry run, the written count is the number of documents that
+	 * would have been written.
+	 */
+	public static final class Result {
+		private final String startAfterDocumentNumber;
+		private final AtomicLong readCount = new AtomicLong();
+		private final AtomicLong writtenCount = new AtomicLong();
+		private final AtomicLong alreadyCurrentCount = new AtomicLong();
+		private final AtomicLong skippedCount = new AtomicLong();
+		private final AtomicLong staleCount = new AtomicLong();
+		private final AtomicLong failedCount = new AtomicLong();
+		private final AtomicLong completedShardCount = new AtomicLong();
+		private final long startTime = System.currentTimeMillis();
+		private volatile String lastDocumentNumber;
+
+		Result(String startAfterDocumentNumber) {
+			this.startAfterDocumentNumber = startAfterDocumentNumber;
+		}
+
+		private void add(Result shardResult) {
+			readCount.addAndGet(shardResult.getReadCount());
+			writtenCount.addAndGet(shardResult.getWrittenCount());
+			alreadyCurrentCount.addAndGet(shardResult.getAlreadyCurrentCount());
+			skippedCount.addAndGet(shardResult.getSkippedCount());
+			staleCount.addAndGet(shardResult.getStaleCount());
+			failedCount.addAndGet(shardResult.getFailedCount());
+		}
+
+		private void count(Outcome outcome) {
+			if (outcome == Outcome.ALREADY_CURRENT) {
+				alreadyCurrentCount.incrementAndGet();
+			} else if (outcome == Outcome.SKIPPED) {
+				skippedCount.incrementAndGet();
+			} else if (outcome == Outcome.FAILED) {
+				failedCount.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return the document number after which the run started, or null if it started at the beginning (or if
+		 * it was a sharded run)
+		 */
+		public String getStartAfterDocumentNumber() {
+			return startAfterDocumentNumber;
+		}
+
+		/**
+		 * @return the document number up to which every document was processed, or null if none were (or if it was
+		 * a sharded run)
+		 */
+		public String getLastDocumentNumber() {
+			return lastDocumentNumber;
+		}
+
+		public long getReadCount() {
+			return readCount.get();
+		}
+
+		/**
+		 * @return the number of converted documents written (or, in a dry run, that would have been written)
+		 */
+		public long getWrittenCount() {
+			return writtenCount.get();
+		}
+
+		/**
+		 * @return the number of documents already stamped with the active rule-set version
+		 */
+		public long getAlreadyCurrentCount() {
+			return alreadyCurrentCount.get();
+		}
+
+		/**
+		 * @return the number of documents left for the just-in-time conversion, because of their legacy notes
+		 */
+		public long getSkippedCount() {
+			return skippedCount.get();
+		}
+
+		/**
+		 * @return the number of converted documents not written because they were saved during the run
+		 */
+		public long getStaleCount() {
+			return staleCount.get();
+		}
+
+		/**
+		 * @return the number of documents that could not be converted or written
+		 */
+		public long getFailedCount() {
+			return failedCount.get();
+		}
+
+		/**
+		 * @return the number of shards that this node completed, in a sharded run
+		 */
+		public long getCompletedShardCount() {
+			return completedShardCount.get();
+		}
+
+		@Override
+		public String toString() {
+			long elapsedMillis = Math.max(1L, System.currentTimeMillis() - startTime);
+			return "read " + getReadCount() + ", written " + getWrittenCount() + ", already current " + getAlreadyCurrentCount()
+					+ ", skipped " + getSkippedCount() + ", stale " + getStaleCount() + ", failed " + getFailedCount()
+					+ ((lastDocumentNumber != null) ? ", last document number '" + lastDocumentNumber + "'" : "")
+					+ ((completedShardCount.get() > 0L) ? ", shards completed " + completedShardCount.get() : "") + ", "
+					+ (getReadCount() * 1000L / elapsedMillis) + " documents/s";
+		}
+	}
+
+	/*
+	 * A document as read from the table. END marks the end of the documents for a worker.
+	 */
+	private static final class DocumentRow {
+		private static final DocumentRow END = new DocumentRow(-1L, null, 0L, null);
+
+		private final long sequence;
+		private final String documentNumber;
+		private final long versionNumber;
+		private final String contents;
+
+		DocumentRow(long sequence, String documentNumber, long versionNumber, String contents) {
+			this.sequence = sequence;
+			this.documentNumber = documentNumber;
+			this.versionNumber = versionNumber;
+			this.contents = contents;
+		}
+	}
+
+	/*
+	 * A document after conversion, with its new contents if it needs updating. END marks the end of the documents for
+	 * the writer.
+	 */
+	private static final class ProcessedDocument {
+		private static final ProcessedDocument END = new ProcessedDocument(null, null, null);
+
+		private final DocumentRow row;
+		private final Outcome outcome;
+		private final String newContents;
+
+		ProcessedDocument(DocumentRow row, Outcome outcome, String newContents) {
+			this.row = row;
+			this.outcome = outcome;
+			this.newContents = newContents;
+		}
+	}
+
+	/*
+	 * Minimal DataSource for running the job (or the readiness scanner) standalone.
+	 */
+	static final class DriverManagerDataSource implements DataSource {
+		private final String url;
+		private final String username;
+		private final String password;
+		private PrintWriter logWriter;
+
+		DriverManagerDataSource(String url, String username, String password) {
+			this.url = url;
+			this.username = username;
+			this.password = password;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return DriverManager.getConnection(url, username, password);
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return DriverManager.getConnection(url, username, password);
+		}
+
+		@Override
+		public PrintWriter getLogWriter() {
+			return logWriter;
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter logWriter) {
+			this.logWriter = logWriter;
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) {
+			DriverManager.setLoginTimeout(seconds);
+		}
+
+		@Override
+		public int getLoginTimeout() {
+			return DriverManager.getLoginTimeout();
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			throw new SQLException("Not a wrapper");
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) {
+			return false;
+		}
+	}
+
+}
@@ -1,15 +1,27 @@
 package org.kuali.rice.krad.service.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -19,13 +31,6 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -33,10 +38,19 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.kuali.rice.core.api.config.property.ConfigContext;
 import org.kuali.rice.core.api.util.RiceUtilities;
+import org.kuali.rice.krad.service.MaintainableXMLConversionLimitException;
 import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService.ConversionOutcome;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ClassRules;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ConversionAction;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ConversionRule;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.RuleHitCount;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.AbstractResource;
 import org.springframework.core.io.ClassPathResource;
@@ -58,111 +72,352 @@ import org.xml.sax.InputSource;
  * on "class" attributes for identification.
  * ====
  */
-public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConversionService, InitializingBean {
+public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConversionService, InitializingBean, DisposableBean {
 
 	// ==== CU Customization: Added logger. ====
 	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLConversionServiceImpl.class);
 
 	private static final String CONVERSION_RULE_FILE_PARAMETER = "maintainable.conversion.rule.file";
+	// ==== CU Customization: Added parameter for turning off the pretty-printing of converted XML. ====
+	private static final String CONVERSION_FORMAT_OUTPUT_PARAMETER = "maintainable.conversion.format.output";
+	// ==== CU Customization: Added parameter for the size of the converted XML cache (0 disables it). ====
+	private static final String CONVERSION_CACHE_MAX_BYTES_PARAMETER = "maintainable.conversion.cache.max.bytes";
+	// ==== CU Customization: Added parameter for how often (in seconds) to check the rules file for changes (0 disables it). ====
+	private static final String CONVERSION_RULE_FILE_CHECK_INTERVAL_PARAMETER = "maintainable.conversion.rule.file.check.interval";
+	// ==== CU Customization: Added parameter for whether to load the rules from their precompiled snapshot, when it is up to date. ====
+	private static final String CONVERSION_RULE_SNAPSHOT_ENABLED_PARAMETER = "maintainable.conversion.rule.snapshot.enabled";
+	// ==== CU Customization: Added limits on each conversion, where 0 means no limit. ====
+	private static final String CONVERSION_MAX_INPUT_SIZE_PARAMETER = "maintainable.conversion.limit.input.size";
+	private static final String CONVERSION_MAX_OUTPUT_SIZE_PARAMETER = "maintainable.conversion.limit.output.size";
+	private static final String CONVERSION_MAX_DEPTH_PARAMETER = "maintainable.conversion.limit.depth";
+	private static final String CONVERSION_MAX_ELEMENT_COUNT_PARAMETER = "maintainable.conversion.limit.element.count";
+	private static final String CONVERSION_MAX_TIME_PARAMETER = "maintainable.conversion.limit.time";
 	private static final String SERIALIZATION_ATTRIBUTE = "serialization";
 	private static final String CLASS_ATTRIBUTE = "class";
 	private static final String MAINTENANCE_ACTION_ELEMENT_NAME = "maintenanceAction";
 
-	// ==== CU Customization: Added extra helper constants ====
-	private static final String ATTR_INDICATOR = "(ATTR)";
-	private static final String MOVE_NODES_TO_PARENT_INDICATOR = "(MOVE_NODES_TO_PARENT)";
-	private static final String CONVERT_TO_MAP_ENTRIES_INDICATOR = "(CONVERT_TO_MAP_ENTRIES)";
+	// ==== CU Customization: Added extra helper constants (the rule indicators have moved to ConversionRuleIndex) ====
 	private static final String ENTRY_ELEMENT_NAME = "entry";
+	private static final int OUTPUT_INDENT_AMOUNT = 4;
+	private static final long DEFAULT_CACHE_MAX_BYTES = 16L * 1024L * 1024L;
+	private static final String CLASSPATH_PREFIX = "classpath:";
+	private static final String RULE_FILE_WATCHER_THREAD_NAME = "maintainable-xml-rule-file-watcher";
 
 	private Map<String, String> classNameRuleMap;
 	private Map<String, Map<String, String>> classPropertyRuleMap;
 	private String conversionRuleFile;
+	private boolean formatOutput = true;
 
 	// ==== CU Customization: Copied this map from KRAD dev tools MaintainableXMLConversionServiceImpl class. ====
 	private Map<String, String> dateRuleMap;
 
+	// ==== CU Customization: Compiled form of the rule maps, used by the streaming conversion. ====
+	// Each conversion reads this once, so replacing it on a reload never affects conversions already in progress.
+	private volatile ConversionRuleIndex ruleIndex;
+
+	// ==== CU Customization: Reloading of the rules, which is serialized by the lock (unlike the conversions themselves). ====
+	private final Object ruleReloadLock = new Object();
+	private volatile long ruleSetGeneration = 0L;
+	private long ruleFileLastModified = -1L;
+	private long ruleFileCheckIntervalSeconds = 0L;
+	private ScheduledExecutorService ruleFileWatcher;
+	private boolean ruleSnapshotEnabled = true;
+	private long maxInputSize = 0L;
+	private long maxOutputSize = 0L;
+	private int maxDepth = 0;
+	private long maxElementCount = 0L;
+	private long maxTimeMillis = 0L;
+
+	// ==== CU Customization: Cache of recent conversion results; null if caching is disabled. ====
+	private volatile ConvertedXMLCache conversionCache;
+
+	// ==== CU Customization: Optional recorder of conversion metrics; null if metrics are not wired in. ====
+	private MaintainableXMLMetricsService metricsService;
+
+	// ==== CU Customization: StAX factories are looked up and configured once, since they are thread-safe once configured. ====
+	private final XMLInputFactory xmlInputFactory;
+	private final XMLOutputFactory xmlOutputFactory;
+
+	// ==== CU Customization: Per-thread reusable stacks and buffers for the streaming conversion. ====
+	private final ThreadLocal<StreamedConversionState> conversionState = new ThreadLocal<StreamedConversionState>() {
+		@Override
+		protected StreamedConversionState initialValue() {
+			return new StreamedConversionState();
+		}
+	};
+
 	public MaintainableXMLConversionServiceImpl() {
+		xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		xmlOutputFactory = XMLOutputFactory.newInstance();
 		String conversionRuleFile = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_RULE_FILE_PARAMETER);
 		this.setConversionRuleFile(conversionRuleFile);
+		String formatOutput = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_FORMAT_OUTPUT_PARAMETER);
+		if (StringUtils.isNotBlank(formatOutput)) {
+			this.setFormatOutput(Boolean.parseBoolean(formatOutput));
+		}
+		String cacheMaxBytes = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_CACHE_MAX_BYTES_PARAMETER);
+		this.setCacheMaxBytes(StringUtils.isNotBlank(cacheMaxBytes) ? Long.parseLong(cacheMaxBytes.trim()) : DEFAULT_CACHE_MAX_BYTES);
+		String checkInterval = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_RULE_FILE_CHECK_INTERVAL_PARAMETER);
+		if (StringUtils.isNotBlank(checkInterval)) {
+			this.setRuleFileCheckIntervalSeconds(Long.parseLong(checkInterval.trim()));
+		}
+		String ruleSnapshotEnabled = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_RULE_SNAPSHOT_ENABLED_PARAMETER);
+		if (StringUtils.isNotBlank(ruleSnapshotEnabled)) {
+			this.setRuleSnapshotEnabled(Boolean.parseBoolean(ruleSnapshotEnabled.trim()));
+		}
+		String maxInputSize = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_MAX_INPUT_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(maxInputSize)) {
+			this.setMaxInputSize(Long.parseLong(maxInputSize.trim()));
+		}
+		String maxOutputSize = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_MAX_OUTPUT_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(maxOutputSize)) {
+			this.setMaxOutputSize(Long.parseLong(maxOutputSize.trim()));
+		}
+		String maxDepth = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_MAX_DEPTH_PARAMETER);
+		if (StringUtils.isNotBlank(maxDepth)) {
+			this.setMaxDepth(Integer.parseInt(maxDepth.trim()));
+		}
+		String maxElementCount = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_MAX_ELEMENT_COUNT_PARAMETER);
+		if (StringUtils.isNotBlank(maxElementCount)) {
+			this.setMaxElementCount(Long.parseLong(maxElementCount.trim()));
+		}
+		String maxTimeMillis = ConfigContext.getCurrentContextConfig().getProperty(CONVERSION_MAX_TIME_PARAMETER);
+		if (StringUtils.isNotBlank(maxTimeMillis)) {
+			this.setMaxTimeMillis(Long.parseLong(maxTimeMillis.trim()));
+		}
 	}
 
 	// ==== CU Customization: Initialize the rule maps at bean setup rather than at each conversion attempt. ====
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		if (StringUtils.isNotBlank(this.getConversionRuleFile())) {
-			this.setRuleMaps();
+			synchronized (ruleReloadLock) {
+				this.setRuleMaps();
+			}
+			// ==== CU Customization: Optionally watch the rules file, and reload it when it changes. ====
+			if (ruleFileCheckIntervalSeconds > 0L) {
+				startRuleFileWatcher();
+			}
 		}
 	}
 
+	@Override
+	public void destroy() throws Exception {
+		if (ruleFileWatcher != null) {
+			ruleFileWatcher.shutdownNow();
+			ruleFileWatcher = null;
+		}
+	}
+
+	// ==== CU Customization: Added reloading of the rules, with an atomic swap of the compiled rules. ====
+	@Override
+	public boolean reloadRules() {
+		if (StringUtils.isBlank(this.getConversionRuleFile())) {
+			return false;
+		}
+		synchronized (ruleReloadLock) {
+			boolean reloaded = this.setRuleMaps();
+			if (reloaded) {
+				LOG.info("Reloaded the conversion rules from " + this.getConversionRuleFile() + "; rule set version is now "
+						+ ruleIndex.getVersionString());
+			}
+			return reloaded;
+		}
+	}
+
+	private void startRuleFileWatcher() {
+		ruleFileWatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, RULE_FILE_WATCHER_THREAD_NAME);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		ruleFileWatcher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reloadRulesIfModified();
+				} catch (RuntimeException e) {
+					// Keep checking; the current rules stay in place.
+					LOG.error("Error checking the conversion rules file for changes", e);
+				}
+			}
+		}, ruleFileCheckIntervalSeconds, ruleFileCheckIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	private void reloadRulesIfModified() {
+		long lastModified = getRuleFileLastModified();
+		boolean modified;
+		synchronized (ruleReloadLock) {
+			modified = lastModified > 0L && lastModified != ruleFileLastModified;
+		}
+		if (modified) {
+			LOG.info("The conversion rules file " + this.getConversionRuleFile() + " has changed");
+			reloadRules();
+		}
+	}
+
+	/*
+	 * Returns the rules file's last-modified time, or -1 if it cannot be determined (for instance, if the file is
+	 * not found). The file is located the same way as when reading the rules in setRuleMaps().
+	 */
+	private long getRuleFileLastModified() {
+		String conversionRuleFile = this.getConversionRuleFile();
+		AbstractResource resource;
+		if (StringUtils.startsWith(conversionRuleFile, CLASSPATH_PREFIX)) {
+			resource = new ClassPathResource(conversionRuleFile.substring(CLASSPATH_PREFIX.length()), Thread.currentThread().getContextClassLoader());
+		} else {
+			resource = new FileSystemResource(conversionRuleFile);
+			if (!resource.exists()) {
+				resource = new ClassPathResource(conversionRuleFile, this.getClass());
+			}
+		}
+		try {
+			return resource.exists() ? resource.lastModified() : -1L;
+		} catch (IOException e) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * @return the number of times the rules have been loaded (or reloaded) successfully
+	 */
+	public long getRuleSetGeneration() {
+		return ruleSetGeneration;
+	}
+
+	public boolean isRuleSnapshotEnabled() {
+		return ruleSnapshotEnabled;
+	}
+
+	/**
+	 * @param ruleSnapshotEnabled true to load the rules from the rules file's precompiled snapshot when it is up to
+	 * date, false to always parse the rules file
+	 */
+	public void setRuleSnapshotEnabled(boolean ruleSnapshotEnabled) {
+		this.ruleSnapshotEnabled = ruleSnapshotEnabled;
+	}
+
+	public long getMaxInputSize() {
+		return maxInputSize;
+	}
+
+	/**
+	 * @param maxInputSize the maximum length of the XML to convert, in characters, or 0 for no limit
+	 */
+	public void setMaxInputSize(long maxInputSize) {
+		this.maxInputSize = Math.max(0L, maxInputSize);
+	}
+
+	public long getMaxOutputSize() {
+		return maxOutputSize;
+	}
+
+	/**
+	 * @param maxOutputSize the maximum length of the converted XML, in characters, or 0 for no limit
+	 */
+	public void setMaxOutputSize(long maxOutputSize) {
+		this.maxOutputSize = Math.max(0L, maxOutputSize);
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param maxDepth the maximum element depth of the XML to convert (the data object's element being at depth 1),
+	 * or 0 for no limit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = Math.max(0, maxDepth);
+	}
+
+	public long getMaxElementCount() {
+		return maxElementCount;
+	}
+
+	/**
+	 * @param maxElementCount the maximum number of elements in the XML to convert, or 0 for no limit
+	 */
+	public void setMaxElementCount(long maxElementCount) {
+		this.maxElementCount = Math.max(0L, maxElementCount);
+	}
+
+	public long getMaxTimeMillis() {
+		return maxTimeMillis;
+	}
+
+	/**
+	 * @param maxTimeMillis the maximum time a single conversion may take, in milliseconds, or 0 for no limit
+	 */
+	public void setMaxTimeMillis(long maxTimeMillis) {
+		this.maxTimeMillis = Math.max(0L, maxTimeMillis);
+	}
+
+	public long getRuleFileCheckIntervalSeconds() {
+		return ruleFileCheckIntervalSeconds;
+	}
+
+	/**
+	 * @param ruleFileCheckIntervalSeconds how often to check the rules file for changes, or 0 to never check it
+	 */
+	public void setRuleFileCheckIntervalSeconds(long ruleFileCheckIntervalSeconds) {
+		this.ruleFileCheckIntervalSeconds = Math.max(0L, ruleFileCheckIntervalSeconds);
+	}
+
 	@Override
 	public String transformMaintainableXML(String xml) {
 		// ==== CU Customization: Fixed a bug with the population of the maintenanceAction variable. ====
-		String maintenanceAction = "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">" + StringUtils.substringAfter(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");
-		xml = StringUtils.substringBefore(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");
+		/*String maintenanceAction = "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">" + StringUtils.substringAfter(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");
+		xml = StringUtils.substringBefore(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");*/
 		if(StringUtils.isNotBlank(this.getConversionRuleFile())) {
+			// ==== CU Customization: Time the conversion if metrics are enabled. ====
+			MaintainableXMLMetricsService metricsService = this.metricsService;
+			boolean recordMetrics = metricsService != null && metricsService.isEnabled();
+			long startTime = recordMetrics ? System.nanoTime() : 0L;
+			// ==== CU Customization: Use the same rules snapshot for the cache key and the conversion, in case of a reload. ====
+			ConversionRuleIndex ruleIndex = this.ruleIndex;
+			// ==== CU Customization: Reuse the result of an earlier conversion of the same XML, if still cached. ====
+			ConvertedXMLCache cache = conversionCache;
+			ConvertedXMLCache.CacheKey cacheKey = null;
+			if (cache != null) {
+				cacheKey = ConvertedXMLCache.createKey(xml, ruleIndex.getVersion(), formatOutput);
+				String cachedXml = cache.get(cacheKey);
+				if (cachedXml != null) {
+					if (recordMetrics) {
+						metricsService.recordConversion(ConversionOutcome.CACHED, xml.length(), cachedXml.length(), System.nanoTime() - startTime);
+					}
+					return cachedXml;
+				}
+			}
+			// ==== CU Customization: Delegate to the streaming conversion, which now also handles the maintenanceAction element. ====
+			StringWriter newXml = new StringWriter(xml.length());
 			try {
-				// ==== CU Customization: Updated this section to use a new conversion process involving StAX. ====
-				/*this.setRuleMaps();
-				DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-				DocumentBuilder db = dbf.newDocumentBuilder();
-				Document document = db.parse(new InputSource(new StringReader(xml)));
-				for(Node childNode = document.getFirstChild(); childNode != null;) {
-					Node nextChild = childNode.getNextSibling();
-					transformClassNode(document, childNode);
-					childNode = nextChild;
-				}*/
-				XMLInputFactory xInFactory = XMLInputFactory.newInstance();
-				xInFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-				XMLStreamReader xmlIn = xInFactory.createXMLStreamReader(new StringReader(xml));
-
-				XMLOutputFactory xOutFactory = XMLOutputFactory.newInstance();
-				StringWriter newXml = new StringWriter();
-				XMLStreamWriter xmlOut = xOutFactory.createXMLStreamWriter(newXml);
-
-				doStreamedConversion(xmlIn, xmlOut);
-
-				xmlIn.close();
-				xmlOut.close();
-
-				TransformerFactory transFactory = TransformerFactory.newInstance();
-				Transformer trans = transFactory.newTransformer();
-				trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-				trans.setOutputProperty(OutputKeys.INDENT, "yes");
-
-				StringWriter writer = new StringWriter();
-				StreamResult result = new StreamResult(writer);
-				//DOMSource source = new DOMSource(document);
-				SAXSource source = new SAXSource(new InputSource(new StringReader(newXml.toString())));
-				trans.transform(source, result);
-				xmlIn.close();
-				xml = writer.toString().replaceAll("(?m)^\\s+\\n", "");
+				transformMaintainableXML(ruleIndex, new StringReader(xml), newXml);
+				String convertedXml = newXml.toString();
+				if (cache != null) {
+					cache.put(cacheKey, convertedXml);
+				}
+				if (recordMetrics) {
+					metricsService.recordConversion(ConversionOutcome.CONVERTED, xml.length(), convertedXml.length(), System.nanoTime() - startTime);
+				}
+				xml = convertedXml;
 			// ==== CU Customization: Write exceptions to the Logger instead of the error stream. ====
-			//} catch (ParserConfigurationException e) {
-				//e.printStackTrace();
 			} catch (XMLStreamException e) {
 				LOG.error("Error converting legacy maintainable XML", e);
-			//} catch (SAXException e) {
-				//e.printStackTrace();
-			//} catch (IOException e) {
-				//e.printStackTrace();
-			//} catch (ClassNotFoundException e) {
-				//e.printStackTrace();
-			} catch (TransformerConfigurationException e) {
-				LOG.error("Error converting legacy maintainable XML", e);
-			} catch (TransformerException e) {
-				LOG.error("Error converting legacy maintainable XML", e);
+				if (recordMetrics) {
+					metricsService.recordConversion(ConversionOutcome.FAILED, xml.length(), xml.length(), System.nanoTime() - startTime);
+				}
+			// ==== CU Customization: Let exceeded limits through, since the unconverted XML would only fail later and more slowly. ====
+			} catch (MaintainableXMLConversionLimitException e) {
+				if (recordMetrics) {
+					metricsService.recordConversion(ConversionOutcome.FAILED, xml.length(), xml.length(), System.nanoTime() - startTime);
+				}
+				throw e;
 			}
-			//catch (XPathExpressionException e) {
-				//e.printStackTrace();
-			//} catch (IllegalAccessException e) {
-				//e.printStackTrace();
-			//} catch (InvocationTargetException e) {
-				//e.printStackTrace();
-			//} catch (NoSuchMethodException e) {
-				//e.printStackTrace();
-			//} catch (InstantiationException e) {
-				//e.printStackTrace();
-			//}
 		}
 		// ==== CU Customization: Commented out IU-specific code. ====
 		/*if(StringUtils.contains(xml, "edu.iu.uis.dp.bo.DataManager") || StringUtils.contains(xml, "edu.iu.uis.dp.bo.DataSteward")){
@@ -170,7 +425,199 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 			xml = xml.replaceAll("<autoIncrementSet.+", "");
 			xml = xml.replaceAll("<address.+","");
 		}*/
-		return xml + maintenanceAction;
+		return xml;
+	}
+
+	// ==== CU Customization: Added streaming variants of the conversion method. ====
+
+	@Override
+	public void transformMaintainableXML(Reader xmlIn, Writer xmlOut) throws XMLStreamException {
+		if (StringUtils.isBlank(this.getConversionRuleFile())) {
+			copyUnconverted(xmlIn, xmlOut);
+			return;
+		}
+		transformMaintainableXML(this.ruleIndex, xmlIn, xmlOut);
+	}
+
+	private void transformMaintainableXML(ConversionRuleIndex ruleIndex, Reader xmlIn, Writer xmlOut) throws XMLStreamException {
+		// Reuse this thread's conversion state, unless it is somehow already in use.
+		StreamedConversionState state = conversionState.get();
+		if (!state.acquire()) {
+			state = new StreamedConversionState();
+			state.acquire();
+		}
+		XMLStreamReader xmlReader = null;
+		XMLStreamWriter xmlWriter = null;
+		try {
+			// Count what is read and written, if limited, so that oversized XML is abandoned before it is all buffered.
+			ConversionLimiter limiter = state.limiter;
+			limiter.start(maxInputSize, maxOutputSize, maxDepth, maxElementCount, maxTimeMillis);
+			xmlReader = xmlInputFactory.createXMLStreamReader(limiter.limitInput(new MaintainableXMLFragmentReader(xmlIn)));
+			xmlWriter = xmlOutputFactory.createXMLStreamWriter(limiter.limitOutput(xmlOut));
+			// Indent while streaming, instead of re-parsing the output with an identity Transformer.
+			if (this.isFormatOutput()) {
+				xmlWriter = new IndentingXMLStreamWriter(xmlWriter, OUTPUT_INDENT_AMOUNT);
+			}
+			doStreamedConversion(ruleIndex, xmlReader, xmlWriter, isLimited() ? limiter : null, state);
+			xmlWriter.flush();
+		} catch (XMLStreamException e) {
+			// The StAX implementation may have wrapped the exceeded limit thrown by the Reader or Writer.
+			MaintainableXMLConversionLimitException exceeded = state.limiter.getExceeded();
+			if (exceeded != null) {
+				throw exceeded;
+			}
+			throw e;
+		} finally {
+			state.release();
+			// Close each separately, so that a failure to close neither hides the conversion's exception nor leaves the other open.
+			closeQuietly(xmlReader);
+			closeQuietly(xmlWriter);
+		}
+	}
+
+	private void closeQuietly(XMLStreamReader xmlReader) {
+		if (xmlReader != null) {
+			try {
+				xmlReader.close();
+			} catch (XMLStreamException e) {
+				LOG.warn("Error closing the maintainable XML reader", e);
+			} catch (RuntimeException e) {
+				LOG.warn("Error closing the maintainable XML reader", e);
+			}
+		}
+	}
+
+	private void closeQuietly(XMLStreamWriter xmlWriter) {
+		if (xmlWriter != null) {
+			try {
+				xmlWriter.close();
+			} catch (XMLStreamException e) {
+				LOG.warn("Error closing the maintainable XML writer", e);
+			} catch (RuntimeException e) {
+				LOG.warn("Error closing the maintainable XML writer", e);
+			}
+		}
+	}
+
+	private boolean isLimited() {
+		return maxDepth > 0 || maxElementCount > 0L || maxTimeMillis > 0L;
+	}
+
+	@Override
+	public void transformMaintainableXML(InputStream xmlIn, OutputStream xmlOut, String encoding)
+			throws XMLStreamException, UnsupportedEncodingException {
+		Writer writer = new OutputStreamWriter(xmlOut, encoding);
+		transformMaintainableXML(new InputStreamReader(xmlIn, encoding), writer);
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	// ==== CU Customization: Added a pre-scan for legacy content, using the automaton from the compiled rules. ====
+	@Override
+	public boolean isConversionNeeded(String xml) {
+		ConversionRuleIndex ruleIndex = this.ruleIndex;
+		if (StringUtils.isBlank(this.getConversionRuleFile()) || ruleIndex == null || xml == null) {
+			return false;
+		}
+		return ruleIndex.isConversionNeeded(xml);
+	}
+
+	@Override
+	public String getRuleSetVersion() {
+		ConversionRuleIndex ruleIndex = this.ruleIndex;
+		if (StringUtils.isBlank(this.getConversionRuleFile()) || ruleIndex == null) {
+			return null;
+		}
+		return ruleIndex.getVersionString();
+	}
+
+	/**
+	 * @return the active compiled rules (for tools that analyze XML against them), or null if there is no rules file
+	 */
+	ConversionRuleIndex getRuleIndex() {
+		return StringUtils.isBlank(this.getConversionRuleFile()) ? null : this.ruleIndex;
+	}
+
+	// ==== CU Customization: Added a report of the rule hit counts kept by the compiled rules. ====
+	@Override
+	public String getRuleHitReport(int maxHotRules) {
+		ConversionRuleIndex ruleIndex = this.ruleIndex;
+		if (StringUtils.isBlank(this.getConversionRuleFile()) || ruleIndex == null) {
+			return "No conversion rules are configured.";
+		}
+		List<RuleHitCount> hitCounts = ruleIndex.getRuleHitCounts();
+		StringBuilder report = new StringBuilder(256 + hitCounts.size() * 96);
+		report.append("Conversion rule hits for rule set ").append(ruleIndex.getVersionString()).append(": ")
+				.append(ruleIndex.getConvertedCount()).append(" conversions applied rules, ")
+				.append(ruleIndex.getUnchangedCount()).append(" applied none\n");
+
+		report.append("\nHot rules:\n");
+		int hotRuleCount = 0;
+		for (RuleHitCount hitCount : hitCounts) {
+			if (hotRuleCount >= maxHotRules || hitCount.getHitCount() == 0L) {
+				break;
+			}
+			report.append(String.format("%12d  ", hitCount.getHitCount()));
+			appendRuleDescription(report, hitCount.getRule());
+			hotRuleCount++;
+		}
+		if (hotRuleCount == 0) {
+			report.append("  (none)\n");
+		}
+
+		int unusedRuleCount = 0;
+		StringBuilder unusedRules = new StringBuilder();
+		for (RuleHitCount hitCount : hitCounts) {
+			if (hitCount.getHitCount() == 0L) {
+				unusedRules.append("  ");
+				appendRuleDescription(unusedRules, hitCount.getRule());
+				unusedRuleCount++;
+			}
+		}
+		report.append("\nRules that never fired (").append(unusedRuleCount).append(" of ").append(hitCounts.size()).append("):\n");
+		report.append((unusedRuleCount > 0) ? unusedRules : "  (none)\n");
+		return report.toString();
+	}
+
+	/*
+	 * Describes a rule the way it appears in the rules file, along with its pre-resolved action.
+	 */
+	private static void appendRuleDescription(StringBuilder report, ConversionRule rule) {
+		report.append(rule.getAction()).append("  ");
+		if (rule.getAction() == ConversionAction.DATE_SUFFIX) {
+			report.append("date ").append(rule.getMatch()).append(" ->").append(rule.getReplacement());
+		} else {
+			report.append(rule.getRuleClass()).append(": ").append(rule.getMatch());
+			if (rule.getReplacement() != null) {
+				report.append(" -> ").append(rule.getReplacement());
+			}
+		}
+		report.append('\n');
+	}
+
+	/**
+	 * Resets the rule hit counts reported by {@link #getRuleHitReport(int)}.
+	 */
+	public void resetRuleHitCounts() {
+		ConversionRuleIndex ruleIndex = this.ruleIndex;
+		if (ruleIndex != null) {
+			ruleIndex.resetHitCounts();
+		}
+	}
+
+	private void copyUnconverted(Reader xmlIn, Writer xmlOut) throws XMLStreamException {
+		char[] buffer = new char[4096];
+		int len;
+		try {
+			while ((len = xmlIn.read(buffer)) != -1) {
+				xmlOut.write(buffer, 0, len);
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
 	}
 
 	public String getConversionRuleFile() {
@@ -181,6 +628,57 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 		this.conversionRuleFile = conversionRuleFile;
 	}
 
+	/**
+	 * @param cacheMaxBytes the approximate maximum size of the converted XML cache, or 0 to disable caching
+	 */
+	public void setCacheMaxBytes(long cacheMaxBytes) {
+		this.conversionCache = (cacheMaxBytes > 0L) ? new ConvertedXMLCache(cacheMaxBytes) : null;
+	}
+
+	public long getCacheMaxBytes() {
+		ConvertedXMLCache cache = conversionCache;
+		return (cache != null) ? cache.getMaxBytes() : 0L;
+	}
+
+	public long getCacheHitCount() {
+		ConvertedXMLCache cache = conversionCache;
+		return (cache != null) ? cache.getHitCount() : 0L;
+	}
+
+	public long getCacheMissCount() {
+		ConvertedXMLCache cache = conversionCache;
+		return (cache != null) ? cache.getMissCount() : 0L;
+	}
+
+	public long getCacheEvictionCount() {
+		ConvertedXMLCache cache = conversionCache;
+		return (cache != null) ? cache.getEvictionCount() : 0L;
+	}
+
+	public long getCacheSizeBytes() {
+		ConvertedXMLCache cache = conversionCache;
+		return (cache != null) ? cache.getCurrentBytes() : 0L;
+	}
+
+	public MaintainableXMLMetricsService getMetricsService() {
+		return metricsService;
+	}
+
+	/**
+	 * @param metricsService the service to record conversion metrics with, or null to not record any
+	 */
+	public void setMetricsService(MaintainableXMLMetricsService metricsService) {
+		this.metricsService = metricsService;
+	}
+
+	public boolean isFormatOutput() {
+		return formatOutput;
+	}
+
+	public void setFormatOutput(boolean formatOutput) {
+		this.formatOutput = formatOutput;
+	}
+
 	private void transformClassNode(Document document, Node node) throws ClassNotFoundException, XPathExpressionException, IllegalAccessException, InvocationTargetException, NoSuchMethodException, InstantiationException {
 		String className = node.getNodeName();
 		if(this.classNameRuleMap.containsKey(className)) {
@@ -283,88 +781,188 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 		}
 	}
 
-	private void setRuleMaps() {
-		setupConfigurationMaps();
+	// ==== CU Customization: Read the rules into new maps, and only publish them (as a new index) once they have all been read. ====
+	private boolean setRuleMaps() {
+		//setupConfigurationMaps();
+		long lastModified = getRuleFileLastModified();
 		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
-
-			AbstractResource resource = null;
-			Document doc = null;
-			if(StringUtils.startsWith(this.getConversionRuleFile(), "classpath")) {
-				resource = new ClassPathResource(this.getConversionRuleFile(), Thread.currentThread().getContextClassLoader());
-			} else {
-				resource = new FileSystemResource(this.getConversionRuleFile());
-			}
-			if(!resource.exists()) {
-				// ==== CU Customization: If a classpath resource, make another attempt to load it via Spring if it couldn't be found above. ====
-				if (StringUtils.startsWith(this.getConversionRuleFile(), "classpath")) {
-					doc = db.parse(RiceUtilities.getResourceAsStream(this.getConversionRuleFile()));
-				} else {
-					doc = db.parse(this.getClass().getResourceAsStream(this.getConversionRuleFile()));
-				}
-			} else {
-				doc = db.parse(resource.getInputStream());
-			}
-			doc.getDocumentElement().normalize();
-			XPath xpath = XPathFactory.newInstance().newXPath();
-
-			// Get the moved classes rules
-			XPathExpression exprClassNames = xpath.compile("//*[@name='maint_doc_classname_changes']/pattern");
-			NodeList classNamesList = (NodeList) exprClassNames.evaluate(doc, XPathConstants.NODESET);
-			for (int s = 0; s < classNamesList.getLength(); s++) {
-				String matchText = xpath.evaluate("match/text()", classNamesList.item(s));
-				String replaceText = xpath.evaluate("replacement/text()", classNamesList.item(s));
-				classNameRuleMap.put(matchText, replaceText);
-			}
-
-			// Get the property changed rules
-
-			XPathExpression exprClassProperties = xpath.compile(
-					"//*[@name='maint_doc_changed_class_properties']/pattern");
-			XPathExpression exprClassPropertiesPatterns = xpath.compile("pattern");
-			NodeList propertyClassList = (NodeList) exprClassProperties.evaluate(doc, XPathConstants.NODESET);
-			for (int s = 0; s < propertyClassList.getLength(); s++) {
-				String classText = xpath.evaluate("class/text()", propertyClassList.item(s));
-				Map<String, String> propertyRuleMap = new HashMap<String, String>();
-				NodeList classPropertiesPatterns = (NodeList) exprClassPropertiesPatterns.evaluate(
-						propertyClassList.item(s), XPathConstants.NODESET);
-				for (int c = 0; c < classPropertiesPatterns.getLength(); c++) {
-					String matchText = xpath.evaluate("match/text()", classPropertiesPatterns.item(c));
-					String replaceText = xpath.evaluate("replacement/text()", classPropertiesPatterns.item(c));
-					propertyRuleMap.put(matchText, replaceText);
-				}
-				classPropertyRuleMap.put(classText, propertyRuleMap);
+			// ==== CU Customization: Use the rules file's precompiled snapshot if it is up to date, instead of parsing the XML. ====
+			byte[] ruleFileContents = readRuleFile(this.getConversionRuleFile());
+			ConversionRuleSnapshot rules = ruleSnapshotEnabled ? readRuleSnapshot(ruleFileContents) : null;
+			if (rules == null) {
+				rules = parseRuleFile(ruleFileContents);
 			}
 
-			// ==== CU Customization: Added date map from KRAD dev tools MaintainableXMLConversionServiceImpl class ====
-			// Get the Date rules
-            XPathExpression dateFieldNames = xpath.compile("//*[@name='maint_doc_date_changes']/pattern");
-            NodeList DateNamesList = (NodeList) dateFieldNames.evaluate(doc, XPathConstants.NODESET);
-            for (int s = 0; s < DateNamesList.getLength(); s++) {
-                String matchText = xpath.evaluate("match/text()", DateNamesList.item(s));
-                String replaceText = xpath.evaluate("replacement/text()", DateNamesList.item(s));
-                dateRuleMap.put(matchText, replaceText);
-            }
+			// ==== CU Customization: Compile the rules into an immutable index for the streaming conversion, and publish it. ====
+			publishRules(rules.getClassNameRuleMap(), rules.getClassPropertyRuleMap(), rules.getDateRuleMap(),
+					new ConversionRuleIndex(rules.getClassPropertyRuleMap(), rules.getDateRuleMap()));
+			ruleFileLastModified = lastModified;
+			return true;
 		} catch (Exception e) {
 			// ==== CU Customization: Added better logging. ====
 			LOG.error("Error parsing rule xml file. Please check file.", e);
 			//System.out.println("Error parsing rule xml file. Please check file. : " + e.getMessage());
 			//e.printStackTrace();
+			// ==== CU Customization: Keep the current rules when a reload fails; only fall back to the defaults initially. ====
+			if (ruleIndex == null) {
+				setupConfigurationMaps();
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * Reads a rules file, or its snapshot, into memory. Returns null if the location cannot be found, for the sake of
+	 * snapshots; the rules file itself must exist.
+	 */
+	private byte[] readRuleFileIfExists(String location) throws IOException {
+		AbstractResource resource = null;
+		InputStream resourceStream = null;
+		if(StringUtils.startsWith(location, "classpath")) {
+			resource = new ClassPathResource(location, Thread.currentThread().getContextClassLoader());
+		} else {
+			resource = new FileSystemResource(location);
+		}
+		if(!resource.exists()) {
+			// ==== CU Customization: If a classpath resource, make another attempt to load it via Spring if it couldn't be found above. ====
+			if (StringUtils.startsWith(location, "classpath")) {
+				resourceStream = RiceUtilities.getResourceAsStream(location);
+			} else {
+				resourceStream = this.getClass().getResourceAsStream(location);
+			}
+		} else {
+			resourceStream = resource.getInputStream();
+		}
+		if (resourceStream == null) {
+			return null;
+		}
+		try {
+			return IOUtils.toByteArray(resourceStream);
+		} finally {
+			resourceStream.close();
 		}
 	}
 
+	private byte[] readRuleFile(String location) throws IOException {
+		byte[] contents = readRuleFileIfExists(location);
+		if (contents == null) {
+			throw new FileNotFoundException("Conversion rule file not found: " + location);
+		}
+		return contents;
+	}
+
+	/*
+	 * Returns the rules from the rules file's snapshot, or null if there is no usable snapshot (in which case the
+	 * rules file should be parsed instead).
+	 */
+	private ConversionRuleSnapshot readRuleSnapshot(byte[] ruleFileContents) {
+		String snapshotLocation = this.getConversionRuleFile() + ConversionRuleSnapshot.SNAPSHOT_SUFFIX;
+		try {
+			byte[] snapshotContents = readRuleFileIfExists(snapshotLocation);
+			if (snapshotContents == null) {
+				LOG.debug("No conversion rule snapshot found at " + snapshotLocation);
+				return null;
+			}
+			ConversionRuleSnapshot snapshot = ConversionRuleSnapshot.read(new ByteArrayInputStream(snapshotContents));
+			if (!snapshot.isSnapshotOf(ruleFileContents)) {
+				LOG.info("The conversion rule snapshot " + snapshotLocation + " is out of date; parsing the rules file instead");
+				return null;
+			}
+			return snapshot;
+		} catch (IOException e) {
+			LOG.warn("Could not read the conversion rule snapshot " + snapshotLocation + "; parsing the rules file instead", e);
+			return null;
+		}
+	}
+
+	// ==== CU Customization: Moved the parsing of the rules file out of setRuleMaps(), so that the build can also use it for snapshots. ====
+	static ConversionRuleSnapshot parseRuleFile(byte[] ruleFileContents) throws Exception {
+		Map<String, String> newClassNameRuleMap = new HashMap<String, String>();
+		Map<String, Map<String, String>> newClassPropertyRuleMap = createDefaultClassPropertyRuleMap();
+		Map<String, String> newDateRuleMap = new HashMap<String, String>();
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		DocumentBuilder db = dbf.newDocumentBuilder();
+
+		Document doc = db.parse(new ByteArrayInputStream(ruleFileContents));
+		doc.getDocumentElement().normalize();
+		XPath xpath = XPathFactory.newInstance().newXPath();
+
+		// Get the moved classes rules
+		XPathExpression exprClassNames = xpath.compile("//*[@name='maint_doc_classname_changes']/pattern");
+		NodeList classNamesList = (NodeList) exprClassNames.evaluate(doc, XPathConstants.NODESET);
+		for (int s = 0; s < classNamesList.getLength(); s++) {
+			String matchText = xpath.evaluate("match/text()", classNamesList.item(s));
+			String replaceText = xpath.evaluate("replacement/text()", classNamesList.item(s));
+			newClassNameRuleMap.put(matchText, replaceText);
+		}
+
+		// Get the property changed rules
+
+		XPathExpression exprClassProperties = xpath.compile(
+				"//*[@name='maint_doc_changed_class_properties']/pattern");
+		XPathExpression exprClassPropertiesPatterns = xpath.compile("pattern");
+		NodeList propertyClassList = (NodeList) exprClassProperties.evaluate(doc, XPathConstants.NODESET);
+		for (int s = 0; s < propertyClassList.getLength(); s++) {
+			String classText = xpath.evaluate("class/text()", propertyClassList.item(s));
+			Map<String, String> propertyRuleMap = new HashMap<String, String>();
+			NodeList classPropertiesPatterns = (NodeList) exprClassPropertiesPatterns.evaluate(
+					propertyClassList.item(s), XPathConstants.NODESET);
+			for (int c = 0; c < classPropertiesPatterns.getLength(); c++) {
+				String matchText = xpath.evaluate("match/text()", classPropertiesPatterns.item(c));
+				String replaceText = xpath.evaluate("replacement/text()", classPropertiesPatterns.item(c));
+				propertyRuleMap.put(matchText, replaceText);
+			}
+			newClassPropertyRuleMap.put(classText, propertyRuleMap);
+		}
+
+		// ==== CU Customization: Added date map from KRAD dev tools MaintainableXMLConversionServiceImpl class ====
+		// Get the Date rules
+        XPathExpression dateFieldNames = xpath.compile("//*[@name='maint_doc_date_changes']/pattern");
+        NodeList DateNamesList = (NodeList) dateFieldNames.evaluate(doc, XPathConstants.NODESET);
+        for (int s = 0; s < DateNamesList.getLength(); s++) {
+            String matchText = xpath.evaluate("match/text()", DateNamesList.item(s));
+            String replaceText = xpath.evaluate("replacement/text()", DateNamesList.item(s));
+            newDateRuleMap.put(matchText, replaceText);
+        }
+
+		return new ConversionRuleSnapshot(ConversionRuleSnapshot.computeChecksum(ruleFileContents),
+				newClassNameRuleMap, newClassPropertyRuleMap, newDateRuleMap);
+	}
+
 	private void setupConfigurationMaps() {
-		classNameRuleMap = new HashMap<String, String>();
-		classPropertyRuleMap = new HashMap<String, Map<String,String>>();
+		// ==== CU Customization: Build the maps with a helper, and publish them along with a new index. ====
+		//classNameRuleMap = new HashMap<String, String>();
+		//classPropertyRuleMap = new HashMap<String, Map<String,String>>();
 		// ==== CU Customization: Added date map from KRAD dev tools MaintainableXMLConversionServiceImpl class ====
-		dateRuleMap = new HashMap<String, String>();
+		//dateRuleMap = new HashMap<String, String>();
+		Map<String, Map<String, String>> defaultClassPropertyRuleMap = createDefaultClassPropertyRuleMap();
+		Map<String, String> emptyDateRuleMap = new HashMap<String, String>();
+		// ==== CU Customization: Start with an index of just the defaults, in case the rules file cannot be parsed. ====
+		publishRules(new HashMap<String, String>(), defaultClassPropertyRuleMap, emptyDateRuleMap,
+				new ConversionRuleIndex(defaultClassPropertyRuleMap, emptyDateRuleMap));
+	}
 
+	private static Map<String, Map<String, String>> createDefaultClassPropertyRuleMap() {
+		Map<String, Map<String, String>> classPropertyRuleMap = new HashMap<String, Map<String,String>>();
 		// Pre-populate the class property rules with some defaults which apply to every BO
 		Map<String, String> defaultPropertyRules = new HashMap<String, String>();
 		defaultPropertyRules.put("boNotes", "");
 		defaultPropertyRules.put("autoIncrementSet", "");
 		classPropertyRuleMap.put("*", defaultPropertyRules);
+		return classPropertyRuleMap;
+	}
+
+	/*
+	 * Replaces the rules. The index is published last, with a single volatile write, so that each conversion sees
+	 * either the old or the new rules in full.
+	 */
+	private void publishRules(Map<String, String> classNameRuleMap, Map<String, Map<String, String>> classPropertyRuleMap,
+			Map<String, String> dateRuleMap, ConversionRuleIndex ruleIndex) {
+		this.classNameRuleMap = classNameRuleMap;
+		this.classPropertyRuleMap = classPropertyRuleMap;
+		this.dateRuleMap = dateRuleMap;
+		this.ruleSetGeneration++;
+		this.ruleIndex = ruleIndex;
 	}
 	
 	
@@ -377,22 +975,17 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 	 * and "class" attributes into account.
 	 * =========================================================
 	 */
-	private void doStreamedConversion(XMLStreamReader xmlIn, XMLStreamWriter xmlOut) throws XMLStreamException {
-		// Convenience constants for faster processing.
-		final Map<String,String> EMPTY_PROP_RULE_MAP = Collections.emptyMap();
-		final String[] ONE_ATTR_NAME = new String[1];
-		final String[] ONE_ATTR_VALUE = new String[1];
-		final String[] TWO_ATTR_NAMES = new String[2];
-		final String[] TWO_ATTR_VALUES = new String[2];
-		
+	private void doStreamedConversion(final ConversionRuleIndex ruleIndex, XMLStreamReader xmlIn, XMLStreamWriter xmlOut,
+			final ConversionLimiter limiter, StreamedConversionState state) throws XMLStreamException {
 		// Variables for reading and writing character data.
-		char[] charBuffer = new char[256];
+		final char[] charBuffer = state.charBuffer;
 		int charLen = 0;
 		int charStart = 0;
 		
 		// Variables for processing dates.
 		int dateLen = -1;
-		String dateSuffix = null;
+		ConversionRule dateSuffixRule = null;
+		ConversionRule dateRule = null;
 		
 		// Variables for handling map entries.
 		int mapEntryElemCount = -1;
@@ -408,30 +1001,25 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 		
 		// Variables for holding element names and replacing element names or attribute values.
 		String newName = null;
-		String replacement = null;
-		boolean hasReplacement = false;
+		ConversionRule rule = null;
+		ClassRules newClassRules = null;
 		boolean suppressWrite = false;
 		
-		// Variables for remembering the depths at which certain patterns occur.
-		LinkedList<String> classNameStack = new LinkedList<String>();
-		String nameStackTop = "";
-		LinkedList<Integer> classNameDepthStack = new LinkedList<Integer>();
+		// Variable for recording whether any rule was applied, for the rule hit counters.
+		boolean ruleApplied = false;
+		
+		// Variables for remembering the depths at which certain patterns occur. (The stacks themselves are in the state object.)
 		int depthStackTop = -1;
-		LinkedList<Integer> moveToParentDepthStack = new LinkedList<Integer>();
 		int moveToParentDepthStackTop = -1;
 		
-		// Variables for holding the current properties rule map and the global rule map.
-		Map<String,String> currentPropRuleMap = EMPTY_PROP_RULE_MAP;
-		Map<String,String> globalPropRuleMap = classPropertyRuleMap.get("*");
+		// Variables for holding the current class's compiled rules (already merged with the global ones) and the global rules.
+		final ClassRules globalRules = ruleIndex.getGlobalRules();
+		ClassRules currentClassRules = globalRules;
 		
 		// Variables for recording current depth or the depth of the element being skipped.
 		int depth = 0;
 		int skipDepth = -1;
 
-		if (globalPropRuleMap == null) {
-			globalPropRuleMap = EMPTY_PROP_RULE_MAP;
-		}
-
 		// Parse the XML.
 		while (xmlIn.hasNext()) {
 			
@@ -440,26 +1028,28 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 				switch (xmlIn.next()) {
 					
 					case XMLStreamConstants.START_ELEMENT :
+						// Do not write the synthetic root element that wraps the maintainable XML.
+						if (depth == 0) {
+							depth++;
+							break;
+						}
 						// Reset relevant variables.
 						suppressWrite = false;
 						classAttributeIndex = -1;
 						// Increment depth.
 						depth++;
+						// Check the depth and element count limits (and, at intervals, the time limit), if any.
+						if (limiter != null) {
+							limiter.checkElement(depth - 1);
+						}
 						
 						// Get element attributes.
 						attributeLen = xmlIn.getAttributeCount();
 						if (attributeLen > 0) {
-							// Use pre-defined convenience arrays when possible.
-							if (attributeLen == 1) {
-								newAttrNames = ONE_ATTR_NAME;
-								newAttrValues = ONE_ATTR_VALUE;
-							} else if (attributeLen == 2) {
-								newAttrNames = TWO_ATTR_NAMES;
-								newAttrValues = TWO_ATTR_VALUES;
-							} else {
-								newAttrNames = new String[attributeLen];
-								newAttrValues = new String[attributeLen];
-							}
+							// Reuse the state's attribute arrays, growing them only if needed.
+							state.ensureAttributeCapacity(attributeLen);
+							newAttrNames = state.attributeNames;
+							newAttrValues = state.attributeValues;
 							// Record the attributes.
 							for (i = 0; i < attributeLen; i++) {
 								newName = xmlIn.getAttributeLocalName(i);
@@ -476,37 +1066,36 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 						// Update the "class" attribute value if necessary.
 						if (classAttributeIndex != -1) {
 							attributeValue = newAttrValues[classAttributeIndex];
-							// Determine if a replacement value exists.
-							if (depth == depthStackTop + 1 && currentPropRuleMap.containsKey(attributeValue)) {
-								replacement = currentPropRuleMap.get(attributeValue);
-								hasReplacement = true;
-							} else if (globalPropRuleMap.containsKey(attributeValue)) {
-								replacement = globalPropRuleMap.get(attributeValue);
-								hasReplacement = true;
-							} else {
-								hasReplacement = false;
-							}
+							// Determine if a replacement value exists, using the direct parent's rules or else the global ones.
+							rule = (depth == depthStackTop + 1 ? currentClassRules : globalRules).getElementRule(attributeValue);
 							// Perform any needed updates or skips.
-							if (hasReplacement) {
-								if (StringUtils.isBlank(replacement)) {
-									// If blank, skip the element and its children.
-									skipDepth = depth;
-									suppressWrite = true;
-								} else if (MOVE_NODES_TO_PARENT_INDICATOR.equals(replacement)) {
-									// If indicated, do not write the current element but still add its children to the parent element.
-									moveToParentDepthStack.push(Integer.valueOf(moveToParentDepthStackTop));
-									moveToParentDepthStackTop = depth;
-									suppressWrite = true;
-								} else if (CONVERT_TO_MAP_ENTRIES_INDICATOR.equals(replacement)) {
-									// If indicated, prepare to wrap map key/value pairs in "entry" elements.
-									if (mapEntryElemCount == -1) {
-										mapEntryElemCount = 0;
-										mapEntryElemDepth = depth;
-									}
-								} else {
-									// Otherwise, just update the "class" attribute's value.
-									attributeValue = replacement;
-									newAttrValues[classAttributeIndex] = attributeValue;
+							if (rule != null) {
+								ruleIndex.recordHit(rule);
+								ruleApplied = true;
+								switch (rule.getAction()) {
+									case DROP :
+										// If blank, skip the element and its children.
+										skipDepth = depth;
+										suppressWrite = true;
+										break;
+									case MOVE_TO_PARENT :
+										// If indicated, do not write the current element but still add its children to the parent element.
+										state.pushMoveToParentDepth(moveToParentDepthStackTop);
+										moveToParentDepthStackTop = depth;
+										suppressWrite = true;
+										break;
+									case WRAP_MAP_ENTRY :
+										// If indicated, prepare to wrap map key/value pairs in "entry" elements.
+										if (mapEntryElemCount == -1) {
+											mapEntryElemCount = 0;
+											mapEntryElemDepth = depth;
+										}
+										break;
+									default :
+										// Otherwise, just update the "class" attribute's value.
+										attributeValue = rule.getReplacement();
+										newAttrValues[classAttributeIndex] = attributeValue;
+										break;
 								}
 							}
 						}
@@ -516,61 +1105,56 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 						
 						// Update the element name if necessary.
 						if (!suppressWrite) {
-							// Determine whether a replacement exists in the prop rule maps.
-							if (depth == depthStackTop + 1 && currentPropRuleMap.containsKey(newName)) {
-								replacement = currentPropRuleMap.get(newName);
-								hasReplacement = true;
-							} else if (globalPropRuleMap.containsKey(newName)) {
-								replacement = globalPropRuleMap.get(newName);
-								hasReplacement = true;
-							} else {
-								hasReplacement = false;
-							}
+							// Determine whether a replacement exists in the direct parent's rules or else the global ones.
+							rule = (depth == depthStackTop + 1 ? currentClassRules : globalRules).getElementRule(newName);
 							// Rename or skip element if specified by direct parent element or global map.
-							if (hasReplacement) {
-								if (StringUtils.isBlank(replacement)) {
-									// If blank, skip the element and its children.
-									skipDepth = depth;
-									suppressWrite = true;
-								} else if (MOVE_NODES_TO_PARENT_INDICATOR.equals(replacement)) {
-									// If indicated, do not write the current element but still add its children to the parent element.
-									if (moveToParentDepthStackTop != depth) {
-										moveToParentDepthStack.push(Integer.valueOf(moveToParentDepthStackTop));
-										moveToParentDepthStackTop = depth;
-									}
-									suppressWrite = true;
-								} else if (CONVERT_TO_MAP_ENTRIES_INDICATOR.equals(replacement)) {
-									// If indicated, prepare to wrap map key/value pairs in "entry" elements.
-									if (mapEntryElemCount == -1) {
-										mapEntryElemCount = 0;
-										mapEntryElemDepth = depth;
-									}
-								} else {
-									// Otherwise, rename the element.
-									newName = replacement;
+							if (rule != null) {
+								ruleIndex.recordHit(rule);
+								ruleApplied = true;
+								switch (rule.getAction()) {
+									case DROP :
+										// If blank, skip the element and its children.
+										skipDepth = depth;
+										suppressWrite = true;
+										break;
+									case MOVE_TO_PARENT :
+										// If indicated, do not write the current element but still add its children to the parent element.
+										if (moveToParentDepthStackTop != depth) {
+											state.pushMoveToParentDepth(moveToParentDepthStackTop);
+											moveToParentDepthStackTop = depth;
+										}
+										suppressWrite = true;
+										break;
+									case WRAP_MAP_ENTRY :
+										// If indicated, prepare to wrap map key/value pairs in "entry" elements.
+										if (mapEntryElemCount == -1) {
+											mapEntryElemCount = 0;
+											mapEntryElemDepth = depth;
+										}
+										break;
+									default :
+										// Otherwise, rename the element.
+										newName = rule.getReplacement();
+										break;
 								}
 							}
 						}
 						
 						// Update property rule map tracking if the whole element is not being skipped.
 						if (skipDepth != depth) {
-							replacement = null;
 							// Give precedence to "class" attribute values for prop rule map updates.
-							if (classAttributeIndex != -1 && classPropertyRuleMap.containsKey(attributeValue)) {
-								replacement = attributeValue;
-							} else if (classPropertyRuleMap.containsKey(newName)) {
-								replacement = newName;
+							newClassRules = null;
+							if (classAttributeIndex != -1) {
+								newClassRules = ruleIndex.getClassRules(attributeValue);
+							}
+							if (newClassRules == null) {
+								newClassRules = ruleIndex.getClassRules(newName);
 							}
 							// Update tracking and stacks if necessary.
-							if (replacement != null) {
-								classNameStack.push(nameStackTop);
-								classNameDepthStack.push(Integer.valueOf(depthStackTop));
-								nameStackTop = replacement;
+							if (newClassRules != null) {
+								state.pushClass(currentClassRules, depthStackTop);
 								depthStackTop = depth;
-								currentPropRuleMap = classPropertyRuleMap.get(replacement);
-								if (currentPropRuleMap == null) {
-									currentPropRuleMap = EMPTY_PROP_RULE_MAP;
-								}
+								currentClassRules = newClassRules;
 							}
 						}
 						
@@ -588,8 +1172,9 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 							xmlOut.writeStartElement(newName);
 							
 							// Track length of date text, if a date field.
-							if (StringUtils.isNotBlank(dateRuleMap.get(newName))) {
-								dateSuffix = " " + dateRuleMap.get(newName);
+							dateRule = ruleIndex.getDateRule(newName);
+							if (dateRule != null) {
+								dateSuffixRule = dateRule;
 								dateLen = 0;
 							}
 							
@@ -598,21 +1183,15 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 								for (i = 0; i < attributeLen; i++) {
 									suppressWrite = false;
 									// Check for replacement name.
-									if (depth == depthStackTop && currentPropRuleMap.containsKey(newAttrNames[i] + ATTR_INDICATOR)) {
-										replacement = currentPropRuleMap.get(newAttrNames[i] + ATTR_INDICATOR);
-										hasReplacement = true;
-									} else if (globalPropRuleMap.containsKey(newAttrNames[i] + ATTR_INDICATOR)) {
-										replacement = globalPropRuleMap.get(newAttrNames[i] + ATTR_INDICATOR);
-										hasReplacement = true;
-									} else {
-										hasReplacement = false;
-									}
+									rule = (depth == depthStackTop ? currentClassRules : globalRules).getAttributeRule(newAttrNames[i]);
 									// Replace name or suppress the whole attribute as needed.
-									if (hasReplacement) {
-										if (StringUtils.isBlank(replacement)) {
+									if (rule != null) {
+										ruleIndex.recordHit(rule);
+										ruleApplied = true;
+										if (rule.getAction() == ConversionAction.DROP) {
 											suppressWrite = true;
 										} else {
-											newAttrNames[i] = replacement;
+											newAttrNames[i] = rule.getReplacement();
 										}
 									}
 									// Write the attribute if it's not being suppressed.
@@ -625,26 +1204,38 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 						break;
 					
 					case XMLStreamConstants.END_ELEMENT :
+						// Do not write the end of the synthetic root element either.
+						if (depth == 1) {
+							depth--;
+							break;
+						}
 						// Update stacks if necessary.
 						if (depth == depthStackTop) {
-							nameStackTop = classNameStack.pop();
-							depthStackTop = classNameDepthStack.pop().intValue();
-							currentPropRuleMap = classPropertyRuleMap.get(nameStackTop);
-							if (currentPropRuleMap == null) {
-								currentPropRuleMap = EMPTY_PROP_RULE_MAP;
+							currentClassRules = state.peekClassRules();
+							depthStackTop = state.peekClassDepth();
+							state.popClass();
+						}
+						// If a map ends with a key but no value, close its last "entry" tag first.
+						if (mapEntryElemDepth == depth + 1) {
+							if (mapEntryElemCount == 1) {
+								xmlOut.writeEndElement();
 							}
+							mapEntryElemCount = -1;
+							mapEntryElemDepth = -1;
 						}
 						// Write the end element or skip it as needed.
 						if (depth == moveToParentDepthStackTop) {
-							moveToParentDepthStackTop = moveToParentDepthStack.pop().intValue();
+							moveToParentDepthStackTop = state.popMoveToParentDepth();
 						} else {
 							// If a date field, write a default time suffix if one is not present.
 							if (dateLen != -1) {
 								if (dateLen == 10) {
-									xmlOut.writeCharacters(dateSuffix);
+									xmlOut.writeCharacters(dateSuffixRule.getReplacement());
+									ruleIndex.recordHit(dateSuffixRule);
+									ruleApplied = true;
 								}
 								dateLen = -1;
-								dateSuffix = null;
+								dateSuffixRule = null;
 							}
 							// Write the end element.
 							xmlOut.writeEndElement();
@@ -672,7 +1263,7 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 						// Write out the character data as-is, and record date length if inside a date element.
 						charStart = 0;
 						do {
-							charLen = xmlIn.getTextCharacters(charStart, charBuffer, 0, 256);
+							charLen = xmlIn.getTextCharacters(charStart, charBuffer, 0, StreamedConversionState.CHAR_BUFFER_SIZE);
 							if (charLen != 0) {
 								xmlOut.writeCharacters(charBuffer, 0, charLen);
 							}
@@ -680,7 +1271,7 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 							if (dateLen != -1) {
 								dateLen += charLen;
 							}
-						} while (charLen == 256);
+						} while (charLen == StreamedConversionState.CHAR_BUFFER_SIZE);
 						break;
 					
 					case XMLStreamConstants.COMMENT :
@@ -692,7 +1283,7 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 						break;
 					
 					case XMLStreamConstants.START_DOCUMENT :
-						xmlOut.writeStartDocument();
+						// Skip the XML declaration, since the converted XML gets embedded in the maintainable document contents.
 						break;
 					
 					case XMLStreamConstants.END_DOCUMENT :
@@ -738,6 +1329,9 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 					switch (xmlIn.next()) {
 						case XMLStreamConstants.START_ELEMENT :
 							depth++;
+							if (limiter != null) {
+								limiter.checkElement(depth - 1);
+							}
 							break;
 						case XMLStreamConstants.END_ELEMENT :
 							depth--;
@@ -750,6 +1344,9 @@ public class MaintainableXMLConversionServiceImpl implements MaintainableXMLConv
 			}
 			
 		}
+		
+		// Count the conversion as one that did or did not apply any rule.
+		ruleIndex.recordConversion(ruleApplied);
 	}
 
 }
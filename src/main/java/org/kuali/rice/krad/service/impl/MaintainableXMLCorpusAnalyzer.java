@@ -0,0 +1,1086 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.CoreApiServiceLocator;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.api.encryption.EncryptionService;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ClassRules;
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ConversionRule;
+
+/**
+ * ====
+ * CU Customization:
+ * Walks a corpus of maintenance document XML with StAX, and counts how
+ * often each element name, "class" attribute value and parent-to-child
+ * element path occurs, as a guide to writing conversion rules. It also
+ * flags the class names and fields that neither the compiled conversion
+ * rules nor the classpath can resolve, which are the ones that still need
+ * rules.
+ *
+ * Names are looked up the way the streaming converter looks them up: an
+ * element or "class" attribute value first against the rules of its
+ * parent's class (or the global rules), and then, under its converted
+ * name, as a class (for names containing a dot, the data objects directly
+ * within the maintainables, and "class" attribute values) or as a field of
+ * its parent's class. Elements within collections and maps, and within
+ * elements whose class is unknown, are only checked if they name classes;
+ * XStream aliases such as "string" or "list" are not checked at all.
+ *
+ * To keep the heap small and fixed however large the corpus, every name
+ * is interned once into a symbol table, and all counts are kept in
+ * primitive arrays indexed by symbol, or in an open-addressing table of
+ * longs keyed by pairs of symbols; nothing is retained per document. Past
+ * the configured limits, further names and paths are counted together as
+ * "(other)", and fields whose lookup could not be remembered are counted
+ * as unchecked rather than looked up again each time. An analyzer
+ * accumulates counts over all of the documents it is given, and is not
+ * thread-safe.
+ * ====
+ */
+public class MaintainableXMLCorpusAnalyzer {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLCorpusAnalyzer.class);
+
+	private static final String MAX_SYMBOLS_PARAMETER = "maintainable.conversion.analyzer.max.symbols";
+	private static final String MAX_PATHS_PARAMETER = "maintainable.conversion.analyzer.max.paths";
+	private static final String FETCH_SIZE_PARAMETER = "maintainable.conversion.analyzer.fetch.size";
+	private static final String REPORT_LIMIT_PARAMETER = "maintainable.conversion.analyzer.report.limit";
+	private static final String DIRECTORY_PARAMETER = "maintainable.conversion.analyzer.directory";
+	// The standalone analyzer connects with the same settings as the standalone bulk conversion job.
+	private static final String JDBC_DRIVER_PARAMETER = "maintainable.conversion.bulk.jdbc.driver";
+	private static final String JDBC_URL_PARAMETER = "maintainable.conversion.bulk.jdbc.url";
+	private static final String JDBC_USERNAME_PARAMETER = "maintainable.conversion.bulk.jdbc.username";
+	private static final String JDBC_PASSWORD_PARAMETER = "maintainable.conversion.bulk.jdbc.password";
+	private static final String CONVERSION_RULE_FILE_PARAMETER = "maintainable.conversion.rule.file";
+	private static final String DEFAULT_CONVERSION_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+
+	private static final String SELECT_SQL = "SELECT DOC_CNTNT FROM KRNS_MAINT_DOC_T";
+	private static final String DOCUMENT_FILE_SUFFIX = ".xml";
+
+	private static final String DOCUMENT_TAG_NAME = "maintainableDocumentContents";
+	private static final String OLD_MAINTAINABLE_TAG_NAME = "oldMaintainableObject";
+	private static final String NEW_MAINTAINABLE_TAG_NAME = "newMaintainableObject";
+	private static final String MAINTENANCE_ACTION_TAG_NAME = "maintenanceAction";
+	private static final String CLASS_ATTRIBUTE = "class";
+	private static final String ARRAY_SUFFIX = "-array";
+
+	/*
+	 * What the children of an element are taken to be.
+	 */
+	// Unknown: only children naming classes are checked.
+	private static final byte UNKNOWN = 0;
+	// The root of the document contents: the maintainables, the notes and so on.
+	private static final byte DOCUMENT = 1;
+	// A maintainable: the data object (and the maintenance action).
+	private static final byte MAINTAINABLE = 2;
+	// An object of a known class: its fields.
+	private static final byte FIELDS = 3;
+	// A collection, map or array: its items (or, for maps, its entries).
+	private static final byte ITEMS = 4;
+	// Dropped by the conversion rules, or not data: nothing is checked.
+	private static final byte SKIPPED = 5;
+
+	// The results of looking up a class by name.
+	private static final byte CLASS_NOT_LOOKED_UP = 0;
+	private static final byte CLASS_FOUND = 1;
+	private static final byte CLASS_NOT_FOUND = 2;
+
+	// The results of looking up a field, when not the symbol (plus one) of the field's type.
+	private static final long FIELD_NOT_FOUND = -1L;
+	private static final long FIELD_NOT_CHECKABLE = -2L;
+
+	private static final int INITIAL_DEPTH_CAPACITY = 32;
+	private static final long PROGRESS_LOG_INTERVAL = 100000L;
+
+	private final XMLInputFactory inputFactory;
+
+	private DataSource dataSource;
+	private MaintainableXMLConversionService conversionService;
+	private boolean encryptContents = true;
+	private int fetchSize = 500;
+	private int reportLimit = 50;
+	private int maxSymbols = 1 << 18;
+	private int maxPaths = 1 << 19;
+
+	// Created on first use, so that the limits can still be changed until then.
+	private SymbolTable symbols;
+	private long[] elementCounts;
+	private long[] classAttributeCounts;
+	private long[] unresolvedClassCounts;
+	private byte[] classLookups;
+	private Class<?>[] classes;
+	private LongCountTable pathCounts;
+	private LongCountTable fieldLookups;
+	private LongCountTable unresolvedFieldCounts;
+	private int rootSymbol;
+	private long otherPathCount;
+	private long otherUnresolvedFieldCount;
+	private long uncheckedFieldCount;
+	private long documentCount;
+	private long malformedDocumentCount;
+	private long elementCount;
+	private long elapsedNanos;
+
+	// The per-depth state of the document being analyzed, reused across documents.
+	private int[] nameStack = new int[INITIAL_DEPTH_CAPACITY];
+	private byte[] modeStack = new byte[INITIAL_DEPTH_CAPACITY];
+	private Class<?>[] classStack = new Class<?>[INITIAL_DEPTH_CAPACITY];
+	private int[] classSymbolStack = new int[INITIAL_DEPTH_CAPACITY];
+	private ClassRules[] classRulesStack = new ClassRules[INITIAL_DEPTH_CAPACITY];
+
+	public MaintainableXMLCorpusAnalyzer() {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		String maxSymbols = ConfigContext.getCurrentContextConfig().getProperty(MAX_SYMBOLS_PARAMETER);
+		if (StringUtils.isNotBlank(maxSymbols)) {
+			this.setMaxSymbols(Integer.parseInt(maxSymbols.trim()));
+		}
+		String maxPaths = ConfigContext.getCurrentContextConfig().getProperty(MAX_PATHS_PARAMETER);
+		if (StringUtils.isNotBlank(maxPaths)) {
+			this.setMaxPaths(Integer.parseInt(maxPaths.trim()));
+		}
+		String fetchSize = ConfigContext.getCurrentContextConfig().getProperty(FETCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(fetchSize)) {
+			this.setFetchSize(Integer.parseInt(fetchSize.trim()));
+		}
+		String reportLimit = ConfigContext.getCurrentContextConfig().getProperty(REPORT_LIMIT_PARAMETER);
+		if (StringUtils.isNotBlank(reportLimit)) {
+			this.setReportLimit(Integer.parseInt(reportLimit.trim()));
+		}
+	}
+
+	/**
+	 * Runs the analyzer standalone. The only argument is a properties file holding either the directory to analyze
+	 * (maintainable.conversion.analyzer.directory) or the JDBC connection settings of the bulk conversion job
+	 * (maintainable.conversion.bulk.jdbc.driver, .url, .username and .password), along with any of the usual
+	 * conversion and analyzer parameters. The report is printed to standard output.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: MaintainableXMLCorpusAnalyzer propertiesFile");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream propertiesIn = new FileInputStream(args[0]);
+		try {
+			properties.load(propertiesIn);
+		} finally {
+			propertiesIn.close();
+		}
+		if (StringUtils.isBlank(properties.getProperty(CONVERSION_RULE_FILE_PARAMETER))) {
+			properties.setProperty(CONVERSION_RULE_FILE_PARAMETER, DEFAULT_CONVERSION_RULE_FILE);
+		}
+		JAXBConfigImpl config = new JAXBConfigImpl();
+		for (String name : properties.stringPropertyNames()) {
+			config.putProperty(name, properties.getProperty(name));
+		}
+		ConfigContext.init(config);
+
+		MaintainableXMLConversionServiceImpl conversionService = new MaintainableXMLConversionServiceImpl();
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.afterPropertiesSet();
+		MaintainableXMLCorpusAnalyzer analyzer = new MaintainableXMLCorpusAnalyzer();
+		analyzer.setConversionService(conversionService);
+		analyzer.setEncryptContents(false);
+		String directory = properties.getProperty(DIRECTORY_PARAMETER);
+		if (StringUtils.isNotBlank(directory)) {
+			analyzer.analyzeDirectory(new File(directory.trim()));
+		} else {
+			if (StringUtils.isNotBlank(properties.getProperty(JDBC_DRIVER_PARAMETER))) {
+				Class.forName(properties.getProperty(JDBC_DRIVER_PARAMETER).trim());
+			}
+			analyzer.setDataSource(new MaintainableXMLBulkConversionJob.DriverManagerDataSource(properties.getProperty(JDBC_URL_PARAMETER),
+					properties.getProperty(JDBC_USERNAME_PARAMETER), properties.getProperty(JDBC_PASSWORD_PARAMETER)));
+			analyzer.analyzeDataSource();
+		}
+		System.out.println(analyzer.formatReport(analyzer.getReportLimit()));
+		conversionService.destroy();
+	}
+
+	/**
+	 * Analyzes every document in the maintenance document table.
+	 *
+	 * @throws SQLException if reading the documents failed
+	 */
+	public void analyzeDataSource() throws SQLException, GeneralSecurityException {
+		if (dataSource == null) {
+			throw new IllegalStateException("A dataSource is required to analyze the maintenance document table");
+		}
+		ConversionRuleIndex ruleIndex = getRequiredRuleIndex();
+		boolean decrypt = getEncryptionService() != null;
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet resultSet = null;
+		try {
+			connection = dataSource.getConnection();
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			resultSet = statement.executeQuery(SELECT_SQL);
+			while (resultSet.next()) {
+				// Stream the contents straight from the CLOB, unless they have to be decrypted first.
+				Reader contentsIn = decrypt ? new StringReader(getEncryptionService().decrypt(resultSet.getString(1)))
+						: resultSet.getCharacterStream(1);
+				if (contentsIn == null) {
+					continue;
+				}
+				try {
+					analyze(ruleIndex, inputFactory.createXMLStreamReader(contentsIn));
+				} catch (XMLStreamException e) {
+					recordMalformedDocument(e);
+				} finally {
+					try {
+						contentsIn.close();
+					} catch (IOException e) {
+						LOG.warn("Error closing document contents", e);
+					}
+				}
+			}
+		} finally {
+			close(resultSet, statement, connection);
+		}
+	}
+
+	/**
+	 * Analyzes a directory of exported document contents: every file under it whose name ends in ".xml" holds the
+	 * contents of one document.
+	 *
+	 * @throws IOException if reading the files failed
+	 */
+	public void analyzeDirectory(File directory) throws IOException {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException("Not a directory: " + directory);
+		}
+		final ConversionRuleIndex ruleIndex = getRequiredRuleIndex();
+		Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				if (attributes.isRegularFile() && file.getFileName().toString().endsWith(DOCUMENT_FILE_SUFFIX)) {
+					InputStream contentsIn = new BufferedInputStream(Files.newInputStream(file));
+					try {
+						analyze(ruleIndex, inputFactory.createXMLStreamReader(contentsIn));
+					} catch (XMLStreamException e) {
+						recordMalformedDocument(e);
+					} finally {
+						contentsIn.close();
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Analyzes the contents of a single document.
+	 *
+	 * @param contentsIn the document contents, which are read but not closed
+	 */
+	public void analyze(Reader contentsIn) {
+		ConversionRuleIndex ruleIndex = getRequiredRuleIndex();
+		try {
+			analyze(ruleIndex, inputFactory.createXMLStreamReader(contentsIn));
+		} catch (XMLStreamException e) {
+			recordMalformedDocument(e);
+		}
+	}
+
+	private ConversionRuleIndex getRequiredRuleIndex() {
+		MaintainableXMLConversionService conversionService = getConversionService();
+		ConversionRuleIndex ruleIndex = (conversionService instanceof MaintainableXMLConversionServiceImpl)
+				? ((MaintainableXMLConversionServiceImpl) conversionService).getRuleIndex() : null;
+		if (ruleIndex == null) {
+			throw new IllegalStateException("The corpus analyzer requires a MaintainableXMLConversionServiceImpl with conversion rules");
+		}
+		if (symbols == null) {
+			symbols = new SymbolTable(maxSymbols);
+			pathCounts = new LongCountTable(maxPaths);
+			fieldLookups = new LongCountTable(maxPaths);
+			unresolvedFieldCounts = new LongCountTable(maxPaths);
+			rootSymbol = symbols.intern("(root)");
+			ensureSymbolCapacity();
+		}
+		return ruleIndex;
+	}
+
+	private void recordMalformedDocument(XMLStreamException e) {
+		malformedDocumentCount++;
+		documentCount++;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Skipping the rest of a malformed document", e);
+		}
+	}
+
+	/*
+	 * The walk over one document. Only start tags matter, so the parser's text is never requested.
+	 */
+	private void analyze(ConversionRuleIndex ruleIndex, XMLStreamReader xmlIn) throws XMLStreamException {
+		long startTime = System.nanoTime();
+		ClassRules globalRules = ruleIndex.getGlobalRules();
+		int depth = 0;
+		try {
+			while (xmlIn.hasNext()) {
+				int event = xmlIn.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					ensureDepthCapacity(depth);
+					startElement(ruleIndex, globalRules, xmlIn, depth);
+					depth++;
+				}
+			}
+		} finally {
+			xmlIn.close();
+			elapsedNanos += System.nanoTime() - startTime;
+		}
+		if (++documentCount % PROGRESS_LOG_INTERVAL == 0L) {
+			LOG.info("Corpus analysis progress: " + documentCount + " documents, " + elementCount + " elements");
+		}
+	}
+
+	private void startElement(ConversionRuleIndex ruleIndex, ClassRules globalRules, XMLStreamReader xmlIn, int depth) {
+		String name = xmlIn.getLocalName();
+		int nameSymbol = intern(name);
+		elementCount++;
+		elementCounts[nameSymbol]++;
+		if (!pathCounts.add(pathKey((depth > 0) ? nameStack[depth - 1] : rootSymbol, nameSymbol), 1L)) {
+			otherPathCount++;
+		}
+		nameStack[depth] = nameSymbol;
+		String classAttribute = xmlIn.getAttributeValue(null, CLASS_ATTRIBUTE);
+		if (classAttribute != null) {
+			classAttributeCounts[intern(classAttribute)]++;
+		}
+
+		byte parentMode = (depth > 0) ? modeStack[depth - 1] : UNKNOWN;
+		if (parentMode == SKIPPED || (parentMode == MAINTAINABLE && MAINTENANCE_ACTION_TAG_NAME.equals(name))) {
+			setState(depth, SKIPPED, null, -1, null);
+			return;
+		}
+		if (depth == 0 && DOCUMENT_TAG_NAME.equals(name)) {
+			setState(depth, DOCUMENT, null, -1, null);
+			return;
+		}
+		if (parentMode == DOCUMENT) {
+			boolean maintainable = OLD_MAINTAINABLE_TAG_NAME.equals(name) || NEW_MAINTAINABLE_TAG_NAME.equals(name);
+			setState(depth, maintainable ? MAINTAINABLE : ITEMS, null, -1, null);
+			return;
+		}
+
+		// Apply the rules as the converter would: the parent's class rules (or the global ones), first to the
+		// "class" attribute value and then to the element name.
+		ClassRules rules = (depth > 0 && classRulesStack[depth - 1] != null) ? classRulesStack[depth - 1] : globalRules;
+		String className = classAttribute;
+		if (classAttribute != null) {
+			ConversionRule rule = rules.getElementRule(classAttribute);
+			if (rule != null) {
+				if (applyStructuralRule(rule, depth)) {
+					return;
+				}
+				className = rule.getReplacement();
+			}
+		}
+		String convertedName = name;
+		ConversionRule rule = rules.getElementRule(name);
+		if (rule != null) {
+			if (applyStructuralRule(rule, depth)) {
+				return;
+			}
+			convertedName = rule.getReplacement();
+		}
+		ClassRules classRules = (className != null) ? ruleIndex.getClassRules(className) : null;
+		if (classRules == null) {
+			classRules = ruleIndex.getClassRules(convertedName);
+		}
+
+		// Then resolve the converted name: as a class, as a field of the parent's class, or not at all.
+		if (className != null) {
+			setClassState(depth, className, classRules, true);
+		} else if (parentMode == MAINTAINABLE || depth == 0 || convertedName.indexOf('.') != -1) {
+			setClassState(depth, convertedName, classRules, true);
+		} else if (parentMode == FIELDS) {
+			Class<?> fieldType = resolveField(classStack[depth - 1], classSymbolStack[depth - 1], convertedName);
+			if (fieldType != null) {
+				setClassState(depth, fieldType.getName(), classRules, false);
+			} else {
+				setState(depth, UNKNOWN, null, -1, classRules);
+			}
+		} else {
+			// Entries and aliases within collections and maps hold items too.
+			setState(depth, (parentMode == ITEMS) ? ITEMS : UNKNOWN, null, -1, classRules);
+		}
+	}
+
+	/*
+	 * Sets the state for rules that do more than rename.
+	 *
+	 * @return true if the rule determined the element's state, false if it is a rename
+	 */
+	private boolean applyStructuralRule(ConversionRule rule, int depth) {
+		switch (rule.getAction()) {
+			case DROP :
+				setState(depth, SKIPPED, null, -1, null);
+				return true;
+			case MOVE_TO_PARENT :
+				// The children end up in the parent, so they are resolved as if they were there already (though, as in
+				// the converter, their rules are the global ones).
+				if (depth > 0) {
+					setState(depth, modeStack[depth - 1], classStack[depth - 1], classSymbolStack[depth - 1], null);
+				} else {
+					setState(depth, UNKNOWN, null, -1, null);
+				}
+				return true;
+			case WRAP_MAP_ENTRY :
+				setState(depth, ITEMS, null, -1, null);
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	/*
+	 * Sets the state for an element of the given class, resolving the class if need be. Only names containing a dot
+	 * are looked up; the others are XStream aliases.
+	 */
+	private void setClassState(int depth, String className, ClassRules classRules, boolean flagIfUnresolved) {
+		String lookupName = className;
+		boolean array = lookupName.endsWith(ARRAY_SUFFIX);
+		if (array) {
+			lookupName = lookupName.substring(0, lookupName.length() - ARRAY_SUFFIX.length());
+		}
+		if (lookupName.indexOf('.') == -1) {
+			setState(depth, array ? ITEMS : UNKNOWN, null, -1, classRules);
+			return;
+		}
+		int classSymbol = intern(lookupName);
+		Class<?> elementClass = resolveClass(classSymbol, lookupName);
+		if (elementClass == null) {
+			if (flagIfUnresolved) {
+				unresolvedClassCounts[classSymbol]++;
+			}
+			setState(depth, array ? ITEMS : UNKNOWN, null, -1, classRules);
+		} else if (array || elementClass.isArray() || Collection.class.isAssignableFrom(elementClass)
+				|| Map.class.isAssignableFrom(elementClass)) {
+			setState(depth, ITEMS, null, -1, classRules);
+		} else if (elementClass == Object.class || elementClass.isInterface() || Modifier.isAbstract(elementClass.getModifiers())) {
+			// The actual class would be in a "class" attribute, and there is none.
+			setState(depth, UNKNOWN, null, -1, classRules);
+		} else {
+			setState(depth, FIELDS, elementClass, classSymbol, classRules);
+		}
+	}
+
+	private void setState(int depth, byte mode, Class<?> elementClass, int classSymbol, ClassRules classRules) {
+		modeStack[depth] = mode;
+		classStack[depth] = elementClass;
+		classSymbolStack[depth] = classSymbol;
+		classRulesStack[depth] = classRules;
+	}
+
+	private Class<?> resolveClass(int classSymbol, String className) {
+		if (classSymbol == SymbolTable.OTHER) {
+			return null;
+		}
+		if (classLookups[classSymbol] == CLASS_NOT_LOOKED_UP) {
+			try {
+				classes[classSymbol] = Class.forName(decodeName(className), false, getClassLoader());
+				classLookups[classSymbol] = CLASS_FOUND;
+			} catch (ClassNotFoundException e) {
+				classLookups[classSymbol] = CLASS_NOT_FOUND;
+			} catch (LinkageError e) {
+				classLookups[classSymbol] = CLASS_NOT_FOUND;
+			}
+		}
+		return classes[classSymbol];
+	}
+
+	/*
+	 * Looks up a field in a class and its superclasses, and returns its declared type, or null if the field does not
+	 * exist (in which case it is flagged) or cannot be checked. Each lookup is remembered by symbol, so that nothing
+	 * is retained per lookup; a field whose lookup cannot be remembered, because the symbol table or the lookup table
+	 * is full, is counted as unchecked instead of being looked up every time it occurs.
+	 */
+	private Class<?> resolveField(Class<?> parentClass, int classSymbol, String fieldName) {
+		int fieldSymbol = intern(fieldName);
+		long key = pathKey(classSymbol, fieldSymbol);
+		long lookup = (fieldSymbol != SymbolTable.OTHER) ? fieldLookups.get(key) : 0L;
+		if (lookup == 0L) {
+			if (fieldSymbol == SymbolTable.OTHER || fieldLookups.isFull()) {
+				uncheckedFieldCount++;
+				return null;
+			}
+			lookup = lookUpField(parentClass, decodeName(fieldName));
+			fieldLookups.put(key, lookup);
+		}
+		if (lookup == FIELD_NOT_FOUND) {
+			if (!unresolvedFieldCounts.add(key, 1L)) {
+				otherUnresolvedFieldCount++;
+			}
+			return null;
+		}
+		return (lookup > 0L) ? classes[(int) lookup - 1] : null;
+	}
+
+	/*
+	 * @return the symbol (plus one) of the field's type, which is recorded as a resolved class, or one of the other
+	 * field lookup results
+	 */
+	private long lookUpField(Class<?> parentClass, String fieldName) {
+		try {
+			for (Class<?> currentClass = parentClass; currentClass != null; currentClass = currentClass.getSuperclass()) {
+				for (Field field : currentClass.getDeclaredFields()) {
+					if (field.getName().equals(fieldName)) {
+						Class<?> fieldType = field.getType();
+						int typeSymbol = intern(fieldType.getName());
+						if (typeSymbol == SymbolTable.OTHER) {
+							// There is no room to remember the type.
+							return FIELD_NOT_CHECKABLE;
+						}
+						classes[typeSymbol] = fieldType;
+						classLookups[typeSymbol] = CLASS_FOUND;
+						return typeSymbol + 1;
+					}
+				}
+			}
+		} catch (LinkageError e) {
+			// One of the field types is missing, so the class cannot be checked.
+			return FIELD_NOT_CHECKABLE;
+		}
+		return FIELD_NOT_FOUND;
+	}
+
+	/*
+	 * Undoes XStream's escaping of names: "$" is written as "_-", and "_" as "__".
+	 */
+	private static String decodeName(String name) {
+		return (name.indexOf('_') == -1) ? name : name.replace("_-", "$").replace("__", "_");
+	}
+
+	private ClassLoader getClassLoader() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		return (classLoader != null) ? classLoader : MaintainableXMLCorpusAnalyzer.class.getClassLoader();
+	}
+
+	private int intern(String name) {
+		int symbol = symbols.intern(name);
+		if (symbol >= elementCounts.length) {
+			ensureSymbolCapacity();
+		}
+		return symbol;
+	}
+
+	/*
+	 * Grows the per-symbol arrays along with the symbol table.
+	 */
+	private void ensureSymbolCapacity() {
+		int capacity = symbols.getCapacity();
+		if (elementCounts == null) {
+			elementCounts = new long[capacity];
+			classAttributeCounts = new long[capacity];
+			unresolvedClassCounts = new long[capacity];
+			classLookups = new byte[capacity];
+			classes = new Class<?>[capacity];
+		} else if (elementCounts.length < capacity) {
+			elementCounts = Arrays.copyOf(elementCounts, capacity);
+			classAttributeCounts = Arrays.copyOf(classAttributeCounts, capacity);
+			unresolvedClassCounts = Arrays.copyOf(unresolvedClassCounts, capacity);
+			classLookups = Arrays.copyOf(classLookups, capacity);
+			classes = Arrays.copyOf(classes, capacity);
+		}
+	}
+
+	private void ensureDepthCapacity(int depth) {
+		if (depth == nameStack.length) {
+			int newLength = nameStack.length * 2;
+			nameStack = Arrays.copyOf(nameStack, newLength);
+			modeStack = Arrays.copyOf(modeStack, newLength);
+			classStack = Arrays.copyOf(classStack, newLength);
+			classSymbolStack = Arrays.copyOf(classSymbolStack, newLength);
+			classRulesStack = Arrays.copyOf(classRulesStack, newLength);
+		}
+	}
+
+	private static long pathKey(int parentSymbol, int childSymbol) {
+		return ((long) parentSymbol << 32) | (childSymbol & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param limit the maximum number of entries to list for each histogram
+	 * @return the totals, followed by the most frequent element names, "class" attribute values, parent-to-child
+	 * paths, unresolved class names and unresolved fields
+	 */
+	public String formatReport(int limit) {
+		StringBuilder report = new StringBuilder(toString());
+		if (symbols == null) {
+			return report.toString();
+		}
+		appendSymbolHistogram(report, "Element names", elementCounts, limit);
+		appendSymbolHistogram(report, "\"class\" attribute values", classAttributeCounts, limit);
+		appendPairHistogram(report, "Parent > child paths", pathCounts, " > ", otherPathCount, limit);
+		appendSymbolHistogram(report, "Class names that neither the rules nor the classpath resolve", unresolvedClassCounts, limit);
+		appendPairHistogram(report, "Fields that neither the rules nor the classpath resolve", unresolvedFieldCounts, ".", otherUnresolvedFieldCount, limit);
+		if (uncheckedFieldCount > 0L) {
+			report.append("\n").append(uncheckedFieldCount).append("\t(unchecked, past the name or path limits)");
+		}
+		return report.toString();
+	}
+
+	private void appendSymbolHistogram(StringBuilder report, String title, long[] counts, int limit) {
+		int distinct = 0;
+		for (int symbol = 0; symbol < symbols.size(); symbol++) {
+			if (counts[symbol] > 0L) {
+				distinct++;
+			}
+		}
+		TopCounts top = new TopCounts(limit);
+		for (int symbol = 0; symbol < symbols.size(); symbol++) {
+			top.offer(symbol, counts[symbol]);
+		}
+		report.append("\n\n").append(title).append(" (").append(distinct).append(" distinct):");
+		long[] entries = top.sortedKeys();
+		for (long symbol : entries) {
+			report.append("\n").append(counts[(int) symbol]).append("\t").append(symbols.get((int) symbol));
+		}
+	}
+
+	private void appendPairHistogram(StringBuilder report, String title, LongCountTable counts, String separator,
+			long otherCount, int limit) {
+		TopCounts top = new TopCounts(limit);
+		for (int slot = 0; slot < counts.getCapacity(); slot++) {
+			top.offer(counts.getKeyAt(slot), counts.getCountAt(slot));
+		}
+		report.append("\n\n").append(title).append(" (").append(counts.size()).append(" distinct):");
+		for (long key : top.sortedKeys()) {
+			report.append("\n").append(counts.get(key)).append("\t").append(symbols.get((int) (key >>> 32)))
+					.append(separator).append(symbols.get((int) key));
+		}
+		if (otherCount > 0L) {
+			report.append("\n").append(otherCount).append("\t(other)");
+		}
+	}
+
+	/**
+	 * @return the number of documents analyzed, including malformed ones
+	 */
+	public long getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * @return the number of documents that were not well-formed XML (the elements before the error still count)
+	 */
+	public long getMalformedDocumentCount() {
+		return malformedDocumentCount;
+	}
+
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	@Override
+	public String toString() {
+		long elapsedMillis = elapsedNanos / 1000000L;
+		return "documents " + documentCount + " (malformed " + malformedDocumentCount + "), elements " + elementCount
+				+ ", distinct names " + ((symbols != null) ? symbols.size() : 0) + ", "
+				+ ((elapsedMillis > 0L) ? elementCount * 1000L / elapsedMillis : elementCount) + " elements/s";
+	}
+
+	private EncryptionService getEncryptionService() {
+		if (!encryptContents) {
+			return null;
+		}
+		EncryptionService encryptionService = CoreApiServiceLocator.getEncryptionService();
+		return (encryptionService != null && encryptionService.isEnabled()) ? encryptionService : null;
+	}
+
+	private void close(ResultSet resultSet, Statement statement, Connection connection) {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			LOG.warn("Error closing corpus analysis statement", e);
+		}
+		if (connection != null) {
+			try {
+				// End the read-only transaction before handing the connection back.
+				connection.rollback();
+				connection.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing corpus analysis connection", e);
+			}
+		}
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public MaintainableXMLConversionService getConversionService() {
+		return (conversionService != null) ? conversionService : ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+	}
+
+	/**
+	 * @param conversionService the conversion service whose rules the names are checked against, which must be a
+	 * MaintainableXMLConversionServiceImpl
+	 */
+	public void setConversionService(MaintainableXMLConversionService conversionService) {
+		this.conversionService = conversionService;
+	}
+
+	public boolean isEncryptContents() {
+		return encryptContents;
+	}
+
+	/**
+	 * @param encryptContents whether the document contents in the table are encrypted (when encryption is enabled)
+	 */
+	public void setEncryptContents(boolean encryptContents) {
+		this.encryptContents = encryptContents;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = Math.max(1, fetchSize);
+	}
+
+	public int getReportLimit() {
+		return reportLimit;
+	}
+
+	/**
+	 * @param reportLimit the maximum number of entries to list for each histogram when the report is formatted
+	 */
+	public void setReportLimit(int reportLimit) {
+		this.reportLimit = Math.max(0, reportLimit);
+	}
+
+	public int getMaxSymbols() {
+		return maxSymbols;
+	}
+
+	/**
+	 * @param maxSymbols the maximum number of distinct names (element names, "class" attribute values and class names)
+	 * to count separately; only takes effect before the first document is analyzed
+	 */
+	public void setMaxSymbols(int maxSymbols) {
+		this.maxSymbols = Math.max(16, maxSymbols);
+	}
+
+	public int getMaxPaths() {
+		return maxPaths;
+	}
+
+	/**
+	 * @param maxPaths the maximum number of distinct parent-to-child paths (and of distinct fields) to count
+	 * separately; only takes effect before the first document is analyzed
+	 */
+	public void setMaxPaths(int maxPaths) {
+		this.maxPaths = Math.max(16, maxPaths);
+	}
+
+	/*
+	 * Interns names into dense ids, with open addressing over an array of ids. Once full, every new name gets the id
+	 * of "(other)". Lookups of names the parser has already interned (as StAX parsers do with element names) do not
+	 * allocate, since their hash codes are cached.
+	 */
+	private static final class SymbolTable {
+		static final int OTHER = 0;
+
+		private final int maxSize;
+		private String[] names = new String[1024];
+		private int[] slots = new int[2048];
+		private int size;
+
+		SymbolTable(int maxSize) {
+			this.maxSize = maxSize;
+			intern("(other)");
+		}
+
+		int intern(String name) {
+			int mask = slots.length - 1;
+			for (int slot = spread(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+				int id = slots[slot] - 1;
+				if (id == -1) {
+					break;
+				}
+				if (names[id].equals(name)) {
+					return id;
+				}
+			}
+			if (size == maxSize) {
+				return OTHER;
+			}
+			if (size == names.length) {
+				names = Arrays.copyOf(names, names.length * 2);
+				rehash(slots.length * 2);
+			}
+			int id = size++;
+			names[id] = name;
+			insert(id);
+			return id;
+		}
+
+		String get(int id) {
+			return names[id];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int getCapacity() {
+			return names.length;
+		}
+
+		private void insert(int id) {
+			int mask = slots.length - 1;
+			int slot = spread(names[id].hashCode()) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+
+		private void rehash(int slotCount) {
+			slots = new int[slotCount];
+			for (int id = 0; id < size; id++) {
+				insert(id);
+			}
+		}
+
+		private static int spread(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	/*
+	 * Open-addressing table of long counts keyed by non-negative longs (pairs of symbols), growing up to the given
+	 * number of entries.
+	 */
+	private static final class LongCountTable {
+		private static final long EMPTY = -1L;
+
+		private final int maxSize;
+		private long[] keys;
+		private long[] counts;
+		private int size;
+
+		LongCountTable(int maxSize) {
+			this.maxSize = maxSize;
+			keys = new long[256];
+			counts = new long[256];
+			Arrays.fill(keys, EMPTY);
+		}
+
+		/**
+		 * @return false if the key is new and the table is full
+		 */
+		boolean add(long key, long delta) {
+			int slot = find(key);
+			if (keys[slot] == EMPTY) {
+				if (size == maxSize) {
+					return false;
+				}
+				if ((size + 1) * 2 > keys.length) {
+					rehash(keys.length * 2);
+					slot = find(key);
+				}
+				keys[slot] = key;
+				size++;
+			}
+			counts[slot] += delta;
+			return true;
+		}
+
+		void put(long key, long value) {
+			int slot = find(key);
+			if (keys[slot] != EMPTY) {
+				counts[slot] = value;
+			} else {
+				add(key, value);
+			}
+		}
+
+		/**
+		 * @return the count for the key, or 0 if there is none
+		 */
+		long get(long key) {
+			int slot = find(key);
+			return (keys[slot] != EMPTY) ? counts[slot] : 0L;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isFull() {
+			return size == maxSize;
+		}
+
+		int getCapacity() {
+			return keys.length;
+		}
+
+		long getKeyAt(int slot) {
+			return keys[slot];
+		}
+
+		long getCountAt(int slot) {
+			return (keys[slot] != EMPTY) ? counts[slot] : 0L;
+		}
+
+		private int find(long key) {
+			int mask = keys.length - 1;
+			long hash = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			long[] oldCounts = counts;
+			keys = new long[capacity];
+			counts = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] != EMPTY) {
+					int newSlot = find(oldKeys[slot]);
+					keys[newSlot] = oldKeys[slot];
+					counts[newSlot] = oldCounts[slot];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Keeps the keys with the highest counts, in a min-heap of primitive arrays.
+	 */
+	private static final class TopCounts {
+		private final long[] keys;
+		private final long[] counts;
+		private int size;
+
+		TopCounts(int limit) {
+			keys = new long[limit];
+			counts = new long[limit];
+		}
+
+		void offer(long key, long count) {
+			if (count <= 0L || keys.length == 0) {
+				return;
+			}
+			if (size < keys.length) {
+				keys[size] = key;
+				counts[size] = count;
+				siftUp(size++);
+			} else if (count > counts[0]) {
+				keys[0] = key;
+				counts[0] = count;
+				siftDown(0);
+			}
+		}
+
+		/**
+		 * @return the keys, from the highest count to the lowest
+		 */
+		long[] sortedKeys() {
+			long[] sortedKeys = new long[size];
+			for (int i = size - 1; i >= 0; i--) {
+				sortedKeys[i] = keys[0];
+				size--;
+				keys[0] = keys[size];
+				counts[0] = counts[size];
+				siftDown(0);
+			}
+			return sortedKeys;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (counts[parent] <= counts[i]) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				int smallest = i;
+				int left = i * 2 + 1;
+				int right = left + 1;
+				if (left < size && counts[left] < counts[smallest]) {
+					smallest = left;
+				}
+				if (right < size && counts[right] < counts[smallest]) {
+					smallest = right;
+				}
+				if (smallest == i) {
+					return;
+				}
+				swap(i, smallest);
+				i = smallest;
+			}
+		}
+
+		private void swap(int i, int j) {
+			long key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+			long count = counts[i];
+			counts[i] = counts[j];
+			counts[j] = count;
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.kuali.rice.krad.service.impl;
+
+/**
+ * ====
+ * CU Customization:
+ * JMX view of the maintenance document load timings for one document type,
+ * recorded by MaintainableXMLMetricsServiceImpl.
+ * ====
+ */
+public interface MaintainableXMLDocumentTypeMetricsMXBean {
+
+	String getDocumentTypeName();
+
+	MaintainableXMLMetricsMXBean.Latency getLoadLatency();
+}
@@ -0,0 +1,145 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * ====
+ * CU Customization:
+ * Reader that surrounds maintainable XML with a start and end tag
+ * for a synthetic root element. Maintainable XML consists of the
+ * data object element plus a trailing "maintenanceAction" element,
+ * so it is not a well-formed document on its own; wrapping it lets
+ * a StAX reader consume it directly from a stream. The wrapped
+ * Reader is not closed by this class.
+ *
+ * Since XML streamed from a file or CLOB may be a standalone document,
+ * a leading byte order mark and XML declaration (and the whitespace
+ * after it) are skipped, as they cannot appear inside the wrapper.
+ * ====
+ */
+class MaintainableXMLFragmentReader extends Reader {
+
+	static final String ROOT_ELEMENT_NAME = "maintainableXmlFragment";
+
+	private static final String PREFIX = "<" + ROOT_ELEMENT_NAME + ">";
+	private static final String SUFFIX = "</" + ROOT_ELEMENT_NAME + ">";
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+	private static final String DECLARATION_START = "<?xml";
+	private static final String DECLARATION_END = "?>";
+	// Declarations are short; anything longer is left for the parser to reject.
+	private static final int MAX_DECLARATION_LENGTH = 1024;
+
+	private final Reader fragment;
+	private int prefixPos = 0;
+	private int suffixPos = 0;
+	private boolean fragmentDone = false;
+	// The start of the fragment, read ahead to look for a declaration, and how much of it has been passed on.
+	private char[] head;
+	private int headPos = 0;
+	private int headLen = 0;
+
+	MaintainableXMLFragmentReader(Reader fragment) {
+		this.fragment = fragment;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (prefixPos < PREFIX.length()) {
+			int count = Math.min(len, PREFIX.length() - prefixPos);
+			PREFIX.getChars(prefixPos, prefixPos + count, cbuf, off);
+			prefixPos += count;
+			return count;
+		}
+		if (head == null) {
+			readHead();
+		}
+		if (headPos < headLen) {
+			int count = Math.min(len, headLen - headPos);
+			System.arraycopy(head, headPos, cbuf, off, count);
+			headPos += count;
+			return count;
+		}
+		if (!fragmentDone) {
+			int count = fragment.read(cbuf, off, len);
+			if (count != -1) {
+				return count;
+			}
+			fragmentDone = true;
+		}
+		if (suffixPos < SUFFIX.length()) {
+			int count = Math.min(len, SUFFIX.length() - suffixPos);
+			SUFFIX.getChars(suffixPos, suffixPos + count, cbuf, off);
+			suffixPos += count;
+			return count;
+		}
+		return -1;
+	}
+
+	/*
+	 * Reads the start of the fragment, and skips any byte order mark, XML declaration and whitespace there.
+	 */
+	private void readHead() throws IOException {
+		head = new char[64];
+		fillHead(1 + DECLARATION_START.length() + 1);
+		int start = (headLen > 0 && head[0] == BYTE_ORDER_MARK) ? 1 : 0;
+		if (headLen - start > DECLARATION_START.length() && regionMatches(start, DECLARATION_START)
+				&& Character.isWhitespace(head[start + DECLARATION_START.length()])) {
+			int end = start + DECLARATION_START.length();
+			while (end + 1 < headLen || (headLen < MAX_DECLARATION_LENGTH && fillHead(headLen + 1))) {
+				if (regionMatches(end, DECLARATION_END)) {
+					start = end + DECLARATION_END.length();
+					while ((start < headLen || fillHead(start + 1)) && Character.isWhitespace(head[start])) {
+						start++;
+					}
+					break;
+				}
+				end++;
+			}
+		}
+		headPos = start;
+	}
+
+	/*
+	 * Reads until the head holds at least the given number of characters, or the fragment ends.
+	 *
+	 * @return true if the head holds at least that many characters
+	 */
+	private boolean fillHead(int minLen) throws IOException {
+		if (minLen > head.length) {
+			char[] newHead = new char[Math.max(minLen, head.length * 2)];
+			System.arraycopy(head, 0, newHead, 0, headLen);
+			head = newHead;
+		}
+		while (headLen < minLen && !fragmentDone) {
+			int count = fragment.read(head, headLen, head.length - headLen);
+			if (count == -1) {
+				fragmentDone = true;
+			} else {
+				headLen += count;
+			}
+		}
+		return headLen >= minLen;
+	}
+
+	private boolean regionMatches(int offset, String text) {
+		if (offset + text.length() > headLen) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (head[offset + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Do nothing; the wrapped Reader belongs to the caller.
+	}
+
+}
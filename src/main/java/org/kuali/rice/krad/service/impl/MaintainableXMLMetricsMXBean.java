@@ -0,0 +1,117 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * ====
+ * CU Customization:
+ * JMX view of the maintainable XML conversion and document load metrics
+ * recorded by MaintainableXMLMetricsServiceImpl. Lengths are in characters,
+ * since the converted XML is handled as Strings, and latencies are in
+ * microseconds.
+ * ====
+ */
+public interface MaintainableXMLMetricsMXBean {
+
+	long getConversionCount();
+
+	long getCachedConversionCount();
+
+	long getConversionFailureCount();
+
+	long getConversionInputCharacters();
+
+	long getConversionOutputCharacters();
+
+	Latency getConversionLatency();
+
+	long getCurrentFormatLoadCount();
+
+	long getFastPathLoadCount();
+
+	long getPreConvertedLoadCount();
+
+	long getFallbackLoadCount();
+
+	/**
+	 * @return the share of data object loads that needed the conversion fallback, between 0 and 1
+	 */
+	double getFallbackRate();
+
+	Latency getCurrentFormatLoadLatency();
+
+	Latency getFastPathLoadLatency();
+
+	Latency getPreConvertedLoadLatency();
+
+	Latency getFallbackLoadLatency();
+
+	/**
+	 * Resets all of the counters and histograms, including the per-document-type ones.
+	 */
+	void reset();
+
+	/**
+	 * @param maxHotRules the maximum number of hot rules to list
+	 * @return the conversion service's report of hot rules and rules that never fired
+	 */
+	String reportRuleHits(int maxHotRules);
+
+	/**
+	 * @return the version of the conversion service's active rule set
+	 */
+	String getConversionRuleSetVersion();
+
+	/**
+	 * Has the conversion service reload its rules file.
+	 * 
+	 * @return true if the rules were reloaded, false otherwise
+	 */
+	boolean reloadConversionRules();
+
+	/**
+	 * Point-in-time summary of a latency histogram.
+	 */
+	public static final class Latency {
+		private final long count;
+		private final double meanMicros;
+		private final double maxMicros;
+		private final double p50Micros;
+		private final double p90Micros;
+		private final double p99Micros;
+
+		@ConstructorProperties({"count", "meanMicros", "maxMicros", "p50Micros", "p90Micros", "p99Micros"})
+		public Latency(long count, double meanMicros, double maxMicros, double p50Micros, double p90Micros, double p99Micros) {
+			this.count = count;
+			this.meanMicros = meanMicros;
+			this.maxMicros = maxMicros;
+			this.p50Micros = p50Micros;
+			this.p90Micros = p90Micros;
+			this.p99Micros = p99Micros;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanMicros() {
+			return meanMicros;
+		}
+
+		public double getMaxMicros() {
+			return maxMicros;
+		}
+
+		public double getP50Micros() {
+			return p50Micros;
+		}
+
+		public double getP90Micros() {
+			return p90Micros;
+		}
+
+		public double getP99Micros() {
+			return p99Micros;
+		}
+	}
+}
@@ -0,0 +1,365 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.CoreConstants;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.MaintainableXMLMetricsService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * ====
+ * CU Customization:
+ * Default MaintainableXMLMetricsService implementation, which keeps the
+ * metrics in atomic counters and LatencyHistograms and exposes them
+ * through JMX MXBeans in the platform MBean server: one for the overall
+ * metrics, and one per maintenance document type for the load timings.
+ *
+ * The per-document-type metrics are created (and registered) the first
+ * time each document type is loaded; after that, recording only looks
+ * them up and increments counters.
+ * ====
+ */
+public class MaintainableXMLMetricsServiceImpl implements MaintainableXMLMetricsService, MaintainableXMLMetricsMXBean,
+		InitializingBean, DisposableBean {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLMetricsServiceImpl.class);
+
+	private static final String METRICS_ENABLED_PARAMETER = "maintainable.conversion.metrics.enabled";
+	private static final String METRICS_JMX_DOMAIN_PARAMETER = "maintainable.conversion.metrics.jmx.domain";
+
+	private static final String DEFAULT_JMX_DOMAIN = "org.kuali.rice.krad";
+	private static final String JMX_TYPE = "MaintainableXMLConversion";
+	private static final String UNKNOWN_DOCUMENT_TYPE_NAME = "(unknown)";
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	private boolean enabled = false;
+	private String jmxDomain = DEFAULT_JMX_DOMAIN;
+	private String applicationId;
+
+	private final AtomicLong conversionCount = new AtomicLong();
+	private final AtomicLong cachedConversionCount = new AtomicLong();
+	private final AtomicLong conversionFailureCount = new AtomicLong();
+	private final AtomicLong conversionInputCharacters = new AtomicLong();
+	private final AtomicLong conversionOutputCharacters = new AtomicLong();
+	private final LatencyHistogram conversionLatency = new LatencyHistogram();
+
+	// Indexed by DataObjectLoadPath ordinal.
+	private final AtomicLongArray dataObjectLoadCounts = new AtomicLongArray(DataObjectLoadPath.values().length);
+	private final LatencyHistogram[] dataObjectLoadLatencies;
+
+	private final ConcurrentMap<String, DocumentTypeMetrics> documentTypeMetrics = new ConcurrentHashMap<String, DocumentTypeMetrics>();
+
+	private volatile MBeanServer mbeanServer;
+	private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+
+	public MaintainableXMLMetricsServiceImpl() {
+		dataObjectLoadLatencies = new LatencyHistogram[DataObjectLoadPath.values().length];
+		for (int i = 0; i < dataObjectLoadLatencies.length; i++) {
+			dataObjectLoadLatencies[i] = new LatencyHistogram();
+		}
+		String enabled = ConfigContext.getCurrentContextConfig().getProperty(METRICS_ENABLED_PARAMETER);
+		if (StringUtils.isNotBlank(enabled)) {
+			this.setEnabled(Boolean.parseBoolean(enabled));
+		}
+		String jmxDomain = ConfigContext.getCurrentContextConfig().getProperty(METRICS_JMX_DOMAIN_PARAMETER);
+		if (StringUtils.isNotBlank(jmxDomain)) {
+			this.setJmxDomain(jmxDomain.trim());
+		}
+		this.setApplicationId(ConfigContext.getCurrentContextConfig().getProperty(CoreConstants.Config.APPLICATION_ID));
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (!enabled) {
+			return;
+		}
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		registerMBean(createObjectName("Metrics", null), this);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (mbeanServer == null) {
+			return;
+		}
+		synchronized (registeredNames) {
+			for (ObjectName name : registeredNames) {
+				try {
+					mbeanServer.unregisterMBean(name);
+				} catch (JMException e) {
+					LOG.warn("Could not unregister " + name, e);
+				}
+			}
+			registeredNames.clear();
+		}
+		mbeanServer = null;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void recordConversion(ConversionOutcome outcome, int inputLength, int outputLength, long elapsedNanos) {
+		switch (outcome) {
+			case CACHED:
+				cachedConversionCount.incrementAndGet();
+				break;
+			case FAILED:
+				conversionFailureCount.incrementAndGet();
+				break;
+			default:
+				conversionCount.incrementAndGet();
+				break;
+		}
+		conversionInputCharacters.addAndGet(inputLength);
+		conversionOutputCharacters.addAndGet(outputLength);
+		conversionLatency.record(elapsedNanos);
+	}
+
+	@Override
+	public void recordDataObjectLoad(DataObjectLoadPath path, long elapsedNanos) {
+		dataObjectLoadCounts.incrementAndGet(path.ordinal());
+		dataObjectLoadLatencies[path.ordinal()].record(elapsedNanos);
+	}
+
+	@Override
+	public void recordDocumentLoad(String documentTypeName, long elapsedNanos) {
+		String key = (documentTypeName != null) ? documentTypeName : UNKNOWN_DOCUMENT_TYPE_NAME;
+		DocumentTypeMetrics metrics = documentTypeMetrics.get(key);
+		if (metrics == null) {
+			metrics = createDocumentTypeMetrics(key);
+		}
+		metrics.loadLatency.record(elapsedNanos);
+	}
+
+	private DocumentTypeMetrics createDocumentTypeMetrics(String documentTypeName) {
+		DocumentTypeMetrics metrics = new DocumentTypeMetrics(documentTypeName);
+		DocumentTypeMetrics existingMetrics = documentTypeMetrics.putIfAbsent(documentTypeName, metrics);
+		if (existingMetrics != null) {
+			return existingMetrics;
+		}
+		if (mbeanServer != null) {
+			registerMBean(createObjectName("DocumentType", documentTypeName), metrics);
+		}
+		return metrics;
+	}
+
+	private ObjectName createObjectName(String name, String documentTypeName) {
+		StringBuilder objectName = new StringBuilder(jmxDomain).append(":type=").append(JMX_TYPE);
+		if (StringUtils.isNotBlank(applicationId)) {
+			objectName.append(",application=").append(ObjectName.quote(applicationId));
+		}
+		objectName.append(",name=").append(name);
+		if (documentTypeName != null) {
+			objectName.append(",documentType=").append(ObjectName.quote(documentTypeName));
+		}
+		try {
+			return new ObjectName(objectName.toString());
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid JMX object name: " + objectName, e);
+		}
+	}
+
+	/*
+	 * Registration failures (such as a name clash with another application in the same JVM) are logged rather than
+	 * thrown, since the metrics are still recorded.
+	 */
+	private void registerMBean(ObjectName name, Object mbean) {
+		MBeanServer server = mbeanServer;
+		if (server == null) {
+			return;
+		}
+		try {
+			server.registerMBean(mbean, name);
+			synchronized (registeredNames) {
+				registeredNames.add(name);
+			}
+		} catch (JMException e) {
+			LOG.warn("Could not register " + name, e);
+		}
+	}
+
+	@Override
+	public long getConversionCount() {
+		return conversionCount.get();
+	}
+
+	@Override
+	public long getCachedConversionCount() {
+		return cachedConversionCount.get();
+	}
+
+	@Override
+	public long getConversionFailureCount() {
+		return conversionFailureCount.get();
+	}
+
+	@Override
+	public long getConversionInputCharacters() {
+		return conversionInputCharacters.get();
+	}
+
+	@Override
+	public long getConversionOutputCharacters() {
+		return conversionOutputCharacters.get();
+	}
+
+	@Override
+	public Latency getConversionLatency() {
+		return createLatency(conversionLatency);
+	}
+
+	@Override
+	public long getCurrentFormatLoadCount() {
+		return dataObjectLoadCounts.get(DataObjectLoadPath.CURRENT_FORMAT.ordinal());
+	}
+
+	@Override
+	public long getFastPathLoadCount() {
+		return dataObjectLoadCounts.get(DataObjectLoadPath.FAST_PATH.ordinal());
+	}
+
+	@Override
+	public long getPreConvertedLoadCount() {
+		return dataObjectLoadCounts.get(DataObjectLoadPath.PRE_CONVERTED.ordinal());
+	}
+
+	@Override
+	public long getFallbackLoadCount() {
+		return dataObjectLoadCounts.get(DataObjectLoadPath.FALLBACK.ordinal());
+	}
+
+	@Override
+	public double getFallbackRate() {
+		long total = 0L;
+		for (int i = 0; i < dataObjectLoadCounts.length(); i++) {
+			total += dataObjectLoadCounts.get(i);
+		}
+		return (total > 0L) ? (double) getFallbackLoadCount() / total : 0.0;
+	}
+
+	@Override
+	public Latency getCurrentFormatLoadLatency() {
+		return createLatency(dataObjectLoadLatencies[DataObjectLoadPath.CURRENT_FORMAT.ordinal()]);
+	}
+
+	@Override
+	public Latency getFastPathLoadLatency() {
+		return createLatency(dataObjectLoadLatencies[DataObjectLoadPath.FAST_PATH.ordinal()]);
+	}
+
+	@Override
+	public Latency getPreConvertedLoadLatency() {
+		return createLatency(dataObjectLoadLatencies[DataObjectLoadPath.PRE_CONVERTED.ordinal()]);
+	}
+
+	@Override
+	public Latency getFallbackLoadLatency() {
+		return createLatency(dataObjectLoadLatencies[DataObjectLoadPath.FALLBACK.ordinal()]);
+	}
+
+	@Override
+	public void reset() {
+		conversionCount.set(0L);
+		cachedConversionCount.set(0L);
+		conversionFailureCount.set(0L);
+		conversionInputCharacters.set(0L);
+		conversionOutputCharacters.set(0L);
+		conversionLatency.reset();
+		for (int i = 0; i < dataObjectLoadLatencies.length; i++) {
+			dataObjectLoadCounts.set(i, 0L);
+			dataObjectLoadLatencies[i].reset();
+		}
+		for (DocumentTypeMetrics metrics : documentTypeMetrics.values()) {
+			metrics.loadLatency.reset();
+		}
+	}
+
+	@Override
+	public String reportRuleHits(int maxHotRules) {
+		MaintainableXMLConversionService conversionService = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+		return (conversionService != null) ? conversionService.getRuleHitReport(maxHotRules) : "The conversion service is not available.";
+	}
+
+	@Override
+	public String getConversionRuleSetVersion() {
+		MaintainableXMLConversionService conversionService = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+		return (conversionService != null) ? conversionService.getRuleSetVersion() : null;
+	}
+
+	@Override
+	public boolean reloadConversionRules() {
+		MaintainableXMLConversionService conversionService = ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+		return conversionService != null && conversionService.reloadRules();
+	}
+
+	static Latency createLatency(LatencyHistogram histogram) {
+		return new Latency(histogram.getCount(), histogram.getMeanNanos() / NANOS_PER_MICRO,
+				histogram.getMaxNanos() / NANOS_PER_MICRO, histogram.getPercentileNanos(50.0) / NANOS_PER_MICRO,
+				histogram.getPercentileNanos(90.0) / NANOS_PER_MICRO, histogram.getPercentileNanos(99.0) / NANOS_PER_MICRO);
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getJmxDomain() {
+		return jmxDomain;
+	}
+
+	public void setJmxDomain(String jmxDomain) {
+		this.jmxDomain = jmxDomain;
+	}
+
+	public String getApplicationId() {
+		return applicationId;
+	}
+
+	/**
+	 * @param applicationId the application ID to include in the JMX object names, so that several Rice applications
+	 * in the same JVM do not clash; defaults to the application.id configuration parameter
+	 */
+	public void setApplicationId(String applicationId) {
+		this.applicationId = applicationId;
+	}
+
+	/*
+	 * The load timings for one document type.
+	 */
+	static final class DocumentTypeMetrics implements MaintainableXMLDocumentTypeMetricsMXBean {
+		private final String documentTypeName;
+		private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+		DocumentTypeMetrics(String documentTypeName) {
+			this.documentTypeName = documentTypeName;
+		}
+
+		@Override
+		public String getDocumentTypeName() {
+			return documentTypeName;
+		}
+
+		@Override
+		public Latency getLoadLatency() {
+			return createLatency(loadLatency);
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.krad.UserSession;
+import org.kuali.rice.krad.service.MaintainableXMLParallelLoadService;
+import org.kuali.rice.krad.util.GlobalVariables;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * ====
+ * CU Customization:
+ * Default MaintainableXMLParallelLoadService implementation, backed by
+ * a fixed-size pool of daemon threads with a bounded queue.
+ *
+ * Rice looks up its configuration and services by the thread's context
+ * class loader, so each task runs with the submitting thread's context
+ * class loader. Each task also runs in its own set of global variables
+ * for the submitting thread's user session, so that the pool threads
+ * never hold on to (or share) another request's message map. When the
+ * pool and its queue are full, tasks run on the submitting thread, so
+ * loading degrades to the sequential behavior instead of failing.
+ * ====
+ */
+public class MaintainableXMLParallelLoadServiceImpl implements MaintainableXMLParallelLoadService, InitializingBean, DisposableBean {
+
+	private static final String PARALLEL_LOAD_ENABLED_PARAMETER = "maintainable.conversion.parallel.load.enabled";
+	private static final String PARALLEL_LOAD_THREADS_PARAMETER = "maintainable.conversion.parallel.load.threads";
+	private static final String PARALLEL_LOAD_MIN_LENGTH_PARAMETER = "maintainable.conversion.parallel.load.min.length";
+
+	private static final String THREAD_NAME_PREFIX = "maintainable-xml-load-";
+
+	private boolean enabled = false;
+	private int threads = 4;
+	private int queueCapacity = 100;
+	private int minDocumentContentsLength = 32768;
+
+	private ThreadPoolExecutor executor;
+
+	public MaintainableXMLParallelLoadServiceImpl() {
+		String enabled = ConfigContext.getCurrentContextConfig().getProperty(PARALLEL_LOAD_ENABLED_PARAMETER);
+		if (StringUtils.isNotBlank(enabled)) {
+			this.setEnabled(Boolean.parseBoolean(enabled));
+		}
+		String threads = ConfigContext.getCurrentContextConfig().getProperty(PARALLEL_LOAD_THREADS_PARAMETER);
+		if (StringUtils.isNotBlank(threads)) {
+			this.setThreads(Integer.parseInt(threads.trim()));
+		}
+		String minLength = ConfigContext.getCurrentContextConfig().getProperty(PARALLEL_LOAD_MIN_LENGTH_PARAMETER);
+		if (StringUtils.isNotBlank(minLength)) {
+			this.setMinDocumentContentsLength(Integer.parseInt(minLength.trim()));
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (!enabled) {
+			return;
+		}
+		final AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	@Override
+	public boolean isParallelLoadEnabled(int documentContentsLength) {
+		return enabled && executor != null && documentContentsLength >= minDocumentContentsLength;
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		ThreadPoolExecutor currentExecutor = executor;
+		if (currentExecutor == null) {
+			throw new IllegalStateException("Parallel maintainable loading is not enabled");
+		}
+		return currentExecutor.submit(new SubmitterContextCallable<T>(task));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public int getMinDocumentContentsLength() {
+		return minDocumentContentsLength;
+	}
+
+	public void setMinDocumentContentsLength(int minDocumentContentsLength) {
+		this.minDocumentContentsLength = Math.max(0, minDocumentContentsLength);
+	}
+
+	public int getActiveCount() {
+		ThreadPoolExecutor currentExecutor = executor;
+		return (currentExecutor != null) ? currentExecutor.getActiveCount() : 0;
+	}
+
+	public long getCompletedTaskCount() {
+		ThreadPoolExecutor currentExecutor = executor;
+		return (currentExecutor != null) ? currentExecutor.getCompletedTaskCount() : 0L;
+	}
+
+	/*
+	 * Runs a task with the context class loader and user session of the thread that created this wrapper,
+	 * restoring the running thread's own context class loader afterwards.
+	 */
+	private static final class SubmitterContextCallable<T> implements Callable<T> {
+		private final Callable<T> task;
+		private final ClassLoader contextClassLoader;
+		private final UserSession userSession;
+
+		SubmitterContextCallable(Callable<T> task) {
+			this.task = task;
+			this.contextClassLoader = Thread.currentThread().getContextClassLoader();
+			this.userSession = GlobalVariables.getUserSession();
+		}
+
+		@Override
+		public T call() throws Exception {
+			Thread currentThread = Thread.currentThread();
+			ClassLoader originalClassLoader = currentThread.getContextClassLoader();
+			currentThread.setContextClassLoader(contextClassLoader);
+			try {
+				return GlobalVariables.doInNewGlobalVariables(userSession, task);
+			} finally {
+				currentThread.setContextClassLoader(originalClassLoader);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,798 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.CoreApiServiceLocator;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.api.encryption.EncryptionService;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+import org.kuali.rice.krad.maintenance.MaintenanceDocumentBase;
+import org.kuali.rice.krad.service.ExtraKRADServiceLocatorWeb;
+import org.kuali.rice.krad.service.KRADServiceLocator;
+import org.kuali.rice.krad.service.MaintainableXMLConversionService;
+import org.kuali.rice.krad.service.XmlObjectSerializerService;
+
+import com.thoughtworks.xstream.converters.ErrorWriter;
+import com.thoughtworks.xstream.mapper.CannotResolveClassException;
+
+/**
+ * ====
+ * CU Customization:
+ * Checks ahead of a rules or Rice upgrade which stored maintenance
+ * documents would still fail to load, by converting each maintainable of
+ * each document with the conversion service and then deserializing it,
+ * just as a document load would. The documents come from a directory of
+ * exported document contents or from the maintenance document table.
+ *
+ * The calling thread streams the documents in, and hands them over in
+ * batches to a fork/join pool, which splits each batch further so that
+ * idle threads can steal work from busy ones. A semaphore bounds the
+ * batches in flight, so the corpus is never held in memory; only the
+ * counts and the distinct kinds of failure are kept. Failures are grouped
+ * by stage, root exception type, document type (or, where that is not
+ * known, the data object class) and the first element that XStream could
+ * not map to a class or field, with a count and an example document for
+ * each group.
+ *
+ * The scanner never writes anything. It can be run from within the
+ * application, or standalone with main() and a properties file, in which
+ * case the application's data object classes must be on the classpath and
+ * the document contents must not be encrypted.
+ * ====
+ */
+public class MaintainableXMLReadinessScanner {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLReadinessScanner.class);
+
+	private static final String PARALLELISM_PARAMETER = "maintainable.conversion.readiness.parallelism";
+	private static final String BATCH_SIZE_PARAMETER = "maintainable.conversion.readiness.batch.size";
+	private static final String FETCH_SIZE_PARAMETER = "maintainable.conversion.readiness.fetch.size";
+	private static final String REPORT_LIMIT_PARAMETER = "maintainable.conversion.readiness.report.limit";
+	private static final String DIRECTORY_PARAMETER = "maintainable.conversion.readiness.directory";
+	// The standalone scanner connects with the same settings as the standalone bulk conversion job.
+	private static final String JDBC_DRIVER_PARAMETER = "maintainable.conversion.bulk.jdbc.driver";
+	private static final String JDBC_URL_PARAMETER = "maintainable.conversion.bulk.jdbc.url";
+	private static final String JDBC_USERNAME_PARAMETER = "maintainable.conversion.bulk.jdbc.username";
+	private static final String JDBC_PASSWORD_PARAMETER = "maintainable.conversion.bulk.jdbc.password";
+	private static final String CONVERSION_RULE_FILE_PARAMETER = "maintainable.conversion.rule.file";
+	private static final String DEFAULT_CONVERSION_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+
+	// The document type name comes from the workflow document header, where there is one.
+	private static final String SELECT_SQL = "SELECT m.DOC_HDR_ID, m.DOC_CNTNT, t.DOC_TYP_NM FROM KRNS_MAINT_DOC_T m"
+			+ " LEFT OUTER JOIN KREW_DOC_HDR_T h ON h.DOC_HDR_ID = m.DOC_HDR_ID"
+			+ " LEFT OUTER JOIN KREW_DOC_TYP_T t ON t.DOC_TYP_ID = h.DOC_TYP_ID";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String DOCUMENT_FILE_SUFFIX = ".xml";
+
+	// Batches are split down to this many documents per fork/join task.
+	private static final int LEAF_SIZE = 8;
+	// Past this many distinct kinds of failure, the rest are counted together, so that the report stays small.
+	private static final int MAX_FAILURE_KINDS = 10000;
+	private static final int MAX_MESSAGE_LENGTH = 200;
+	private static final long PROGRESS_LOG_INTERVAL = 100000L;
+
+	private DataSource dataSource;
+	private MaintainableXMLConversionService conversionService;
+	private XmlObjectSerializerService serializerService;
+	private boolean encryptContents = true;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 64;
+	private int fetchSize = 500;
+	private int reportLimit = 50;
+
+	public MaintainableXMLReadinessScanner() {
+		String parallelism = ConfigContext.getCurrentContextConfig().getProperty(PARALLELISM_PARAMETER);
+		if (StringUtils.isNotBlank(parallelism)) {
+			this.setParallelism(Integer.parseInt(parallelism.trim()));
+		}
+		String batchSize = ConfigContext.getCurrentContextConfig().getProperty(BATCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(batchSize)) {
+			this.setBatchSize(Integer.parseInt(batchSize.trim()));
+		}
+		String fetchSize = ConfigContext.getCurrentContextConfig().getProperty(FETCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(fetchSize)) {
+			this.setFetchSize(Integer.parseInt(fetchSize.trim()));
+		}
+		String reportLimit = ConfigContext.getCurrentContextConfig().getProperty(REPORT_LIMIT_PARAMETER);
+		if (StringUtils.isNotBlank(reportLimit)) {
+			this.setReportLimit(Integer.parseInt(reportLimit.trim()));
+		}
+	}
+
+	/**
+	 * Runs the scanner standalone. The only argument is a properties file holding either the directory to scan
+	 * (maintainable.conversion.readiness.directory) or the JDBC connection settings of the bulk conversion job
+	 * (maintainable.conversion.bulk.jdbc.driver, .url, .username and .password), along with any of the usual
+	 * conversion and readiness scanner parameters. The report is printed to standard output.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: MaintainableXMLReadinessScanner propertiesFile");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream propertiesIn = new FileInputStream(args[0]);
+		try {
+			properties.load(propertiesIn);
+		} finally {
+			propertiesIn.close();
+		}
+		if (StringUtils.isBlank(properties.getProperty(CONVERSION_RULE_FILE_PARAMETER))) {
+			properties.setProperty(CONVERSION_RULE_FILE_PARAMETER, DEFAULT_CONVERSION_RULE_FILE);
+		}
+		JAXBConfigImpl config = new JAXBConfigImpl();
+		for (String name : properties.stringPropertyNames()) {
+			config.putProperty(name, properties.getProperty(name));
+		}
+		ConfigContext.init(config);
+
+		MaintainableXMLConversionServiceImpl conversionService = new MaintainableXMLConversionServiceImpl();
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.afterPropertiesSet();
+		MaintainableXMLReadinessScanner scanner = new MaintainableXMLReadinessScanner();
+		scanner.setConversionService(conversionService);
+		scanner.setSerializerService(new XmlObjectSerializerServiceImpl());
+		scanner.setEncryptContents(false);
+		Report report;
+		String directory = properties.getProperty(DIRECTORY_PARAMETER);
+		if (StringUtils.isNotBlank(directory)) {
+			report = scanner.scanDirectory(new File(directory.trim()));
+		} else {
+			if (StringUtils.isNotBlank(properties.getProperty(JDBC_DRIVER_PARAMETER))) {
+				Class.forName(properties.getProperty(JDBC_DRIVER_PARAMETER).trim());
+			}
+			scanner.setDataSource(new MaintainableXMLBulkConversionJob.DriverManagerDataSource(properties.getProperty(JDBC_URL_PARAMETER),
+					properties.getProperty(JDBC_USERNAME_PARAMETER), properties.getProperty(JDBC_PASSWORD_PARAMETER)));
+			report = scanner.scanDataSource();
+		}
+		System.out.println(report.format(scanner.getReportLimit()));
+		conversionService.destroy();
+		System.exit(report.getFailedCount() > 0L ? 2 : 0);
+	}
+
+	/**
+	 * Scans every document in the maintenance document table.
+	 *
+	 * @return the report of the scan
+	 * @throws SQLException if reading the documents failed
+	 */
+	public Report scanDataSource() throws SQLException, GeneralSecurityException, InterruptedException {
+		if (dataSource == null) {
+			throw new IllegalStateException("A dataSource is required to scan the maintenance document table");
+		}
+		Scan scan = new Scan(getRequiredConversionService(), getSerializerService());
+		Connection connection = null;
+		Statement statement = null;
+		ResultSet resultSet = null;
+		boolean read = false;
+		try {
+			connection = dataSource.getConnection();
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			resultSet = statement.executeQuery(SELECT_SQL);
+			while (resultSet.next()) {
+				scan.submit(new ScannedDocument(resultSet.getString(1), resultSet.getString(3), decryptContents(resultSet.getString(2))));
+			}
+			read = true;
+		} finally {
+			close(resultSet, statement, connection);
+			// Only wait for the rest of the scan if all of the documents were read, so that a failure is not held up or lost.
+			if (!read) {
+				scan.abort();
+			}
+		}
+		scan.finish();
+		return scan.report;
+	}
+
+	/**
+	 * Scans a directory of exported document contents: every file under it whose name ends in ".xml" holds the
+	 * contents of one document, as UTF-8. The file's path (relative to the directory, without the suffix) serves as
+	 * its document number, and if the file is in a subdirectory, the name of that subdirectory is taken to be its
+	 * document type (so "[document type]/[document number].xml" is the expected layout).
+	 *
+	 * @param directory the directory to scan
+	 * @return the report of the scan
+	 * @throws IOException if reading the files failed
+	 */
+	public Report scanDirectory(final File directory) throws IOException, InterruptedException {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException("Not a directory: " + directory);
+		}
+		final Scan scan = new Scan(getRequiredConversionService(), getSerializerService());
+		final Path root = directory.toPath();
+		boolean read = false;
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+					String relativePath = root.relativize(file).toString();
+					if (!attributes.isRegularFile() || !relativePath.endsWith(DOCUMENT_FILE_SUFFIX)) {
+						return FileVisitResult.CONTINUE;
+					}
+					Path parent = file.getParent();
+					String documentType = root.equals(parent) ? null : parent.getFileName().toString();
+					String contents = new String(Files.readAllBytes(file), UTF_8);
+					try {
+						scan.submit(new ScannedDocument(relativePath.substring(0, relativePath.length() - DOCUMENT_FILE_SUFFIX.length()),
+								documentType, contents));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while scanning " + directory, e);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			read = true;
+		} finally {
+			if (!read) {
+				scan.abort();
+			}
+		}
+		scan.finish();
+		return scan.report;
+	}
+
+	private MaintainableXMLConversionService getRequiredConversionService() {
+		MaintainableXMLConversionService conversionService = getConversionService();
+		if (conversionService == null || conversionService.getRuleSetVersion() == null) {
+			throw new IllegalStateException("The readiness scan requires a conversion service with conversion rules");
+		}
+		return conversionService;
+	}
+
+	/*
+	 * Converts and deserializes each maintainable of a document, stopping at the first failure, just as a document
+	 * load would.
+	 */
+	private static void scanDocument(ScannedDocument document, MaintainableXMLConversionService conversionService,
+			XmlObjectSerializerService serializerService, Report report) {
+		Map<String, String> maintainableXmls;
+		try {
+			maintainableXmls = MaintenanceDocumentBase.getMaintainableXmls(StringUtils.defaultString(document.contents));
+		} catch (IllegalArgumentException e) {
+			report.recordFailure(Stage.CONTENTS, document, null, e);
+			return;
+		}
+		for (String maintXml : maintainableXmls.values()) {
+			String convertedXml;
+			try {
+				// Unlike the String variant, which logs the failure and returns the XML unconverted, this one throws.
+				StringWriter convertedOut = new StringWriter(maintXml.length() + 1024);
+				conversionService.transformMaintainableXML(new StringReader(maintXml), convertedOut);
+				convertedXml = convertedOut.toString();
+			} catch (XMLStreamException e) {
+				report.recordFailure(Stage.CONVERSION, document, maintXml, e);
+				return;
+			} catch (RuntimeException e) {
+				report.recordFailure(Stage.CONVERSION, document, maintXml, e);
+				return;
+			}
+			try {
+				serializerService.fromXml(convertedXml);
+			} catch (RuntimeException e) {
+				report.recordFailure(Stage.DESERIALIZATION, document, convertedXml, e);
+				return;
+			} catch (LinkageError e) {
+				// Such as a data object class that is on the classpath but cannot be initialized.
+				report.recordFailure(Stage.DESERIALIZATION, document, convertedXml, e);
+				return;
+			}
+		}
+		report.readyCount.incrementAndGet();
+	}
+
+	private String decryptContents(String contents) throws GeneralSecurityException {
+		if (!encryptContents || contents == null) {
+			return contents;
+		}
+		EncryptionService encryptionService = CoreApiServiceLocator.getEncryptionService();
+		return (encryptionService != null && encryptionService.isEnabled()) ? encryptionService.decrypt(contents) : contents;
+	}
+
+	private void close(ResultSet resultSet, Statement statement, Connection connection) {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			LOG.warn("Error closing readiness scan statement", e);
+		}
+		if (connection != null) {
+			try {
+				// End the read-only transaction before handing the connection back.
+				connection.rollback();
+				connection.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing readiness scan connection", e);
+			}
+		}
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public MaintainableXMLConversionService getConversionService() {
+		return (conversionService != null) ? conversionService : ExtraKRADServiceLocatorWeb.getMaintainableXMLConversionService();
+	}
+
+	public void setConversionService(MaintainableXMLConversionService conversionService) {
+		this.conversionService = conversionService;
+	}
+
+	public XmlObjectSerializerService getSerializerService() {
+		return (serializerService != null) ? serializerService : KRADServiceLocator.getXmlObjectSerializerService();
+	}
+
+	public void setSerializerService(XmlObjectSerializerService serializerService) {
+		this.serializerService = serializerService;
+	}
+
+	public boolean isEncryptContents() {
+		return encryptContents;
+	}
+
+	/**
+	 * @param encryptContents whether the document contents in the table are encrypted (when encryption is enabled)
+	 */
+	public void setEncryptContents(boolean encryptContents) {
+		this.encryptContents = encryptContents;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize the number of documents handed to the fork/join pool at a time
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = Math.max(1, fetchSize);
+	}
+
+	public int getReportLimit() {
+		return reportLimit;
+	}
+
+	/**
+	 * @param reportLimit the maximum number of kinds of failure to list when the report is formatted
+	 */
+	public void setReportLimit(int reportLimit) {
+		this.reportLimit = Math.max(0, reportLimit);
+	}
+
+	/**
+	 * The stage at which a document failed.
+	 */
+	public enum Stage {
+		/** The document contents could not be split into their maintainables. */
+		CONTENTS,
+		/** The conversion service failed on a maintainable. */
+		CONVERSION,
+		/** XStream failed on a converted maintainable. */
+		DESERIALIZATION
+	}
+
+	/*
+	 * One scan: feeds batches of documents to the fork/join pool, with at most two batches per thread in flight.
+	 */
+	private final class Scan {
+		private final MaintainableXMLConversionService conversionService;
+		private final XmlObjectSerializerService serializerService;
+		private final Report report = new Report();
+		private final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		private final int maxPendingBatches = parallelism * 2;
+		private final Semaphore pendingBatches = new Semaphore(maxPendingBatches);
+		private List<ScannedDocument> batch = new ArrayList<ScannedDocument>(batchSize);
+
+		Scan(MaintainableXMLConversionService conversionService, XmlObjectSerializerService serializerService) {
+			this.conversionService = conversionService;
+			this.serializerService = serializerService;
+			LOG.info("Starting the conversion readiness scan with parallelism " + parallelism + ", rule set version "
+					+ conversionService.getRuleSetVersion());
+		}
+
+		void submit(ScannedDocument document) throws InterruptedException {
+			batch.add(document);
+			if (batch.size() >= batchSize) {
+				submitBatch();
+			}
+			if (report.readCount.incrementAndGet() % PROGRESS_LOG_INTERVAL == 0L) {
+				LOG.info("Conversion readiness scan progress: " + report);
+			}
+		}
+
+		private void submitBatch() throws InterruptedException {
+			pendingBatches.acquire();
+			pool.execute(new ScanTask(batch, 0, batch.size(), this, true));
+			batch = new ArrayList<ScannedDocument>(batchSize);
+		}
+
+		/*
+		 * Scans what is left, and waits for the pool to finish.
+		 */
+		void finish() throws InterruptedException {
+			try {
+				if (!batch.isEmpty()) {
+					submitBatch();
+				}
+				pendingBatches.acquire(maxPendingBatches);
+			} finally {
+				// Every batch is done by now, unless the wait was interrupted, in which case the rest are cancelled.
+				pool.shutdownNow();
+			}
+			report.finish();
+			LOG.info("Finished the conversion readiness scan: " + report);
+		}
+
+		/*
+		 * Stops the scan without waiting for it, after a failure to read the documents.
+		 */
+		void abort() {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Scans a range of a batch, splitting it in two while it is larger than LEAF_SIZE. The task for the whole batch
+	 * releases the batch's permit once the whole batch is done.
+	 */
+	private static final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<ScannedDocument> documents;
+		private final int from;
+		private final int to;
+		private final Scan scan;
+		private final boolean wholeBatch;
+
+		ScanTask(List<ScannedDocument> documents, int from, int to, Scan scan, boolean wholeBatch) {
+			this.documents = documents;
+			this.from = from;
+			this.to = to;
+			this.scan = scan;
+			this.wholeBatch = wholeBatch;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (to - from > LEAF_SIZE) {
+					int middle = (from + to) >>> 1;
+					invokeAll(new ScanTask(documents, from, middle, scan, false), new ScanTask(documents, middle, to, scan, false));
+					return;
+				}
+				for (int i = from; i < to; i++) {
+					ScannedDocument document = documents.get(i);
+					// Let go of each document once it is scanned, since the batch stays reachable until it is all done.
+					documents.set(i, null);
+					scanDocument(document, scan.conversionService, scan.serializerService, scan.report);
+				}
+			} finally {
+				if (wholeBatch) {
+					scan.pendingBatches.release();
+				}
+			}
+		}
+	}
+
+	private static final class ScannedDocument {
+		private final String documentNumber;
+		private final String documentType;
+		private final String contents;
+
+		ScannedDocument(String documentNumber, String documentType, String contents) {
+			this.documentNumber = documentNumber;
+			this.documentType = documentType;
+			this.contents = contents;
+		}
+	}
+
+	/**
+	 * The counts of a scan, and its failures grouped by kind. The counts can be read while the scan is running.
+	 */
+	public static final class Report {
+		private final AtomicLong readCount = new AtomicLong();
+		private final AtomicLong readyCount = new AtomicLong();
+		private final AtomicLong failedCount = new AtomicLong();
+		private final ConcurrentMap<FailureKind, Failures> failures = new ConcurrentHashMap<FailureKind, Failures>();
+		private final long startTime = System.currentTimeMillis();
+		private volatile long endTime;
+
+		private void recordFailure(Stage stage, ScannedDocument document, String maintXml, Throwable failure) {
+			failedCount.incrementAndGet();
+			Throwable rootCause = failure;
+			while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+				rootCause = rootCause.getCause();
+			}
+			String documentType = document.documentType;
+			if (documentType == null && maintXml != null) {
+				String dataObjectElement = findFirstElementName(maintXml);
+				documentType = (dataObjectElement != null) ? "class " + dataObjectElement : null;
+			}
+			FailureKind kind = new FailureKind(stage, rootCause.getClass().getName(), documentType,
+					(stage == Stage.DESERIALIZATION) ? findUnrecognizedElement(failure) : null);
+			if (failures.size() >= MAX_FAILURE_KINDS && !failures.containsKey(kind)) {
+				kind = new FailureKind(stage, "(other kinds of failure)", null, null);
+			}
+			Failures existing = failures.get(kind);
+			if (existing == null) {
+				existing = failures.putIfAbsent(kind, new Failures(kind, document.documentNumber, rootCause));
+				if (existing == null) {
+					return;
+				}
+			}
+			existing.count.incrementAndGet();
+		}
+
+		private void finish() {
+			endTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return the number of documents read so far
+		 */
+		public long getReadCount() {
+			return readCount.get();
+		}
+
+		/**
+		 * @return the number of documents that would load
+		 */
+		public long getReadyCount() {
+			return readyCount.get();
+		}
+
+		/**
+		 * @return the number of documents that would fail to load
+		 */
+		public long getFailedCount() {
+			return failedCount.get();
+		}
+
+		/**
+		 * @return the number of documents scanned so far
+		 */
+		public long getScannedCount() {
+			return readyCount.get() + failedCount.get();
+		}
+
+		/**
+		 * @return the kinds of failure seen so far, the most frequent first
+		 */
+		public List<Failures> getFailures() {
+			List<Failures> sortedFailures = new ArrayList<Failures>(failures.values());
+			Collections.sort(sortedFailures, new Comparator<Failures>() {
+				@Override
+				public int compare(Failures failures1, Failures failures2) {
+					long count1 = failures1.getCount();
+					long count2 = failures2.getCount();
+					return (count1 > count2) ? -1 : ((count1 < count2) ? 1 : 0);
+				}
+			});
+			return sortedFailures;
+		}
+
+		/**
+		 * @param limit the maximum number of kinds of failure to list
+		 * @return the counts, followed by a line for each of the most frequent kinds of failure
+		 */
+		public String format(int limit) {
+			StringBuilder report = new StringBuilder(toString());
+			List<Failures> sortedFailures = getFailures();
+			if (!sortedFailures.isEmpty()) {
+				report.append("\n").append(sortedFailures.size()).append(" kinds of failure")
+						.append((sortedFailures.size() > limit) ? " (the " + limit + " most frequent listed)" : "")
+						.append(":\ncount\tstage\texception\tdocument type\telement\texample document: message");
+			}
+			for (Failures failure : sortedFailures.subList(0, Math.min(limit, sortedFailures.size()))) {
+				report.append("\n").append(failure);
+			}
+			return report.toString();
+		}
+
+		@Override
+		public String toString() {
+			long elapsedMillis = ((endTime != 0L) ? endTime : System.currentTimeMillis()) - startTime;
+			long scannedCount = getScannedCount();
+			return "read " + readCount.get() + ", scanned " + scannedCount + ", ready " + readyCount.get()
+					+ ", failed " + failedCount.get() + ", "
+					+ ((elapsedMillis > 0L) ? scannedCount * 1000L / elapsedMillis : scannedCount) + " documents/s";
+		}
+	}
+
+	/**
+	 * The documents that failed in one particular way, with the first of them as an example.
+	 */
+	public static final class Failures {
+		private final FailureKind kind;
+		private final AtomicLong count = new AtomicLong(1L);
+		private final String exampleDocumentNumber;
+		private final String exampleMessage;
+
+		Failures(FailureKind kind, String exampleDocumentNumber, Throwable exampleFailure) {
+			this.kind = kind;
+			this.exampleDocumentNumber = exampleDocumentNumber;
+			// XStream appends its debugging information (which repeats the class and path) to its messages.
+			String message = StringUtils.substringBefore(StringUtils.normalizeSpace(exampleFailure.getMessage()), " ---- Debugging information ----");
+			this.exampleMessage = StringUtils.abbreviate(message, MAX_MESSAGE_LENGTH);
+		}
+
+		public Stage getStage() {
+			return kind.stage;
+		}
+
+		/**
+		 * @return the class name of the root cause of the failure
+		 */
+		public String getExceptionType() {
+			return kind.exceptionType;
+		}
+
+		/**
+		 * @return the document type, "class " followed by the data object's element name if the type is not known,
+		 * or null if neither is known
+		 */
+		public String getDocumentType() {
+			return kind.documentType;
+		}
+
+		/**
+		 * @return the first element that XStream could not map to a class or field (or, for other deserialization
+		 * failures, the element at which it failed), or null if none was found
+		 */
+		public String getUnrecognizedElement() {
+			return kind.unrecognizedElement;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public String getExampleDocumentNumber() {
+			return exampleDocumentNumber;
+		}
+
+		public String getExampleMessage() {
+			return exampleMessage;
+		}
+
+		@Override
+		public String toString() {
+			return count.get() + "\t" + kind.stage + "\t" + kind.exceptionType + "\t" + StringUtils.defaultString(kind.documentType, "-")
+					+ "\t" + StringUtils.defaultString(kind.unrecognizedElement, "-") + "\t" + exampleDocumentNumber + ": "
+					+ StringUtils.defaultString(exampleMessage);
+		}
+	}
+
+	private static final class FailureKind {
+		private final Stage stage;
+		private final String exceptionType;
+		private final String documentType;
+		private final String unrecognizedElement;
+
+		FailureKind(Stage stage, String exceptionType, String documentType, String unrecognizedElement) {
+			this.stage = stage;
+			this.exceptionType = exceptionType;
+			this.documentType = documentType;
+			this.unrecognizedElement = unrecognizedElement;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof FailureKind)) {
+				return false;
+			}
+			FailureKind otherKind = (FailureKind) other;
+			return stage == otherKind.stage && exceptionType.equals(otherKind.exceptionType)
+					&& StringUtils.equals(documentType, otherKind.documentType)
+					&& StringUtils.equals(unrecognizedElement, otherKind.unrecognizedElement);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = stage.hashCode() * 31 + exceptionType.hashCode();
+			hash = hash * 31 + ((documentType != null) ? documentType.hashCode() : 0);
+			return hash * 31 + ((unrecognizedElement != null) ? unrecognizedElement.hashCode() : 0);
+		}
+	}
+
+	/*
+	 * XStream reports an element naming a class it cannot load as a CannotResolveClassException with the element name
+	 * as the message, and most other failures (such as an element naming a field the class does not have) as a
+	 * ConversionException with the path to the offending element (which, for an element naming a field the class does
+	 * not have, is that element).
+	 */
+	static String findUnrecognizedElement(Throwable failure) {
+		String path = null;
+		for (Throwable cause = failure; cause != null; cause = (cause.getCause() != cause) ? cause.getCause() : null) {
+			if (cause instanceof CannotResolveClassException) {
+				return cause.getMessage();
+			}
+			if (path == null && cause instanceof ErrorWriter) {
+				path = ((ErrorWriter) cause).get("path");
+			}
+		}
+		if (StringUtils.isBlank(path)) {
+			return null;
+		}
+		String element = path.substring(path.lastIndexOf('/') + 1);
+		int indexStart = element.indexOf('[');
+		return (indexStart != -1) ? element.substring(0, indexStart) : element;
+	}
+
+	private static String findFirstElementName(String xml) {
+		int start = xml.indexOf('<');
+		while (start != -1 && start + 1 < xml.length() && (xml.charAt(start + 1) == '?' || xml.charAt(start + 1) == '!')) {
+			start = xml.indexOf('<', start + 1);
+		}
+		if (start == -1) {
+			return null;
+		}
+		int end = start + 1;
+		while (end < xml.length() && !Character.isWhitespace(xml.charAt(end)) && xml.charAt(end) != '>' && xml.charAt(end) != '/') {
+			end++;
+		}
+		return (end > start + 1) ? xml.substring(start + 1, end) : null;
+	}
+
+}
@@ -0,0 +1,356 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.kuali.rice.core.api.CoreApiServiceLocator;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.api.encryption.EncryptionService;
+import org.kuali.rice.krad.service.MaintainableXMLWriteBackService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * ====
+ * CU Customization:
+ * Default MaintainableXMLWriteBackService implementation, which
+ * collects queued write-backs on a background thread and applies
+ * them to the maintenance document table in JDBC batches.
+ *
+ * Each update is conditional on the document's version number, and
+ * does not change that version number. This makes the updates safe
+ * to retry, and ensures that they never overwrite (or cause optimistic
+ * locking failures for) a user's save of the same document. Failed
+ * batches are re-queued until they run out of attempts.
+ *
+ * Since the document contents are normally encrypted by OJB when
+ * encryption is enabled, the converted contents are encrypted
+ * here as well, unless "encryptContents" is turned off.
+ * ====
+ */
+public class MaintainableXMLWriteBackServiceImpl implements MaintainableXMLWriteBackService, InitializingBean, DisposableBean {
+
+	private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(MaintainableXMLWriteBackServiceImpl.class);
+
+	private static final String WRITE_BACK_ENABLED_PARAMETER = "maintainable.conversion.write.back.enabled";
+	private static final String WRITE_BACK_BATCH_SIZE_PARAMETER = "maintainable.conversion.write.back.batch.size";
+	private static final String WRITE_BACK_FLUSH_INTERVAL_PARAMETER = "maintainable.conversion.write.back.flush.interval";
+
+	private static final String UPDATE_SQL = "UPDATE KRNS_MAINT_DOC_T SET DOC_CNTNT = ? WHERE DOC_HDR_ID = ? AND VER_NBR = ?";
+	private static final String WORKER_THREAD_NAME = "maintainable-xml-write-back";
+
+	private DataSource dataSource;
+	private boolean enabled = false;
+	private boolean encryptContents = true;
+	private int batchSize = 50;
+	private long flushIntervalMillis = 5000L;
+	private int queueCapacity = 1000;
+	private int maxAttempts = 3;
+
+	private BlockingQueue<PendingWriteBack> queue;
+	// The numbers of the documents currently in the queue, so that a document is not queued twice.
+	private final ConcurrentMap<String, Boolean> queuedDocumentNumbers = new ConcurrentHashMap<String, Boolean>();
+	private Thread workerThread;
+	private volatile boolean running = false;
+
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong staleCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public MaintainableXMLWriteBackServiceImpl() {
+		String enabled = ConfigContext.getCurrentContextConfig().getProperty(WRITE_BACK_ENABLED_PARAMETER);
+		if (StringUtils.isNotBlank(enabled)) {
+			this.setEnabled(Boolean.parseBoolean(enabled));
+		}
+		String batchSize = ConfigContext.getCurrentContextConfig().getProperty(WRITE_BACK_BATCH_SIZE_PARAMETER);
+		if (StringUtils.isNotBlank(batchSize)) {
+			this.setBatchSize(Integer.parseInt(batchSize.trim()));
+		}
+		String flushInterval = ConfigContext.getCurrentContextConfig().getProperty(WRITE_BACK_FLUSH_INTERVAL_PARAMETER);
+		if (StringUtils.isNotBlank(flushInterval)) {
+			this.setFlushIntervalMillis(Long.parseLong(flushInterval.trim()));
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (!enabled) {
+			return;
+		}
+		if (dataSource == null) {
+			throw new IllegalStateException("A dataSource is required when maintainable XML write-back is enabled");
+		}
+		queue = new LinkedBlockingQueue<PendingWriteBack>(queueCapacity);
+		running = true;
+		workerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processQueue();
+			}
+		}, WORKER_THREAD_NAME);
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (workerThread == null) {
+			return;
+		}
+		running = false;
+		workerThread.interrupt();
+		workerThread.join(flushIntervalMillis);
+		if (workerThread.isAlive()) {
+			// Still writing its last batch; draining the queue alongside it could write a document twice at once.
+			LOG.warn("The write-back worker did not stop within " + flushIntervalMillis + " ms; abandoning " + queue.size()
+					+ " queued write-back(s), which will be converted again when next loaded");
+			return;
+		}
+		// Make one last attempt at anything still queued.
+		List<PendingWriteBack> batch = new ArrayList<PendingWriteBack>(batchSize);
+		while (queue.drainTo(batch, batchSize) > 0) {
+			writeBatch(batch, false);
+			batch.clear();
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled && running;
+	}
+
+	@Override
+	public boolean queueWriteBack(String documentNumber, Long versionNumber, String xmlDocumentContents) {
+		if (!isEnabled() || StringUtils.isBlank(documentNumber) || versionNumber == null || xmlDocumentContents == null) {
+			return false;
+		}
+		if (queuedDocumentNumbers.putIfAbsent(documentNumber, Boolean.TRUE) != null) {
+			// Already queued from an earlier load.
+			return true;
+		}
+		if (!queue.offer(new PendingWriteBack(documentNumber, versionNumber, xmlDocumentContents))) {
+			queuedDocumentNumbers.remove(documentNumber);
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Worker loop: waits for the first queued write-back, gives the batch until the flush
+	 * interval to fill up, and then writes it.
+	 */
+	private void processQueue() {
+		List<PendingWriteBack> batch = new ArrayList<PendingWriteBack>(batchSize);
+		while (running) {
+			try {
+				PendingWriteBack next = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+				long flushDeadline = System.currentTimeMillis() + flushIntervalMillis;
+				while (next != null) {
+					batch.add(next);
+					long waitMillis = flushDeadline - System.currentTimeMillis();
+					if (batch.size() >= batchSize || waitMillis <= 0L) {
+						break;
+					}
+					next = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				// The service is shutting down; write what has been collected so far, and leave the rest to destroy().
+			}
+			if (!batch.isEmpty()) {
+				writeBatch(batch, running);
+				batch.clear();
+			}
+		}
+	}
+
+	/*
+	 * Writes the given batch in a single transaction. If the batch fails, its write-backs are
+	 * re-queued if allowed and if they have attempts left; re-running an update is harmless,
+	 * since it only matches the document version that was originally loaded.
+	 */
+	private void writeBatch(List<PendingWriteBack> batch, boolean requeueOnFailure) {
+		Connection connection = null;
+		PreparedStatement statement = null;
+		try {
+			connection = dataSource.getConnection();
+			connection.setAutoCommit(false);
+			statement = connection.prepareStatement(UPDATE_SQL);
+			for (PendingWriteBack writeBack : batch) {
+				String contents = encryptContents(writeBack.xmlDocumentContents);
+				statement.setCharacterStream(1, new StringReader(contents), contents.length());
+				statement.setString(2, writeBack.documentNumber);
+				statement.setLong(3, writeBack.versionNumber.longValue());
+				statement.addBatch();
+			}
+			int[] updateCounts = statement.executeBatch();
+			connection.commit();
+			for (int i = 0; i < updateCounts.length; i++) {
+				if (updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+					writtenCount.incrementAndGet();
+				} else {
+					// The document was saved again (or deleted) since it was loaded; nothing to do.
+					staleCount.incrementAndGet();
+				}
+			}
+			for (PendingWriteBack writeBack : batch) {
+				queuedDocumentNumbers.remove(writeBack.documentNumber);
+			}
+		} catch (Exception e) {
+			LOG.warn("Error writing back converted maintainable XML for " + batch.size() + " document(s)", e);
+			rollback(connection);
+			for (PendingWriteBack writeBack : batch) {
+				writeBack.attempts++;
+				if (!requeueOnFailure || writeBack.attempts >= maxAttempts || !queue.offer(writeBack)) {
+					queuedDocumentNumbers.remove(writeBack.documentNumber);
+					failedCount.incrementAndGet();
+					LOG.error("Giving up on writing back converted maintainable XML for document " + writeBack.documentNumber);
+				}
+			}
+		} finally {
+			close(statement, connection);
+		}
+	}
+
+	private String encryptContents(String xmlDocumentContents) throws GeneralSecurityException {
+		if (encryptContents) {
+			EncryptionService encryptionService = CoreApiServiceLocator.getEncryptionService();
+			if (encryptionService != null && encryptionService.isEnabled()) {
+				return encryptionService.encrypt(xmlDocumentContents);
+			}
+		}
+		return xmlDocumentContents;
+	}
+
+	private void rollback(Connection connection) {
+		if (connection != null) {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				LOG.warn("Error rolling back write-back batch", e);
+			}
+		}
+	}
+
+	private void close(Statement statement, Connection connection) {
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing write-back statement", e);
+			}
+		}
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				LOG.warn("Error closing write-back connection", e);
+			}
+		}
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEncryptContents() {
+		return encryptContents;
+	}
+
+	public void setEncryptContents(boolean encryptContents) {
+		this.encryptContents = encryptContents;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = Math.max(1L, flushIntervalMillis);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	public int getQueueSize() {
+		return (queue != null) ? queue.size() : 0;
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getStaleCount() {
+		return staleCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/*
+	 * A queued write-back, along with the number of attempts made so far.
+	 */
+	private static final class PendingWriteBack {
+		private final String documentNumber;
+		private final Long versionNumber;
+		private final String xmlDocumentContents;
+		private int attempts = 0;
+
+		PendingWriteBack(String documentNumber, Long versionNumber, String xmlDocumentContents) {
+			this.documentNumber = documentNumber;
+			this.versionNumber = versionNumber;
+			this.xmlDocumentContents = xmlDocumentContents;
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.kuali.rice.krad.service.impl;
+
+import org.kuali.rice.krad.service.impl.ConversionRuleIndex.ClassRules;
+
+/**
+ * ====
+ * CU Customization:
+ * Reusable holder for the nesting stacks and scratch buffers used by
+ * the streaming maintainable XML conversion. The stacks are backed by
+ * growable primitive arrays instead of LinkedLists of boxed Integers,
+ * so that converting an element does not allocate anything once the
+ * arrays have grown to the document's depth and attribute count.
+ *
+ * Instances are not thread-safe; the conversion service keeps one
+ * per thread and resets it after each conversion.
+ * ====
+ */
+final class StreamedConversionState {
+
+	static final int CHAR_BUFFER_SIZE = 256;
+
+	private static final int INITIAL_STACK_CAPACITY = 16;
+	private static final int INITIAL_ATTRIBUTE_CAPACITY = 4;
+
+	// Buffer for copying character data from the reader to the writer.
+	final char[] charBuffer = new char[CHAR_BUFFER_SIZE];
+
+	// Scratch arrays for an element's (possibly renamed) attributes.
+	String[] attributeNames = new String[INITIAL_ATTRIBUTE_CAPACITY];
+	String[] attributeValues = new String[INITIAL_ATTRIBUTE_CAPACITY];
+
+	// Stack of the enclosing class rules and the depths at which they apply.
+	private ClassRules[] classRulesStack = new ClassRules[INITIAL_STACK_CAPACITY];
+	private int[] classDepthStack = new int[INITIAL_STACK_CAPACITY];
+	private int classStackSize = 0;
+
+	// Stack of the depths of elements whose children are being moved to their parents.
+	private int[] moveToParentDepthStack = new int[INITIAL_STACK_CAPACITY];
+	private int moveToParentStackSize = 0;
+
+	// The limits of the current conversion, and its progress against them.
+	final ConversionLimiter limiter = new ConversionLimiter();
+
+	private boolean inUse = false;
+
+	void ensureAttributeCapacity(int attributeCount) {
+		if (attributeCount > attributeNames.length) {
+			int newCapacity = Math.max(attributeCount, attributeNames.length * 2);
+			attributeNames = new String[newCapacity];
+			attributeValues = new String[newCapacity];
+		}
+	}
+
+	void pushClass(ClassRules rules, int depth) {
+		if (classStackSize == classDepthStack.length) {
+			ClassRules[] newRulesStack = new ClassRules[classStackSize * 2];
+			int[] newDepthStack = new int[classStackSize * 2];
+			System.arraycopy(classRulesStack, 0, newRulesStack, 0, classStackSize);
+			System.arraycopy(classDepthStack, 0, newDepthStack, 0, classStackSize);
+			classRulesStack = newRulesStack;
+			classDepthStack = newDepthStack;
+		}
+		classRulesStack[classStackSize] = rules;
+		classDepthStack[classStackSize] = depth;
+		classStackSize++;
+	}
+
+	ClassRules peekClassRules() {
+		return classRulesStack[classStackSize - 1];
+	}
+
+	int peekClassDepth() {
+		return classDepthStack[classStackSize - 1];
+	}
+
+	void popClass() {
+		classStackSize--;
+		classRulesStack[classStackSize] = null;
+	}
+
+	void pushMoveToParentDepth(int depth) {
+		if (moveToParentStackSize == moveToParentDepthStack.length) {
+			int[] newStack = new int[moveToParentStackSize * 2];
+			System.arraycopy(moveToParentDepthStack, 0, newStack, 0, moveToParentStackSize);
+			moveToParentDepthStack = newStack;
+		}
+		moveToParentDepthStack[moveToParentStackSize++] = depth;
+	}
+
+	int popMoveToParentDepth() {
+		return moveToParentDepthStack[--moveToParentStackSize];
+	}
+
+	/**
+	 * Marks this state as being used by a conversion.
+	 *
+	 * @return false if this state is already in use, in which case the caller should use a new instance instead
+	 */
+	boolean acquire() {
+		if (inUse) {
+			return false;
+		}
+		inUse = true;
+		return true;
+	}
+
+	/**
+	 * Clears the stacks and any references held from the last conversion, and marks this state as available.
+	 */
+	void release() {
+		for (int i = 0; i < classStackSize; i++) {
+			classRulesStack[i] = null;
+		}
+		classStackSize = 0;
+		moveToParentStackSize = 0;
+		for (int i = 0; i < attributeNames.length; i++) {
+			attributeNames[i] = null;
+			attributeValues[i] = null;
+		}
+		inUse = false;
+	}
+
+}
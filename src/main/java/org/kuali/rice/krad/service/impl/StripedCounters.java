@@ -0,0 +1,76 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ====
+ * CU Customization:
+ * Fixed set of counters that can be incremented from many threads with
+ * little contention, in the manner of java.util.concurrent.atomic.LongAdder
+ * (which is not available on Java 7).
+ *
+ * Each counter has a cell in each of several stripes, and a thread always
+ * increments the cells of the stripe picked by its id. The stripes are laid
+ * out one after the other in a single AtomicLongArray, padded so that no two
+ * stripes share a cache line. Incrementing is allocation-free; reading a
+ * counter sums its cells, so reads are not atomic with respect to increments.
+ * ====
+ */
+final class StripedCounters {
+
+	// Longs per (typical) cache line.
+	private static final int CELL_PADDING = 8;
+	private static final int MAX_STRIPES = 16;
+
+	private final int counterCount;
+	private final int stripeLength;
+	private final int stripeMask;
+	private final AtomicLongArray cells;
+
+	/**
+	 * @param counterCount the number of counters
+	 */
+	StripedCounters(int counterCount) {
+		this.counterCount = counterCount;
+		int stripes = 1;
+		int maxStripes = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+		while (stripes < maxStripes) {
+			stripes <<= 1;
+		}
+		this.stripeMask = stripes - 1;
+		// Round up to whole cache lines, plus one line of padding between stripes.
+		this.stripeLength = ((counterCount + CELL_PADDING - 1) / CELL_PADDING + 1) * CELL_PADDING;
+		this.cells = new AtomicLongArray(stripes * stripeLength);
+	}
+
+	int getCounterCount() {
+		return counterCount;
+	}
+
+	void increment(int counter) {
+		cells.incrementAndGet(getStripe() * stripeLength + counter);
+	}
+
+	long get(int counter) {
+		long sum = 0L;
+		for (int cell = counter; cell < cells.length(); cell += stripeLength) {
+			sum += cells.get(cell);
+		}
+		return sum;
+	}
+
+	void reset() {
+		for (int cell = 0; cell < cells.length(); cell++) {
+			cells.set(cell, 0L);
+		}
+	}
+
+	/*
+	 * Thread ids are sequential, so they are mixed before picking a stripe.
+	 */
+	private int getStripe() {
+		long threadId = Thread.currentThread().getId();
+		return (int) ((threadId * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+	}
+
+}
@@ -0,0 +1,402 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * ====
+ * CU Customization:
+ * The streaming conversion as it was before the rules were compiled into
+ * a ConversionRuleIndex: the rule maps read straight from the rules file,
+ * and looked up element by element, as the reference that the compiled
+ * conversion must still agree with.
+ *
+ * The output is not indented, and the XML declaration is left out, as
+ * the original's identity Transformer did.
+ * ====
+ */
+final class BaselineMaintainableXMLConverter {
+
+	private static final String SERIALIZATION_ATTRIBUTE = "serialization";
+	private static final String CLASS_ATTRIBUTE = "class";
+	private static final String MAINTENANCE_ACTION_ELEMENT_NAME = "maintenanceAction";
+	private static final String ATTR_INDICATOR = "(ATTR)";
+	private static final String MOVE_NODES_TO_PARENT_INDICATOR = "(MOVE_NODES_TO_PARENT)";
+	private static final String CONVERT_TO_MAP_ENTRIES_INDICATOR = "(CONVERT_TO_MAP_ENTRIES)";
+	private static final String ENTRY_ELEMENT_NAME = "entry";
+
+	private final Map<String, Map<String, String>> classPropertyRuleMap = new HashMap<String, Map<String, String>>();
+	private final Map<String, String> dateRuleMap = new HashMap<String, String>();
+
+	/**
+	 * Creates a converter without any rules, which only copies the XML.
+	 */
+	BaselineMaintainableXMLConverter() {
+		classPropertyRuleMap.put("*", new HashMap<String, String>());
+	}
+
+	/**
+	 * @param ruleFile the classpath location of the rules file
+	 */
+	BaselineMaintainableXMLConverter(String ruleFile) throws Exception {
+		Map<String, String> defaultPropertyRules = new HashMap<String, String>();
+		defaultPropertyRules.put("boNotes", "");
+		defaultPropertyRules.put("autoIncrementSet", "");
+		classPropertyRuleMap.put("*", defaultPropertyRules);
+
+		Document doc;
+		InputStream ruleFileIn = getClass().getResourceAsStream(ruleFile);
+		try {
+			doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(ruleFileIn);
+		} finally {
+			ruleFileIn.close();
+		}
+		doc.getDocumentElement().normalize();
+		XPath xpath = XPathFactory.newInstance().newXPath();
+
+		NodeList propertyClassList = (NodeList) xpath.evaluate("//*[@name='maint_doc_changed_class_properties']/pattern",
+				doc, XPathConstants.NODESET);
+		for (int s = 0; s < propertyClassList.getLength(); s++) {
+			String classText = xpath.evaluate("class/text()", propertyClassList.item(s));
+			Map<String, String> propertyRuleMap = new HashMap<String, String>();
+			NodeList classPropertiesPatterns = (NodeList) xpath.evaluate("pattern", propertyClassList.item(s),
+					XPathConstants.NODESET);
+			for (int c = 0; c < classPropertiesPatterns.getLength(); c++) {
+				propertyRuleMap.put(xpath.evaluate("match/text()", classPropertiesPatterns.item(c)),
+						xpath.evaluate("replacement/text()", classPropertiesPatterns.item(c)));
+			}
+			classPropertyRuleMap.put(classText, propertyRuleMap);
+		}
+
+		NodeList dateNamesList = (NodeList) xpath.evaluate("//*[@name='maint_doc_date_changes']/pattern", doc,
+				XPathConstants.NODESET);
+		for (int s = 0; s < dateNamesList.getLength(); s++) {
+			dateRuleMap.put(xpath.evaluate("match/text()", dateNamesList.item(s)),
+					xpath.evaluate("replacement/text()", dateNamesList.item(s)));
+		}
+	}
+
+	/**
+	 * @return the "maint_doc_changed_class_properties" rules, keyed by class
+	 */
+	Map<String, Map<String, String>> getClassPropertyRuleMap() {
+		return Collections.unmodifiableMap(classPropertyRuleMap);
+	}
+
+	/**
+	 * @return the "maint_doc_date_changes" rules
+	 */
+	Map<String, String> getDateRuleMap() {
+		return Collections.unmodifiableMap(dateRuleMap);
+	}
+
+	/**
+	 * Converts the given maintainable XML, which ends with its maintenance action.
+	 */
+	String convert(String xml) throws XMLStreamException {
+		String maintenanceAction = "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">"
+				+ StringUtils.substringAfter(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");
+		xml = StringUtils.substringBefore(xml, "<" + MAINTENANCE_ACTION_ELEMENT_NAME + ">");
+
+		XMLInputFactory xInFactory = XMLInputFactory.newInstance();
+		xInFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		XMLStreamReader xmlIn = xInFactory.createXMLStreamReader(new StringReader(xml));
+		StringWriter newXml = new StringWriter();
+		XMLStreamWriter xmlOut = XMLOutputFactory.newInstance().createXMLStreamWriter(newXml);
+		try {
+			doStreamedConversion(xmlIn, xmlOut);
+		} finally {
+			xmlIn.close();
+			xmlOut.close();
+		}
+		return newXml.toString() + maintenanceAction;
+	}
+
+	private void doStreamedConversion(XMLStreamReader xmlIn, XMLStreamWriter xmlOut) throws XMLStreamException {
+		final Map<String, String> EMPTY_PROP_RULE_MAP = Collections.emptyMap();
+
+		char[] charBuffer = new char[256];
+		int charLen = 0;
+		int charStart = 0;
+
+		int dateLen = -1;
+		String dateSuffix = null;
+
+		int mapEntryElemCount = -1;
+		int mapEntryElemDepth = -1;
+
+		int i = 0;
+		int attributeLen = 0;
+		String[] newAttrNames = null;
+		String[] newAttrValues = null;
+		String attributeValue = null;
+		int classAttributeIndex = -1;
+
+		String newName = null;
+		String replacement = null;
+		boolean hasReplacement = false;
+		boolean suppressWrite = false;
+
+		LinkedList<String> classNameStack = new LinkedList<String>();
+		String nameStackTop = "";
+		LinkedList<Integer> classNameDepthStack = new LinkedList<Integer>();
+		int depthStackTop = -1;
+		LinkedList<Integer> moveToParentDepthStack = new LinkedList<Integer>();
+		int moveToParentDepthStackTop = -1;
+
+		Map<String, String> currentPropRuleMap = EMPTY_PROP_RULE_MAP;
+		Map<String, String> globalPropRuleMap = classPropertyRuleMap.get("*");
+
+		int depth = 0;
+		int skipDepth = -1;
+
+		while (xmlIn.hasNext()) {
+			if (skipDepth == -1) {
+				switch (xmlIn.next()) {
+					case XMLStreamConstants.START_ELEMENT :
+						suppressWrite = false;
+						classAttributeIndex = -1;
+						depth++;
+
+						attributeLen = xmlIn.getAttributeCount();
+						if (attributeLen > 0) {
+							newAttrNames = new String[attributeLen];
+							newAttrValues = new String[attributeLen];
+							for (i = 0; i < attributeLen; i++) {
+								newName = xmlIn.getAttributeLocalName(i);
+								attributeValue = xmlIn.getAttributeValue(i);
+								if (CLASS_ATTRIBUTE.equals(newName)) {
+									classAttributeIndex = i;
+								}
+								newAttrNames[i] = newName;
+								newAttrValues[i] = attributeValue;
+							}
+						}
+
+						if (classAttributeIndex != -1) {
+							attributeValue = newAttrValues[classAttributeIndex];
+							if (depth == depthStackTop + 1 && currentPropRuleMap.containsKey(attributeValue)) {
+								replacement = currentPropRuleMap.get(attributeValue);
+								hasReplacement = true;
+							} else if (globalPropRuleMap.containsKey(attributeValue)) {
+								replacement = globalPropRuleMap.get(attributeValue);
+								hasReplacement = true;
+							} else {
+								hasReplacement = false;
+							}
+							if (hasReplacement) {
+								if (StringUtils.isBlank(replacement)) {
+									skipDepth = depth;
+									suppressWrite = true;
+								} else if (MOVE_NODES_TO_PARENT_INDICATOR.equals(replacement)) {
+									moveToParentDepthStack.push(Integer.valueOf(moveToParentDepthStackTop));
+									moveToParentDepthStackTop = depth;
+									suppressWrite = true;
+								} else if (CONVERT_TO_MAP_ENTRIES_INDICATOR.equals(replacement)) {
+									if (mapEntryElemCount == -1) {
+										mapEntryElemCount = 0;
+										mapEntryElemDepth = depth;
+									}
+								} else {
+									attributeValue = replacement;
+									newAttrValues[classAttributeIndex] = attributeValue;
+								}
+							}
+						}
+
+						newName = xmlIn.getLocalName();
+
+						if (!suppressWrite) {
+							if (depth == depthStackTop + 1 && currentPropRuleMap.containsKey(newName)) {
+								replacement = currentPropRuleMap.get(newName);
+								hasReplacement = true;
+							} else if (globalPropRuleMap.containsKey(newName)) {
+								replacement = globalPropRuleMap.get(newName);
+								hasReplacement = true;
+							} else {
+								hasReplacement = false;
+							}
+							if (hasReplacement) {
+								if (StringUtils.isBlank(replacement)) {
+									skipDepth = depth;
+									suppressWrite = true;
+								} else if (MOVE_NODES_TO_PARENT_INDICATOR.equals(replacement)) {
+									if (moveToParentDepthStackTop != depth) {
+										moveToParentDepthStack.push(Integer.valueOf(moveToParentDepthStackTop));
+										moveToParentDepthStackTop = depth;
+									}
+									suppressWrite = true;
+								} else if (CONVERT_TO_MAP_ENTRIES_INDICATOR.equals(replacement)) {
+									if (mapEntryElemCount == -1) {
+										mapEntryElemCount = 0;
+										mapEntryElemDepth = depth;
+									}
+								} else {
+									newName = replacement;
+								}
+							}
+						}
+
+						if (skipDepth != depth) {
+							replacement = null;
+							if (classAttributeIndex != -1 && classPropertyRuleMap.containsKey(attributeValue)) {
+								replacement = attributeValue;
+							} else if (classPropertyRuleMap.containsKey(newName)) {
+								replacement = newName;
+							}
+							if (replacement != null) {
+								classNameStack.push(nameStackTop);
+								classNameDepthStack.push(Integer.valueOf(depthStackTop));
+								nameStackTop = replacement;
+								depthStackTop = depth;
+								currentPropRuleMap = classPropertyRuleMap.get(replacement);
+								if (currentPropRuleMap == null) {
+									currentPropRuleMap = EMPTY_PROP_RULE_MAP;
+								}
+							}
+						}
+
+						if (!suppressWrite) {
+							if (mapEntryElemDepth == depth) {
+								if (mapEntryElemCount == 0) {
+									xmlOut.writeStartElement(ENTRY_ELEMENT_NAME);
+								}
+								mapEntryElemCount++;
+							}
+
+							xmlOut.writeStartElement(newName);
+
+							if (StringUtils.isNotBlank(dateRuleMap.get(newName))) {
+								dateSuffix = " " + dateRuleMap.get(newName);
+								dateLen = 0;
+							}
+
+							if (attributeLen > 0) {
+								for (i = 0; i < attributeLen; i++) {
+									suppressWrite = false;
+									if (depth == depthStackTop && currentPropRuleMap.containsKey(newAttrNames[i] + ATTR_INDICATOR)) {
+										replacement = currentPropRuleMap.get(newAttrNames[i] + ATTR_INDICATOR);
+										hasReplacement = true;
+									} else if (globalPropRuleMap.containsKey(newAttrNames[i] + ATTR_INDICATOR)) {
+										replacement = globalPropRuleMap.get(newAttrNames[i] + ATTR_INDICATOR);
+										hasReplacement = true;
+									} else {
+										hasReplacement = false;
+									}
+									if (hasReplacement) {
+										if (StringUtils.isBlank(replacement)) {
+											suppressWrite = true;
+										} else {
+											newAttrNames[i] = replacement;
+										}
+									}
+									if (!suppressWrite) {
+										xmlOut.writeAttribute(newAttrNames[i], newAttrValues[i]);
+									}
+								}
+							}
+						}
+						break;
+
+					case XMLStreamConstants.END_ELEMENT :
+						if (depth == depthStackTop) {
+							nameStackTop = classNameStack.pop();
+							depthStackTop = classNameDepthStack.pop().intValue();
+							currentPropRuleMap = classPropertyRuleMap.get(nameStackTop);
+							if (currentPropRuleMap == null) {
+								currentPropRuleMap = EMPTY_PROP_RULE_MAP;
+							}
+						}
+						if (depth == moveToParentDepthStackTop) {
+							moveToParentDepthStackTop = moveToParentDepthStack.pop().intValue();
+						} else {
+							if (dateLen != -1) {
+								if (dateLen == 10) {
+									xmlOut.writeCharacters(dateSuffix);
+								}
+								dateLen = -1;
+								dateSuffix = null;
+							}
+							xmlOut.writeEndElement();
+							if (mapEntryElemDepth == depth && mapEntryElemCount == 2) {
+								xmlOut.writeEndElement();
+								mapEntryElemCount = -1;
+								mapEntryElemDepth = -1;
+							}
+						}
+						depth--;
+						break;
+
+					case XMLStreamConstants.PROCESSING_INSTRUCTION :
+						if (StringUtils.isNotBlank(xmlIn.getPIData())) {
+							xmlOut.writeProcessingInstruction(xmlIn.getPITarget(), xmlIn.getPIData());
+						} else {
+							xmlOut.writeProcessingInstruction(xmlIn.getPITarget());
+						}
+						break;
+
+					case XMLStreamConstants.CHARACTERS :
+						charStart = 0;
+						do {
+							charLen = xmlIn.getTextCharacters(charStart, charBuffer, 0, 256);
+							if (charLen != 0) {
+								xmlOut.writeCharacters(charBuffer, 0, charLen);
+							}
+							charStart += charLen;
+							if (dateLen != -1) {
+								dateLen += charLen;
+							}
+						} while (charLen == 256);
+						break;
+
+					case XMLStreamConstants.END_DOCUMENT :
+						xmlOut.writeEndDocument();
+						break;
+
+					case XMLStreamConstants.ENTITY_REFERENCE :
+						xmlOut.writeEntityRef(xmlIn.getLocalName());
+						break;
+
+					default :
+						// The declaration (START_DOCUMENT) was dropped by the original's Transformer.
+						break;
+				}
+			} else {
+				while (depth >= skipDepth) {
+					switch (xmlIn.next()) {
+						case XMLStreamConstants.START_ELEMENT :
+							depth++;
+							break;
+						case XMLStreamConstants.END_ELEMENT :
+							depth--;
+							break;
+						default :
+							break;
+					}
+				}
+				skipDepth = -1;
+			}
+		}
+	}
+
+}
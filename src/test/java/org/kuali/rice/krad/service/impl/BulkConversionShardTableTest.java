@@ -0,0 +1,292 @@
+package org.kuali.rice.krad.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ====
+ * CU Customization:
+ * Tests the bulk conversion lease table, and several bulk conversion
+ * nodes sharing one embedded database.
+ * ====
+ */
+public class BulkConversionShardTableTest {
+
+	private static final String SHARD_TABLE = "CU_MAINT_DOC_CONV_SHARD_T";
+	private static final int DOCUMENT_COUNT = 40;
+	private static final int SHARD_COUNT = 4;
+	private static final int NODE_COUNT = 4;
+	private static final long LEASE_DURATION_MILLIS = 60000L;
+	private static final long TIMEOUT_MILLIS = 60000L;
+
+	private MaintenanceDocumentTestDatabase database;
+	private BulkConversionShardTable shards;
+	private ExecutorService executor;
+	private List<BulkConversionTestSupport.HoldingConversionService> conversionServices =
+			new ArrayList<BulkConversionTestSupport.HoldingConversionService>();
+
+	@Before
+	public void setUp() throws Exception {
+		BulkConversionTestSupport.initializeConfig();
+		database = new MaintenanceDocumentTestDatabase();
+		database.createShardTable(SHARD_TABLE);
+		BulkConversionTestSupport.insertLegacyDocuments(database, DOCUMENT_COUNT);
+		shards = new BulkConversionShardTable(database, SHARD_TABLE);
+		executor = Executors.newFixedThreadPool(NODE_COUNT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		for (BulkConversionTestSupport.HoldingConversionService conversionService : conversionServices) {
+			conversionService.destroy();
+		}
+		database.shutdown();
+	}
+
+	@Test
+	public void testPlansShardsOfAboutEqualSize() throws Exception {
+		assertTrue(shards.planShards(SHARD_COUNT, 10));
+		assertFalse(shards.planShards(SHARD_COUNT, 10));
+
+		assertEquals(SHARD_COUNT, shards.countShards());
+		assertEquals(SHARD_COUNT, shards.countShards(BulkConversionShardTable.PENDING));
+		assertNull(getShardColumn(0, "START_AFTER_DOC_HDR_ID"));
+		assertEquals(BulkConversionTestSupport.documentNumber(9), getShardColumn(0, "LAST_DOC_HDR_ID"));
+		assertEquals(BulkConversionTestSupport.documentNumber(9), getShardColumn(1, "START_AFTER_DOC_HDR_ID"));
+		assertEquals(BulkConversionTestSupport.documentNumber(29), getShardColumn(3, "START_AFTER_DOC_HDR_ID"));
+		// The last shard is open-ended, so that it also covers documents created later.
+		assertNull(getShardColumn(3, "LAST_DOC_HDR_ID"));
+	}
+
+	@Test
+	public void testUsesShardsPlannedConcurrentlyByAnotherNode() throws Exception {
+		// Another node inserts its plan, but has not committed it yet when this node starts planning.
+		Connection otherNode = database.getUncountedConnection();
+		try {
+			otherNode.setAutoCommit(false);
+			PreparedStatement insert = otherNode.prepareStatement("INSERT INTO " + SHARD_TABLE + " (SHARD_ID, START_AFTER_DOC_HDR_ID,"
+					+ " LAST_DOC_HDR_ID, STATUS, LEASE_EXPIRES_MS) VALUES (0, NULL, NULL, 'PENDING', 0)");
+			insert.executeUpdate();
+			insert.close();
+
+			Future<Boolean> planned = executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return shards.planShards(SHARD_COUNT, 10);
+				}
+			});
+			// Let this node get as far as waiting on the other node's uncommitted shard row.
+			Thread.sleep(500L);
+			assertFalse(planned.isDone());
+			otherNode.commit();
+
+			assertFalse(planned.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		} finally {
+			otherNode.close();
+		}
+		// The other node's plan stands, and none of this node's plan was left behind.
+		assertEquals(1, shards.countShards());
+	}
+
+	@Test
+	public void testClaimsEachShardOnce() throws Exception {
+		shards.planShards(SHARD_COUNT * 4, 10);
+		int shardCount = shards.countShards();
+		final CyclicBarrier start = new CyclicBarrier(NODE_COUNT);
+		List<Future<List<Integer>>> claimers = new ArrayList<Future<List<Integer>>>();
+		for (int i = 0; i < NODE_COUNT; i++) {
+			final String ownerId = "node-" + i;
+			claimers.add(executor.submit(new Callable<List<Integer>>() {
+				@Override
+				public List<Integer> call() throws Exception {
+					start.await();
+					List<Integer> claimed = new ArrayList<Integer>();
+					BulkConversionShardTable.Shard shard;
+					while ((shard = shards.claimShard(ownerId, LEASE_DURATION_MILLIS)) != null) {
+						claimed.add(shard.getShardId());
+					}
+					return claimed;
+				}
+			}));
+		}
+
+		List<Integer> allClaimed = new ArrayList<Integer>();
+		for (Future<List<Integer>> claimer : claimers) {
+			allClaimed.addAll(claimer.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		}
+		Collections.sort(allClaimed);
+		assertEquals(shardCount, allClaimed.size());
+		assertEquals(shardCount, new HashSet<Integer>(allClaimed).size());
+		assertEquals(shardCount, shards.countShards(BulkConversionShardTable.CLAIMED));
+	}
+
+	@Test
+	public void testReclaimsShardAfterLeaseExpires() throws Exception {
+		shards.planShards(1, 10);
+		BulkConversionShardTable.Shard shard = shards.claimShard("node-0", LEASE_DURATION_MILLIS);
+		assertNotNull(shard);
+		String checkpoint = BulkConversionTestSupport.documentNumber(12);
+		assertTrue(shards.renewLease(shard, "node-0", checkpoint, LEASE_DURATION_MILLIS));
+		// Held under an unexpired lease.
+		assertNull(shards.claimShard("node-1", LEASE_DURATION_MILLIS));
+
+		expireLease(shard.getShardId());
+		BulkConversionShardTable.Shard reclaimed = shards.claimShard("node-1", LEASE_DURATION_MILLIS);
+		assertNotNull(reclaimed);
+		assertEquals(checkpoint, reclaimed.getResumeAfterDocumentNumber());
+		// The old owner finds out that it has lost the shard, and cannot complete or release it.
+		assertFalse(shards.renewLease(shard, "node-0", BulkConversionTestSupport.documentNumber(20), LEASE_DURATION_MILLIS));
+		assertFalse(shards.completeShard(shard, "node-0", null));
+		assertFalse(shards.releaseShard(shard, "node-0", null));
+		assertTrue(shards.completeShard(reclaimed, "node-1", null));
+		assertEquals(1, shards.countShards(BulkConversionShardTable.COMPLETE));
+	}
+
+	@Test
+	public void testNodesShareConversionAndResumeDeadOwnersShard() throws Exception {
+		shards.planShards(SHARD_COUNT, 10);
+		// A node died while converting shard 1, after checkpointing the third of its documents.
+		BulkConversionShardTable.Shard deadShard = claimShard(1, "dead-node");
+		assertTrue(shards.renewLease(deadShard, "dead-node", BulkConversionTestSupport.documentNumber(12), LEASE_DURATION_MILLIS));
+		expireLease(1);
+
+		final CyclicBarrier start = new CyclicBarrier(NODE_COUNT);
+		List<Future<MaintainableXMLBulkConversionJob.Result>> nodes = new ArrayList<Future<MaintainableXMLBulkConversionJob.Result>>();
+		for (int i = 0; i < NODE_COUNT; i++) {
+			final MaintainableXMLBulkConversionJob job = createJob("node-" + i);
+			nodes.add(executor.submit(new Callable<MaintainableXMLBulkConversionJob.Result>() {
+				@Override
+				public MaintainableXMLBulkConversionJob.Result call() throws Exception {
+					start.await();
+					return job.runShards();
+				}
+			}));
+		}
+
+		long readCount = 0L;
+		long completedShardCount = 0L;
+		for (Future<MaintainableXMLBulkConversionJob.Result> node : nodes) {
+			MaintainableXMLBulkConversionJob.Result result = node.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			assertEquals(0L, result.getFailedCount());
+			readCount += result.getReadCount();
+			completedShardCount += result.getCompletedShardCount();
+		}
+		assertEquals(SHARD_COUNT, completedShardCount);
+		assertEquals(SHARD_COUNT, shards.countShards(BulkConversionShardTable.COMPLETE));
+		// Every document was read once, except those the dead node had already checkpointed.
+		assertEquals(DOCUMENT_COUNT - 3, readCount);
+		Set<String> checkpointed = new HashSet<String>();
+		for (int i = 10; i <= 12; i++) {
+			checkpointed.add(BulkConversionTestSupport.documentNumber(i));
+		}
+		for (int i = 0; i < DOCUMENT_COUNT; i++) {
+			String documentNumber = BulkConversionTestSupport.documentNumber(i);
+			assertEquals(documentNumber, !checkpointed.contains(documentNumber),
+					BulkConversionTestSupport.isConverted(database.getContents(documentNumber)));
+		}
+	}
+
+	@Test
+	public void testReportsConversionFailureWhenShardCannotBeReleased() throws Exception {
+		shards.planShards(SHARD_COUNT, 10);
+		MaintainableXMLBulkConversionJob job = createJob("node-0");
+		// The job counts the shards and claims one, and then loses the database as it starts reading the shard.
+		int readerConnection = database.getConnectionCount() + 3;
+		database.failConnectionsAfter(readerConnection - 1);
+
+		try {
+			job.runShards();
+			fail("The run should have failed");
+		} catch (SQLException e) {
+			assertEquals("Simulated failure of connection " + readerConnection, e.getMessage());
+		}
+		// The shard stays claimed until its lease expires, since it could not be released.
+		database.failConnectionsAfter(Integer.MAX_VALUE);
+		assertEquals(1, shards.countShards(BulkConversionShardTable.CLAIMED));
+	}
+
+	private MaintainableXMLBulkConversionJob createJob(String ownerId) throws Exception {
+		BulkConversionTestSupport.HoldingConversionService conversionService = BulkConversionTestSupport.createConversionService();
+		conversionServices.add(conversionService);
+		MaintainableXMLBulkConversionJob job = new MaintainableXMLBulkConversionJob();
+		job.setDataSource(database);
+		job.setConversionService(conversionService);
+		job.setEncryptContents(false);
+		job.setOwnerId(ownerId);
+		job.setShardCount(SHARD_COUNT);
+		job.setShardTable(SHARD_TABLE);
+		job.setLeaseDurationSeconds(LEASE_DURATION_MILLIS / 1000L);
+		job.setWorkerCount(2);
+		job.setBatchSize(3);
+		job.setFetchSize(10);
+		job.setQueueCapacity(4);
+		return job;
+	}
+
+	/*
+	 * Claims the given shard, by claiming shards until it comes up and then handing back the others.
+	 */
+	private BulkConversionShardTable.Shard claimShard(int shardId, String ownerId) throws SQLException {
+		List<BulkConversionShardTable.Shard> others = new ArrayList<BulkConversionShardTable.Shard>();
+		try {
+			BulkConversionShardTable.Shard shard;
+			while ((shard = shards.claimShard(ownerId, LEASE_DURATION_MILLIS)) != null) {
+				if (shard.getShardId() == shardId) {
+					return shard;
+				}
+				others.add(shard);
+			}
+			throw new IllegalStateException("Shard " + shardId + " could not be claimed");
+		} finally {
+			for (BulkConversionShardTable.Shard other : others) {
+				shards.releaseShard(other, ownerId, null);
+			}
+		}
+	}
+
+	private void expireLease(int shardId) throws SQLException {
+		database.execute("UPDATE " + SHARD_TABLE + " SET LEASE_EXPIRES_MS = " + (System.currentTimeMillis() - 1000L)
+				+ " WHERE SHARD_ID = " + shardId);
+	}
+
+	private String getShardColumn(int shardId, String columnName) throws SQLException {
+		Connection connection = database.getUncountedConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT " + columnName + " FROM " + SHARD_TABLE
+					+ " WHERE SHARD_ID = ?");
+			statement.setInt(1, shardId);
+			ResultSet resultSet = statement.executeQuery();
+			String value = resultSet.next() ? resultSet.getString(1) : null;
+			statement.close();
+			return value;
+		} finally {
+			connection.close();
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+
+/**
+ * ====
+ * CU Customization:
+ * Shared setup for the bulk conversion tests: a conversion service with
+ * the default conversion rules, which can hold up one document, and
+ * legacy maintenance document contents to convert.
+ * ====
+ */
+final class BulkConversionTestSupport {
+
+	static final String CONVERSION_RULE_FILE = "/org/kuali/rice/krad/config/MaintainableXMLUpgradeRules.xml";
+	static final String LEGACY_CLASS_NAME = "org.kuali.rice.kns.bo.CountryImpl";
+	static final String CONVERTED_CLASS_NAME = "org.kuali.rice.location.impl.country.CountryBo";
+	// Document numbers are all the same length, so that their string order matches their numeric order.
+	static final int FIRST_DOCUMENT_NUMBER = 1000;
+
+	private BulkConversionTestSupport() {
+	}
+
+	static void initializeConfig() {
+		ConfigContext.init(new JAXBConfigImpl());
+	}
+
+	static HoldingConversionService createConversionService() throws Exception {
+		HoldingConversionService conversionService = new HoldingConversionService();
+		conversionService.setConversionRuleFile(CONVERSION_RULE_FILE);
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.afterPropertiesSet();
+		return conversionService;
+	}
+
+	static String documentNumber(int index) {
+		return String.valueOf(FIRST_DOCUMENT_NUMBER + index);
+	}
+
+	/**
+	 * @return legacy maintenance document contents, whose maintainables are tagged with the document number
+	 */
+	static String legacyDocumentContents(String documentNumber) {
+		String maintainable = "<" + LEGACY_CLASS_NAME + "><code>" + documentNumber + "</code><name>Country " + documentNumber
+				+ "</name></" + LEGACY_CLASS_NAME + "><maintenanceAction>Edit</maintenanceAction>";
+		return "<maintainableDocumentContents maintainableImplClass=\"org.kuali.rice.kns.maintenance.KualiMaintainableImpl\">"
+				+ "<oldMaintainableObject>" + maintainable + "</oldMaintainableObject>"
+				+ "<newMaintainableObject>" + maintainable + "</newMaintainableObject>"
+				+ "</maintainableDocumentContents>";
+	}
+
+	/**
+	 * Inserts the given number of legacy documents, at version number 1.
+	 */
+	static void insertLegacyDocuments(MaintenanceDocumentTestDatabase database, int count) throws SQLException {
+		for (int i = 0; i < count; i++) {
+			String documentNumber = documentNumber(i);
+			database.insertDocument(documentNumber, 1L, legacyDocumentContents(documentNumber));
+		}
+	}
+
+	static boolean isConverted(String contents) {
+		return contents.contains(CONVERTED_CLASS_NAME) && !contents.contains(LEGACY_CLASS_NAME)
+				&& contents.contains("conversionRuleSetVersion=");
+	}
+
+	/**
+	 * A conversion service that can hold the conversion of one document until told to go on, so that the tests can
+	 * control the order in which documents finish.
+	 */
+	static final class HoldingConversionService extends MaintainableXMLConversionServiceImpl {
+		private volatile String heldDocumentNumber;
+		private final CountDownLatch held = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		/**
+		 * Holds the conversion of the given document's maintainables until {@link #release()} is called.
+		 *
+		 * @return a latch that is counted down once the document's conversion has been held
+		 */
+		CountDownLatch hold(String documentNumber) {
+			heldDocumentNumber = documentNumber;
+			return held;
+		}
+
+		void release() {
+			released.countDown();
+		}
+
+		@Override
+		public void transformMaintainableXML(Reader xmlIn, Writer xmlOut) throws XMLStreamException {
+			String xml = read(xmlIn);
+			if (heldDocumentNumber != null && xml.contains("<code>" + heldDocumentNumber + "</code>")) {
+				held.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new XMLStreamException("Interrupted while held");
+				}
+			}
+			super.transformMaintainableXML(new StringReader(xml), xmlOut);
+		}
+
+		private static String read(Reader xmlIn) throws XMLStreamException {
+			StringWriter xml = new StringWriter();
+			char[] buffer = new char[4096];
+			int len;
+			try {
+				while ((len = xmlIn.read(buffer)) != -1) {
+					xml.write(buffer, 0, len);
+				}
+			} catch (IOException e) {
+				throw new XMLStreamException(e);
+			}
+			return xml.toString();
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package org.kuali.rice.krad.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ====
+ * CU Customization:
+ * Tests the bulk conversion job against an embedded database.
+ * ====
+ */
+public class MaintainableXMLBulkConversionJobTest {
+
+	private static final int DOCUMENT_COUNT = 40;
+	private static final long TIMEOUT_MILLIS = 30000L;
+
+	private MaintenanceDocumentTestDatabase database;
+	private BulkConversionTestSupport.HoldingConversionService conversionService;
+	private MaintainableXMLBulkConversionJob job;
+	private File checkpointFile;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		BulkConversionTestSupport.initializeConfig();
+		database = new MaintenanceDocumentTestDatabase();
+		BulkConversionTestSupport.insertLegacyDocuments(database, DOCUMENT_COUNT);
+		conversionService = BulkConversionTestSupport.createConversionService();
+		checkpointFile = File.createTempFile("bulk-conversion-checkpoint", ".properties");
+		checkpointFile.delete();
+		job = new MaintainableXMLBulkConversionJob();
+		job.setDataSource(database);
+		job.setConversionService(conversionService);
+		job.setEncryptContents(false);
+		job.setWorkerCount(3);
+		job.setBatchSize(5);
+		job.setFetchSize(10);
+		job.setQueueCapacity(4);
+		job.setCheckpointFile(checkpointFile.getPath());
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conversionService.release();
+		executor.shutdownNow();
+		conversionService.destroy();
+		database.shutdown();
+		checkpointFile.delete();
+	}
+
+	@Test
+	public void testConvertsAndStampsDocuments() throws Exception {
+		MaintainableXMLBulkConversionJob.Result result = job.run();
+
+		assertEquals(DOCUMENT_COUNT, result.getReadCount());
+		assertEquals(DOCUMENT_COUNT, result.getWrittenCount());
+		assertEquals(0L, result.getFailedCount());
+		assertEquals(lastDocumentNumber(), result.getLastDocumentNumber());
+		assertEquals(lastDocumentNumber(), readCheckpoint());
+		for (int i = 0; i < DOCUMENT_COUNT; i++) {
+			String documentNumber = BulkConversionTestSupport.documentNumber(i);
+			assertTrue(BulkConversionTestSupport.isConverted(database.getContents(documentNumber)));
+			assertEquals(1L, database.getVersionNumber(documentNumber));
+		}
+
+		// A second run, from the start, finds everything already converted.
+		checkpointFile.delete();
+		result = job.run();
+		assertEquals(DOCUMENT_COUNT, result.getAlreadyCurrentCount());
+		assertEquals(0L, result.getWrittenCount());
+	}
+
+	@Test
+	public void testResumesAfterCheckpoint() throws Exception {
+		String resumeAfter = BulkConversionTestSupport.documentNumber(9);
+		writeCheckpoint(resumeAfter);
+
+		MaintainableXMLBulkConversionJob.Result result = job.run();
+
+		assertEquals(resumeAfter, result.getStartAfterDocumentNumber());
+		assertEquals(DOCUMENT_COUNT - 10, result.getReadCount());
+		assertEquals(DOCUMENT_COUNT - 10, result.getWrittenCount());
+		assertFalse(BulkConversionTestSupport.isConverted(database.getContents(resumeAfter)));
+		assertTrue(BulkConversionTestSupport.isConverted(database.getContents(BulkConversionTestSupport.documentNumber(10))));
+		assertEquals(lastDocumentNumber(), readCheckpoint());
+	}
+
+	@Test
+	public void testCheckpointWaitsForEarlierDocuments() throws Exception {
+		String heldDocumentNumber = BulkConversionTestSupport.documentNumber(3);
+		CountDownLatch held = conversionService.hold(heldDocumentNumber);
+		Future<MaintainableXMLBulkConversionJob.Result> run = startRun();
+		assertTrue(held.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+		// Give the other workers time to finish later documents, and the writer to record its progress.
+		awaitConvertedDocument(BulkConversionTestSupport.documentNumber(10));
+		Thread.sleep(1500L);
+		String checkpoint = readCheckpoint();
+		assertTrue("Checkpoint " + checkpoint + " skipped past a document still being converted",
+				checkpoint == null || checkpoint.compareTo(heldDocumentNumber) < 0);
+
+		conversionService.release();
+		MaintainableXMLBulkConversionJob.Result result = run.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertEquals(DOCUMENT_COUNT, result.getWrittenCount());
+		assertEquals(lastDocumentNumber(), readCheckpoint());
+	}
+
+	@Test
+	public void testDryRunCountsWithoutWriting() throws Exception {
+		job.setDryRun(true);
+
+		MaintainableXMLBulkConversionJob.Result result = job.run();
+
+		assertEquals(DOCUMENT_COUNT, result.getReadCount());
+		assertEquals(DOCUMENT_COUNT, result.getWrittenCount());
+		assertEquals(lastDocumentNumber(), result.getLastDocumentNumber());
+		assertFalse(checkpointFile.exists());
+		for (int i = 0; i < DOCUMENT_COUNT; i++) {
+			assertFalse(BulkConversionTestSupport.isConverted(database.getContents(BulkConversionTestSupport.documentNumber(i))));
+		}
+	}
+
+	@Test
+	public void testSkipsDocumentSavedDuringRun() throws Exception {
+		String savedDocumentNumber = BulkConversionTestSupport.documentNumber(3);
+		CountDownLatch held = conversionService.hold(savedDocumentNumber);
+		Future<MaintainableXMLBulkConversionJob.Result> run = startRun();
+		assertTrue(held.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		// Simulate a user's save between the job reading the document and writing it back.
+		database.updateVersionNumber(savedDocumentNumber, 2L);
+		conversionService.release();
+
+		MaintainableXMLBulkConversionJob.Result result = run.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+		assertEquals(1L, result.getStaleCount());
+		assertEquals(DOCUMENT_COUNT - 1, result.getWrittenCount());
+		assertFalse(BulkConversionTestSupport.isConverted(database.getContents(savedDocumentNumber)));
+		assertEquals(2L, database.getVersionNumber(savedDocumentNumber));
+		assertEquals(lastDocumentNumber(), readCheckpoint());
+	}
+
+	@Test
+	public void testRetriesFailedBatchOneDocumentAtATime() throws Exception {
+		String badDocumentNumber = BulkConversionTestSupport.documentNumber(7);
+		database.execute("ALTER TABLE KRNS_MAINT_DOC_T ADD CONSTRAINT REJECT_CONVERSION CHECK (DOC_HDR_ID <> '"
+				+ badDocumentNumber + "' OR DOC_CNTNT NOT LIKE '%conversionRuleSetVersion%')");
+
+		MaintainableXMLBulkConversionJob.Result result = job.run();
+
+		assertEquals(1L, result.getFailedCount());
+		assertEquals(DOCUMENT_COUNT - 1, result.getWrittenCount());
+		assertFalse(BulkConversionTestSupport.isConverted(database.getContents(badDocumentNumber)));
+		// The rest of the failed batch was still written.
+		assertTrue(BulkConversionTestSupport.isConverted(database.getContents(BulkConversionTestSupport.documentNumber(6))));
+		assertTrue(BulkConversionTestSupport.isConverted(database.getContents(BulkConversionTestSupport.documentNumber(8))));
+	}
+
+	@Test
+	public void testFailsPromptlyWhenWriterFails() throws Exception {
+		// The writer fails on recording its first checkpoint, while the reader and workers still have plenty to do.
+		job.setCheckpointFile(new File(checkpointFile.getPath() + ".missing", "checkpoint.properties").getPath());
+		job.setQueueCapacity(1);
+
+		Future<MaintainableXMLBulkConversionJob.Result> run = startRun();
+		try {
+			run.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			fail("The run should have failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FileNotFoundException);
+		}
+	}
+
+	private Future<MaintainableXMLBulkConversionJob.Result> startRun() {
+		return executor.submit(new Callable<MaintainableXMLBulkConversionJob.Result>() {
+			@Override
+			public MaintainableXMLBulkConversionJob.Result call() throws Exception {
+				return job.run();
+			}
+		});
+	}
+
+	private void awaitConvertedDocument(String documentNumber) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!BulkConversionTestSupport.isConverted(database.getContents(documentNumber))) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Document " + documentNumber + " was not converted");
+			}
+			Thread.sleep(10L);
+		}
+	}
+
+	private static String lastDocumentNumber() {
+		return BulkConversionTestSupport.documentNumber(DOCUMENT_COUNT - 1);
+	}
+
+	private String readCheckpoint() throws IOException {
+		if (!checkpointFile.exists()) {
+			return null;
+		}
+		Properties checkpoint = new Properties();
+		InputStream checkpointIn = new FileInputStream(checkpointFile);
+		try {
+			checkpoint.load(checkpointIn);
+		} finally {
+			checkpointIn.close();
+		}
+		return checkpoint.getProperty("lastDocumentNumber");
+	}
+
+	private void writeCheckpoint(String documentNumber) throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("lastDocumentNumber", documentNumber);
+		OutputStream checkpointOut = new FileOutputStream(checkpointFile);
+		try {
+			checkpoint.store(checkpointOut, null);
+		} finally {
+			checkpointOut.close();
+		}
+	}
+
+}
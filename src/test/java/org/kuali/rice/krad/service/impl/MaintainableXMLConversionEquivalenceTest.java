@@ -0,0 +1,195 @@
+package org.kuali.rice.krad.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ====
+ * CU Customization:
+ * Compares the conversion with the compiled rule index against the
+ * conversion as it was before, which looked up the rules file's maps
+ * directly, on hand-written legacy maintainables and on a sample for
+ * each rule in the rules file. Also checks that the pre-scan finds every
+ * maintainable that the conversion changes.
+ * ====
+ */
+public class MaintainableXMLConversionEquivalenceTest {
+
+	private static final String MAINTENANCE_ACTION = "<maintenanceAction>Edit</maintenanceAction>";
+	private static final String SAMPLE_ELEMENT_NAME = "sample";
+
+	private static final String[] LEGACY_MAINTAINABLES = {
+		// Class renames, and the global rules that drop boNotes and autoIncrementSet.
+		"<org.kuali.rice.kns.bo.CountryImpl><code>US</code><name>United States</name><boNotes/>"
+				+ "<autoIncrementSet>false</autoIncrementSet></org.kuali.rice.kns.bo.CountryImpl>",
+		// Class-specific renames, and a TypedArrayList with its list proxy moved into the parent.
+		"<org.kuali.rice.kns.bo.Parameter><parameterNamespaceCode>KFS-SYS</parameterNamespaceCode>"
+				+ "<parameterDetailTypeCode>All</parameterDetailTypeCode><parameterName>SAMPLE</parameterName>"
+				+ "<parameterValue>Y</parameterValue><versionNumber>1</versionNumber>"
+				+ "<campuses class=\"org.kuali.rice.kns.util.TypedArrayList\" serialization=\"custom\"><unserializable-parents/>"
+				+ "<org.kuali.rice.kns.util.TypedArrayList><default><listObjectType>org.kuali.rice.kns.bo.CampusImpl"
+				+ "</listObjectType></default><int>1</int><org.apache.ojb.broker.core.proxy.ListProxyDefaultImpl>"
+				+ "<default><size>1</size></default><int>1</int><org.kuali.rice.kns.bo.CampusImpl><campusCode>BL</campusCode>"
+				+ "<campusName>Bloomington</campusName></org.kuali.rice.kns.bo.CampusImpl>"
+				+ "</org.apache.ojb.broker.core.proxy.ListProxyDefaultImpl></org.kuali.rice.kns.util.TypedArrayList>"
+				+ "</campuses></org.kuali.rice.kns.bo.Parameter>",
+		// A RemovalAwareCollection, whose vector contents are moved up into the collection.
+		"<org.kuali.rice.kns.bo.CampusTypeImpl><campusTypeCode>B</campusTypeCode>"
+				+ "<campuses class=\"org.apache.ojb.broker.util.collections.RemovalAwareCollection\" serialization=\"custom\">"
+				+ "<unserializable-parents/><vector><default><capacityIncrement>0</capacityIncrement>"
+				+ "<elementCount>2</elementCount><elementData><org.kuali.rice.kns.bo.CampusImpl><campusCode>BL</campusCode>"
+				+ "</org.kuali.rice.kns.bo.CampusImpl><org.kuali.rice.kns.bo.CampusImpl><campusCode>IN</campusCode>"
+				+ "</org.kuali.rice.kns.bo.CampusImpl><null/><null/></elementData></default></vector>"
+				+ "<org.apache.ojb.broker.util.collections.RemovalAwareCollection><default><allObjectsToBeDeleted/></default>"
+				+ "</org.apache.ojb.broker.util.collections.RemovalAwareCollection></campuses>"
+				+ "</org.kuali.rice.kns.bo.CampusTypeImpl>",
+		// A string map, whose keys and values are paired up into entries.
+		"<org.kuali.rice.kim.bo.impl.GenericPermission><permissionId>1</permissionId><details class=\"map\">"
+				+ "<string>namespaceCode</string><string>KFS-SYS</string><string>componentName</string><string>All</string>"
+				+ "</details><attributes><map><string>a</string><string>1</string></map></attributes>"
+				+ "</org.kuali.rice.kim.bo.impl.GenericPermission>",
+		// Date-only values, next to one that is already complete.
+		"<org.kuali.rice.kns.bo.Namespace><namespaceCode>KFS-SYS</namespaceCode><activeFromDate>2010-05-09</activeFromDate>"
+				+ "<activeToDate>2011-05-09 00:00:00 GMT-08:00</activeToDate></org.kuali.rice.kns.bo.Namespace>",
+		// A date-only value in an otherwise current maintainable.
+		"<org.kuali.rice.coreservice.impl.parameter.ParameterBo><namespaceCode>KFS-SYS</namespaceCode>"
+				+ "<fromDateValue>2010-05-09</fromDateValue></org.kuali.rice.coreservice.impl.parameter.ParameterBo>",
+		// Dropped attributes, and escaped text.
+		"<org.kuali.rice.kns.bo.KualiCodeBase><code>A</code><name>A &amp; B &lt;C&gt;</name>"
+				+ "<items class=\"org.apache.ojb.broker.util.collections.ManageableArrayList\"><string>x</string></items>"
+				+ "<holder serialization=\"custom\"><value>1</value></holder></org.kuali.rice.kns.bo.KualiCodeBase>"
+	};
+
+	private static final String[] CURRENT_MAINTAINABLES = {
+		"<org.kuali.rice.location.impl.country.CountryBo><code>US</code><name>United States</name><active>true</active>"
+				+ "</org.kuali.rice.location.impl.country.CountryBo>",
+		"<org.kuali.rice.coreservice.impl.parameter.ParameterBo><namespaceCode>KFS-SYS</namespaceCode>"
+				+ "<componentCode>All</componentCode><name>SAMPLE</name><value>Y</value>"
+				+ "<fromDateValue>2010-05-09 00:00:00.0</fromDateValue><toDateValue></toDateValue>"
+				+ "</org.kuali.rice.coreservice.impl.parameter.ParameterBo>",
+		"<org.kuali.rice.kim.impl.permission.GenericPermissionBo><details><entry><string>namespaceCode</string>"
+				+ "<string>KFS-SYS</string></entry></details><activeFromDate>2010-05-09 00:00:00 GMT-08:00</activeFromDate>"
+				+ "</org.kuali.rice.kim.impl.permission.GenericPermissionBo>"
+	};
+
+	private MaintainableXMLConversionServiceImpl conversionService;
+	private BaselineMaintainableXMLConverter baselineConverter;
+	private BaselineMaintainableXMLConverter copyingConverter;
+
+	@Before
+	public void setUp() throws Exception {
+		BulkConversionTestSupport.initializeConfig();
+		conversionService = new MaintainableXMLConversionServiceImpl();
+		conversionService.setConversionRuleFile(BulkConversionTestSupport.CONVERSION_RULE_FILE);
+		conversionService.setCacheMaxBytes(0L);
+		conversionService.setFormatOutput(false);
+		conversionService.afterPropertiesSet();
+		baselineConverter = new BaselineMaintainableXMLConverter(BulkConversionTestSupport.CONVERSION_RULE_FILE);
+		copyingConverter = new BaselineMaintainableXMLConverter();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conversionService.destroy();
+	}
+
+	@Test
+	public void testConvertsLegacyMaintainablesAsBefore() throws Exception {
+		for (String maintainable : LEGACY_MAINTAINABLES) {
+			assertConvertsAsBefore(maintainable + MAINTENANCE_ACTION);
+		}
+	}
+
+	@Test
+	public void testConvertsRuleSamplesAsBefore() throws Exception {
+		for (String sample : createRuleSamples()) {
+			assertConvertsAsBefore(sample);
+		}
+	}
+
+	@Test
+	public void testLeavesCurrentMaintainablesAsBefore() throws Exception {
+		for (String maintainable : CURRENT_MAINTAINABLES) {
+			String xml = maintainable + MAINTENANCE_ACTION;
+			assertConvertsAsBefore(xml);
+			assertEquals(xml, conversionService.transformMaintainableXML(xml));
+		}
+	}
+
+	@Test
+	public void testPreScanFindsConvertedMaintainables() throws Exception {
+		List<String> samples = createRuleSamples();
+		for (String maintainable : LEGACY_MAINTAINABLES) {
+			samples.add(maintainable + MAINTENANCE_ACTION);
+		}
+		int convertedCount = 0;
+		for (String xml : samples) {
+			// Compare against a plain copy, so that only the rules count as a change.
+			if (!copyingConverter.convert(xml).equals(baselineConverter.convert(xml))) {
+				assertTrue(xml, conversionService.isConversionNeeded(xml));
+				convertedCount++;
+			}
+		}
+		assertTrue(convertedCount > samples.size() / 2);
+	}
+
+	@Test
+	public void testPreScanPassesOverCurrentMaintainables() throws Exception {
+		for (String maintainable : CURRENT_MAINTAINABLES) {
+			assertFalse(maintainable, conversionService.isConversionNeeded(maintainable + MAINTENANCE_ACTION));
+		}
+	}
+
+	private void assertConvertsAsBefore(String xml) throws Exception {
+		assertEquals(xml, baselineConverter.convert(xml), conversionService.transformMaintainableXML(xml));
+	}
+
+	/*
+	 * Creates a maintainable for each rule in the rules file, with the rule's key in each of the places where it applies.
+	 */
+	private List<String> createRuleSamples() {
+		List<String> samples = new ArrayList<String>();
+		for (Map.Entry<String, Map<String, String>> classEntry : baselineConverter.getClassPropertyRuleMap().entrySet()) {
+			String className = classEntry.getKey();
+			boolean isGlobal = "*".equals(className);
+			for (String key : classEntry.getValue().keySet()) {
+				List<String> contents = new ArrayList<String>();
+				if (key.endsWith(ConversionRuleIndex.ATTR_INDICATOR)) {
+					String attributeName = key.substring(0, key.length() - ConversionRuleIndex.ATTR_INDICATOR.length());
+					String attributes = "class".equals(attributeName) ? "" : " " + attributeName + "=\"a\"";
+					contents.add("<holder" + (isGlobal ? "" : " class=\"" + className + "\"") + attributes
+							+ " other=\"b\"><value>1</value></holder>");
+				} else {
+					String keyContents = "<" + key + "><value>1</value></" + key + "><" + key + ">2</" + key + ">"
+							+ "<holder class=\"" + key + "\"><value>3</value></holder>";
+					contents.add(isGlobal ? keyContents : "<holder class=\"" + className + "\">" + keyContents + "</holder>");
+					if (!isGlobal) {
+						contents.add("<" + className + ">" + keyContents + "</" + className + ">");
+					}
+				}
+				for (String content : contents) {
+					samples.add(createSample(content));
+				}
+			}
+		}
+		for (String key : baselineConverter.getDateRuleMap().keySet()) {
+			samples.add(createSample("<" + key + ">2010-05-09</" + key + ">"));
+			samples.add(createSample("<" + key + ">2010-05-09 00:00:00.0</" + key + "><" + key + "/>"));
+		}
+		return samples;
+	}
+
+	private static String createSample(String content) {
+		return "<" + SAMPLE_ELEMENT_NAME + ">" + content + "</" + SAMPLE_ELEMENT_NAME + ">" + MAINTENANCE_ACTION;
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.kuali.rice.krad.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kuali.rice.core.api.config.property.ConfigContext;
+import org.kuali.rice.core.impl.config.property.JAXBConfigImpl;
+
+/**
+ * ====
+ * CU Customization:
+ * Tests the batched write-back of converted maintainable XML against an
+ * embedded database.
+ * ====
+ */
+public class MaintainableXMLWriteBackServiceImplTest {
+
+	private static final String OLD_XML = "<old/>";
+	private static final long TIMEOUT_MILLIS = 10000L;
+
+	private MaintenanceDocumentTestDatabase database;
+	private MaintainableXMLWriteBackServiceImpl writeBackService;
+
+	@Before
+	public void setUp() throws Exception {
+		ConfigContext.init(new JAXBConfigImpl());
+		database = new MaintenanceDocumentTestDatabase();
+		writeBackService = new MaintainableXMLWriteBackServiceImpl();
+		writeBackService.setEnabled(true);
+		writeBackService.setEncryptContents(false);
+		writeBackService.setDataSource(database);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.releaseConnection();
+		writeBackService.destroy();
+		database.shutdown();
+	}
+
+	@Test
+	public void testWritesQueuedDocumentsInBatches() throws Exception {
+		for (int i = 1; i <= 7; i++) {
+			database.insertDocument(String.valueOf(i), 1L, OLD_XML);
+		}
+		writeBackService.setBatchSize(3);
+		// Long enough that only a full batch, or shutting down, causes a write.
+		writeBackService.setFlushIntervalMillis(TIMEOUT_MILLIS);
+		writeBackService.afterPropertiesSet();
+
+		for (int i = 1; i <= 7; i++) {
+			assertTrue(writeBackService.queueWriteBack(String.valueOf(i), Long.valueOf(1L), "<new" + i + "/>"));
+		}
+		awaitWrittenCount(6L);
+		writeBackService.destroy();
+
+		assertEquals(7L, writeBackService.getWrittenCount());
+		assertEquals(3, database.getConnectionCount());
+		for (int i = 1; i <= 7; i++) {
+			assertEquals("<new" + i + "/>", database.getContents(String.valueOf(i)));
+			// The write-back must not change the version number, or it would break a user's concurrent save.
+			assertEquals(1L, database.getVersionNumber(String.valueOf(i)));
+		}
+	}
+
+	@Test
+	public void testSkipsDocumentSavedSinceLoad() throws Exception {
+		database.insertDocument("1", 1L, OLD_XML);
+		database.insertDocument("2", 1L, OLD_XML);
+		startWriteBackService();
+
+		database.updateVersionNumber("1", 2L);
+		writeBackService.queueWriteBack("1", Long.valueOf(1L), "<stale/>");
+		writeBackService.queueWriteBack("2", Long.valueOf(1L), "<new/>");
+		awaitProcessedCount(2L);
+
+		assertEquals(1L, writeBackService.getStaleCount());
+		assertEquals(1L, writeBackService.getWrittenCount());
+		assertEquals(OLD_XML, database.getContents("1"));
+		assertEquals(2L, database.getVersionNumber("1"));
+		assertEquals("<new/>", database.getContents("2"));
+	}
+
+	@Test
+	public void testRetriesFailedBatch() throws Exception {
+		database.insertDocument("1", 1L, OLD_XML);
+		startWriteBackService();
+
+		database.failConnections(1);
+		writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>");
+		awaitProcessedCount(1L);
+
+		assertEquals(1L, writeBackService.getWrittenCount());
+		assertEquals(0L, writeBackService.getFailedCount());
+		assertEquals(2, database.getConnectionCount());
+		assertEquals("<new/>", database.getContents("1"));
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() throws Exception {
+		database.insertDocument("1", 1L, OLD_XML);
+		writeBackService.setMaxAttempts(2);
+		startWriteBackService();
+
+		database.failConnections(Integer.MAX_VALUE);
+		writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>");
+		awaitProcessedCount(1L);
+
+		assertEquals(1L, writeBackService.getFailedCount());
+		assertEquals(0L, writeBackService.getWrittenCount());
+		assertEquals(2, database.getConnectionCount());
+		assertEquals(OLD_XML, database.getContents("1"));
+	}
+
+	@Test
+	public void testQueuesDocumentOnlyOnce() throws Exception {
+		database.insertDocument("1", 1L, OLD_XML);
+		writeBackService.setFlushIntervalMillis(TIMEOUT_MILLIS);
+		writeBackService.afterPropertiesSet();
+
+		assertTrue(writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>"));
+		assertTrue(writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>"));
+		writeBackService.destroy();
+
+		assertEquals(1L, writeBackService.getWrittenCount());
+		assertEquals(1, database.getConnectionCount());
+	}
+
+	@Test
+	public void testRejectsWriteBackWhenQueueIsFull() throws Exception {
+		writeBackService.setQueueCapacity(1);
+		writeBackService.setBatchSize(1);
+		writeBackService.setFlushIntervalMillis(TIMEOUT_MILLIS);
+		writeBackService.afterPropertiesSet();
+		// Keep the worker busy with the first write-back, so that the second fills the queue.
+		CountDownLatch connectionRequested = database.holdNextConnection();
+
+		assertTrue(writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>"));
+		assertTrue(connectionRequested.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertTrue(writeBackService.queueWriteBack("2", Long.valueOf(1L), "<new/>"));
+		assertFalse(writeBackService.queueWriteBack("3", Long.valueOf(1L), "<new/>"));
+		assertEquals(1L, writeBackService.getRejectedCount());
+	}
+
+	@Test
+	public void testDestroyDoesNotDrainQueueWhileWorkerIsWriting() throws Exception {
+		database.insertDocument("1", 1L, OLD_XML);
+		database.insertDocument("2", 1L, OLD_XML);
+		startWriteBackService();
+		CountDownLatch connectionRequested = database.holdNextConnection();
+
+		writeBackService.queueWriteBack("1", Long.valueOf(1L), "<new/>");
+		assertTrue(connectionRequested.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		writeBackService.queueWriteBack("2", Long.valueOf(1L), "<new/>");
+		writeBackService.destroy();
+
+		// The worker is still writing the first batch, so the queued write-back must be left alone.
+		assertEquals(1, database.getConnectionCount());
+		assertEquals(1, writeBackService.getQueueSize());
+		database.releaseConnection();
+		awaitProcessedCount(1L);
+		assertEquals("<new/>", database.getContents("1"));
+		assertEquals(OLD_XML, database.getContents("2"));
+	}
+
+	private void startWriteBackService() throws Exception {
+		writeBackService.setBatchSize(1);
+		writeBackService.setFlushIntervalMillis(50L);
+		writeBackService.afterPropertiesSet();
+	}
+
+	private void awaitWrittenCount(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (writeBackService.getWrittenCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(count, writeBackService.getWrittenCount());
+	}
+
+	private void awaitProcessedCount(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (getProcessedCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(count, getProcessedCount());
+	}
+
+	private long getProcessedCount() {
+		return writeBackService.getWrittenCount() + writeBackService.getStaleCount() + writeBackService.getFailedCount();
+	}
+
+}
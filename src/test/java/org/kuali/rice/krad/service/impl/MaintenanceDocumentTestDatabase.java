@@ -0,0 +1,228 @@
+package org.kuali.rice.krad.service.impl;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * ====
+ * CU Customization:
+ * An embedded H2 database holding a maintenance document table, for
+ * testing the JDBC write-back and bulk conversion. Each instance is a
+ * separate in-memory database, which lives until it is shut down.
+ *
+ * The DataSource counts the connections handed out, and can be told to
+ * fail them, or to hold the next one until it is released, so that the
+ * tests can exercise the retry and shutdown paths.
+ * ====
+ */
+final class MaintenanceDocumentTestDatabase implements DataSource {
+
+	private static final AtomicInteger databaseCount = new AtomicInteger();
+
+	private final JdbcDataSource dataSource;
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final AtomicInteger failuresLeft = new AtomicInteger();
+	private volatile int lastWorkingConnection = Integer.MAX_VALUE;
+	private volatile CountDownLatch connectionRequested;
+	private volatile CountDownLatch connectionReleased;
+
+	MaintenanceDocumentTestDatabase() throws SQLException {
+		dataSource = new JdbcDataSource();
+		// Wait for row locks as long as a test might, since the bulk conversion nodes contend for the same shard rows.
+		dataSource.setURL("jdbc:h2:mem:maintdoc" + databaseCount.incrementAndGet() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=30000");
+		execute("CREATE TABLE KRNS_MAINT_DOC_T (DOC_HDR_ID VARCHAR(14) NOT NULL PRIMARY KEY, OBJ_ID VARCHAR(36),"
+				+ " VER_NBR DECIMAL(8), DOC_CNTNT CLOB)");
+	}
+
+	/**
+	 * Creates the bulk conversion lease table, as documented in the readme.
+	 */
+	void createShardTable(String tableName) throws SQLException {
+		execute("CREATE TABLE " + tableName + " (SHARD_ID DECIMAL(8) NOT NULL PRIMARY KEY, START_AFTER_DOC_HDR_ID VARCHAR(14),"
+				+ " LAST_DOC_HDR_ID VARCHAR(14), CHECKPOINT_DOC_HDR_ID VARCHAR(14), STATUS VARCHAR(10) NOT NULL,"
+				+ " OWNER_ID VARCHAR(100), LEASE_EXPIRES_MS DECIMAL(19) NOT NULL)");
+	}
+
+	Connection getUncountedConnection() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+	void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			statement.execute(sql);
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	void insertDocument(String documentNumber, long versionNumber, String contents) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement(
+					"INSERT INTO KRNS_MAINT_DOC_T (DOC_HDR_ID, OBJ_ID, VER_NBR, DOC_CNTNT) VALUES (?, ?, ?, ?)");
+			statement.setString(1, documentNumber);
+			statement.setString(2, "obj-" + documentNumber);
+			statement.setLong(3, versionNumber);
+			statement.setString(4, contents);
+			statement.executeUpdate();
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	void updateVersionNumber(String documentNumber, long versionNumber) throws SQLException {
+		execute("UPDATE KRNS_MAINT_DOC_T SET VER_NBR = " + versionNumber + " WHERE DOC_HDR_ID = '" + documentNumber + "'");
+	}
+
+	String getContents(String documentNumber) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT DOC_CNTNT FROM KRNS_MAINT_DOC_T WHERE DOC_HDR_ID = ?");
+			statement.setString(1, documentNumber);
+			ResultSet resultSet = statement.executeQuery();
+			String contents = resultSet.next() ? resultSet.getString(1) : null;
+			statement.close();
+			return contents;
+		} finally {
+			connection.close();
+		}
+	}
+
+	long getVersionNumber(String documentNumber) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement("SELECT VER_NBR FROM KRNS_MAINT_DOC_T WHERE DOC_HDR_ID = ?");
+			statement.setString(1, documentNumber);
+			ResultSet resultSet = statement.executeQuery();
+			long versionNumber = resultSet.next() ? resultSet.getLong(1) : -1L;
+			statement.close();
+			return versionNumber;
+		} finally {
+			connection.close();
+		}
+	}
+
+	void shutdown() throws SQLException {
+		execute("SHUTDOWN");
+	}
+
+	/**
+	 * @return the number of connections requested so far, including failed ones
+	 */
+	int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * Makes the next requests for a connection fail.
+	 */
+	void failConnections(int count) {
+		failuresLeft.set(count);
+	}
+
+	/**
+	 * Makes every request for a connection fail once the given number of connections have been requested in all.
+	 */
+	void failConnectionsAfter(int connectionCount) {
+		lastWorkingConnection = connectionCount;
+	}
+
+	/**
+	 * Makes the next request for a connection wait until {@link #releaseConnection()} is called.
+	 *
+	 * @return a latch that is counted down once the connection has been requested
+	 */
+	CountDownLatch holdNextConnection() {
+		connectionReleased = new CountDownLatch(1);
+		connectionRequested = new CountDownLatch(1);
+		return connectionRequested;
+	}
+
+	void releaseConnection() {
+		if (connectionReleased != null) {
+			connectionReleased.countDown();
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		int connectionNumber = connectionCount.incrementAndGet();
+		CountDownLatch requested = connectionRequested;
+		if (requested != null) {
+			connectionRequested = null;
+			requested.countDown();
+			// Ignore interrupts while held, as a driver blocked on the network would.
+			boolean interrupted = false;
+			while (true) {
+				try {
+					connectionReleased.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (connectionNumber > lastWorkingConnection || failuresLeft.getAndDecrement() > 0) {
+			throw new SQLException("Simulated failure of connection " + connectionNumber);
+		}
+		return dataSource.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection();
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLException("Not a wrapper");
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return false;
+	}
+
+}